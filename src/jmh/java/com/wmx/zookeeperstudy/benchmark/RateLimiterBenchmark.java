@@ -0,0 +1,102 @@
+package com.wmx.zookeeperstudy.benchmark;
+
+import com.wmx.zookeeperstudy.zk.limit.DistributedRateLimiter;
+import com.wmx.zookeeperstudy.zk.limit.DistributedSemaphore;
+import com.wmx.zookeeperstudy.zk.watch.WatchManager;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.retry.RetryOneTime;
+import org.apache.curator.test.TestingServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 分布式限流、信号量的 JMH 基准测试：16 个线程同时获取许可，测量本地判定的吞吐量
+ * 1、unsaturated：总速率远大于请求速率，每次都通过，测量 CAS 更新 tat 的竞争开销
+ * 2、saturated：总速率很小，几乎每次都被拒绝，拒绝路径只读不写
+ * 3、semaphore：获取后立即释放
+ * 4、运行：mvn -P benchmark test-compile exec:exec，结果写入 target/jmh-result.json
+ *
+ * @author wangMaoXiong
+ * @version 1.0
+ * @date 2020/9/20 22:00
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Threads(16)
+@Fork(1)
+public class RateLimiterBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class LimiterState {
+        TestingServer server;
+        CuratorFramework client;
+        WatchManager watchManager;
+        DistributedRateLimiter unsaturated;
+        DistributedRateLimiter saturated;
+        DistributedSemaphore semaphore;
+
+        @Setup(Level.Trial)
+        public void setup() throws Exception {
+            server = new TestingServer(true);
+            client = CuratorFrameworkFactory.builder()
+                    .connectString(server.getConnectString())
+                    .retryPolicy(new RetryOneTime(1000))
+                    .namespace("basic-service")
+                    .build();
+            client.start();
+            client.blockUntilConnected();
+            watchManager = new WatchManager(client);
+            unsaturated = new DistributedRateLimiter(client, watchManager, "/limits/unsaturated", 1e12, 1);
+            unsaturated.start();
+            saturated = new DistributedRateLimiter(client, watchManager, "/limits/saturated", 100, 1);
+            saturated.start();
+            semaphore = new DistributedSemaphore(client, watchManager, "/limits/semaphore", 1000);
+            semaphore.start();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws Exception {
+            unsaturated.close();
+            saturated.close();
+            semaphore.close();
+            watchManager.close();
+            client.close();
+            server.close();
+        }
+    }
+
+    @Benchmark
+    public boolean unsaturated(LimiterState state) {
+        return state.unsaturated.tryAcquire();
+    }
+
+    @Benchmark
+    public boolean saturated(LimiterState state) {
+        return state.saturated.tryAcquire();
+    }
+
+    @Benchmark
+    public boolean semaphore(LimiterState state) {
+        boolean acquired = state.semaphore.tryAcquire();
+        if (acquired) {
+            state.semaphore.release();
+        }
+        return acquired;
+    }
+}
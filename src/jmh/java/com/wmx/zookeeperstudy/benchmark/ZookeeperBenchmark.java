@@ -0,0 +1,293 @@
+package com.wmx.zookeeperstudy.benchmark;
+
+import com.wmx.zookeeperstudy.zk.async.AsyncZkClient;
+import com.wmx.zookeeperstudy.zk.batch.NodeBatch;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.retry.RetryOneTime;
+import org.apache.curator.test.TestingServer;
+import org.apache.zookeeper.CreateMode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * CuratorUtils 各个操作的 JMH 基准测试，使用进程内的 TestingServer，不依赖外部 ZK 服务器
+ * 1、CuratorUtils 的方法会打印到控制台，这里直接使用与其完全相同的 Curator 调用，避免输出影响测量结果
+ * 2、同时测量吞吐量（Throughput）和延迟分布（SampleTime，结果中包含 p50/p90/p99/p99.9 等百分位）
+ * 3、payloadSize 扫描节点数据大小，childCount 扫描子节点个数
+ * 4、创建、获取数据、修改数据、删除都有同步和异步两个版本，异步版本一次调用流水线发送 ASYNC_BATCH 个请求
+ * 5、运行：mvn -P benchmark test-compile exec:exec，结果写入 target/jmh-result.json
+ *
+ * @author wangMaoXiong
+ * @version 1.0
+ * @date 2020/8/20 20:10
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ZookeeperBenchmark {
+
+    /**
+     * 异步创建时，每次调用流水线发送的请求数
+     */
+    private static final int ASYNC_BATCH = 100;
+
+    /**
+     * 整个基准测试共用一个服务器和一个客户端
+     */
+    @State(Scope.Benchmark)
+    public static class ZkState {
+        TestingServer server;
+        CuratorFramework client;
+        AsyncZkClient async;
+        final AtomicLong sequence = new AtomicLong();
+
+        @Setup(Level.Trial)
+        public void setup() throws Exception {
+            server = new TestingServer(true);
+            client = CuratorFrameworkFactory.builder()
+                    .connectString(server.getConnectString())
+                    .retryPolicy(new RetryOneTime(1000))
+                    .namespace("basic-service")
+                    .build();
+            client.start();
+            client.blockUntilConnected();
+            async = new AsyncZkClient(client);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws Exception {
+            client.close();
+            server.close();
+        }
+
+        String nextPath(String parent) {
+            return parent + "/node" + sequence.incrementAndGet();
+        }
+    }
+
+    /**
+     * 节点数据大小
+     * 只有 Trial 级别的 setup 注入 ZkState，Iteration 级别的 cleanUp 使用保存的引用：
+     * 同一个依赖状态的两个不同级别的方法都注入 ZkState 时，JMH 1.23 生成的代码会重复定义变量，无法编译
+     */
+    @State(Scope.Benchmark)
+    public static class PayloadState {
+        @Param({"16", "1024", "65536"})
+        int payloadSize;
+        byte[] payload;
+        ZkState zk;
+
+        @Setup(Level.Trial)
+        public void setup(ZkState zk) throws Exception {
+            this.zk = zk;
+            payload = new byte[payloadSize];
+            zk.client.create().creatingParentsIfNeeded().forPath("/payload/" + payloadSize, payload);
+            zk.client.create().creatingParentsIfNeeded().forPath("/create/" + payloadSize);
+        }
+
+        @TearDown(Level.Iteration)
+        public void cleanUp() throws Exception {
+            //每轮结束后清理创建的节点，避免节点越来越多影响后面的测量
+            for (String child : zk.client.getChildren().forPath("/create/" + payloadSize)) {
+                zk.client.delete().forPath("/create/" + payloadSize + "/" + child);
+            }
+        }
+    }
+
+    /**
+     * 子节点个数
+     */
+    @State(Scope.Benchmark)
+    public static class TreeState {
+        @Param({"10", "100", "1000"})
+        int childCount;
+        String parent;
+
+        @Setup(Level.Trial)
+        public void setup(ZkState zk) throws Exception {
+            parent = "/tree/" + childCount;
+            zk.client.create().creatingParentsIfNeeded().forPath(parent);
+            NodeBatch batch = new NodeBatch(zk.client);
+            for (int i = 0; i < childCount; i++) {
+                batch.create(parent + "/child" + i, new byte[16], CreateMode.PERSISTENT);
+            }
+            batch.commit();
+        }
+    }
+
+    /**
+     * 每次调用前准备一个待删除的节点
+     */
+    @State(Scope.Thread)
+    public static class DeleteState {
+        String path;
+
+        @Setup(Level.Invocation)
+        public void setup(ZkState zk) throws Exception {
+            path = zk.client.create().creatingParentsIfNeeded().forPath(zk.nextPath("/delete"));
+        }
+    }
+
+    /**
+     * 每次调用前准备 ASYNC_BATCH 个待删除的节点，一个事务创建
+     */
+    @State(Scope.Thread)
+    public static class AsyncDeleteState {
+        final String[] paths = new String[ASYNC_BATCH];
+
+        @Setup(Level.Invocation)
+        public void setup(ZkState zk) throws Exception {
+            String parent = zk.nextPath("/delete-async");
+            zk.client.create().creatingParentsIfNeeded().forPath(parent);
+            NodeBatch batch = new NodeBatch(zk.client);
+            for (int i = 0; i < ASYNC_BATCH; i++) {
+                paths[i] = parent + "/child" + i;
+                batch.create(paths[i], null, CreateMode.PERSISTENT);
+            }
+            batch.commit();
+        }
+    }
+
+    /**
+     * 每次调用前准备一棵待级联删除的子树
+     */
+    @State(Scope.Thread)
+    public static class CascadeState {
+        @Param({"10", "100"})
+        int cascadeChildren;
+        String path;
+
+        @Setup(Level.Invocation)
+        public void setup(ZkState zk) throws Exception {
+            path = zk.nextPath("/cascade");
+            zk.client.create().creatingParentsIfNeeded().forPath(path);
+            NodeBatch batch = new NodeBatch(zk.client);
+            for (int i = 0; i < cascadeChildren; i++) {
+                batch.create(path + "/child" + i, new byte[16], CreateMode.PERSISTENT);
+            }
+            batch.commit();
+        }
+    }
+
+    /**
+     * createNode2：同步创建
+     */
+    @Benchmark
+    public String createSync(ZkState zk, PayloadState payload) throws Exception {
+        return zk.client.create().withMode(CreateMode.PERSISTENT)
+                .forPath(zk.nextPath("/create/" + payload.payloadSize), payload.payload);
+    }
+
+    /**
+     * createNode4：异步创建，一次调用流水线发送 ASYNC_BATCH 个请求
+     */
+    @Benchmark
+    @OperationsPerInvocation(ASYNC_BATCH)
+    public void createAsync(ZkState zk, PayloadState payload) throws Exception {
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[ASYNC_BATCH];
+        for (int i = 0; i < ASYNC_BATCH; i++) {
+            futures[i] = zk.async.create(zk.nextPath("/create/" + payload.payloadSize), payload.payload, CreateMode.PERSISTENT)
+                    .toCompletableFuture();
+        }
+        CompletableFuture.allOf(futures).get();
+    }
+
+    /**
+     * getNodeData1：同步获取数据
+     */
+    @Benchmark
+    public byte[] getData(ZkState zk, PayloadState payload) throws Exception {
+        return zk.client.getData().forPath("/payload/" + payload.payloadSize);
+    }
+
+    /**
+     * 异步获取数据，一次调用流水线发送 ASYNC_BATCH 个请求
+     */
+    @Benchmark
+    @OperationsPerInvocation(ASYNC_BATCH)
+    public void getDataAsync(ZkState zk, PayloadState payload) throws Exception {
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[ASYNC_BATCH];
+        for (int i = 0; i < ASYNC_BATCH; i++) {
+            futures[i] = zk.async.getData("/payload/" + payload.payloadSize).toCompletableFuture();
+        }
+        CompletableFuture.allOf(futures).get();
+    }
+
+    /**
+     * updateNodeData1：同步修改数据
+     */
+    @Benchmark
+    public Object setData(ZkState zk, PayloadState payload) throws Exception {
+        return zk.client.setData().withVersion(-1).forPath("/payload/" + payload.payloadSize, payload.payload);
+    }
+
+    /**
+     * 异步修改数据，一次调用流水线发送 ASYNC_BATCH 个请求
+     */
+    @Benchmark
+    @OperationsPerInvocation(ASYNC_BATCH)
+    public void setDataAsync(ZkState zk, PayloadState payload) throws Exception {
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[ASYNC_BATCH];
+        for (int i = 0; i < ASYNC_BATCH; i++) {
+            futures[i] = zk.async.setData("/payload/" + payload.payloadSize, payload.payload, -1).toCompletableFuture();
+        }
+        CompletableFuture.allOf(futures).get();
+    }
+
+    /**
+     * getChildrenNode：获取子节点
+     */
+    @Benchmark
+    public List<String> getChildren(ZkState zk, TreeState tree) throws Exception {
+        return zk.client.getChildren().forPath(tree.parent);
+    }
+
+    /**
+     * deleteNode1：删除单个节点
+     */
+    @Benchmark
+    public void delete(ZkState zk, DeleteState state) throws Exception {
+        zk.client.delete().forPath(state.path);
+    }
+
+    /**
+     * 异步删除单个节点，一次调用流水线发送 ASYNC_BATCH 个请求
+     */
+    @Benchmark
+    @OperationsPerInvocation(ASYNC_BATCH)
+    public void deleteAsync(ZkState zk, AsyncDeleteState state) throws Exception {
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[ASYNC_BATCH];
+        for (int i = 0; i < ASYNC_BATCH; i++) {
+            futures[i] = zk.async.delete(state.paths[i], -1).toCompletableFuture();
+        }
+        CompletableFuture.allOf(futures).get();
+    }
+
+    /**
+     * deleteNode3：deletingChildrenIfNeeded 级联删除
+     */
+    @Benchmark
+    public void deleteCascade(ZkState zk, CascadeState state) throws Exception {
+        zk.client.delete().guaranteed().deletingChildrenIfNeeded().withVersion(-1).forPath(state.path);
+    }
+}
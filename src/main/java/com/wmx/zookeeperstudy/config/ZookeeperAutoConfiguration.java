@@ -0,0 +1,329 @@
+package com.wmx.zookeeperstudy.config;
+
+import com.wmx.zookeeperstudy.zk.CuratorClientRegistry;
+import com.wmx.zookeeperstudy.zk.CuratorUtils;
+import com.wmx.zookeeperstudy.zk.async.AsyncZkClient;
+import com.wmx.zookeeperstudy.zk.async.WriteCoalescer;
+import com.wmx.zookeeperstudy.zk.batch.RecursiveDeleter;
+import com.wmx.zookeeperstudy.zk.cache.NodeDataCache;
+import com.wmx.zookeeperstudy.zk.cache.PersistentNodeCache;
+import com.wmx.zookeeperstudy.zk.connection.AdaptiveRetryPolicy;
+import com.wmx.zookeeperstudy.zk.connection.ConnectionStateManager;
+import com.wmx.zookeeperstudy.zk.env.PropertiesRefresher;
+import com.wmx.zookeeperstudy.zk.env.ZookeeperPropertySource;
+import com.wmx.zookeeperstudy.zk.leader.LeaderScheduler;
+import com.wmx.zookeeperstudy.zk.lock.DistributedLockService;
+import com.wmx.zookeeperstudy.zk.metrics.LeaderMetrics;
+import com.wmx.zookeeperstudy.zk.metrics.LockMetrics;
+import com.wmx.zookeeperstudy.zk.metrics.ZookeeperMetrics;
+import com.wmx.zookeeperstudy.zk.registry.ServiceDiscovery;
+import com.wmx.zookeeperstudy.zk.registry.ServiceRegistry;
+import com.wmx.zookeeperstudy.zk.watch.WatchManager;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.curator.RetryPolicy;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.framework.state.ConnectionStateListener;
+import org.apache.curator.retry.ExponentialBackoffRetry;
+import org.apache.curator.retry.RetryForever;
+import org.apache.curator.utils.ThreadUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.ConfigurableEnvironment;
+import org.springframework.core.env.MutablePropertySources;
+
+import java.lang.management.ManagementFactory;
+import java.nio.file.Paths;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ZooKeeper 客户端自动配置
+ * 1、根据 {@link ZookeeperProperties} 创建单例的 {@link CuratorFramework}，并注册到 {@link CuratorClientRegistry} 中共享
+ * 2、启动时阻塞等待客户端连接成功（最多 startupTimeoutMs 毫秒），避免应用启动后第一批请求卡在半连接的客户端上；
+ * 超时后 failFast=false（默认）时只打印警告、客户端在后台继续重连，连不上服务器时应用照样启动
+ * 3、容器关闭时，注册表统一关闭客户端
+ * 4、通过 META-INF/spring.factories 注册为自动配置（不参与组件扫描），所有 bean 都是 @ConditionalOnMissingBean，
+ * 锁、合并写、服务注册发现、leader 选举、缓存、配置源等可选功能由 zookeeper.*.enabled 开关控制，默认关闭
+ *
+ * @author wangMaoXiong
+ * @version 1.0
+ * @date 2020/8/13 20:05
+ */
+@Configuration
+@EnableConfigurationProperties(ZookeeperProperties.class)
+public class ZookeeperAutoConfiguration {
+
+    private static final Logger logger = LoggerFactory.getLogger(ZookeeperAutoConfiguration.class);
+
+    /**
+     * 将共享客户端注册表交给 Spring 管理，容器关闭时自动关闭所有 ZK 客户端
+     */
+    @Bean(destroyMethod = "closeAll")
+    public CuratorClientRegistry curatorClientRegistry() {
+        return CuratorClientRegistry.getInstance();
+    }
+
+    /**
+     * 处理后台回调、监听器通知的线程池
+     */
+    @Bean(destroyMethod = "shutdown")
+    @ConditionalOnMissingBean(name = "zookeeperExecutor")
+    public ExecutorService zookeeperExecutor(ZookeeperProperties properties) {
+        return ThreadUtils.newFixedThreadPool(properties.getExecutorThreads(), "zookeeper-executor");
+    }
+
+    /**
+     * 根据配置创建重试策略
+     */
+    @Bean
+    @ConditionalOnMissingBean
+    public RetryPolicy zookeeperRetryPolicy(ZookeeperProperties properties) {
+        ZookeeperProperties.Retry retry = properties.getRetry();
+        if (retry.getType() == ZookeeperProperties.RetryType.FOREVER) {
+            return new RetryForever(retry.getRetryIntervalMs());
+        }
+        if (retry.getType() == ZookeeperProperties.RetryType.ADAPTIVE) {
+            return new AdaptiveRetryPolicy(retry.getBaseSleepTimeMs(), retry.getMaxSleepMs(), retry.getMaxRetries(),
+                    retry.getMaxElapsedMs(), retry.isFailFastWhileDisconnected());
+        }
+        return new ExponentialBackoffRetry(retry.getBaseSleepTimeMs(), retry.getMaxRetries(), retry.getMaxSleepMs());
+    }
+
+    /**
+     * 单例客户端。start() 是异步的，这里在返回之前阻塞等待连接成功，最多等待 startupTimeoutMs 毫秒
+     * 容器关闭时由 {@link CuratorClientRegistry#closeAll()} 统一关闭
+     * 重试策略同时是连接状态监听器时（如 {@link AdaptiveRetryPolicy}），注册到客户端上
+     */
+    @Bean(destroyMethod = "")
+    @ConditionalOnMissingBean
+    public CuratorFramework curatorFramework(ZookeeperProperties properties, RetryPolicy retryPolicy,
+                                             CuratorClientRegistry registry,
+                                             @Qualifier("zookeeperExecutor") ExecutorService executor) throws InterruptedException {
+        CuratorFramework client = registry.getClient(properties.getConnectString(), properties.getNamespace(), () -> CuratorFrameworkFactory
+                .builder()
+                .connectString(properties.getConnectString())
+                .sessionTimeoutMs(properties.getSessionTimeoutMs())
+                .connectionTimeoutMs(properties.getConnectionTimeoutMs())
+                .retryPolicy(retryPolicy)
+                .namespace(properties.getNamespace())
+                .canBeReadOnly(properties.getConnection().isCanBeReadOnly())
+                .runSafeService(executor)
+                .build());
+        if (retryPolicy instanceof ConnectionStateListener) {
+            client.getConnectionStateListenable().addListener((ConnectionStateListener) retryPolicy);
+        }
+        if (properties.getStartupTimeoutMs() > 0) {
+            logger.info("等待连接 ZooKeeper【{}】，最多 {} 毫秒......", properties.getConnectString(), properties.getStartupTimeoutMs());
+            boolean connected = client.blockUntilConnected(properties.getStartupTimeoutMs(), TimeUnit.MILLISECONDS);
+            if (!connected) {
+                if (properties.isFailFast()) {
+                    throw new IllegalStateException("连接 ZooKeeper 超时：" + properties.getConnectString());
+                }
+                logger.warn("连接 ZooKeeper【{}】超时，客户端将在后台继续重连", properties.getConnectString());
+            }
+        }
+        CuratorUtils.setClient(client);
+        return client;
+    }
+
+    /**
+     * 异步客户端，future 在 zookeeperExecutor 线程池上完成，不占用 ZooKeeper 事件线程
+     */
+    @Bean
+    @ConditionalOnMissingBean
+    public AsyncZkClient asyncZkClient(CuratorFramework client, ZookeeperProperties properties,
+                                       @Qualifier("zookeeperExecutor") ExecutorService executor) {
+        return new AsyncZkClient(client, properties.getMaxInFlight(), executor);
+    }
+
+    /**
+     * 并行级联删除器，无状态，所有递归删除共用
+     */
+    @Bean
+    @ConditionalOnMissingBean
+    public RecursiveDeleter recursiveDeleter(CuratorFramework client) {
+        return new RecursiveDeleter(client, 4, 200);
+    }
+
+    /**
+     * 永久监听管理器
+     */
+    @Bean(destroyMethod = "close")
+    @ConditionalOnMissingBean
+    public WatchManager watchManager(CuratorFramework client, ZookeeperProperties properties) {
+        ZookeeperProperties.Watch watch = properties.getWatch();
+        WatchManager watchManager = new WatchManager(client, watch.getThreads(), watch.getQueueCapacity());
+        CuratorUtils.setWatchManager(watchManager);
+        return watchManager;
+    }
+
+    /**
+     * 分布式锁服务，同一个 JVM 内的线程在本地合并排队，zookeeper.lock.enabled=true 时才注册
+     */
+    @Bean(destroyMethod = "close")
+    @ConditionalOnMissingBean
+    @ConditionalOnProperty(prefix = "zookeeper.lock", name = "enabled", havingValue = "true")
+    public DistributedLockService distributedLockService(CuratorFramework client, ZookeeperProperties properties) {
+        ZookeeperProperties.Lock lock = properties.getLock();
+        DistributedLockService lockService = new DistributedLockService(client, lock.getRootPath(), lock.getMaxHandoffs());
+        CuratorUtils.setLockService(lockService);
+        return lockService;
+    }
+
+    /**
+     * 合并写，见 CuratorUtils.updateNodeData4，zookeeper.write.enabled=true 时才注册
+     */
+    @Bean(destroyMethod = "close")
+    @ConditionalOnMissingBean
+    @ConditionalOnProperty(prefix = "zookeeper.write", name = "enabled", havingValue = "true")
+    public WriteCoalescer writeCoalescer(CuratorFramework client, ZookeeperProperties properties) {
+        WriteCoalescer coalescer = new WriteCoalescer(client, properties.getWrite().getCoalesceWindowMs());
+        CuratorUtils.setWriteCoalescer(coalescer);
+        return coalescer;
+    }
+
+    /**
+     * 服务注册（提供方），容器关闭时注销本进程注册的所有实例，zookeeper.registry.enabled=true 时才开启
+     */
+    @Bean(destroyMethod = "close")
+    @ConditionalOnMissingBean
+    @ConditionalOnProperty(prefix = "zookeeper.registry", name = "enabled", havingValue = "true")
+    public ServiceRegistry serviceRegistry(CuratorFramework client, ZookeeperProperties properties) {
+        return new ServiceRegistry(client, properties.getRegistry().getBasePath());
+    }
+
+    /**
+     * 服务发现（消费方），启动时全量加载，之后由永久监听增量更新，zookeeper.registry.enabled=true 时才开启
+     */
+    @Bean(initMethod = "start", destroyMethod = "close")
+    @ConditionalOnMissingBean
+    @ConditionalOnProperty(prefix = "zookeeper.registry", name = "enabled", havingValue = "true")
+    public ServiceDiscovery serviceDiscovery(CuratorFramework client, WatchManager watchManager, ZookeeperProperties properties) {
+        return new ServiceDiscovery(client, watchManager, properties.getRegistry().getBasePath());
+    }
+
+    /**
+     * leader 选举 + leader 任务调度器，zookeeper.leader.enabled=true 时才参与选举
+     * 参与者 id 默认为 RuntimeMXBean 的名称，即 进程号@主机名
+     */
+    @Bean(initMethod = "start", destroyMethod = "close")
+    @ConditionalOnMissingBean
+    @ConditionalOnProperty(prefix = "zookeeper.leader", name = "enabled", havingValue = "true")
+    public LeaderScheduler leaderScheduler(CuratorFramework client, ZookeeperProperties properties) {
+        ZookeeperProperties.Leader leader = properties.getLeader();
+        String participantId = leader.getParticipantId() == null || leader.getParticipantId().isEmpty()
+                ? ManagementFactory.getRuntimeMXBean().getName() : leader.getParticipantId();
+        return new LeaderScheduler(client, leader.getLatchPath(), participantId, leader.getThreads());
+    }
+
+    /**
+     * 连接状态管理器，断线期间的读取按 zookeeper.connection.suspended-mode 处理
+     * SERVE_FROM_CACHE 需要同时开启 zookeeper.cache，否则等同于 FAIL_FAST
+     */
+    @Bean(initMethod = "start", destroyMethod = "close")
+    @ConditionalOnMissingBean
+    public ConnectionStateManager connectionStateManager(CuratorFramework client, ObjectProvider<NodeDataCache> nodeDataCache,
+                                                         ZookeeperProperties properties) {
+        ZookeeperProperties.Connection connection = properties.getConnection();
+        ConnectionStateManager manager = new ConnectionStateManager(client, connection.getSuspendedMode(),
+                nodeDataCache.getIfAvailable(), connection.getWaitMs());
+        CuratorUtils.setConnectionStateManager(manager);
+        return manager;
+    }
+
+    /**
+     * 节点数据本地缓存，zookeeper.cache.enabled=true 时才开启
+     */
+    @Bean(initMethod = "start", destroyMethod = "close")
+    @ConditionalOnMissingBean
+    @ConditionalOnProperty(prefix = "zookeeper.cache", name = "enabled", havingValue = "true")
+    public NodeDataCache nodeDataCache(CuratorFramework client, ZookeeperProperties properties) {
+        ZookeeperProperties.Cache cache = properties.getCache();
+        NodeDataCache nodeDataCache = new NodeDataCache(client, cache.getRootPath(), cache.getMaxSize());
+        CuratorUtils.setNodeDataCache(nodeDataCache);
+        return nodeDataCache;
+    }
+
+    /**
+     * 持久化子树缓存，zookeeper.persistent-cache.enabled=true 时才开启
+     */
+    @Bean(initMethod = "start", destroyMethod = "close")
+    @ConditionalOnMissingBean
+    @ConditionalOnProperty(prefix = "zookeeper.persistent-cache", name = "enabled", havingValue = "true")
+    public PersistentNodeCache persistentNodeCache(CuratorFramework client, WatchManager watchManager, ZookeeperProperties properties) {
+        ZookeeperProperties.PersistentCache cache = properties.getPersistentCache();
+        return new PersistentNodeCache(client, watchManager, cache.getRootPath(), Paths.get(cache.getFile()), cache.getSyncIntervalMs());
+    }
+
+    /**
+     * ZooKeeper 配置源，zookeeper.config.enabled=true 时才开启：启动时加载并加入 Environment（优先级最高），
+     * 替换 {@link ZookeeperPropertySourceInitializer} 在容器启动前加入的快照，变化时重新绑定 @ConfigurationProperties bean，见 {@link PropertiesRefresher}
+     */
+    @Bean(destroyMethod = "close")
+    @ConditionalOnMissingBean
+    @ConditionalOnProperty(prefix = "zookeeper.config", name = "enabled", havingValue = "true")
+    public ZookeeperPropertySource zookeeperPropertySource(CuratorFramework client, WatchManager watchManager,
+                                                           ZookeeperProperties properties, ConfigurableEnvironment environment) throws Exception {
+        ZookeeperProperties.Config config = properties.getConfig();
+        ZookeeperPropertySource propertySource = new ZookeeperPropertySource(client, watchManager, config.getRootPath(), config.getDebounceMs());
+        propertySource.start();
+        MutablePropertySources sources = environment.getPropertySources();
+        if (sources.contains(ZookeeperPropertySource.NAME)) {
+            sources.replace(ZookeeperPropertySource.NAME, propertySource);
+        } else {
+            sources.addFirst(propertySource);
+        }
+        return propertySource;
+    }
+
+    @Bean
+    @ConditionalOnMissingBean
+    @ConditionalOnProperty(prefix = "zookeeper.config", name = "enabled", havingValue = "true")
+    public PropertiesRefresher propertiesRefresher(ZookeeperPropertySource propertySource, ApplicationContext context,
+                                                   ConfigurableEnvironment environment) {
+        return new PropertiesRefresher(propertySource, context, environment);
+    }
+
+    /**
+     * 引入了 Micrometer（spring-boot-starter-actuator）时注册 ZooKeeper 指标，
+     * MeterBinder 类型的 bean 会被 Actuator 自动绑定到 MeterRegistry
+     */
+    @Configuration
+    @ConditionalOnClass(MeterRegistry.class)
+    static class ZookeeperMetricsConfiguration {
+
+        @Bean
+        @ConditionalOnMissingBean
+        public ZookeeperMetrics zookeeperMetrics(CuratorFramework client, ObjectProvider<AsyncZkClient> asyncZkClient,
+                                                 ZookeeperProperties properties) {
+            ZookeeperMetrics metrics = new ZookeeperMetrics(client, asyncZkClient.getIfAvailable(),
+                    properties.getMetrics().getPathDepth());
+            CuratorUtils.setMetrics(metrics);
+            return metrics;
+        }
+
+        @Bean
+        @ConditionalOnMissingBean
+        @ConditionalOnProperty(prefix = "zookeeper.lock", name = "enabled", havingValue = "true")
+        public LockMetrics lockMetrics(DistributedLockService lockService) {
+            return new LockMetrics(lockService);
+        }
+
+        @Bean
+        @ConditionalOnMissingBean
+        @ConditionalOnProperty(prefix = "zookeeper.leader", name = "enabled", havingValue = "true")
+        public LeaderMetrics leaderMetrics(LeaderScheduler leaderScheduler) {
+            return new LeaderMetrics(leaderScheduler);
+        }
+    }
+}
@@ -0,0 +1,693 @@
+package com.wmx.zookeeperstudy.config;
+
+import com.wmx.zookeeperstudy.zk.connection.ConnectionStateManager;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * ZooKeeper 客户端配置，对应 application.properties 中 zookeeper.* 开头的配置项
+ *
+ * @author wangMaoXiong
+ * @version 1.0
+ * @date 2020/8/13 19:40
+ */
+@ConfigurationProperties(prefix = "zookeeper")
+public class ZookeeperProperties {
+    /**
+     * 服务器连接地址，多个服务器进行集群时，用逗号隔开，如：192.168.44.41:2181,192.168.44.42:2181,192.168.44.43:2181
+     */
+    private String connectString = "192.168.116.128:2181";
+    /**
+     * 命名空间，所有路径都会创建在此命名空间下面
+     */
+    private String namespace = "basic-service";
+    /**
+     * 会话超时时间，时间单位为毫秒
+     */
+    private int sessionTimeoutMs = 10000;
+    /**
+     * 连接超时时间，时间单位为毫秒
+     */
+    private int connectionTimeoutMs = 10000;
+    /**
+     * 应用启动时等待客户端连接成功的最长时间（毫秒），小于等于 0 时不等待，客户端在后台连接
+     */
+    private int startupTimeoutMs = 15000;
+    /**
+     * 启动等待超时后是否直接启动失败，为 false 时只打印警告，客户端继续在后台重连
+     */
+    private boolean failFast = false;
+    /**
+     * 处理后台回调、监听器通知的线程数
+     */
+    private int executorThreads = 2;
+    /**
+     * 异步客户端同时在途的最大请求数，超过时调用线程阻塞等待
+     */
+    private int maxInFlight = 1000;
+    /**
+     * 重试策略
+     */
+    private Retry retry = new Retry();
+    /**
+     * 节点数据本地缓存
+     */
+    private Cache cache = new Cache();
+    /**
+     * Micrometer 指标
+     */
+    private Metrics metrics = new Metrics();
+    /**
+     * 永久监听管理器
+     */
+    private Watch watch = new Watch();
+    /**
+     * 分布式锁
+     */
+    private Lock lock = new Lock();
+    /**
+     * 服务注册与发现
+     */
+    private Registry registry = new Registry();
+    /**
+     * leader 选举
+     */
+    private Leader leader = new Leader();
+    /**
+     * 连接状态管理
+     */
+    private Connection connection = new Connection();
+    /**
+     * 持久化子树缓存（内存映射文件）
+     */
+    private PersistentCache persistentCache = new PersistentCache();
+    /**
+     * ZooKeeper 配置源（PropertySource）
+     */
+    private Config config = new Config();
+    /**
+     * 合并写
+     */
+    private Write write = new Write();
+
+    public static class Retry {
+        /**
+         * 重试策略类型
+         */
+        private RetryType type = RetryType.EXPONENTIAL_BACKOFF;
+        /**
+         * EXPONENTIAL_BACKOFF：重试之间等待的初始时间量（毫秒）
+         */
+        private int baseSleepTimeMs = 1000;
+        /**
+         * EXPONENTIAL_BACKOFF：最大重试次数
+         */
+        private int maxRetries = 5;
+        /**
+         * EXPONENTIAL_BACKOFF：每次重试的最大睡眠时间（毫秒）
+         */
+        private int maxSleepMs = Integer.MAX_VALUE;
+        /**
+         * FOREVER：每次重试的时间间隔（毫秒）
+         */
+        private int retryIntervalMs = 60 * 1000;
+        /**
+         * ADAPTIVE：一次操作（包括所有重试）的最长总耗时（毫秒）
+         */
+        private long maxElapsedMs = 30 * 1000;
+        /**
+         * ADAPTIVE：连接断开（SUSPENDED、LOST）期间是否不再重试，直接失败
+         * 默认关闭：短暂的网络抖动（服务器切换、GC 停顿）期间操作继续重试，开启前需要确认调用方都能处理断线时立即抛出的异常
+         */
+        private boolean failFastWhileDisconnected = false;
+
+        public RetryType getType() {
+            return type;
+        }
+
+        public void setType(RetryType type) {
+            this.type = type;
+        }
+
+        public int getBaseSleepTimeMs() {
+            return baseSleepTimeMs;
+        }
+
+        public void setBaseSleepTimeMs(int baseSleepTimeMs) {
+            this.baseSleepTimeMs = baseSleepTimeMs;
+        }
+
+        public int getMaxRetries() {
+            return maxRetries;
+        }
+
+        public void setMaxRetries(int maxRetries) {
+            this.maxRetries = maxRetries;
+        }
+
+        public int getMaxSleepMs() {
+            return maxSleepMs;
+        }
+
+        public void setMaxSleepMs(int maxSleepMs) {
+            this.maxSleepMs = maxSleepMs;
+        }
+
+        public int getRetryIntervalMs() {
+            return retryIntervalMs;
+        }
+
+        public void setRetryIntervalMs(int retryIntervalMs) {
+            this.retryIntervalMs = retryIntervalMs;
+        }
+
+        public long getMaxElapsedMs() {
+            return maxElapsedMs;
+        }
+
+        public void setMaxElapsedMs(long maxElapsedMs) {
+            this.maxElapsedMs = maxElapsedMs;
+        }
+
+        public boolean isFailFastWhileDisconnected() {
+            return failFastWhileDisconnected;
+        }
+
+        public void setFailFastWhileDisconnected(boolean failFastWhileDisconnected) {
+            this.failFastWhileDisconnected = failFastWhileDisconnected;
+        }
+    }
+
+    public static class Cache {
+        /**
+         * 是否开启节点数据本地缓存，默认关闭
+         */
+        private boolean enabled = false;
+        /**
+         * 被缓存的子树根路径
+         */
+        private String rootPath = "/";
+        /**
+         * 最大缓存条数，超出时按 LRU 淘汰
+         */
+        private int maxSize = 10000;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public String getRootPath() {
+            return rootPath;
+        }
+
+        public void setRootPath(String rootPath) {
+            this.rootPath = rootPath;
+        }
+
+        public int getMaxSize() {
+            return maxSize;
+        }
+
+        public void setMaxSize(int maxSize) {
+            this.maxSize = maxSize;
+        }
+    }
+
+    public static class Metrics {
+        /**
+         * 指标 path 标签取路径的前几级，级数越多标签基数越大
+         */
+        private int pathDepth = 1;
+
+        public int getPathDepth() {
+            return pathDepth;
+        }
+
+        public void setPathDepth(int pathDepth) {
+            this.pathDepth = pathDepth;
+        }
+    }
+
+    public static class Watch {
+        /**
+         * 分发监听事件的线程数，为 1 时同一个监听器收到的事件有序
+         */
+        private int threads = 1;
+        /**
+         * 待分发事件队列的最大长度，超出时事件被丢弃，并给监听器补发 RESET 事件
+         */
+        private int queueCapacity = 10000;
+
+        public int getThreads() {
+            return threads;
+        }
+
+        public void setThreads(int threads) {
+            this.threads = threads;
+        }
+
+        public int getQueueCapacity() {
+            return queueCapacity;
+        }
+
+        public void setQueueCapacity(int queueCapacity) {
+            this.queueCapacity = queueCapacity;
+        }
+    }
+
+    public static class Lock {
+        /**
+         * 是否开启分布式锁服务 bean（关闭时 CuratorUtils 的锁方法按默认配置懒加载），默认关闭
+         */
+        private boolean enabled = false;
+        /**
+         * 所有锁节点的父路径
+         */
+        private String rootPath = "/locks";
+        /**
+         * 持有 ZK 锁时最多连续在本地线程之间交接的次数，之后强制释放，避免其它进程饿死
+         */
+        private int maxHandoffs = 16;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public String getRootPath() {
+            return rootPath;
+        }
+
+        public void setRootPath(String rootPath) {
+            this.rootPath = rootPath;
+        }
+
+        public int getMaxHandoffs() {
+            return maxHandoffs;
+        }
+
+        public void setMaxHandoffs(int maxHandoffs) {
+            this.maxHandoffs = maxHandoffs;
+        }
+    }
+
+    public static class Registry {
+        /**
+         * 是否开启服务注册与发现，默认关闭
+         */
+        private boolean enabled = false;
+        /**
+         * 服务根路径，实例节点为 {basePath}/{服务名称}/{实例 id}
+         */
+        private String basePath = "/services";
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public String getBasePath() {
+            return basePath;
+        }
+
+        public void setBasePath(String basePath) {
+            this.basePath = basePath;
+        }
+    }
+
+    public static class Leader {
+        /**
+         * 是否参与 leader 选举并启用 leader 任务调度器
+         */
+        private boolean enabled = false;
+        /**
+         * 选举路径
+         */
+        private String latchPath = "/leader";
+        /**
+         * 参与者 id，为空时使用 主机名 + 进程号
+         */
+        private String participantId;
+        /**
+         * 执行 leader 任务的线程数
+         */
+        private int threads = 1;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public String getLatchPath() {
+            return latchPath;
+        }
+
+        public void setLatchPath(String latchPath) {
+            this.latchPath = latchPath;
+        }
+
+        public String getParticipantId() {
+            return participantId;
+        }
+
+        public void setParticipantId(String participantId) {
+            this.participantId = participantId;
+        }
+
+        public int getThreads() {
+            return threads;
+        }
+
+        public void setThreads(int threads) {
+            this.threads = threads;
+        }
+    }
+
+    public static class Connection {
+        /**
+         * 集群失去多数派时是否允许连接只读模式的服务器（服务器需要开启 readonlymode.enabled）
+         */
+        private boolean canBeReadOnly = false;
+        /**
+         * 连接断开期间读取的处理方式：FAIL_FAST、SERVE_FROM_CACHE（需要开启 zookeeper.cache）、WAIT
+         */
+        private ConnectionStateManager.SuspendedMode suspendedMode = ConnectionStateManager.SuspendedMode.FAIL_FAST;
+        /**
+         * WAIT：最多等待连接恢复的时间（毫秒）
+         */
+        private long waitMs = 3000;
+
+        public boolean isCanBeReadOnly() {
+            return canBeReadOnly;
+        }
+
+        public void setCanBeReadOnly(boolean canBeReadOnly) {
+            this.canBeReadOnly = canBeReadOnly;
+        }
+
+        public ConnectionStateManager.SuspendedMode getSuspendedMode() {
+            return suspendedMode;
+        }
+
+        public void setSuspendedMode(ConnectionStateManager.SuspendedMode suspendedMode) {
+            this.suspendedMode = suspendedMode;
+        }
+
+        public long getWaitMs() {
+            return waitMs;
+        }
+
+        public void setWaitMs(long waitMs) {
+            this.waitMs = waitMs;
+        }
+    }
+
+    public static class PersistentCache {
+        /**
+         * 是否开启持久化子树缓存，默认关闭
+         */
+        private boolean enabled = false;
+        /**
+         * 被缓存的子树根路径
+         */
+        private String rootPath = "/";
+        /**
+         * 映射文件路径
+         */
+        private String file = "./data/zk-node-cache.dat";
+        /**
+         * 后台同步的间隔（毫秒）
+         */
+        private long syncIntervalMs = 1000;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public String getRootPath() {
+            return rootPath;
+        }
+
+        public void setRootPath(String rootPath) {
+            this.rootPath = rootPath;
+        }
+
+        public String getFile() {
+            return file;
+        }
+
+        public void setFile(String file) {
+            this.file = file;
+        }
+
+        public long getSyncIntervalMs() {
+            return syncIntervalMs;
+        }
+
+        public void setSyncIntervalMs(long syncIntervalMs) {
+            this.syncIntervalMs = syncIntervalMs;
+        }
+    }
+
+    public static class Config {
+        /**
+         * 是否把 ZooKeeper 子树作为 Spring 配置源，默认关闭
+         */
+        private boolean enabled = false;
+        /**
+         * 配置根路径，每个子节点是一个配置项
+         */
+        private String rootPath = "/config";
+        /**
+         * 防抖时间（毫秒），连续的修改只触发一次刷新
+         */
+        private long debounceMs = 200;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public String getRootPath() {
+            return rootPath;
+        }
+
+        public void setRootPath(String rootPath) {
+            this.rootPath = rootPath;
+        }
+
+        public long getDebounceMs() {
+            return debounceMs;
+        }
+
+        public void setDebounceMs(long debounceMs) {
+            this.debounceMs = debounceMs;
+        }
+    }
+
+    public static class Write {
+        /**
+         * 是否开启合并写 bean（关闭时 CuratorUtils.updateNodeData4 按默认窗口懒加载），默认关闭
+         */
+        private boolean enabled = false;
+        /**
+         * 合并窗口（毫秒），同一路径在窗口期内的多次 setData 只发送最后一次
+         */
+        private long coalesceWindowMs = 50;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public long getCoalesceWindowMs() {
+            return coalesceWindowMs;
+        }
+
+        public void setCoalesceWindowMs(long coalesceWindowMs) {
+            this.coalesceWindowMs = coalesceWindowMs;
+        }
+    }
+
+    /**
+     * EXPONENTIAL_BACKOFF：{@link org.apache.curator.retry.ExponentialBackoffRetry}
+     * FOREVER：{@link org.apache.curator.retry.RetryForever}
+     * ADAPTIVE：{@link com.wmx.zookeeperstudy.zk.connection.AdaptiveRetryPolicy}
+     */
+    public enum RetryType {
+        EXPONENTIAL_BACKOFF, FOREVER, ADAPTIVE
+    }
+
+    public String getConnectString() {
+        return connectString;
+    }
+
+    public void setConnectString(String connectString) {
+        this.connectString = connectString;
+    }
+
+    public String getNamespace() {
+        return namespace;
+    }
+
+    public void setNamespace(String namespace) {
+        this.namespace = namespace;
+    }
+
+    public int getSessionTimeoutMs() {
+        return sessionTimeoutMs;
+    }
+
+    public void setSessionTimeoutMs(int sessionTimeoutMs) {
+        this.sessionTimeoutMs = sessionTimeoutMs;
+    }
+
+    public int getConnectionTimeoutMs() {
+        return connectionTimeoutMs;
+    }
+
+    public void setConnectionTimeoutMs(int connectionTimeoutMs) {
+        this.connectionTimeoutMs = connectionTimeoutMs;
+    }
+
+    public int getStartupTimeoutMs() {
+        return startupTimeoutMs;
+    }
+
+    public void setStartupTimeoutMs(int startupTimeoutMs) {
+        this.startupTimeoutMs = startupTimeoutMs;
+    }
+
+    public boolean isFailFast() {
+        return failFast;
+    }
+
+    public void setFailFast(boolean failFast) {
+        this.failFast = failFast;
+    }
+
+    public int getExecutorThreads() {
+        return executorThreads;
+    }
+
+    public void setExecutorThreads(int executorThreads) {
+        this.executorThreads = executorThreads;
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    public void setMaxInFlight(int maxInFlight) {
+        this.maxInFlight = maxInFlight;
+    }
+
+    public Retry getRetry() {
+        return retry;
+    }
+
+    public void setRetry(Retry retry) {
+        this.retry = retry;
+    }
+    public Cache getCache() {
+        return cache;
+    }
+
+    public void setCache(Cache cache) {
+        this.cache = cache;
+    }
+
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    public void setMetrics(Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public Watch getWatch() {
+        return watch;
+    }
+
+    public void setWatch(Watch watch) {
+        this.watch = watch;
+    }
+
+    public Lock getLock() {
+        return lock;
+    }
+
+    public void setLock(Lock lock) {
+        this.lock = lock;
+    }
+
+    public Registry getRegistry() {
+        return registry;
+    }
+
+    public void setRegistry(Registry registry) {
+        this.registry = registry;
+    }
+
+    public Leader getLeader() {
+        return leader;
+    }
+
+    public void setLeader(Leader leader) {
+        this.leader = leader;
+    }
+
+    public Connection getConnection() {
+        return connection;
+    }
+
+    public void setConnection(Connection connection) {
+        this.connection = connection;
+    }
+
+    public PersistentCache getPersistentCache() {
+        return persistentCache;
+    }
+
+    public void setPersistentCache(PersistentCache persistentCache) {
+        this.persistentCache = persistentCache;
+    }
+
+    public Config getConfig() {
+        return config;
+    }
+
+    public void setConfig(Config config) {
+        this.config = config;
+    }
+
+    public Write getWrite() {
+        return write;
+    }
+
+    public void setWrite(Write write) {
+        this.write = write;
+    }
+}
@@ -0,0 +1,72 @@
+package com.wmx.zookeeperstudy.config;
+
+import com.wmx.zookeeperstudy.zk.env.ZookeeperPropertySource;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.retry.ExponentialBackoffRetry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.context.ApplicationContextInitializer;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.core.env.ConfigurableEnvironment;
+import org.springframework.core.env.MapPropertySource;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 在容器创建任何 bean 之前把 ZooKeeper 配置的快照加入 Environment（优先级最高），通过 META-INF/spring.factories 注册
+ * 1、ZookeeperPropertySource 是自动配置中的 bean，加入 Environment 时其它 bean 可能已经创建，@Value 和占位符读不到 ZooKeeper 中的值，
+ * 这里在 bean 定义加载之前用一个临时客户端读取一次配置，以同名的 MapPropertySource 加入 Environment
+ * 2、自动配置中的 ZookeeperPropertySource 启动后替换这份快照，之后的变化由它负责（只重新绑定 @ConfigurationProperties bean）
+ * 3、只有 zookeeper.config.enabled=true 时才加载；最多等待 startupTimeoutMs 连接成功，超时后 failFast=true 时启动失败，否则只打印警告、跳过快照
+ *
+ * @author wangMaoXiong
+ * @version 1.0
+ * @date 2020/9/19 10:20
+ */
+public class ZookeeperPropertySourceInitializer implements ApplicationContextInitializer<ConfigurableApplicationContext> {
+
+    private static final Logger logger = LoggerFactory.getLogger(ZookeeperPropertySourceInitializer.class);
+
+    @Override
+    public void initialize(ConfigurableApplicationContext context) {
+        ConfigurableEnvironment environment = context.getEnvironment();
+        ZookeeperProperties properties = Binder.get(environment).bind("zookeeper", ZookeeperProperties.class)
+                .orElseGet(ZookeeperProperties::new);
+        if (!properties.getConfig().isEnabled() || environment.getPropertySources().contains(ZookeeperPropertySource.NAME)) {
+            return;
+        }
+        String rootPath = properties.getConfig().getRootPath();
+        ZookeeperProperties.Retry retry = properties.getRetry();
+        CuratorFramework client = CuratorFrameworkFactory.builder()
+                .connectString(properties.getConnectString())
+                .sessionTimeoutMs(properties.getSessionTimeoutMs())
+                .connectionTimeoutMs(properties.getConnectionTimeoutMs())
+                .retryPolicy(new ExponentialBackoffRetry(retry.getBaseSleepTimeMs(), retry.getMaxRetries(), retry.getMaxSleepMs()))
+                .namespace(properties.getNamespace())
+                .build();
+        try {
+            client.start();
+            int timeoutMs = properties.getStartupTimeoutMs() > 0 ? properties.getStartupTimeoutMs() : properties.getConnectionTimeoutMs();
+            if (!client.blockUntilConnected(timeoutMs, TimeUnit.MILLISECONDS)) {
+                throw new IllegalStateException("连接 ZooKeeper 超时：" + properties.getConnectString());
+            }
+            Map<String, Object> values = new HashMap<>(ZookeeperPropertySource.load(client, rootPath));
+            environment.getPropertySources().addFirst(new MapPropertySource(ZookeeperPropertySource.NAME, values));
+            logger.info("启动前加载配置【{}】：{} 个配置项", rootPath, values.size());
+        } catch (Exception e) {
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            if (properties.isFailFast()) {
+                throw new IllegalStateException("启动前加载配置【" + rootPath + "】失败", e);
+            }
+            logger.warn("启动前加载配置【{}】失败，@Value 读不到 ZooKeeper 中的配置：{}", rootPath, e.toString());
+        } finally {
+            client.close();
+        }
+    }
+}
@@ -0,0 +1,466 @@
+package com.wmx.zookeeperstudy.controller;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.wmx.zookeeperstudy.zk.CuratorUtils;
+import com.wmx.zookeeperstudy.zk.NodeData;
+import com.wmx.zookeeperstudy.zk.async.SingleFlight;
+import com.wmx.zookeeperstudy.zk.batch.RecursiveDeleteException;
+import com.wmx.zookeeperstudy.zk.batch.RecursiveDeleter;
+import com.wmx.zookeeperstudy.zk.watch.NodeEvent;
+import org.apache.curator.utils.ThreadUtils;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.data.Stat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import javax.annotation.PreDestroy;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ZooKeeper REST 网关：非 JVM 的工具通过 HTTP 读写节点，不必各自建立 ZooKeeper 会话，所有请求共用 {@link CuratorUtils#getClient()} 的会话
+ * 1、GET /zk/node?path=/a/b：读取节点，同一路径同时到达的多个请求合并为一次 getData（{@link SingleFlight}）
+ * 2、POST /zk/node、PUT /zk/node、DELETE /zk/node：创建、修改、删除节点，请求体为节点数据（原始字节）
+ * 3、GET /zk/children?path=：子节点名称，以 JSON 数组流式输出；GET /zk/tree?path=：整棵子树，按层以 NDJSON（每行一个节点）流式输出，
+ * 每次只在内存中保留一个父节点的子节点，子树再大也不会在内存中拼出完整的响应
+ * 4、GET /zk/watch?path=：永久递归监听，以 Server-Sent Events 推送 CREATED、DATA_CHANGED、DELETED、RESET 事件，连接断开时取消监听；
+ * 每个连接的事件先放入自己的队列，由发送线程池写出，慢客户端不会阻塞监听的分发线程，积压过多时清空队列改为推送一个 RESET
+ * 5、节点数据默认按 UTF-8 输出为字符串，base64=true 时输出 Base64；ZooKeeper 错误码映射为 HTTP 状态码，见 {@link #status(KeeperException.Code)}
+ *
+ * @author wangMaoXiong
+ * @version 1.0
+ * @date 2020/9/17 21:00
+ */
+@RestController
+@RequestMapping("/zk")
+public class ZookeeperController {
+
+    private static final Logger logger = LoggerFactory.getLogger(ZookeeperController.class);
+
+    public static final MediaType APPLICATION_NDJSON = MediaType.parseMediaType("application/x-ndjson");
+    /**
+     * 输出子树时读取一个父节点的所有子节点的最长等待时间
+     */
+    static final long TREE_READ_TIMEOUT_MS = 30000;
+    /**
+     * 每个 SSE 连接最多积压的事件数
+     */
+    static final int MAX_PENDING_EVENTS = 1000;
+
+    private final SingleFlight<String, NodeData> dataFlight = new SingleFlight<>();
+    private final SingleFlight<String, List<String>> childrenFlight = new SingleFlight<>();
+    private final ObjectMapper objectMapper;
+    private final RecursiveDeleter deleter;
+    /**
+     * 写出 SSE 事件的线程池，同一个连接同时只有一个线程在写
+     */
+    private final ExecutorService sseExecutor = Executors.newCachedThreadPool(ThreadUtils.newThreadFactory("ZookeeperController-sse"));
+
+    /**
+     * @param objectMapper ：输出 JSON
+     * @param deleter      ：递归删除共用的并行级联删除器
+     */
+    public ZookeeperController(ObjectMapper objectMapper, RecursiveDeleter deleter) {
+        this.objectMapper = objectMapper;
+        this.deleter = deleter;
+    }
+
+    @PreDestroy
+    public void close() {
+        sseExecutor.shutdownNow();
+    }
+
+    /**
+     * 读取节点数据和 Stat
+     */
+    @GetMapping("/node")
+    public CompletableFuture<ResponseEntity<Object>> getNode(@RequestParam String path,
+                                                            @RequestParam(defaultValue = "false") boolean base64) {
+        return dataFlight.execute(path, () -> CuratorUtils.async().getData(path))
+                .handle((node, error) -> error == null
+                        ? ResponseEntity.<Object>ok(toJson(new NodeData(path, node.getData(), node.getStat()), base64))
+                        : errorResponse(error, path));
+    }
+
+    /**
+     * 创建节点
+     *
+     * @param mode    ：节点创建模式，临时节点属于网关的会话，网关重启后消失
+     * @param parents ：父节点不存在时是否一并创建
+     * @return ：201，实际创建的路径（顺序节点带序号）
+     */
+    @PostMapping("/node")
+    public ResponseEntity<Object> createNode(@RequestParam String path,
+                                             @RequestParam(defaultValue = "PERSISTENT") CreateMode mode,
+                                             @RequestParam(defaultValue = "false") boolean parents,
+                                             @RequestBody(required = false) byte[] data) throws Exception {
+        byte[] bytes = data == null ? new byte[0] : data;
+        String created = parents
+                ? CuratorUtils.getClient().create().creatingParentsIfNeeded().withMode(mode).forPath(path, bytes)
+                : CuratorUtils.getClient().create().withMode(mode).forPath(path, bytes);
+        return ResponseEntity.status(HttpStatus.CREATED).body(Collections.singletonMap("path", created));
+    }
+
+    /**
+     * 修改节点数据
+     *
+     * @param version ：期望的版本号，-1 表示匹配任意版本，不匹配时返回 409
+     * @return ：修改后的 Stat
+     */
+    @PutMapping("/node")
+    public Stat setNode(@RequestParam String path, @RequestParam(defaultValue = "-1") int version,
+                        @RequestBody(required = false) byte[] data) throws Exception {
+        return CuratorUtils.getClient().setData().withVersion(version).forPath(path, data == null ? new byte[0] : data);
+    }
+
+    /**
+     * 删除节点
+     *
+     * @param recursive ：是否连同子孙节点一起删除（并行级联删除，忽略 version），否则有子节点时返回 409
+     * @return ：204
+     */
+    @DeleteMapping("/node")
+    public ResponseEntity<Void> deleteNode(@RequestParam String path, @RequestParam(defaultValue = "-1") int version,
+                                           @RequestParam(defaultValue = "false") boolean recursive) throws Exception {
+        if (recursive) {
+            if (CuratorUtils.getClient().checkExists().forPath(path) == null) {
+                throw KeeperException.create(KeeperException.Code.NONODE, path);
+            }
+            deleter.delete(path, null);
+        } else {
+            CuratorUtils.getClient().delete().withVersion(version).forPath(path);
+        }
+        return ResponseEntity.noContent().build();
+    }
+
+    /**
+     * 子节点名称（按名称排序），以 JSON 数组流式输出；节点不存在时返回 404
+     */
+    @GetMapping("/children")
+    public CompletableFuture<ResponseEntity<Object>> getChildren(@RequestParam String path) {
+        return childrenFlight.execute(path, () -> CuratorUtils.async().getChildren(path)).handle((children, error) -> {
+            if (error != null) {
+                return errorResponse(error, path);
+            }
+            List<String> sorted = new ArrayList<>(children);
+            Collections.sort(sorted);
+            StreamingResponseBody body = out -> {
+                JsonGenerator generator = objectMapper.getFactory().createGenerator(out);
+                generator.writeStartArray();
+                for (String child : sorted) {
+                    generator.writeString(child);
+                }
+                generator.writeEndArray();
+                generator.flush();
+            };
+            return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).<Object>body(body);
+        });
+    }
+
+    /**
+     * 整棵子树，按层（同一层按父节点、名称排序）以 NDJSON 流式输出，每行一个节点，格式与 GET /zk/node 相同；
+     * 根节点不存在时返回 404，输出过程中出错时最后一行为 {"error":...}
+     */
+    @GetMapping("/tree")
+    public CompletableFuture<ResponseEntity<Object>> getTree(@RequestParam String path,
+                                                            @RequestParam(defaultValue = "false") boolean base64) {
+        return CuratorUtils.async().getData(path).toCompletableFuture().handle((root, error) -> {
+            if (error != null) {
+                return errorResponse(error, path);
+            }
+            StreamingResponseBody body = out -> streamTree(new NodeData(path, root.getData(), root.getStat()), base64, out);
+            return ResponseEntity.ok().contentType(APPLICATION_NDJSON).<Object>body(body);
+        });
+    }
+
+    private void streamTree(NodeData root, boolean base64, OutputStream out) throws IOException {
+        writeLine(out, toJson(root, base64));
+        Deque<String> parents = new ArrayDeque<>();
+        if (root.getStat().getNumChildren() > 0) {
+            parents.add(root.getPath());
+        }
+        long count = 1;
+        try {
+            while (!parents.isEmpty()) {
+                String parent = parents.poll();
+                //一个父节点的所有子节点并行读取，写出后即可释放
+                Map<String, NodeData> children = CuratorUtils.async().getDataForAll(parent).toCompletableFuture()
+                        .get(TREE_READ_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                for (Map.Entry<String, NodeData> child : children.entrySet()) {
+                    NodeData node = child.getValue();
+                    if (node == null) {
+                        //读取期间被删除
+                        continue;
+                    }
+                    writeLine(out, toJson(new NodeData(child.getKey(), node.getData(), node.getStat()), base64));
+                    count++;
+                    if (node.getStat().getNumChildren() > 0) {
+                        parents.add(child.getKey());
+                    }
+                }
+                out.flush();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            writeLine(out, Collections.singletonMap("error", "interrupted"));
+        } catch (ExecutionException e) {
+            logger.warn("输出子树【{}】中断：已输出 {} 个节点", root.getPath(), count, e.getCause());
+            writeLine(out, errorBody(unwrap(e), root.getPath()));
+        } catch (TimeoutException e) {
+            logger.warn("输出子树【{}】超时：已输出 {} 个节点", root.getPath(), count);
+            writeLine(out, errorBody(KeeperException.create(KeeperException.Code.OPERATIONTIMEOUT, root.getPath()), root.getPath()));
+        }
+        out.flush();
+    }
+
+    private void writeLine(OutputStream out, Object value) throws IOException {
+        out.write(objectMapper.writeValueAsBytes(value));
+        out.write('\n');
+    }
+
+    /**
+     * 以 Server-Sent Events 推送子树变化，事件名为事件类型，data 为 {"type":...,"path":...}
+     *
+     * @param timeoutMs ：连接超时时间（毫秒），0 表示不超时
+     */
+    @GetMapping(value = "/watch", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter watch(@RequestParam String path, @RequestParam(defaultValue = "0") long timeoutMs) {
+        SseEmitter emitter = new SseEmitter(timeoutMs);
+        Closeable[] subscription = new Closeable[1];
+        Runnable unsubscribe = () -> {
+            synchronized (subscription) {
+                if (subscription[0] != null) {
+                    try {
+                        subscription[0].close();
+                    } catch (IOException e) {
+                        logger.warn("取消监听【{}】失败", path, e);
+                    }
+                    subscription[0] = null;
+                }
+            }
+        };
+        emitter.onCompletion(unsubscribe);
+        emitter.onTimeout(unsubscribe);
+        emitter.onError(error -> unsubscribe.run());
+        EventStream stream = new EventStream(path, emitter, unsubscribe);
+        synchronized (subscription) {
+            subscription[0] = CuratorUtils.watchTree(path, stream::enqueue);
+        }
+        return emitter;
+    }
+
+    /**
+     * 一个 SSE 连接的待发送事件：监听线程只负责入队，由 sseExecutor 按顺序写出
+     */
+    private class EventStream {
+        private final String path;
+        private final SseEmitter emitter;
+        private final Runnable unsubscribe;
+        private final ConcurrentLinkedQueue<NodeEvent> pending = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger size = new AtomicInteger();
+        private final AtomicBoolean draining = new AtomicBoolean();
+
+        private EventStream(String path, SseEmitter emitter, Runnable unsubscribe) {
+            this.path = path;
+            this.emitter = emitter;
+            this.unsubscribe = unsubscribe;
+        }
+
+        private void enqueue(NodeEvent event) {
+            if (size.incrementAndGet() > MAX_PENDING_EVENTS) {
+                //客户端跟不上：丢弃积压的事件，改为推送 RESET，提示其重新读取
+                pending.clear();
+                size.set(1);
+                pending.add(new NodeEvent(NodeEvent.Type.RESET, path));
+            } else {
+                pending.add(event);
+            }
+            schedule();
+        }
+
+        private void schedule() {
+            if (!draining.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                sseExecutor.execute(this::drain);
+            } catch (RejectedExecutionException e) {
+                //控制器已经关闭
+                draining.set(false);
+                unsubscribe.run();
+                emitter.complete();
+            }
+        }
+
+        private void drain() {
+            try {
+                NodeEvent event;
+                while ((event = pending.poll()) != null) {
+                    size.decrementAndGet();
+                    if (!send(event)) {
+                        pending.clear();
+                        return;
+                    }
+                }
+            } finally {
+                draining.set(false);
+            }
+            //drain 结束与 draining 复位之间入队的事件
+            if (!pending.isEmpty()) {
+                schedule();
+            }
+        }
+
+        private boolean send(NodeEvent event) {
+            Map<String, Object> data = new LinkedHashMap<>();
+            data.put("type", event.getType());
+            data.put("path", event.getPath());
+            try {
+                emitter.send(SseEmitter.event().name(event.getType().name()).data(data, MediaType.APPLICATION_JSON));
+                return true;
+            } catch (IOException | IllegalStateException e) {
+                //客户端已经断开
+                unsubscribe.run();
+                emitter.completeWithError(e);
+                return false;
+            }
+        }
+    }
+
+    /**
+     * 同步接口抛出的 ZooKeeper 异常
+     */
+    @ExceptionHandler(KeeperException.class)
+    public ResponseEntity<Object> handleKeeperException(KeeperException e) {
+        return errorResponse(e, e.getPath());
+    }
+
+    /**
+     * 级联删除中途失败，响应中带上已经删除的节点数
+     */
+    @ExceptionHandler(RecursiveDeleteException.class)
+    public ResponseEntity<Object> handleRecursiveDelete(RecursiveDeleteException e) {
+        Throwable cause = unwrap(e);
+        HttpStatus status = cause instanceof KeeperException ? status(((KeeperException) cause).code()) : HttpStatus.INTERNAL_SERVER_ERROR;
+        logger.warn("级联删除【{}】中断，{}", e.getPath(), e.getResult(), cause);
+        Map<String, Object> body = errorBody(cause, e.getPath());
+        body.put("deleted", e.getResult().getDeleted());
+        return ResponseEntity.status(status).<Object>body(body);
+    }
+
+    @ExceptionHandler(IllegalArgumentException.class)
+    public ResponseEntity<Object> handleIllegalArgument(IllegalArgumentException e) {
+        return ResponseEntity.badRequest().<Object>body(Collections.singletonMap("message", e.getMessage()));
+    }
+
+    private static ResponseEntity<Object> errorResponse(Throwable error, String path) {
+        Throwable cause = unwrap(error);
+        if (cause instanceof IllegalArgumentException) {
+            return ResponseEntity.badRequest().<Object>body(Collections.singletonMap("message", cause.getMessage()));
+        }
+        HttpStatus status = cause instanceof KeeperException ? status(((KeeperException) cause).code()) : HttpStatus.INTERNAL_SERVER_ERROR;
+        if (status.is5xxServerError()) {
+            logger.warn("请求【{}】失败", path, cause);
+        }
+        return ResponseEntity.status(status).<Object>body(errorBody(cause, path));
+    }
+
+    private static Map<String, Object> errorBody(Throwable cause, String path) {
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("error", cause instanceof KeeperException ? ((KeeperException) cause).code().name() : cause.getClass().getSimpleName());
+        body.put("message", cause.getMessage());
+        body.put("path", path);
+        return body;
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        Throwable cause = error;
+        while ((cause instanceof CompletionException || cause instanceof ExecutionException || cause instanceof RecursiveDeleteException)
+                && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        return cause;
+    }
+
+    /**
+     * ZooKeeper 错误码 -> HTTP 状态码
+     */
+    static HttpStatus status(KeeperException.Code code) {
+        switch (code) {
+            case NONODE:
+                return HttpStatus.NOT_FOUND;
+            case NODEEXISTS:
+            case BADVERSION:
+            case NOTEMPTY:
+                return HttpStatus.CONFLICT;
+            case BADARGUMENTS:
+            case NOCHILDRENFOREPHEMERALS:
+            case INVALIDACL:
+                return HttpStatus.BAD_REQUEST;
+            case NOAUTH:
+            case AUTHFAILED:
+                return HttpStatus.FORBIDDEN;
+            case CONNECTIONLOSS:
+            case SESSIONEXPIRED:
+            case OPERATIONTIMEOUT:
+            case NOTREADONLY:
+                return HttpStatus.SERVICE_UNAVAILABLE;
+            default:
+                return HttpStatus.INTERNAL_SERVER_ERROR;
+        }
+    }
+
+    /**
+     * 节点 -> JSON：path、data（UTF-8 字符串或 Base64）、stat
+     */
+    static Map<String, Object> toJson(NodeData node, boolean base64) {
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("path", node.getPath());
+        byte[] data = node.getData();
+        if (data == null) {
+            json.put("data", null);
+        } else {
+            json.put("data", base64 ? Base64.getEncoder().encodeToString(data) : new String(data, StandardCharsets.UTF_8));
+        }
+        json.put("stat", node.getStat());
+        return json;
+    }
+}
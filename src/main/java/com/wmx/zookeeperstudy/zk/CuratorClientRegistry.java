@@ -0,0 +1,109 @@
+package com.wmx.zookeeperstudy.zk;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.imps.CuratorFrameworkState;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+
+/**
+ * CuratorFramework 客户端注册表 —— 同一个 连接地址 + 命名空间 只创建、启动一个客户端，所有操作共享
+ * 1、CuratorFramework 是线程安全的，官方建议一个应用对同一个 ZK 集群只使用一个实例
+ * 2、每次操作都 new 一个客户端并 start()，意味着每次都要重新建立 TCP 连接、握手、创建会话，
+ * 而且这些客户端从来没有 close，会话会一直堆积在服务器上，直到会话超时才被清理
+ * 3、应用关闭时调用 {@link #closeAll()} 统一关闭所有客户端（Spring 容器关闭时会自动调用）
+ *
+ * @author wangMaoXiong
+ * @version 1.0
+ * @date 2020/8/12 20:10
+ */
+public class CuratorClientRegistry {
+
+    private static final Logger logger = LoggerFactory.getLogger(CuratorClientRegistry.class);
+
+    private static final CuratorClientRegistry INSTANCE = new CuratorClientRegistry();
+
+    /**
+     * key：连接地址 + 命名空间，value：已经启动的客户端
+     */
+    private final ConcurrentMap<String, CuratorFramework> clients = new ConcurrentHashMap<>();
+
+    public static CuratorClientRegistry getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * 获取共享的客户端，不存在时使用 factory 创建并启动，存在时直接返回
+     * computeIfAbsent 保证并发情况下同一个 key 也只会创建一个客户端
+     *
+     * @param connectString ：服务器连接地址
+     * @param namespace     ：命名空间，可以为 null
+     * @param factory       ：客户端创建工厂，只负责 build，不需要 start
+     * @return
+     */
+    public CuratorFramework getClient(String connectString, String namespace, Supplier<CuratorFramework> factory) {
+        return clients.computeIfAbsent(key(connectString, namespace), key -> {
+            CuratorFramework client = factory.get();
+            client.start();
+            logger.info("创建共享客户端【{}】", key);
+            return client;
+        });
+    }
+
+    /**
+     * 关闭并移除指定的客户端
+     *
+     * @param connectString
+     * @param namespace
+     */
+    public void close(String connectString, String namespace) {
+        CuratorFramework client = clients.remove(key(connectString, namespace));
+        if (client != null) {
+            client.close();
+        }
+    }
+
+    /**
+     * 关闭所有客户端，客户端关闭后，其会话失效，会话创建的临时节点会被服务器删除
+     */
+    public void closeAll() {
+        for (Map.Entry<String, CuratorFramework> entry : clients.entrySet()) {
+            if (clients.remove(entry.getKey(), entry.getValue())) {
+                entry.getValue().close();
+                logger.info("关闭共享客户端【{}】", entry.getKey());
+            }
+        }
+    }
+
+    /**
+     * 注册表中已经启动的客户端个数
+     *
+     * @return
+     */
+    public int size() {
+        return clients.size();
+    }
+
+    /**
+     * 当前与服务器保持连接的会话个数
+     *
+     * @return
+     */
+    public int openSessions() {
+        int count = 0;
+        for (CuratorFramework client : clients.values()) {
+            if (client.getState() == CuratorFrameworkState.STARTED && client.getZookeeperClient().isConnected()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static String key(String connectString, String namespace) {
+        return connectString + "/" + (namespace == null ? "" : namespace);
+    }
+}
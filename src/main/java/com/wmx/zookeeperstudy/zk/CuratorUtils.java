@@ -1,5 +1,19 @@
 package com.wmx.zookeeperstudy.zk;
 
+import com.wmx.zookeeperstudy.zk.async.AsyncZkClient;
+import com.wmx.zookeeperstudy.zk.async.WriteCoalescer;
+import com.wmx.zookeeperstudy.zk.batch.NodeBatch;
+import com.wmx.zookeeperstudy.zk.batch.RecursiveDeleter;
+import com.wmx.zookeeperstudy.zk.cache.NodeDataCache;
+import com.wmx.zookeeperstudy.zk.codec.NodeCodec;
+import com.wmx.zookeeperstudy.zk.connection.AdaptiveRetryPolicy;
+import com.wmx.zookeeperstudy.zk.connection.ConnectionStateManager;
+import com.wmx.zookeeperstudy.zk.id.IdAllocator;
+import com.wmx.zookeeperstudy.zk.lock.CoalescingLock;
+import com.wmx.zookeeperstudy.zk.lock.DistributedLockService;
+import com.wmx.zookeeperstudy.zk.metrics.ZookeeperMetrics;
+import com.wmx.zookeeperstudy.zk.watch.NodeListener;
+import com.wmx.zookeeperstudy.zk.watch.WatchManager;
 import org.apache.curator.RetryPolicy;
 import org.apache.curator.framework.CuratorFramework;
 import org.apache.curator.framework.CuratorFrameworkFactory;
@@ -12,8 +26,14 @@ import org.apache.zookeeper.CreateMode;
 import org.apache.zookeeper.ZooDefs;
 import org.apache.zookeeper.data.Stat;
 
-import java.nio.charset.Charset;
+import java.io.Closeable;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Apache curator 客户端操作 Zookeeper 服务器
@@ -40,6 +60,54 @@ public class CuratorUtils {
      * 3、比如创建一个 /app 节点，zk 服务器上实际创建的是 /basic-service/app，命名空间节点会自动创建.
      */
     private static String namespace = "basic-service";
+    /**
+     * 外部（如 Spring 自动配置）创建好的客户端，设置后 {@link #getClient()} 直接返回它
+     */
+    private static volatile CuratorFramework sharedClient;
+    /**
+     * 节点数据本地缓存，为 null 时表示未开启
+     */
+    private static volatile NodeDataCache nodeDataCache;
+    /**
+     * 共享客户端对应的异步客户端
+     */
+    private static volatile AsyncZkClient asyncClient;
+    /**
+     * 永久监听管理器
+     */
+    private static volatile WatchManager watchManager;
+    /**
+     * 分布式锁服务
+     */
+    private static volatile DistributedLockService lockService;
+    /**
+     * 连接状态管理器，为 null 时读取不区分连接状态
+     */
+    private static volatile ConnectionStateManager connectionStateManager;
+    /**
+     * 合并写，高频覆盖写的节点在窗口期内只写一次
+     */
+    private static volatile WriteCoalescer writeCoalescer;
+    /**
+     * 操作指标，为 null 时同步操作不计时
+     */
+    private static volatile ZookeeperMetrics metrics;
+    /**
+     * ID 生成器，key 为名称；共享客户端更换后旧客户端上的生成器会被关闭
+     */
+    private static final ConcurrentMap<String, IdAllocator> idAllocators = new ConcurrentHashMap<>();
+
+    /**
+     * 使用外部创建好的客户端，替代上面写死的连接地址、命名空间等配置
+     *
+     * @param client ：已经 start() 的客户端
+     */
+    public static void setClient(CuratorFramework client) {
+        sharedClient = client;
+        if (client != null) {
+            namespace = client.getNamespace();
+        }
+    }
 
     /**
      * == 创建连接  方式 1：
@@ -121,6 +189,119 @@ public class CuratorUtils {
         return curatorFramework;
     }
 
+    /**
+     * == 创建连接  方式 3：只读模式 + 自适应重试 + 连接状态监听 ==
+     * 1、canBeReadOnly(true)：集群失去多数派（比如 3 台挂了 2 台）时，允许连接到只读模式的服务器继续读取，
+     * 服务器需要以 -Dreadonlymode.enabled=true 启动；只读期间写入抛出 KeeperException$NotReadOnlyException
+     * 2、RetryForever(60 * 1000) 断线后每次都要干等 60 秒，这里换成 {@link AdaptiveRetryPolicy}：
+     * 从 1 秒开始随机抖动的指数退避，一次操作最多 30 秒，断线期间不再重试
+     * 3、连接状态变化时打印：CONNECTED（首次连接）、SUSPENDED（断开，会话可能还在）、RECONNECTED（重连成功）、
+     * LOST（会话已过期，临时节点、监听都已失效）、READ_ONLY（连接到只读服务器）
+     */
+    public static CuratorFramework getConnect3() {
+        AdaptiveRetryPolicy retryPolicy = new AdaptiveRetryPolicy(1000, 10 * 1000, 10, 30 * 1000, true);
+        CuratorFramework curatorFramework = CuratorFrameworkFactory
+                .builder()
+                .connectString(connectString)
+                .sessionTimeoutMs(sessionTimeoutMs)
+                .connectionTimeoutMs(connectionTimeoutMs)
+                .retryPolicy(retryPolicy)
+                .canBeReadOnly(true)
+                .namespace(namespace)
+                .build();
+        curatorFramework.getConnectionStateListenable().addListener(retryPolicy);
+        curatorFramework.getConnectionStateListenable().addListener((client, newState) ->
+                System.out.printf("连接【%s】状态变为【%s】%n", connectString, newState));
+        curatorFramework.start();
+        System.out.printf("开始连接【%s】......%n", connectString);
+        return curatorFramework;
+    }
+
+    /**
+     * 使用外部创建好的连接状态管理器，设置后 getNodeData3 断线期间按管理器的配置处理
+     *
+     * @param manager
+     */
+    public static void setConnectionStateManager(ConnectionStateManager manager) {
+        connectionStateManager = manager;
+    }
+
+    /**
+     * 开启节点数据本地缓存，开启后 getNodeData1 优先从缓存中读取，传入 null 时关闭
+     *
+     * @param cache ：已经 start() 的缓存
+     */
+    public static void setNodeDataCache(NodeDataCache cache) {
+        nodeDataCache = cache;
+    }
+
+    /**
+     * 使用外部创建好的永久监听管理器
+     *
+     * @param manager
+     */
+    public static void setWatchManager(WatchManager manager) {
+        watchManager = manager;
+    }
+
+    /**
+     * 使用外部创建好的合并写
+     *
+     * @param coalescer
+     */
+    public static void setWriteCoalescer(WriteCoalescer coalescer) {
+        writeCoalescer = coalescer;
+    }
+
+    /**
+     * 使用外部创建好的分布式锁服务
+     *
+     * @param service
+     */
+    public static void setLockService(DistributedLockService service) {
+        lockService = service;
+    }
+
+    /**
+     * 使用外部创建好的操作指标，设置后同步操作的耗时、结果（包括失败）记录到 zookeeper.operation 中
+     *
+     * @param zookeeperMetrics
+     */
+    public static void setMetrics(ZookeeperMetrics zookeeperMetrics) {
+        metrics = zookeeperMetrics;
+    }
+
+    /**
+     * 执行一次同步操作，开启了指标时按纳秒计时并记录结果，详见 {@link ZookeeperMetrics#recordSync}
+     */
+    private static <T> T timed(String operation, String path, ZookeeperMetrics.SyncOperation<T> call) throws Exception {
+        ZookeeperMetrics m = metrics;
+        return m == null ? call.call() : m.recordSync(operation, path, call);
+    }
+
+    /**
+     * == 获取共享连接 == 下面所有的节点操作都使用此方法
+     * 1、getConnect1、getConnect2 每调用一次都会新建并启动一个客户端，而且从不关闭，会话会在服务器上越积越多
+     * 2、这里从 {@link CuratorClientRegistry} 获取客户端，同一个 连接地址 + 命名空间 只会启动一次，后续调用直接复用
+     * 3、客户端不要自己 close，由注册表在应用关闭时统一关闭
+     * 4、Spring 环境下优先使用自动配置创建的客户端，见 {@link #setClient(CuratorFramework)}
+     */
+    public static CuratorFramework getClient() {
+        CuratorFramework client = sharedClient;
+        if (client != null) {
+            return client;
+        }
+        return CuratorClientRegistry.getInstance().getClient(connectString, namespace, () -> CuratorFrameworkFactory
+                .builder()
+                .defaultData("0".getBytes())
+                .connectString(connectString)
+                .sessionTimeoutMs(sessionTimeoutMs)
+                .connectionTimeoutMs(connectionTimeoutMs)
+                .retryPolicy(new RetryForever(60 * 1000))
+                .namespace(namespace)
+                .build());
+    }
+
     /**
      * ExistsBuilder checkExists()：exists生成器，
      * 用于检测某个节点是否存在，forPath 为 null 时表示节点不存在，否则返回节点详细信息
@@ -129,8 +310,8 @@ public class CuratorUtils {
      */
     public static void checkExists1(String path) {
         try {
-            CuratorFramework client = getConnect1();
-            Stat stat = client.checkExists().forPath(path);
+            CuratorFramework client = getClient().usingNamespace(null);
+            Stat stat = timed("exists", path, () -> client.checkExists().forPath(path));
             System.out.printf("节点【%s】是否存在？【%s】", path, stat);
         } catch (Exception e) {
             e.printStackTrace();
@@ -151,9 +332,9 @@ public class CuratorUtils {
     public static String createNode1(String path) {
         String forPath = null;
         try {
-            CuratorFramework client = getConnect2();
+            CuratorFramework client = getClient();
             //未设置节点数据时，默认为客户端 ip 地址，比如：192.168.116.1
-            forPath = client.create().forPath(path);
+            forPath = timed("create", path, () -> client.create().forPath(path));
             System.out.println("节点创建成功：" + namespace + "/" + forPath);
         } catch (Exception e) {
             e.printStackTrace();
@@ -179,9 +360,9 @@ public class CuratorUtils {
     public static String createNode2(String path, byte[] data, CreateMode mode) {
         String forPath = null;
         try {
-            CuratorFramework client = getConnect2();
+            CuratorFramework client = getClient();
             //T withACL(List<ACL> aclList)：设置ACL列表（默认值为OPEN_ACL_UNSAFE)，即默认节点权限是完全开放式的
-            forPath = client.create().withMode(mode).withACL(ZooDefs.Ids.OPEN_ACL_UNSAFE).forPath(path, data);
+            forPath = timed("create", path, () -> client.create().withMode(mode).withACL(ZooDefs.Ids.OPEN_ACL_UNSAFE).forPath(path, data));
             System.out.printf("创建节点完成=/%s/%s%n", namespace, forPath);
         } catch (Exception e) {
             e.printStackTrace();
@@ -202,7 +383,7 @@ public class CuratorUtils {
     public static String createNode3(String path, byte[] data, CreateMode mode) {
         String forPath = null;
         try {
-            CuratorFramework client = getConnect2();
+            CuratorFramework client = getClient();
             /**
              * ProtectACLCreateModeStatPathAndBytesable<String> creatingParentContainersIfNeeded()
              * 1、如果父节点未创建，则使用{@link CreateMode#CONTAINER} -容器节点模式创建
@@ -213,10 +394,10 @@ public class CuratorUtils {
              * 1、如果尚未创建任何父节点，则会一并创建这些节点
              * 2、与上面不同，比如级联创建的临时节点，当客户端失去连接后，级联创建的父节点会留下，临时节点被删除
              */
-            forPath = client.create().creatingParentContainersIfNeeded()
+            forPath = timed("create", path, () -> client.create().creatingParentContainersIfNeeded()
                     .withMode(mode)
                     .withACL(ZooDefs.Ids.OPEN_ACL_UNSAFE)
-                    .forPath(path, data);
+                    .forPath(path, data));
             //创建节点完成=/basic-service//summary/service/port10000000000
             System.out.printf("创建节点完成=/%s/%s%n", namespace, forPath);
         } catch (Exception e) {
@@ -239,7 +420,7 @@ public class CuratorUtils {
     public static String createNode4(String path, byte[] data, CreateMode mode) {
         String forPath = null;
         try {
-            CuratorFramework client = getConnect2();
+            CuratorFramework client = getClient();
             forPath = client.create()
                     .creatingParentsIfNeeded()
                     .withMode(mode)
@@ -258,6 +439,40 @@ public class CuratorUtils {
         return forPath;
     }
 
+    /**
+     * 批量操作 - 多个 create、setData、delete、check 操作累积后通过 multi 事务一次性提交
+     * 1、比如 NodeBatch batch = CuratorUtils.batch(); batch.create(...).setData(...).delete(...); batch.commit();
+     * 2、操作过多时会按 jute.maxbuffer 自动拆分成多个事务，详见 {@link NodeBatch}
+     *
+     * @return
+     */
+    public static NodeBatch batch() {
+        return new NodeBatch(getClient());
+    }
+
+    /**
+     * 异步操作 - 所有操作都返回 CompletionStage，可以获取结果并串联后续操作
+     * 1、createNode4、deleteNode4、getNodeData2、updateNodeData2 只在回调中打印结果，调用方拿不到结果
+     * 2、比如 CuratorUtils.async().getData("/ip1").thenAccept(node -> ...)
+     * 3、同时在途的请求数有上限，超过时调用线程阻塞等待，详见 {@link AsyncZkClient}
+     *
+     * @return
+     */
+    public static AsyncZkClient async() {
+        CuratorFramework client = getClient();
+        AsyncZkClient async = asyncClient;
+        if (async == null || async.getClient() != client) {
+            //在途请求数的上限是全局的，只能有一个异步客户端
+            synchronized (CuratorUtils.class) {
+                if (asyncClient == null || asyncClient.getClient() != client) {
+                    asyncClient = new AsyncZkClient(client);
+                }
+                async = asyncClient;
+            }
+        }
+        return async;
+    }
+
     /**
      * 删除节点 1。默认为同步操作。
      * DeleteBuilder delete()：创建节点删除生成器
@@ -269,8 +484,8 @@ public class CuratorUtils {
      */
     public static void deleteNode1(String path) {
         try {
-            final CuratorFramework client = getConnect2();
-            client.delete().forPath(path);
+            final CuratorFramework client = getClient();
+            timed("delete", path, () -> client.delete().forPath(path));
             System.out.printf("删除节点：/%s/%s/%n", namespace, path);
         } catch (Exception e) {
             e.printStackTrace();
@@ -286,15 +501,15 @@ public class CuratorUtils {
      */
     public static void deleteNode2(String path) {
         try {
-            CuratorFramework client = getConnect2();
+            CuratorFramework client = getClient();
             /**
              * deletingChildrenIfNeeded：如果子节点存在则删除，比如 /summary/port1
              * 1、如果 port1 存在，则会被删除，而 /summary 下即使没有其它节点，自己也不会被删除删除
              * 2、如果 port1 不存在，则直接异常：KeeperException$NoNodeException
              * withVersion(int version)：根据版本号删除，version 默认为  -1，匹配任何版本，如果版本不匹配，则抛出异常：KeeperException$BadVersionException
              */
-            client.delete().deletingChildrenIfNeeded()
-                    .withVersion(-1).forPath(path);
+            timed("delete", path, () -> client.delete().deletingChildrenIfNeeded()
+                    .withVersion(-1).forPath(path));
             System.out.printf("删除节点：/%s%s%n", client.getNamespace(), path);
         } catch (Exception e) {
             e.printStackTrace();
@@ -308,9 +523,9 @@ public class CuratorUtils {
      */
     public static void deleteNode3(String path) {
         try {
-            final CuratorFramework client = getConnect2();
+            final CuratorFramework client = getClient();
             //guaranteed()：解决在服务器上操作可能成功，但在成功将响应返回到客户端之前发生连接失败的边缘情况。
-            client.delete().guaranteed().deletingChildrenIfNeeded().withVersion(-1).forPath(path);
+            timed("delete", path, () -> client.delete().guaranteed().deletingChildrenIfNeeded().withVersion(-1).forPath(path));
             System.out.printf("删除节点：/%s%s%n", client.getNamespace(), path);
         } catch (Exception e) {
             e.printStackTrace();
@@ -325,7 +540,7 @@ public class CuratorUtils {
      */
     public static void deleteNode4(String path) {
         try {
-            CuratorFramework client = getConnect2();
+            CuratorFramework client = getClient();
             //异步删除，带有回调函数
             client.delete()
                     .deletingChildrenIfNeeded()
@@ -343,21 +558,52 @@ public class CuratorUtils {
         }
     }
 
+    /**
+     * 删除节点 5 - 并行级联删除。同步操作，与 deleteNode3 一样保留 guaranteed() 语义
+     * 1、deleteNode3 的 deletingChildrenIfNeeded 是深度优先、一个节点一次往返地删除，子节点很多时非常慢
+     * 2、这里先按层遍历子树，再从最深的一层开始用多个 multi 事务并行删除，详见 {@link RecursiveDeleter}
+     *
+     * @param path：被删除节点路径。无论节点下是否有子节点，都会强制级联删除
+     */
+    public static void deleteNode5(String path) {
+        try {
+            CuratorFramework client = getClient();
+            RecursiveDeleter deleter = new RecursiveDeleter(client, 4, 200);
+            RecursiveDeleter.Result result = deleter.delete(path,
+                    (deleted, discovered) -> System.out.printf("删除进度：%d/%d%n", deleted, discovered));
+            System.out.printf("删除节点：/%s%s，%s%n", client.getNamespace(), path, result);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
 
     /**
      * 获取节点数据 1
      * GetDataBuilder getData()：创建获取数据构建器
      * storingStatIn(Stat stat)：让操作填充提供的 stat 对象，即将节点的详细信息赋值给此 stat 对象
      * 比如数据的版本号，最后修改时间，数据长度等等。
+     * 如果通过 {@link #setNodeDataCache(NodeDataCache)} 开启了本地缓存，则优先从缓存读取
      *
      * @param path：节点路径，如果节点不存在，则抛出异常：KeeperException$NoNodeException
      */
     public static void getNodeData1(String path) {
         try {
-            CuratorFramework client = getConnect2();
-            Stat stat = new Stat();
-            byte[] bytes = client.getData().storingStatIn(stat).forPath(path);
-            String data = new String(bytes, Charset.forName("UTF-8"));
+            byte[] bytes;
+            Stat stat;
+            NodeDataCache cache = nodeDataCache;
+            if (cache != null) {
+                //开启了本地缓存时，命中缓存直接从内存返回，不再访问服务器
+                NodeData node = cache.get(path);
+                bytes = node.getData();
+                stat = node.getStat();
+            } else {
+                CuratorFramework client = getClient();
+                Stat target = new Stat();
+                stat = target;
+                bytes = timed("getData", path, () -> client.getData().storingStatIn(target).forPath(path));
+            }
+            String data = NodeCodec.utf8().decode(bytes);
             System.out.printf("获取节点【%s%s】数据为【%s】%n", namespace, path, data);
             System.out.printf("节点详细信息【%s】%n", stat);
         } catch (Exception e) {
@@ -372,12 +618,12 @@ public class CuratorUtils {
      */
     public static void getNodeData2(String path) {
         try {
-            CuratorFramework client = getConnect2();
+            CuratorFramework client = getClient();
             client.getData().inBackground(new BackgroundCallback() {
                 @Override
                 public void processResult(CuratorFramework client, CuratorEvent event) throws Exception {
                     byte[] eventData = event.getData();
-                    String data = new String(eventData, Charset.forName("UTF-8"));
+                    String data = NodeCodec.utf8().decode(eventData);
                     Stat eventStat = event.getStat();
                     //节点【/ip1】数据为【192.168.116.1】
                     System.out.printf("节点【%s】数据为【%s】%n", event.getPath(), data);
@@ -391,6 +637,57 @@ public class CuratorUtils {
         }
     }
 
+    /**
+     * 获取节点数据 3 - 按类型解码
+     * 比如 CuratorUtils.getNodeData3("/ip1", NodeCodec.utf8())、CuratorUtils.getNodeData3("/config", NodeCodec.json(Config.class))
+     *
+     * @param path  ：节点路径
+     * @param codec ：编解码器，详见 {@link NodeCodec}
+     * @return ：解码后的对象，节点不存在或者解码失败时返回 null
+     */
+    public static <T> T getNodeData3(String path, NodeCodec<T> codec) {
+        T value = null;
+        try {
+            byte[] bytes;
+            NodeDataCache cache = nodeDataCache;
+            ConnectionStateManager manager = connectionStateManager;
+            if (manager != null) {
+                //断线期间按配置快速失败、读取缓存或者等待恢复，见 ConnectionStateManager.SuspendedMode
+                bytes = manager.getData(path).getData();
+            } else if (cache != null) {
+                bytes = cache.get(path).getData();
+            } else {
+                bytes = timed("getData", path, () -> getClient().getData().forPath(path));
+            }
+            value = codec.decode(bytes);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        return value;
+    }
+
+    /**
+     * 监听子树 - 永久递归监听
+     * 1、注册一次，path 及其所有子孙节点的创建、修改、删除都会通知，不需要每次回调后重新注册
+     * 2、监听器在事件线程池上回调，不会阻塞 ZooKeeper 事件线程，详见 {@link WatchManager}
+     *
+     * @param path     ：监听的路径，如 /summary
+     * @param listener ：监听器
+     * @return ：关闭后取消监听
+     */
+    public static Closeable watchTree(String path, NodeListener listener) {
+        WatchManager manager = watchManager;
+        if (manager == null) {
+            synchronized (CuratorUtils.class) {
+                if (watchManager == null) {
+                    watchManager = new WatchManager(getClient());
+                }
+                manager = watchManager;
+            }
+        }
+        return manager.subscribe(path, listener);
+    }
+
     /**
      * 获取节点下的子节点
      * GetChildrenBuilder getChildren()：创建获取子节点构造器
@@ -401,9 +698,9 @@ public class CuratorUtils {
      */
     public static void getChildrenNode(String path) {
         try {
-            CuratorFramework client = getConnect2();
+            CuratorFramework client = getClient();
             Stat stat = new Stat();
-            List<String> forPath = client.getChildren().storingStatIn(stat).forPath(path);
+            List<String> forPath = timed("getChildren", path, () -> client.getChildren().storingStatIn(stat).forPath(path));
             for (String children : forPath) {
                 System.out.printf("子节点：【%s】%n", children);
             }
@@ -413,6 +710,38 @@ public class CuratorUtils {
         }
     }
 
+    /**
+     * 获取节点下所有子节点的数据
+     * 1、getChildrenNode 之后再逐个 getNodeData1，1000 个子节点就是 1000 次往返
+     * 2、这里所有 getData 请求在同一个会话上异步发出，总耗时约等于一次往返，详见 {@link AsyncZkClient#getDataForAll(String)}
+     *
+     * @param path ：父节点路径
+     * @return ：按子节点名称排序的 子节点完整路径 -> 节点数据，读取期间被删除的子节点值为 null；父节点不存在或者失败时返回空 map
+     */
+    public static Map<String, NodeData> getDataForAll(String path) {
+        try {
+            return async().getDataForAll(path).toCompletableFuture().get();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        return Collections.emptyMap();
+    }
+
+    /**
+     * 批量获取多个节点的数据，所有请求并行发出
+     *
+     * @param paths ：节点路径
+     * @return ：与 paths 顺序一致的 路径 -> 节点数据，节点不存在时值为 null；失败时返回空 map
+     */
+    public static Map<String, NodeData> getDataForPaths(Collection<String> paths) {
+        try {
+            return async().getDataForPaths(paths).toCompletableFuture().get();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        return Collections.emptyMap();
+    }
+
     /**
      * 更新节点数据 1
      * SetDataBuilder setData()：创建节点修改构建器
@@ -424,9 +753,9 @@ public class CuratorUtils {
      */
     public static void updateNodeData1(String path, byte[] data) {
         try {
-            CuratorFramework client = getConnect2();
+            CuratorFramework client = getClient();
             //返回的 stat 是修改后的节点信息，如版本号、数据长度等
-            Stat stat = client.setData().withVersion(-1).forPath(path, data);
+            Stat stat = timed("setData", path, () -> client.setData().withVersion(-1).forPath(path, data));
             System.out.printf("更新节点【%s】%n", path);
             //详细信息【253,339,1597020759961,1597030709189,2,0,0,0,15,0,253
             System.out.printf("详细信息【%s】%n", stat);
@@ -435,6 +764,25 @@ public class CuratorUtils {
         }
     }
 
+    /**
+     * 更新节点数据 3 - 按类型编码后更新
+     *
+     * @param path  ：被更新的节点路径，如果节点不存在，则异常：KeeperException$NoNodeException
+     * @param value ：节点数据
+     * @param codec ：编解码器，详见 {@link NodeCodec}
+     * @return ：更新后的节点信息，失败时返回 null
+     */
+    public static <T> Stat updateNodeData3(String path, T value, NodeCodec<T> codec) {
+        Stat stat = null;
+        try {
+            stat = timed("setData", path, () -> getClient().setData().withVersion(-1).forPath(path, codec.encode(value)));
+            System.out.printf("更新节点【%s】%n", path);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        return stat;
+    }
+
     /**
      * 更新节点数据 2 - 异步更新
      *
@@ -442,7 +790,7 @@ public class CuratorUtils {
      */
     public static void updateNodeData2(String path, byte[] data) {
         try {
-            CuratorFramework client = getConnect2();
+            CuratorFramework client = getClient();
             //修改或者是新增数据
             client.setData().inBackground(new BackgroundCallback() {
                 // 回调函数
@@ -460,4 +808,84 @@ public class CuratorUtils {
         }
     }
 
+    /**
+     * 更新节点数据 4 - 合并写
+     * 1、心跳、状态这类节点每秒被 setData 几百次，除了最后一次都是浪费，这里同一路径在窗口期（默认 50 毫秒）内的写入只发送最后一次
+     * 2、返回的 future 在自己的值或者之后的值写入成功时完成，详见 {@link WriteCoalescer}
+     *
+     * @param path ：被更新的节点路径，节点不存在时 future 以 KeeperException$NoNodeException 异常完成
+     * @param data ：节点数据
+     * @return ：写入后的节点信息
+     */
+    public static CompletableFuture<Stat> updateNodeData4(String path, byte[] data) {
+        WriteCoalescer coalescer = writeCoalescer;
+        if (coalescer == null) {
+            synchronized (CuratorUtils.class) {
+                if (writeCoalescer == null) {
+                    writeCoalescer = new WriteCoalescer(getClient(), 50);
+                }
+                coalescer = writeCoalescer;
+            }
+        }
+        return coalescer.setData(path, data);
+    }
+
+    /**
+     * 分布式锁 - 同一个 JVM 内的线程在本地排队，每个进程只创建一个 ZK 锁节点
+     * 1、比如 CoalescingLock lock = CuratorUtils.lock("order"); lock.acquire(); try {...} finally { lock.release(); }
+     * 2、锁路径为 /locks/order，支持重入，持有者可以通过 getFencingToken() 获取 fencing token，详见 {@link CoalescingLock}
+     *
+     * @param name ：锁名称
+     * @return
+     */
+    public static CoalescingLock lock(String name) {
+        DistributedLockService service = lockService;
+        if (service == null) {
+            synchronized (CuratorUtils.class) {
+                if (lockService == null) {
+                    lockService = new DistributedLockService(getClient());
+                }
+                service = lockService;
+            }
+        }
+        return service.getLock(name);
+    }
+
+    /**
+     * 生成全局唯一的 ID - 替代用 PERSISTENT_SEQUENTIAL 节点（createNode2）生成 ID
+     * 1、每次从计数器节点 /ids/{name} 租用一段 ID，在内存中发放，一次写操作对应一段 ID，详见 {@link IdAllocator}
+     * 2、生成的 ID 唯一，但不保证严格递增
+     *
+     * @param name ：ID 名称，如 order
+     * @return
+     * @throws Exception
+     */
+    public static long nextId(String name) throws Exception {
+        CuratorFramework client = getClient();
+        IdAllocator allocator = idAllocators.get(name);
+        if (allocator == null || allocator.getClient() != client) {
+            synchronized (CuratorUtils.class) {
+                allocator = idAllocators.get(name);
+                if (allocator == null || allocator.getClient() != client) {
+                    closeIdAllocators(client);
+                    allocator = new IdAllocator(client, "/ids/" + name);
+                    idAllocators.put(name, allocator);
+                }
+            }
+        }
+        return allocator.nextId();
+    }
+
+    /**
+     * 关闭不是 current 客户端上的所有 ID 生成器（停止预取线程），未发放的 ID 丢弃
+     */
+    private static void closeIdAllocators(CuratorFramework current) {
+        idAllocators.values().removeIf(allocator -> {
+            if (allocator.getClient() == current) {
+                return false;
+            }
+            allocator.close();
+            return true;
+        });
+    }
 }
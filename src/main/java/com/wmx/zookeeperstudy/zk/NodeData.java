@@ -0,0 +1,41 @@
+package com.wmx.zookeeperstudy.zk;
+
+import org.apache.zookeeper.data.Stat;
+
+/**
+ * 一个节点的快照：节点路径 + 节点数据 + 节点详细信息（Stat）
+ * 为了避免复制，getData 直接返回内部数组，调用方不要修改它
+ *
+ * @author wangMaoXiong
+ * @version 1.0
+ * @date 2020/8/15 10:12
+ */
+public class NodeData {
+
+    private final String path;
+    private final byte[] data;
+    private final Stat stat;
+
+    public NodeData(String path, byte[] data, Stat stat) {
+        this.path = path;
+        this.data = data;
+        this.stat = stat;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public byte[] getData() {
+        return data;
+    }
+
+    public Stat getStat() {
+        return stat;
+    }
+
+    @Override
+    public String toString() {
+        return "NodeData{path='" + path + "', version=" + stat.getVersion() + ", mzxid=" + stat.getMzxid() + "}";
+    }
+}
@@ -0,0 +1,289 @@
+package com.wmx.zookeeperstudy.zk.async;
+
+import com.wmx.zookeeperstudy.zk.NodeData;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.api.BackgroundCallback;
+import org.apache.curator.framework.api.CuratorEvent;
+import org.apache.curator.utils.ZKPaths;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.data.ACL;
+import org.apache.zookeeper.data.Stat;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.function.Function;
+
+/**
+ * 异步客户端：所有操作都返回 {@link CompletionStage}，调用方可以拿到结果、串联后续操作，而不是只在回调里打印
+ * 1、底层使用 inBackground(BackgroundCallback) 异步发送请求，多个请求在同一个会话上流水线发送，不必等待上一个响应
+ * 2、使用信号量限制同时在途（已发送未响应）的请求数，窗口满时调用线程阻塞等待（背压），
+ * 避免一次提交成千上万个请求把客户端的发送队列撑爆
+ * 3、请求失败时 future 以 {@link KeeperException} 异常完成，如 NoNodeException、NodeExistsException、BadVersionException
+ * 4、默认在 ZooKeeper 事件线程上完成 future，后续的 thenApply 等操作不要做耗时的事情，否则请传入 executor，
+ * 另外窗口已满时在事件线程上继续发起请求会阻塞事件线程，导致许可永远无法释放，这种串联请求的场景也必须传入 executor
+ *
+ * @author wangMaoXiong
+ * @version 1.0
+ * @date 2020/8/18 19:30
+ */
+public class AsyncZkClient {
+
+    /**
+     * 默认最大在途请求数
+     */
+    public static final int DEFAULT_MAX_IN_FLIGHT = 1000;
+
+    private final CuratorFramework client;
+    private final int maxInFlight;
+    private final Semaphore permits;
+    private final Executor executor;
+
+    public AsyncZkClient(CuratorFramework client) {
+        this(client, DEFAULT_MAX_IN_FLIGHT, null);
+    }
+
+    /**
+     * @param client      ：已经 start() 的客户端
+     * @param maxInFlight ：最大在途请求数
+     * @param executor    ：完成 future 的线程池，为 null 时在 ZooKeeper 事件线程上完成
+     */
+    public AsyncZkClient(CuratorFramework client, int maxInFlight, Executor executor) {
+        this.client = client;
+        this.maxInFlight = maxInFlight;
+        this.permits = new Semaphore(maxInFlight);
+        this.executor = executor;
+    }
+
+    public CuratorFramework getClient() {
+        return client;
+    }
+
+    /**
+     * 当前在途的请求数
+     */
+    public int getInFlight() {
+        return maxInFlight - permits.availablePermits();
+    }
+
+    /**
+     * 异步创建节点，父节点不存在时一并创建
+     *
+     * @return ：实际创建的节点路径
+     */
+    public CompletionStage<String> create(final String path, final byte[] data, final CreateMode mode) {
+        return submit(callback -> client.create().creatingParentsIfNeeded().withMode(mode).inBackground(callback).forPath(path, data),
+                CuratorEvent::getName);
+    }
+
+    /**
+     * 异步删除节点
+     *
+     * @param version ：期望的版本号，-1 表示匹配任意版本
+     */
+    public CompletionStage<Void> delete(final String path, final int version) {
+        return submit(callback -> client.delete().withVersion(version).inBackground(callback).forPath(path),
+                event -> null);
+    }
+
+    /**
+     * 异步获取节点数据和 Stat
+     */
+    public CompletionStage<NodeData> getData(final String path) {
+        return submit(callback -> client.getData().inBackground(callback).forPath(path),
+                event -> new NodeData(event.getPath(), event.getData(), event.getStat()));
+    }
+
+    /**
+     * 异步获取子节点列表
+     */
+    public CompletionStage<List<String>> getChildren(final String path) {
+        return submit(callback -> client.getChildren().inBackground(callback).forPath(path),
+                CuratorEvent::getChildren);
+    }
+
+    /**
+     * 异步批量获取多个节点的数据：所有请求在同一个会话上一次性发出，总耗时约等于一次往返，而不是节点个数次往返
+     *
+     * @param paths ：节点路径
+     * @return ：与 paths 顺序一致的 路径 -> 节点数据，节点不存在时值为 null（属于正常结果，不会异常完成）
+     */
+    public CompletionStage<Map<String, NodeData>> getDataForPaths(final Collection<String> paths) {
+        final List<String> keys = new ArrayList<>(paths);
+        final List<CompletableFuture<NodeData>> futures = new ArrayList<>(keys.size());
+        for (String path : keys) {
+            futures.add(getDataOrNull(path));
+        }
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).thenApply(ignored -> {
+            Map<String, NodeData> result = new LinkedHashMap<>(keys.size() * 4 / 3 + 1);
+            for (int i = 0; i < keys.size(); i++) {
+                result.put(keys.get(i), futures.get(i).join());
+            }
+            return result;
+        });
+    }
+
+    /**
+     * 异步获取某个节点下所有子节点的数据：先 getChildren，再并行 getData
+     * 1、结果按子节点名称排序，key 为子节点的完整路径
+     * 2、列出子节点之后、读取数据之前被删除的子节点，值为 null
+     * 3、第二步在 executor 上发起（没有时使用 ForkJoinPool.commonPool()），子节点个数超过在途窗口时也不会阻塞事件线程
+     *
+     * @param parent ：父节点路径，不存在时 future 以 NoNodeException 异常完成
+     */
+    public CompletionStage<Map<String, NodeData>> getDataForAll(final String parent) {
+        return getChildren(parent).thenComposeAsync(children -> {
+            List<String> paths = new ArrayList<>(children.size());
+            Collections.sort(children);
+            for (String child : children) {
+                paths.add(ZKPaths.makePath(parent, child));
+            }
+            return getDataForPaths(paths);
+        }, executor != null ? executor : ForkJoinPool.commonPool());
+    }
+
+    /**
+     * 节点不存在时以 null 完成，其它错误照常异常完成
+     */
+    private CompletableFuture<NodeData> getDataOrNull(String path) {
+        return getData(path).toCompletableFuture().handle((node, error) -> {
+            if (error == null) {
+                return node;
+            }
+            Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+            if (cause instanceof KeeperException.NoNodeException) {
+                return null;
+            }
+            throw error instanceof CompletionException ? (CompletionException) error : new CompletionException(error);
+        });
+    }
+
+    /**
+     * 异步修改节点数据
+     *
+     * @param version ：期望的版本号，-1 表示匹配任意版本
+     * @return ：修改后的节点信息
+     */
+    public CompletionStage<Stat> setData(final String path, final byte[] data, final int version) {
+        return submit(callback -> client.setData().withVersion(version).inBackground(callback).forPath(path, data),
+                CuratorEvent::getStat);
+    }
+
+    /**
+     * 异步获取节点权限
+     */
+    public CompletionStage<List<ACL>> getACL(final String path) {
+        return submit(callback -> client.getACL().inBackground(callback).forPath(path),
+                CuratorEvent::getACLList);
+    }
+
+    /**
+     * 异步检查节点是否存在
+     *
+     * @return ：节点不存在时结果为 null，不会异常
+     */
+    public CompletionStage<Stat> exists(final String path) {
+        final CompletableFuture<Stat> future = new CompletableFuture<>();
+        if (!acquire(future)) {
+            return future;
+        }
+        try {
+            client.checkExists().inBackground(new BackgroundCallback() {
+                @Override
+                public void processResult(CuratorFramework client, CuratorEvent event) {
+                    permits.release();
+                    int rc = event.getResultCode();
+                    if (rc == KeeperException.Code.OK.intValue() || rc == KeeperException.Code.NONODE.intValue()) {
+                        complete(future, event.getStat(), null);
+                    } else {
+                        complete(future, null, KeeperException.create(KeeperException.Code.get(rc), event.getPath()));
+                    }
+                }
+            }).forPath(path);
+        } catch (Exception e) {
+            permits.release();
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * 获取许可后发送请求，回调时释放许可，并根据结果码完成 future
+     */
+    private <T> CompletionStage<T> submit(Request request, final Function<CuratorEvent, T> mapper) {
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        if (!acquire(future)) {
+            return future;
+        }
+        try {
+            request.send(new BackgroundCallback() {
+                @Override
+                public void processResult(CuratorFramework client, CuratorEvent event) {
+                    permits.release();
+                    int rc = event.getResultCode();
+                    if (rc == KeeperException.Code.OK.intValue()) {
+                        complete(future, mapper.apply(event), null);
+                    } else {
+                        complete(future, null, KeeperException.create(KeeperException.Code.get(rc), event.getPath()));
+                    }
+                }
+            });
+        } catch (Exception e) {
+            permits.release();
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * 在 executor 上完成 future，没有 executor 时直接在当前（ZooKeeper 事件）线程上完成
+     */
+    private <T> void complete(final CompletableFuture<T> future, final T value, final Throwable error) {
+        if (executor == null) {
+            doComplete(future, value, error);
+        } else {
+            executor.execute(() -> doComplete(future, value, error));
+        }
+    }
+
+    private static <T> void doComplete(CompletableFuture<T> future, T value, Throwable error) {
+        if (error == null) {
+            future.complete(value);
+        } else {
+            future.completeExceptionally(error);
+        }
+    }
+
+    /**
+     * 在途请求数达到上限时阻塞等待
+     *
+     * @return ：被中断时返回 false，此时 future 已经以 InterruptedException 完成
+     */
+    private boolean acquire(CompletableFuture<?> future) {
+        try {
+            permits.acquire();
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.completeExceptionally(e);
+            return false;
+        }
+    }
+
+    /**
+     * 发送一个后台请求
+     */
+    private interface Request {
+        void send(BackgroundCallback callback) throws Exception;
+    }
+}
@@ -0,0 +1,75 @@
+package com.wmx.zookeeperstudy.zk.async;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * 请求合并（single-flight）：同一个 key 同时只有一个请求在途，期间相同 key 的调用直接共享这个请求的结果
+ * 1、比如很多 HTTP 请求同时读取同一个热点节点，只向服务器发送一次 getData
+ * 2、请求完成（成功或失败）后立即移除，之后的调用重新发送请求，结果不会被缓存；
+ * 共享的请求可能在调用之前就已经发出，必须读到自己刚写入的数据的调用方不要走合并
+ * 3、共享的是同一个 future，调用方不要修改结果对象
+ *
+ * @author wangMaoXiong
+ * @version 1.0
+ * @date 2020/9/17 20:10
+ */
+public class SingleFlight<K, V> {
+
+    private final ConcurrentMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong executed = new AtomicLong();
+    private final AtomicLong shared = new AtomicLong();
+
+    /**
+     * @param key     ：请求的 key
+     * @param request ：没有相同 key 的请求在途时调用，发送真正的请求
+     * @return ：请求结果
+     */
+    public CompletableFuture<V> execute(K key, Supplier<? extends CompletionStage<V>> request) {
+        CompletableFuture<V> existing = inFlight.get(key);
+        if (existing != null) {
+            shared.incrementAndGet();
+            return existing;
+        }
+        CompletableFuture<V> future = new CompletableFuture<>();
+        existing = inFlight.putIfAbsent(key, future);
+        if (existing != null) {
+            shared.incrementAndGet();
+            return existing;
+        }
+        executed.incrementAndGet();
+        try {
+            request.get().whenComplete((value, error) -> {
+                //先移除再完成，完成回调里再次调用时会发送新的请求
+                inFlight.remove(key, future);
+                if (error == null) {
+                    future.complete(value);
+                } else {
+                    future.completeExceptionally(error);
+                }
+            });
+        } catch (RuntimeException e) {
+            inFlight.remove(key, future);
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * 实际发送的请求数
+     */
+    public long getExecutedCount() {
+        return executed.get();
+    }
+
+    /**
+     * 共享了在途请求结果的调用次数
+     */
+    public long getSharedCount() {
+        return shared.get();
+    }
+}
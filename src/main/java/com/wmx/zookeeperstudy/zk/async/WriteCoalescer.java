@@ -0,0 +1,253 @@
+package com.wmx.zookeeperstudy.zk.async;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.utils.ThreadUtils;
+import org.apache.zookeeper.data.Stat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 合并写（write-behind）：同一路径在窗口期内的多次 setData 合并为一次，只把最后的值写入服务器
+ * 1、适用于心跳、状态这类高频覆盖写的节点，一个进程每秒几百次 setData，除了最后一次都是浪费
+ * 2、路径第一次写入时开始计时，windowMs 后发送；同一路径同时最多一个 setData 在途，保证写入顺序，在途期间的写入在它完成后发送
+ * 3、每次写入返回一个 future，在自己的值或者之后的值写入成功时完成（返回那次写入后的 Stat），写入失败时以异常完成
+ * 4、CAS：指定了版本号（不是 -1）的写入不与其它写入合并，按顺序单独发送，保证版本校验的语义与逐个写入一致；
+ * 不指定版本号的写入只与之前同样不指定版本号、还没发送的写入合并，排在 CAS 写入之后时另起一批，CAS 调用方照常拿到版本校验的结果
+ * 5、close() 发送剩余的写入，并等待在途的写入完成（最多 {@link #CLOSE_TIMEOUT_MS} 毫秒），之后才能关闭客户端
+ *
+ * @author wangMaoXiong
+ * @version 1.0
+ * @date 2020/9/19 20:10
+ */
+public class WriteCoalescer implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(WriteCoalescer.class);
+
+    /**
+     * 关闭时等待剩余写入完成的最长时间
+     */
+    public static final long CLOSE_TIMEOUT_MS = 5000;
+
+    private final AsyncZkClient async;
+    private final long windowMs;
+    private final ScheduledExecutorService scheduler;
+    private final ConcurrentMap<String, Slot> slots = new ConcurrentHashMap<>();
+    private final AtomicLong requested = new AtomicLong();
+    private final AtomicLong committed = new AtomicLong();
+
+    /**
+     * @param client   ：已经 start() 的客户端
+     * @param windowMs ：合并窗口（毫秒）
+     */
+    public WriteCoalescer(CuratorFramework client, long windowMs) {
+        this.async = new AsyncZkClient(client);
+        this.windowMs = windowMs;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(ThreadUtils.newThreadFactory("WriteCoalescer"));
+    }
+
+    /**
+     * 不校验版本的合并写
+     */
+    public CompletableFuture<Stat> setData(String path, byte[] data) {
+        return setData(path, data, -1);
+    }
+
+    /**
+     * 合并写
+     *
+     * @param version ：期望的版本号，-1 表示匹配任意版本
+     * @return ：自己的值或者之后的值写入成功时完成
+     */
+    public CompletableFuture<Stat> setData(String path, byte[] data, int version) {
+        requested.incrementAndGet();
+        CompletableFuture<Stat> future = new CompletableFuture<>();
+        while (true) {
+            Slot slot = slots.computeIfAbsent(path, Slot::new);
+            synchronized (slot) {
+                if (slot.removed) {
+                    //空闲的槽刚被移除，重新获取
+                    continue;
+                }
+                Batch last = slot.batches.peekLast();
+                if (last != null && version == -1 && last.version == -1) {
+                    last.data = data;
+                    last.waiters.add(future);
+                } else {
+                    Batch batch = new Batch(data, version, System.currentTimeMillis() + windowMs);
+                    batch.waiters.add(future);
+                    slot.batches.add(batch);
+                }
+                schedule(slot);
+            }
+            return future;
+        }
+    }
+
+    /**
+     * 没有在途请求、也没有安排发送时，按队首批次的到期时间安排发送；调用方持有 slot 锁
+     */
+    private void schedule(Slot slot) {
+        if (slot.inFlight || slot.scheduled || slot.batches.isEmpty()) {
+            return;
+        }
+        slot.scheduled = true;
+        long delay = Math.max(0, slot.batches.peekFirst().dueAt - System.currentTimeMillis());
+        try {
+            scheduler.schedule(() -> send(slot), delay, TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            //已经关闭，直接发送
+            slot.scheduled = false;
+            sendNow(slot);
+        }
+    }
+
+    private void send(Slot slot) {
+        synchronized (slot) {
+            slot.scheduled = false;
+            sendNow(slot);
+        }
+    }
+
+    /**
+     * 发送队首批次；调用方持有 slot 锁
+     */
+    private void sendNow(Slot slot) {
+        if (slot.inFlight || slot.batches.isEmpty()) {
+            return;
+        }
+        Batch batch = slot.batches.pollFirst();
+        slot.inFlight = true;
+        slot.inFlightBatch = batch;
+        committed.incrementAndGet();
+        async.setData(slot.path, batch.data, batch.version).whenComplete((stat, error) -> {
+            for (CompletableFuture<Stat> waiter : batch.waiters) {
+                if (error == null) {
+                    waiter.complete(stat);
+                } else {
+                    waiter.completeExceptionally(error);
+                }
+            }
+            if (error != null) {
+                logger.debug("合并写【{}】失败：{}", slot.path, error.toString());
+            }
+            synchronized (slot) {
+                slot.inFlight = false;
+                slot.inFlightBatch = null;
+                if (slot.batches.isEmpty()) {
+                    slot.removed = true;
+                    slots.remove(slot.path, slot);
+                } else {
+                    schedule(slot);
+                }
+            }
+        });
+    }
+
+    /**
+     * 立即发送所有还在窗口期内的写入（每个路径发送队首批次，其余的在前一个完成后立即发送）
+     */
+    public void flush() {
+        for (Slot slot : slots.values()) {
+            synchronized (slot) {
+                for (Batch batch : slot.batches) {
+                    batch.dueAt = 0;
+                }
+                sendNow(slot);
+            }
+        }
+    }
+
+    /**
+     * 调用方请求的写入次数
+     */
+    public long getRequestedCount() {
+        return requested.get();
+    }
+
+    /**
+     * 实际发送的 setData 次数
+     */
+    public long getCommittedCount() {
+        return committed.get();
+    }
+
+    /**
+     * 发送剩余的写入，等待在途和排队的写入完成（最多 {@link #CLOSE_TIMEOUT_MS} 毫秒）后关闭，之后的写入不再合并，直接发送
+     */
+    @Override
+    public void close() {
+        flush();
+        List<CompletableFuture<Stat>> pending = new ArrayList<>();
+        for (Slot slot : slots.values()) {
+            synchronized (slot) {
+                if (slot.inFlightBatch != null) {
+                    pending.addAll(slot.inFlightBatch.waiters);
+                }
+                for (Batch batch : slot.batches) {
+                    pending.addAll(batch.waiters);
+                }
+            }
+        }
+        if (!pending.isEmpty()) {
+            //失败的写入已经通知了各自的调用方，这里只等待结束
+            CompletableFuture<?>[] futures = new CompletableFuture<?>[pending.size()];
+            for (int i = 0; i < futures.length; i++) {
+                futures[i] = pending.get(i).handle((stat, error) -> null);
+            }
+            try {
+                CompletableFuture.allOf(futures).get(CLOSE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                logger.warn("关闭合并写时仍有 {} 个写入没有完成", pending.stream().filter(f -> !f.isDone()).count());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                //不会发生，异常已经在 handle 中转换
+            }
+        }
+        scheduler.shutdown();
+    }
+
+    private static class Slot {
+        private final String path;
+        private final Deque<Batch> batches = new ArrayDeque<>();
+        private boolean inFlight;
+        private Batch inFlightBatch;
+        private boolean scheduled;
+        private boolean removed;
+
+        private Slot(String path) {
+            this.path = path;
+        }
+    }
+
+    /**
+     * 合并在一起、一次发送的写入
+     */
+    private static class Batch {
+        private byte[] data;
+        private int version;
+        private long dueAt;
+        private final List<CompletableFuture<Stat>> waiters = new ArrayList<>(4);
+
+        private Batch(byte[] data, int version, long dueAt) {
+            this.data = data;
+            this.version = version;
+            this.dueAt = dueAt;
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package com.wmx.zookeeperstudy.zk.batch;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 批量提交中途因为连接丢失、会话过期、超时等原因中断（不是某个操作本身失败）
+ * 1、{@link #getResults()} 与添加顺序一一对应：之前已经提交的事务为 COMMITTED，中断的事务为 UNKNOWN（可能已提交，也可能没有），
+ * 之后的事务为 SKIPPED
+ * 2、原始异常见 {@link #getCause()}
+ *
+ * @author wangMaoXiong
+ * @version 1.0
+ * @date 2020/9/22 20:10
+ */
+public class BatchCommitException extends Exception {
+
+    private static final long serialVersionUID = 1L;
+
+    private final transient List<BatchResult> results;
+
+    public BatchCommitException(List<BatchResult> results, Throwable cause) {
+        super("批量提交中断，" + results.size() + " 个操作中部分已提交：" + cause, cause);
+        this.results = Collections.unmodifiableList(results);
+    }
+
+    public List<BatchResult> getResults() {
+        return results;
+    }
+}
@@ -0,0 +1,84 @@
+package com.wmx.zookeeperstudy.zk.batch;
+
+import org.apache.curator.framework.api.transaction.OperationType;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.data.Stat;
+
+/**
+ * 批量操作中单个操作的执行结果
+ *
+ * @author wangMaoXiong
+ * @version 1.0
+ * @date 2020/8/16 15:10
+ */
+public class BatchResult {
+
+    /**
+     * COMMITTED：所在事务提交成功
+     * FAILED：此操作执行失败，导致所在事务整体回滚，失败原因见 {@link #getCode()}
+     * ROLLED_BACK：此操作本身没有问题，但同一个事务中的其它操作失败了，被一起回滚
+     * SKIPPED：前面的事务失败后停止执行，此操作没有发送到服务器
+     * UNKNOWN：所在事务发送后连接丢失、会话过期或者超时，不确定是否已经提交，见 {@link BatchCommitException}
+     */
+    public enum Status {
+        COMMITTED, FAILED, ROLLED_BACK, SKIPPED, UNKNOWN
+    }
+
+    private final OperationType type;
+    private final String path;
+    private final Status status;
+    private final String resultPath;
+    private final Stat stat;
+    private final KeeperException.Code code;
+
+    public BatchResult(OperationType type, String path, Status status, String resultPath, Stat stat, KeeperException.Code code) {
+        this.type = type;
+        this.path = path;
+        this.status = status;
+        this.resultPath = resultPath;
+        this.stat = stat;
+        this.code = code;
+    }
+
+    public OperationType getType() {
+        return type;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    /**
+     * 创建节点时实际创建的路径（带序列号的节点会有序列号后缀）
+     */
+    public String getResultPath() {
+        return resultPath;
+    }
+
+    /**
+     * setData 修改后的节点信息
+     */
+    public Stat getStat() {
+        return stat;
+    }
+
+    /**
+     * 错误码，成功时为 OK，未执行时为 null
+     */
+    public KeeperException.Code getCode() {
+        return code;
+    }
+
+    public boolean isCommitted() {
+        return status == Status.COMMITTED;
+    }
+
+    @Override
+    public String toString() {
+        return "BatchResult{" + type + " " + path + ", status=" + status + ", code=" + code + "}";
+    }
+}
@@ -0,0 +1,278 @@
+package com.wmx.zookeeperstudy.zk.batch;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.api.transaction.CuratorOp;
+import org.apache.curator.framework.api.transaction.CuratorTransactionResult;
+import org.apache.curator.framework.api.transaction.OperationType;
+import org.apache.curator.framework.api.transaction.TransactionOp;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.OpResult;
+import org.apache.zookeeper.data.ACL;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 批量操作：先在本地累积 create、setData、delete、check 操作，commit 时通过 client.transaction()（multi）一次性发送
+ * 1、逐个调用 createNode2、updateNodeData1、deleteNode1 时，每个节点都是一次网络往返，批量操作则是一批一次往返
+ * 2、一次 multi 请求的大小不能超过服务器的 jute.maxbuffer（默认 1MB 左右），所以操作过多时会自动拆分成多个事务依次提交
+ * 3、每个事务内部是原子的（要么全部成功，要么全部回滚），拆分后的多个事务之间不是原子的
+ * 4、某个事务失败后，后面的事务不再执行，每个操作的执行情况见 {@link BatchResult}；
+ * 连接丢失等原因中断时抛出 {@link BatchCommitException}，其中带有已经提交的部分结果
+ * 5、一个 NodeBatch 不是线程安全的，由一个线程累积、提交
+ *
+ * @author wangMaoXiong
+ * @version 1.0
+ * @date 2020/8/16 15:30
+ */
+public class NodeBatch {
+
+    private static final Logger logger = LoggerFactory.getLogger(NodeBatch.class);
+
+    /**
+     * 单个事务的默认最大字节数，为 jute.maxbuffer 默认值（0xfffff）的一半，给请求头、ACL 等预留足够空间
+     */
+    public static final int DEFAULT_MAX_BATCH_BYTES = 512 * 1024;
+    /**
+     * 单个事务的默认最大操作数
+     */
+    public static final int DEFAULT_MAX_BATCH_OPS = 1000;
+    /**
+     * 估算单个操作大小时，除路径和数据以外的固定开销（操作类型、版本号、ACL 等）
+     */
+    private static final int OP_OVERHEAD_BYTES = 64;
+
+    private final CuratorFramework client;
+    private final int maxBatchBytes;
+    private final int maxBatchOps;
+    private final List<PendingOp> ops = new ArrayList<>();
+
+    public NodeBatch(CuratorFramework client) {
+        this(client, DEFAULT_MAX_BATCH_BYTES, DEFAULT_MAX_BATCH_OPS);
+    }
+
+    /**
+     * @param client        ：已经 start() 的客户端
+     * @param maxBatchBytes ：单个事务的最大字节数（估算值）
+     * @param maxBatchOps   ：单个事务的最大操作数
+     */
+    public NodeBatch(CuratorFramework client, int maxBatchBytes, int maxBatchOps) {
+        this.client = client;
+        this.maxBatchBytes = maxBatchBytes;
+        this.maxBatchOps = maxBatchOps;
+    }
+
+    /**
+     * 创建节点，父节点必须存在（或者在本批次前面先创建）
+     *
+     * @param path ：节点路径
+     * @param data ：节点数据
+     * @param mode ：节点创建模式 {@link CreateMode}
+     * @return
+     */
+    public NodeBatch create(String path, byte[] data, CreateMode mode) {
+        return create(path, data, mode, null);
+    }
+
+    /**
+     * 创建节点，并指定节点权限
+     *
+     * @param acl ：节点权限，为 null 时使用客户端默认权限（默认为 OPEN_ACL_UNSAFE）
+     * @return
+     */
+    public NodeBatch create(String path, byte[] data, CreateMode mode, List<ACL> acl) {
+        ops.add(new PendingOp(OperationType.CREATE, path, data, mode, -1, acl));
+        return this;
+    }
+
+    /**
+     * 修改节点数据
+     *
+     * @param path    ：节点路径
+     * @param data    ：节点数据
+     * @param version ：期望的版本号，-1 表示匹配任意版本
+     * @return
+     */
+    public NodeBatch setData(String path, byte[] data, int version) {
+        ops.add(new PendingOp(OperationType.SET_DATA, path, data, null, version, null));
+        return this;
+    }
+
+    /**
+     * 删除节点，节点下不能有子节点
+     *
+     * @param path    ：节点路径
+     * @param version ：期望的版本号，-1 表示匹配任意版本
+     * @return
+     */
+    public NodeBatch delete(String path, int version) {
+        ops.add(new PendingOp(OperationType.DELETE, path, null, null, version, null));
+        return this;
+    }
+
+    /**
+     * 版本检查，版本不匹配时所在事务整体失败（KeeperException$BadVersionException）
+     *
+     * @param path    ：节点路径
+     * @param version ：期望的版本号
+     * @return
+     */
+    public NodeBatch check(String path, int version) {
+        ops.add(new PendingOp(OperationType.CHECK, path, null, null, version, null));
+        return this;
+    }
+
+    /**
+     * 已经累积的操作个数
+     */
+    public int size() {
+        return ops.size();
+    }
+
+    /**
+     * 提交所有累积的操作，提交后清空（包括中途异常时，避免重试时重复发送已经提交的事务）
+     *
+     * @return ：与添加顺序一一对应的执行结果
+     * @throws BatchCommitException ：连接丢失等非节点原因导致提交中断，异常中带有已经提交的部分结果
+     */
+    public List<BatchResult> commit() throws BatchCommitException {
+        List<BatchResult> results = new ArrayList<>(ops.size());
+        try {
+            int from = 0;
+            boolean failed = false;
+            while (from < ops.size()) {
+                int to = nextBoundary(from);
+                List<PendingOp> chunk = ops.subList(from, to);
+                if (failed) {
+                    addResults(results, chunk, BatchResult.Status.SKIPPED, null);
+                } else {
+                    try {
+                        failed = !commitChunk(chunk, results);
+                    } catch (Exception e) {
+                        if (e instanceof InterruptedException) {
+                            Thread.currentThread().interrupt();
+                        }
+                        KeeperException.Code code = e instanceof KeeperException ? ((KeeperException) e).code() : null;
+                        addResults(results, chunk, BatchResult.Status.UNKNOWN, code);
+                        addResults(results, ops.subList(to, ops.size()), BatchResult.Status.SKIPPED, null);
+                        throw new BatchCommitException(results, e);
+                    }
+                }
+                from = to;
+            }
+            return results;
+        } finally {
+            ops.clear();
+        }
+    }
+
+    private static void addResults(List<BatchResult> results, List<PendingOp> chunk, BatchResult.Status status, KeeperException.Code code) {
+        for (PendingOp op : chunk) {
+            results.add(new BatchResult(op.type, op.path, status, null, null, code));
+        }
+    }
+
+    /**
+     * 按字节数和操作数找到本次事务的结束位置（不包含）
+     */
+    private int nextBoundary(int from) {
+        int bytes = 0;
+        int to = from;
+        while (to < ops.size() && to - from < maxBatchOps) {
+            int size = ops.get(to).estimateSize();
+            //单个操作超过上限时，也要单独作为一个事务发送，由服务器决定是否拒绝
+            if (to > from && bytes + size > maxBatchBytes) {
+                break;
+            }
+            bytes += size;
+            to++;
+        }
+        return to;
+    }
+
+    /**
+     * 提交一个事务
+     *
+     * @return ：事务是否提交成功
+     */
+    private boolean commitChunk(List<PendingOp> chunk, List<BatchResult> results) throws Exception {
+        List<CuratorOp> curatorOps = new ArrayList<>(chunk.size());
+        TransactionOp transactionOp = client.transactionOp();
+        for (PendingOp op : chunk) {
+            curatorOps.add(op.toCuratorOp(transactionOp));
+        }
+        try {
+            List<CuratorTransactionResult> transactionResults = client.transaction().forOperations(curatorOps);
+            for (int i = 0; i < chunk.size(); i++) {
+                CuratorTransactionResult result = transactionResults.get(i);
+                results.add(new BatchResult(chunk.get(i).type, chunk.get(i).path, BatchResult.Status.COMMITTED,
+                        result.getResultPath(), result.getResultStat(), KeeperException.Code.OK));
+            }
+            return true;
+        } catch (KeeperException e) {
+            List<OpResult> opResults = e.getResults();
+            if (opResults == null) {
+                throw e;
+            }
+            logger.warn("批量事务失败，{} 个操作全部回滚：{}", chunk.size(), e.getMessage());
+            for (int i = 0; i < chunk.size(); i++) {
+                KeeperException.Code code = KeeperException.Code.RUNTIMEINCONSISTENCY;
+                if (i < opResults.size() && opResults.get(i) instanceof OpResult.ErrorResult) {
+                    code = KeeperException.Code.get(((OpResult.ErrorResult) opResults.get(i)).getErr());
+                }
+                //失败的那个操作返回真实错误码，其它操作返回 OK 或者 RUNTIMEINCONSISTENCY
+                boolean cause = code != KeeperException.Code.OK && code != KeeperException.Code.RUNTIMEINCONSISTENCY;
+                results.add(new BatchResult(chunk.get(i).type, chunk.get(i).path,
+                        cause ? BatchResult.Status.FAILED : BatchResult.Status.ROLLED_BACK, null, null, code));
+            }
+            return false;
+        }
+    }
+
+    private static class PendingOp {
+        private final OperationType type;
+        private final String path;
+        private final byte[] data;
+        private final CreateMode mode;
+        private final int version;
+        private final List<ACL> acl;
+
+        private PendingOp(OperationType type, String path, byte[] data, CreateMode mode, int version, List<ACL> acl) {
+            this.type = type;
+            this.path = path;
+            this.data = data;
+            this.mode = mode;
+            this.version = version;
+            this.acl = acl;
+        }
+
+        private int estimateSize() {
+            //路径按 UTF-8 最坏情况每个字符 3 个字节估算
+            int size = path.length() * 3 + (data == null ? 0 : data.length) + OP_OVERHEAD_BYTES;
+            if (acl != null) {
+                for (ACL entry : acl) {
+                    size += OP_OVERHEAD_BYTES + entry.getId().getScheme().length() * 3 + entry.getId().getId().length() * 3;
+                }
+            }
+            return size;
+        }
+
+        private CuratorOp toCuratorOp(TransactionOp transactionOp) throws Exception {
+            switch (type) {
+                case CREATE:
+                    //未设置数据时使用客户端的默认数据
+                    return data == null ? transactionOp.create().withMode(mode).withACL(acl).forPath(path)
+                            : transactionOp.create().withMode(mode).withACL(acl).forPath(path, data);
+                case SET_DATA:
+                    return transactionOp.setData().withVersion(version).forPath(path, data);
+                case DELETE:
+                    return transactionOp.delete().withVersion(version).forPath(path);
+                default:
+                    return transactionOp.check().withVersion(version).forPath(path);
+            }
+        }
+    }
+}
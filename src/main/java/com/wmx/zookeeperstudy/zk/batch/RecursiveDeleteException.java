@@ -0,0 +1,32 @@
+package com.wmx.zookeeperstudy.zk.batch;
+
+/**
+ * 级联删除中途失败（某个删除事务及其逐个回退删除在重试之后仍然失败，例如连接一直没有恢复）
+ * 1、{@link #getResult()} 为失败前已经删除的节点数与耗时，子树可能只删除了一部分，可以再次调用 delete 继续删除
+ * 2、原始异常见 {@link #getCause()}
+ *
+ * @author wangMaoXiong
+ * @version 1.0
+ * @date 2020/8/27 21:05
+ */
+public class RecursiveDeleteException extends Exception {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String path;
+    private final transient RecursiveDeleter.Result result;
+
+    public RecursiveDeleteException(String path, RecursiveDeleter.Result result, Throwable cause) {
+        super("级联删除【" + path + "】中断，" + result + "：" + cause, cause);
+        this.path = path;
+        this.result = result;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public RecursiveDeleter.Result getResult() {
+        return result;
+    }
+}
@@ -0,0 +1,263 @@
+package com.wmx.zookeeperstudy.zk.batch;
+
+import com.wmx.zookeeperstudy.zk.async.AsyncZkClient;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.utils.ThreadUtils;
+import org.apache.curator.utils.ZKPaths;
+import org.apache.zookeeper.KeeperException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 并行级联删除，用于替代宽/深子树上的 deletingChildrenIfNeeded（它是深度优先、一个节点一次往返地删除）
+ * 1、先异步流水线地按层遍历子树，得到每一层的节点
+ * 2、从最深的一层开始，每层的节点按 batchSize 分成多个 multi 删除事务，多个事务在线程池上并行提交，一层删完再删上一层
+ * 3、事务失败（节点已被别人删除、删除期间又新建了子节点等）或者提交中断（{@link BatchCommitException}，例如连接丢失）时，
+ * 没有确认提交的节点逐个回退为 guaranteed() 删除（按客户端的重试策略重试，NONODE 视为已经删除），
+ * 子节点非空时再用 deletingChildrenIfNeeded 兜底，所以删除期间并发新建的子节点也会被删除
+ * 4、回退删除仍然失败时，不再提交还没开始的事务，等同一层已经开始的事务结束后抛出 {@link RecursiveDeleteException}，其中带有已经删除的节点数，
+ * 子树可能只删除了一部分，再次调用 delete 即可继续删除剩下的节点
+ * 5、最后用 guaranteed().deletingChildrenIfNeeded() 删除根节点，保留 deleteNode3 的 guaranteed 语义：
+ * 即使删除请求在服务器上成功、响应返回前连接断开，Curator 也会在后台继续重试直到删除成功
+ *
+ * @author wangMaoXiong
+ * @version 1.0
+ * @date 2020/8/27 20:15
+ */
+public class RecursiveDeleter {
+
+    private static final Logger logger = LoggerFactory.getLogger(RecursiveDeleter.class);
+
+    /**
+     * 删除进度回调，在提交删除事务的线程上调用
+     */
+    @FunctionalInterface
+    public interface ProgressListener {
+        /**
+         * @param deleted    ：已经删除的节点数
+         * @param discovered ：遍历得到的节点总数
+         */
+        void onProgress(long deleted, long discovered);
+    }
+
+    /**
+     * 删除结果
+     */
+    public static class Result {
+        private final long deleted;
+        private final long elapsedMs;
+
+        Result(long deleted, long elapsedMs) {
+            this.deleted = deleted;
+            this.elapsedMs = elapsedMs;
+        }
+
+        public long getDeleted() {
+            return deleted;
+        }
+
+        public long getElapsedMs() {
+            return elapsedMs;
+        }
+
+        /**
+         * 每秒删除的节点数
+         */
+        public double getThroughput() {
+            return elapsedMs == 0 ? deleted : deleted * 1000.0 / elapsedMs;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("删除 %d 个节点，耗时 %d 毫秒，%.1f nodes/sec", deleted, elapsedMs, getThroughput());
+        }
+    }
+
+    private final CuratorFramework client;
+    private final int concurrency;
+    private final int batchSize;
+
+    /**
+     * @param client      ：已经 start() 的客户端
+     * @param concurrency ：并行提交的删除事务数
+     * @param batchSize   ：每个删除事务包含的节点数
+     */
+    public RecursiveDeleter(CuratorFramework client, int concurrency, int batchSize) {
+        this.client = client;
+        this.concurrency = concurrency;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * 删除 path 及其所有子孙节点，path 不存在时直接返回
+     *
+     * @param path     ：被删除的节点路径
+     * @param listener ：进度回调，可以为 null
+     * @return
+     * @throws RecursiveDeleteException ：删除中途失败，带有已经删除的节点数
+     * @throws Exception                ：遍历子树失败，此时还没有删除任何节点
+     */
+    public Result delete(String path, ProgressListener listener) throws Exception {
+        long start = System.currentTimeMillis();
+        List<List<String>> levels = discover(path);
+        long discovered = 0;
+        for (List<String> level : levels) {
+            discovered += level.size();
+        }
+        AtomicLong deleted = new AtomicLong();
+        //一个事务失败后，还没开始的事务不再提交，避免连接不可用时每个事务都等待一次连接超时
+        AtomicBoolean aborted = new AtomicBoolean();
+        ExecutorService executor = ThreadUtils.newFixedThreadPool(concurrency, "RecursiveDeleter");
+        try {
+            //第 0 层是根节点，最后单独删除
+            for (int depth = levels.size() - 1; depth > 0; depth--) {
+                List<String> level = levels.get(depth);
+                List<Future<?>> futures = new ArrayList<>();
+                for (int from = 0; from < level.size(); from += batchSize) {
+                    final List<String> chunk = level.subList(from, Math.min(from + batchSize, level.size()));
+                    final long total = discovered;
+                    futures.add(executor.submit(() -> {
+                        if (aborted.get()) {
+                            return null;
+                        }
+                        try {
+                            deleteChunk(chunk, deleted);
+                        } catch (Exception e) {
+                            aborted.set(true);
+                            throw e;
+                        }
+                        if (listener != null) {
+                            listener.onProgress(deleted.get(), total);
+                        }
+                        return null;
+                    }));
+                }
+                //等同一层已经开始的事务都结束后再报告失败，已经删除的节点计入结果
+                Throwable failure = null;
+                for (Future<?> future : futures) {
+                    try {
+                        future.get();
+                    } catch (ExecutionException e) {
+                        if (failure == null) {
+                            failure = e.getCause();
+                        }
+                    }
+                }
+                if (failure != null) {
+                    throw new RecursiveDeleteException(path, new Result(deleted.get(), System.currentTimeMillis() - start), failure);
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+        try {
+            client.delete().guaranteed().deletingChildrenIfNeeded().withVersion(-1).forPath(path);
+            deleted.incrementAndGet();
+        } catch (KeeperException.NoNodeException e) {
+            logger.debug("节点【{}】已经不存在", path);
+        } catch (Exception e) {
+            throw new RecursiveDeleteException(path, new Result(deleted.get(), System.currentTimeMillis() - start), e);
+        }
+        if (listener != null) {
+            listener.onProgress(deleted.get(), discovered);
+        }
+        Result result = new Result(deleted.get(), System.currentTimeMillis() - start);
+        logger.info("级联删除【{}】：{}", path, result);
+        return result;
+    }
+
+    /**
+     * 按层遍历子树，同一层的 getChildren 全部异步发送，一层的结果都返回后再遍历下一层
+     *
+     * @return ：下标为层级，第 0 层为根节点；根节点不存在时返回空列表
+     */
+    private List<List<String>> discover(String root) throws Exception {
+        AsyncZkClient async = new AsyncZkClient(client);
+        List<List<String>> levels = new ArrayList<>();
+        if (client.checkExists().forPath(root) == null) {
+            return levels;
+        }
+        List<String> current = Collections.singletonList(root);
+        while (!current.isEmpty()) {
+            levels.add(current);
+            List<CompletableFuture<List<String>>> futures = new ArrayList<>(current.size());
+            for (String path : current) {
+                futures.add(async.getChildren(path).toCompletableFuture().exceptionally(error -> {
+                    Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+                    if (cause instanceof KeeperException.NoNodeException) {
+                        return Collections.emptyList();
+                    }
+                    throw new CompletionException(cause);
+                }));
+            }
+            List<String> next = new ArrayList<>();
+            for (int i = 0; i < current.size(); i++) {
+                try {
+                    for (String child : futures.get(i).get()) {
+                        next.add(ZKPaths.makePath(current.get(i), child));
+                    }
+                } catch (ExecutionException e) {
+                    throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+                }
+            }
+            current = next;
+        }
+        return levels;
+    }
+
+    /**
+     * 一个 multi 事务删除一批节点，失败或提交中断时没有确认提交的节点逐个回退，回退删除在重试后仍然失败时抛出异常
+     */
+    private void deleteChunk(List<String> chunk, AtomicLong deleted) throws Exception {
+        NodeBatch batch = new NodeBatch(client, NodeBatch.DEFAULT_MAX_BATCH_BYTES, chunk.size());
+        for (String path : chunk) {
+            batch.delete(path, -1);
+        }
+        List<BatchResult> results;
+        try {
+            results = batch.commit();
+        } catch (BatchCommitException e) {
+            //中断的事务状态未知，回退删除时 NONODE 视为已经删除
+            logger.warn("删除事务提交中断，逐个节点重试：{}", e.getCause().toString());
+            results = e.getResults();
+        }
+        for (int i = 0; i < results.size(); i++) {
+            if (results.get(i).isCommitted() || deleteOne(chunk.get(i))) {
+                deleted.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * 删除单个节点
+     *
+     * @return ：节点是否由本次调用删除
+     */
+    private boolean deleteOne(String path) throws Exception {
+        try {
+            client.delete().guaranteed().withVersion(-1).forPath(path);
+            return true;
+        } catch (KeeperException.NoNodeException e) {
+            return false;
+        } catch (KeeperException.NotEmptyException e) {
+            //删除期间又新建了子节点
+            try {
+                client.delete().guaranteed().deletingChildrenIfNeeded().withVersion(-1).forPath(path);
+                return true;
+            } catch (KeeperException.NoNodeException ex) {
+                return false;
+            }
+        }
+    }
+}
@@ -0,0 +1,292 @@
+package com.wmx.zookeeperstudy.zk.blob;
+
+import com.wmx.zookeeperstudy.zk.NodeData;
+import com.wmx.zookeeperstudy.zk.async.AsyncZkClient;
+import com.wmx.zookeeperstudy.zk.batch.BatchResult;
+import com.wmx.zookeeperstudy.zk.batch.NodeBatch;
+import com.wmx.zookeeperstudy.zk.codec.CompressedCodec;
+import com.wmx.zookeeperstudy.zk.codec.NodeCodec;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.utils.ZKPaths;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.data.Stat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.zip.CRC32;
+
+/**
+ * 大数据存储 —— 压缩 + 分片，突破单个节点 1MB（jute.maxbuffer）的限制，同时保证读取方不会读到写了一半的数据
+ * 1、写入：数据先按阈值压缩（{@link CompressedCodec}），压缩后不超过 inlineBytes 时直接内联在清单中；
+ * 否则按 chunkBytes 拆分成分片子节点 {path}/chunk-{generation}-{token}-{index}
+ * 2、分片创建与清单更新放在同一个 {@link NodeBatch} 中，清单的 setData 排在最后并带版本号（CAS）。
+ * 总大小不超过一个事务时（默认 512KB）整体原子提交；更大时 NodeBatch 拆成多个事务，清单所在的最后一个事务就是提交点，
+ * 之前的事务只创建了还没有被引用的新分片，读取方看不到
+ * 3、读取：先读清单，再通过异步客户端并行读取所有分片，拼接后校验 CRC32 再解压；
+ * 分片不存在说明读取期间有新的写入并清理了旧分片，重新读取清单
+ * 4、写入成功后删除 generation 更小的旧分片；并发写入版本冲突时，以最新的清单重试，最后写入者胜出
+ *
+ * @author wangMaoXiong
+ * @version 1.0
+ * @date 2020/9/10 20:40
+ */
+public class LargeValueStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(LargeValueStore.class);
+
+    /**
+     * 分片大小，一个事务（512KB）可以放下两个分片
+     */
+    public static final int DEFAULT_CHUNK_BYTES = 200 * 1024;
+    /**
+     * 压缩后不超过此大小时内联在清单节点中
+     */
+    public static final int DEFAULT_INLINE_BYTES = 200 * 1024;
+
+    private static final int MAX_ATTEMPTS = 10;
+
+    private final CuratorFramework client;
+    private final AsyncZkClient async;
+    private final int chunkBytes;
+    private final int inlineBytes;
+    private final NodeCodec<byte[]> compressor = new CompressedCodec<>(NodeCodec.bytes(), CompressedCodec.DEFAULT_THRESHOLD);
+
+    public LargeValueStore(CuratorFramework client) {
+        this(client, DEFAULT_CHUNK_BYTES, DEFAULT_INLINE_BYTES);
+    }
+
+    /**
+     * @param client      ：已经 start() 的客户端
+     * @param chunkBytes  ：分片大小
+     * @param inlineBytes ：压缩后不超过此大小时不分片
+     */
+    public LargeValueStore(CuratorFramework client, int chunkBytes, int inlineBytes) {
+        this.client = client;
+        this.async = new AsyncZkClient(client);
+        this.chunkBytes = chunkBytes;
+        this.inlineBytes = inlineBytes;
+    }
+
+    /**
+     * 写入数据，节点不存在时自动创建（包括父节点）
+     *
+     * @param path  ：值节点路径，如 /config/app
+     * @param value ：数据
+     * @return ：清单节点更新后的信息
+     * @throws Exception
+     */
+    public Stat write(String path, byte[] value) throws Exception {
+        if (value == null) {
+            throw new IllegalArgumentException("写入大数据【" + path + "】的数据不能为 null，删除请调用 delete");
+        }
+        byte[] encoded = compressor.encode(value);
+        CRC32 crc = new CRC32();
+        crc.update(encoded, 0, encoded.length);
+        long checksum = crc.getValue();
+        String token = Integer.toHexString(ThreadLocalRandom.current().nextInt(0x100000, 0x1000000));
+
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            Stat stat = new Stat();
+            Manifest current = readManifest(path, stat);
+            if (current == null && stat.getMzxid() == 0) {
+                //先创建一个空的清单节点，分片需要它作为父节点
+                try {
+                    client.create().creatingParentContainersIfNeeded().forPath(path, new byte[0]);
+                } catch (KeeperException.NodeExistsException e) {
+                    //其它写入者已经创建
+                }
+                continue;
+            }
+            long generation = current == null ? 1 : current.generation + 1;
+            Manifest manifest;
+            NodeBatch batch = new NodeBatch(client);
+            if (encoded.length <= inlineBytes) {
+                manifest = new Manifest(generation, token, encoded.length, checksum, 0, encoded);
+            } else {
+                int chunkCount = (encoded.length + chunkBytes - 1) / chunkBytes;
+                manifest = new Manifest(generation, token, encoded.length, checksum, chunkCount, null);
+                for (int i = 0; i < chunkCount; i++) {
+                    int from = i * chunkBytes;
+                    byte[] chunk = new byte[Math.min(chunkBytes, encoded.length - from)];
+                    System.arraycopy(encoded, from, chunk, 0, chunk.length);
+                    batch.create(ZKPaths.makePath(path, manifest.chunkName(i)), chunk, CreateMode.PERSISTENT);
+                }
+            }
+            batch.setData(path, Manifest.CODEC.encode(manifest), stat.getVersion());
+            List<BatchResult> results = batch.commit();
+            BatchResult last = results.get(results.size() - 1);
+            if (last.isCommitted()) {
+                logger.debug("写入大数据【{}】：原始 {} 字节，编码后 {} 字节，{} 个分片", path, value.length, encoded.length, manifest.chunkCount);
+                cleanup(path, generation);
+                return last.getStat();
+            }
+            KeeperException.Code code = failureCode(results);
+            if (code != KeeperException.Code.BADVERSION && code != KeeperException.Code.NODEEXISTS) {
+                //当前提交的清单仍然引用 generation - 1 的分片，只能删除本次写入创建的分片
+                cleanupAttempt(path, manifest);
+                throw KeeperException.create(code, path);
+            }
+            //并发写入，清单版本已变化，以最新的清单重试
+            logger.debug("写入大数据【{}】版本冲突，第 {} 次重试", path, attempt + 1);
+        }
+        throw new IOException("写入大数据【" + path + "】失败：并发写入冲突次数过多");
+    }
+
+    /**
+     * 读取数据
+     *
+     * @param path ：值节点路径
+     * @return ：节点不存在或者还没有写入过数据时返回 null
+     * @throws Exception
+     */
+    public byte[] read(String path) throws Exception {
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            Manifest manifest = readManifest(path, new Stat());
+            if (manifest == null) {
+                return null;
+            }
+            byte[] encoded;
+            if (manifest.chunkCount == 0) {
+                encoded = manifest.inline;
+            } else {
+                encoded = readChunks(path, manifest);
+                if (encoded == null) {
+                    //读取期间有新的写入，旧分片已被清理
+                    continue;
+                }
+            }
+            CRC32 crc = new CRC32();
+            crc.update(encoded, 0, encoded.length);
+            if (crc.getValue() != manifest.checksum) {
+                throw new IOException("大数据【" + path + "】校验失败，generation=" + manifest.generation);
+            }
+            return compressor.decode(encoded);
+        }
+        throw new IOException("读取大数据【" + path + "】失败：读取期间被反复修改");
+    }
+
+    public <T> Stat write(String path, T value, NodeCodec<T> codec) throws Exception {
+        return write(path, codec.encode(value));
+    }
+
+    public <T> T read(String path, NodeCodec<T> codec) throws Exception {
+        return codec.decode(read(path));
+    }
+
+    /**
+     * 删除值节点及其所有分片
+     *
+     * @param path
+     * @throws Exception
+     */
+    public void delete(String path) throws Exception {
+        try {
+            client.delete().guaranteed().deletingChildrenIfNeeded().forPath(path);
+        } catch (KeeperException.NoNodeException e) {
+            //已经不存在
+        }
+    }
+
+    /**
+     * @return ：清单，节点不存在或数据为空时返回 null；节点不存在时 stat 不会被填充（mzxid 为 0）
+     */
+    private Manifest readManifest(String path, Stat stat) throws Exception {
+        byte[] data;
+        try {
+            data = client.getData().storingStatIn(stat).forPath(path);
+        } catch (KeeperException.NoNodeException e) {
+            return null;
+        }
+        return data == null || data.length == 0 ? null : Manifest.CODEC.decode(data);
+    }
+
+    /**
+     * 并行读取所有分片并拼接
+     *
+     * @return ：有分片不存在时返回 null
+     */
+    private byte[] readChunks(String path, Manifest manifest) throws Exception {
+        List<CompletableFuture<NodeData>> futures = new ArrayList<>(manifest.chunkCount);
+        for (int i = 0; i < manifest.chunkCount; i++) {
+            futures.add(async.getData(ZKPaths.makePath(path, manifest.chunkName(i))).toCompletableFuture());
+        }
+        byte[] encoded = new byte[manifest.length];
+        int offset = 0;
+        for (CompletableFuture<NodeData> future : futures) {
+            byte[] chunk;
+            try {
+                chunk = future.get().getData();
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause() instanceof CompletionException ? e.getCause().getCause() : e.getCause();
+                if (cause instanceof KeeperException.NoNodeException) {
+                    return null;
+                }
+                throw cause instanceof Exception ? (Exception) cause : e;
+            }
+            if (offset + chunk.length > encoded.length) {
+                throw new IOException("大数据【" + path + "】分片长度与清单不符");
+            }
+            System.arraycopy(chunk, 0, encoded, offset, chunk.length);
+            offset += chunk.length;
+        }
+        if (offset != encoded.length) {
+            throw new IOException("大数据【" + path + "】分片长度与清单不符");
+        }
+        return encoded;
+    }
+
+    /**
+     * 写入成功后删除 generation 小于 keepGeneration 的分片；等于、大于的可能属于当前清单或者正在进行的写入，保留
+     */
+    private void cleanup(String path, long keepGeneration) {
+        try {
+            NodeBatch batch = new NodeBatch(client);
+            for (String child : client.getChildren().forPath(path)) {
+                long generation = Manifest.generationOf(child);
+                if (generation >= 0 && generation < keepGeneration) {
+                    batch.delete(ZKPaths.makePath(path, child), -1);
+                }
+            }
+            if (batch.size() > 0) {
+                batch.commit();
+            }
+        } catch (Exception e) {
+            //清理失败不影响数据的正确性，下次写入时会再次清理
+            logger.warn("清理大数据【{}】的旧分片失败：{}", path, e.getMessage());
+        }
+    }
+
+    /**
+     * 写入失败时删除本次写入（同一个 generation、token）已经创建的分片，不影响当前提交的清单
+     */
+    private void cleanupAttempt(String path, Manifest manifest) {
+        for (int i = 0; i < manifest.chunkCount; i++) {
+            try {
+                client.delete().forPath(ZKPaths.makePath(path, manifest.chunkName(i)));
+            } catch (KeeperException.NoNodeException e) {
+                //所在事务已经回滚，或者根本没有发送
+            } catch (Exception e) {
+                //留下的分片不被任何清单引用，之后写入成功时按 generation 清理
+                logger.warn("清理大数据【{}】本次写入的分片失败：{}", path, e.getMessage());
+                return;
+            }
+        }
+    }
+
+    private static KeeperException.Code failureCode(List<BatchResult> results) {
+        for (BatchResult result : results) {
+            if (result.getStatus() == BatchResult.Status.FAILED) {
+                return result.getCode();
+            }
+        }
+        return KeeperException.Code.SYSTEMERROR;
+    }
+}
@@ -0,0 +1,89 @@
+package com.wmx.zookeeperstudy.zk.blob;
+
+import com.wmx.zookeeperstudy.zk.codec.BinaryCodec;
+import com.wmx.zookeeperstudy.zk.codec.BinaryInput;
+import com.wmx.zookeeperstudy.zk.codec.BinaryOutput;
+
+import java.io.IOException;
+
+/**
+ * 大数据的清单，保存在值节点本身的数据中
+ * 格式：MAGIC + generation + token + 编码后总长度 + CRC32 + 分片数 + [内联数据]
+ * 1、generation：每次写入递增，分片节点名称中带有 generation，清理旧分片时只删除更小的 generation
+ * 2、token：每次写入随机生成，同一个 generation 被多个写入者并发使用时，分片节点名称也不会冲突
+ * 3、分片数为 0 时数据直接内联在清单中，小数据只有一个节点
+ *
+ * @author wangMaoXiong
+ * @version 1.0
+ * @date 2020/9/10 20:20
+ */
+final class Manifest {
+
+    static final int MAGIC = 0x5A4B4C56;
+
+    static final BinaryCodec<Manifest> CODEC = new BinaryCodec<Manifest>() {
+        @Override
+        protected void write(Manifest value, BinaryOutput out) {
+            out.writeFixedInt(MAGIC)
+                    .writeLong(value.generation)
+                    .writeString(value.token)
+                    .writeInt(value.length)
+                    .writeFixedLong(value.checksum)
+                    .writeInt(value.chunkCount);
+            if (value.chunkCount == 0) {
+                out.writeBytes(value.inline);
+            }
+        }
+
+        @Override
+        protected Manifest read(BinaryInput in) throws IOException {
+            if (in.readFixedInt() != MAGIC) {
+                throw new IOException("不是大数据清单节点");
+            }
+            long generation = in.readLong();
+            String token = in.readString();
+            int length = in.readInt();
+            long checksum = in.readFixedLong();
+            int chunkCount = in.readInt();
+            byte[] inline = chunkCount == 0 ? in.readBytes() : null;
+            return new Manifest(generation, token, length, checksum, chunkCount, inline);
+        }
+    };
+
+    final long generation;
+    final String token;
+    final int length;
+    final long checksum;
+    final int chunkCount;
+    final byte[] inline;
+
+    Manifest(long generation, String token, int length, long checksum, int chunkCount, byte[] inline) {
+        this.generation = generation;
+        this.token = token;
+        this.length = length;
+        this.checksum = checksum;
+        this.chunkCount = chunkCount;
+        this.inline = inline;
+    }
+
+    /**
+     * 分片节点名称，如 chunk-0000000003-5f1c2a-00001
+     */
+    String chunkName(int index) {
+        return String.format("chunk-%010d-%s-%05d", generation, token, index);
+    }
+
+    /**
+     * 从分片节点名称中解析 generation，不是分片节点时返回 -1
+     */
+    static long generationOf(String chunkName) {
+        if (!chunkName.startsWith("chunk-") || chunkName.length() < 16) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(chunkName.substring(6, 16));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
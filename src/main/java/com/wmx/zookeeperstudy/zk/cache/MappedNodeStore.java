@@ -0,0 +1,430 @@
+package com.wmx.zookeeperstudy.zk.cache;
+
+import com.wmx.zookeeperstudy.zk.NodeData;
+import org.apache.zookeeper.data.Stat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
+import java.util.zip.CRC32;
+
+/**
+ * 内存映射文件节点存储：节点数据、Stat 保存在堆外的映射文件中，堆内只保留 路径 -> 文件偏移 的索引
+ * 1、文件按 REGION_BYTES 分段映射（单个 MappedByteBuffer 最大 2GB），记录不跨段，段尾放不下时从下一段开头写
+ * 2、只追加写：修改追加一条新记录并更新索引，删除追加一条墓碑记录；作废的字节超过存活字节时整理（重写存活记录后原子替换文件）
+ * 3、记录格式：长度 + CRC32 + 类型 + 路径 + Stat + 数据；文件头保存已提交的写入位置，
+ * 打开时从头顺序扫描重建索引，遇到 CRC 不符的记录（进程在写入中途退出）即停止，之后的内容丢弃
+ * 4、读取使用绝对位置，多个线程可以并发读取；写入、整理互斥
+ * 5、数据写入映射内存后由操作系统异步刷盘，{@link #flush()}、{@link #close()} 时强制刷盘
+ *
+ * @author wangMaoXiong
+ * @version 1.0
+ * @date 2020/9/16 20:10
+ */
+public class MappedNodeStore implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(MappedNodeStore.class);
+
+    /**
+     * 每段映射的大小，ZooKeeper 单个节点不超过 1MB（jute.maxbuffer），一段足够放下任意一条记录
+     */
+    static final int REGION_BYTES = 64 * 1024 * 1024;
+
+    private static final int MAGIC = 0x5A4B4D53;
+    private static final int FORMAT_VERSION = 1;
+    /**
+     * 文件头：MAGIC + 版本 + 已提交的写入位置
+     */
+    private static final int HEADER_BYTES = 32;
+    private static final int END_OFFSET = 8;
+    /**
+     * Stat 的 11 个字段：6 个 long + 5 个 int
+     */
+    private static final int STAT_BYTES = 6 * 8 + 5 * 4;
+    private static final byte PUT = 1;
+    private static final byte DELETE = 2;
+    /**
+     * 作废字节至少达到此值才整理，避免小文件频繁整理
+     */
+    private static final long MIN_COMPACT_BYTES = 16 * 1024 * 1024;
+
+    private final Path file;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, Long> index = new ConcurrentHashMap<>();
+
+    private FileChannel channel;
+    private final List<MappedByteBuffer> regions = new ArrayList<>();
+    private long end;
+    private long liveBytes;
+    private long deadBytes;
+
+    /**
+     * 打开（不存在时创建）存储文件，并扫描重建索引
+     *
+     * @param file ：存储文件路径
+     * @throws IOException
+     */
+    public MappedNodeStore(Path file) throws IOException {
+        this.file = file;
+        long start = System.currentTimeMillis();
+        open();
+        logger.info("打开节点存储【{}】：{} 个节点，{} 字节，耗时 {} 毫秒", file, index.size(), end, System.currentTimeMillis() - start);
+    }
+
+    private void open() throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long size = channel.size();
+        int count = (int) Math.max(1, (size + REGION_BYTES - 1) / REGION_BYTES);
+        for (int i = 0; i < count; i++) {
+            regions.add(channel.map(FileChannel.MapMode.READ_WRITE, (long) i * REGION_BYTES, REGION_BYTES));
+        }
+        ByteBuffer header = regions.get(0);
+        if (size == 0 || header.getInt(0) != MAGIC || header.getInt(4) != FORMAT_VERSION) {
+            if (size > 0) {
+                logger.warn("节点存储【{}】格式不符，重新创建", file);
+            }
+            header.putInt(0, MAGIC);
+            header.putInt(4, FORMAT_VERSION);
+            header.putLong(END_OFFSET, HEADER_BYTES);
+        }
+        long committed = header.getLong(END_OFFSET);
+        end = HEADER_BYTES;
+        while (end < committed) {
+            ByteBuffer region = regions.get((int) (end / REGION_BYTES));
+            int pos = (int) (end % REGION_BYTES);
+            int length = REGION_BYTES - pos >= 4 ? region.getInt(pos) : 0;
+            if (length == 0) {
+                //段尾的空白
+                end = (end / REGION_BYTES + 1) * REGION_BYTES;
+                continue;
+            }
+            if (length < 0 || pos + 8 + length > REGION_BYTES || !checksumMatches(region, pos, length)) {
+                logger.warn("节点存储【{}】在偏移 {} 处的记录损坏，丢弃之后的内容", file, end);
+                break;
+            }
+            String path = readPath(region, pos);
+            long size8 = 8 + length;
+            Long previous;
+            if (region.get(pos + 8) == PUT) {
+                previous = index.put(path, end);
+                liveBytes += size8;
+            } else {
+                previous = index.remove(path);
+                deadBytes += size8;
+            }
+            if (previous != null) {
+                long old = recordBytes(previous);
+                liveBytes -= old;
+                deadBytes += old;
+            }
+            end += size8;
+        }
+        regions.get(0).putLong(END_OFFSET, end);
+    }
+
+    /**
+     * 读取节点
+     *
+     * @param path ：节点路径
+     * @return ：不存在时返回 null
+     */
+    public NodeData get(String path) {
+        lock.readLock().lock();
+        try {
+            Long offset = index.get(path);
+            if (offset == null) {
+                return null;
+            }
+            ByteBuffer region = regions.get((int) (offset / REGION_BYTES));
+            int pos = (int) (offset % REGION_BYTES);
+            int p = pos + 9 + 2 + (region.getShort(pos + 9) & 0xFFFF);
+            Stat stat = readStat(region, p);
+            p += STAT_BYTES;
+            int dataLength = region.getInt(p);
+            byte[] data = null;
+            if (dataLength >= 0) {
+                data = new byte[dataLength];
+                ByteBuffer view = region.duplicate();
+                view.position(p + 4);
+                view.get(data);
+            }
+            return new NodeData(path, data, stat);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 写入（新增或覆盖）节点
+     */
+    public void put(NodeData node) throws IOException {
+        byte[] path = node.getPath().getBytes(StandardCharsets.UTF_8);
+        byte[] data = node.getData();
+        int length = 1 + 2 + path.length + STAT_BYTES + 4 + (data == null ? 0 : data.length);
+        lock.writeLock().lock();
+        try {
+            ByteBuffer region = reserve(length);
+            int pos = (int) (end % REGION_BYTES);
+            int p = pos + 8;
+            region.put(p, PUT);
+            region.putShort(p + 1, (short) path.length);
+            putBytes(region, p + 3, path);
+            p += 3 + path.length;
+            writeStat(region, p, node.getStat());
+            p += STAT_BYTES;
+            region.putInt(p, data == null ? -1 : data.length);
+            if (data != null) {
+                putBytes(region, p + 4, data);
+            }
+            commit(region, pos, length, node.getPath(), true);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        compactIfNeeded();
+    }
+
+    /**
+     * 删除节点，不存在时什么也不做
+     */
+    public void remove(String path) throws IOException {
+        if (!index.containsKey(path)) {
+            return;
+        }
+        byte[] bytes = path.getBytes(StandardCharsets.UTF_8);
+        int length = 1 + 2 + bytes.length;
+        lock.writeLock().lock();
+        try {
+            ByteBuffer region = reserve(length);
+            int pos = (int) (end % REGION_BYTES);
+            region.put(pos + 8, DELETE);
+            region.putShort(pos + 9, (short) bytes.length);
+            putBytes(region, pos + 11, bytes);
+            commit(region, pos, length, path, false);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        compactIfNeeded();
+    }
+
+    /**
+     * 遍历所有节点的路径和 Stat（不读取数据）
+     */
+    public void forEachStat(BiConsumer<String, Stat> consumer) {
+        lock.readLock().lock();
+        try {
+            for (Map.Entry<String, Long> entry : index.entrySet()) {
+                long offset = entry.getValue();
+                ByteBuffer region = regions.get((int) (offset / REGION_BYTES));
+                int pos = (int) (offset % REGION_BYTES);
+                consumer.accept(entry.getKey(), readStat(region, pos + 11 + (region.getShort(pos + 9) & 0xFFFF)));
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int size() {
+        return index.size();
+    }
+
+    /**
+     * 已使用的文件字节数（包括作废的记录）
+     */
+    public long getFileBytes() {
+        lock.readLock().lock();
+        try {
+            return end;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 强制刷盘
+     */
+    public void flush() {
+        lock.writeLock().lock();
+        try {
+            for (MappedByteBuffer region : regions) {
+                region.force();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 作废字节超过存活字节时，把存活记录写入新文件并原子替换
+     */
+    public void compactIfNeeded() throws IOException {
+        lock.writeLock().lock();
+        try {
+            if (deadBytes < MIN_COMPACT_BYTES || deadBytes < liveBytes) {
+                return;
+            }
+            long start = System.currentTimeMillis();
+            long before = end;
+            Path temp = Paths.get(file.toString() + ".compact");
+            Files.deleteIfExists(temp);
+            MappedNodeStore compacted = new MappedNodeStore(temp);
+            List<String> paths = new ArrayList<>(index.keySet());
+            Collections.sort(paths);
+            for (String path : paths) {
+                compacted.put(get(path));
+            }
+            compacted.close();
+            closeChannel();
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            regions.clear();
+            index.clear();
+            liveBytes = 0;
+            deadBytes = 0;
+            open();
+            logger.info("整理节点存储【{}】：{} 字节 -> {} 字节，耗时 {} 毫秒", file, before, end, System.currentTimeMillis() - start);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.writeLock().lock();
+        try {
+            if (channel != null) {
+                for (MappedByteBuffer region : regions) {
+                    region.force();
+                }
+                closeChannel();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void closeChannel() throws IOException {
+        channel.close();
+        channel = null;
+    }
+
+    /**
+     * 找到能放下 length 字节记录的位置，当前段剩余空间不够时跳到下一段，必要时映射新的一段
+     *
+     * @return ：记录所在的段，记录从 end 开始写
+     */
+    private ByteBuffer reserve(int length) throws IOException {
+        if (8L + length > REGION_BYTES - HEADER_BYTES) {
+            throw new IOException("节点过大，无法写入节点存储：" + length + " 字节");
+        }
+        int pos = (int) (end % REGION_BYTES);
+        if (pos + 8 + length > REGION_BYTES) {
+            if (REGION_BYTES - pos >= 4) {
+                regions.get((int) (end / REGION_BYTES)).putInt(pos, 0);
+            }
+            end = (end / REGION_BYTES + 1) * REGION_BYTES;
+        }
+        int regionIndex = (int) (end / REGION_BYTES);
+        while (regions.size() <= regionIndex) {
+            regions.add(channel.map(FileChannel.MapMode.READ_WRITE, (long) regions.size() * REGION_BYTES, REGION_BYTES));
+        }
+        return regions.get(regionIndex);
+    }
+
+    /**
+     * 写入长度、CRC，更新索引和文件头中的已提交位置
+     */
+    private void commit(ByteBuffer region, int pos, int length, String path, boolean put) {
+        region.putInt(pos + 4, checksum(region, pos + 8, length));
+        region.putInt(pos, length);
+        long size8 = 8L + length;
+        Long previous = put ? index.put(path, end) : index.remove(path);
+        if (put) {
+            liveBytes += size8;
+        } else {
+            deadBytes += size8;
+        }
+        if (previous != null) {
+            long old = recordBytes(previous);
+            liveBytes -= old;
+            deadBytes += old;
+        }
+        end += size8;
+        regions.get(0).putLong(END_OFFSET, end);
+    }
+
+    private long recordBytes(long offset) {
+        return 8L + regions.get((int) (offset / REGION_BYTES)).getInt((int) (offset % REGION_BYTES));
+    }
+
+    private static boolean checksumMatches(ByteBuffer region, int pos, int length) {
+        return region.getInt(pos + 4) == checksum(region, pos + 8, length);
+    }
+
+    private static int checksum(ByteBuffer region, int from, int length) {
+        ByteBuffer view = region.duplicate();
+        view.position(from);
+        view.limit(from + length);
+        CRC32 crc = new CRC32();
+        byte[] chunk = new byte[Math.min(length, 8192)];
+        while (view.hasRemaining()) {
+            int n = Math.min(chunk.length, view.remaining());
+            view.get(chunk, 0, n);
+            crc.update(chunk, 0, n);
+        }
+        return (int) crc.getValue();
+    }
+
+    private static String readPath(ByteBuffer region, int pos) {
+        byte[] bytes = new byte[region.getShort(pos + 9) & 0xFFFF];
+        ByteBuffer view = region.duplicate();
+        view.position(pos + 11);
+        view.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void putBytes(ByteBuffer region, int pos, byte[] bytes) {
+        ByteBuffer view = region.duplicate();
+        view.position(pos);
+        view.put(bytes);
+    }
+
+    private static void writeStat(ByteBuffer region, int p, Stat stat) {
+        region.putLong(p, stat.getCzxid());
+        region.putLong(p + 8, stat.getMzxid());
+        region.putLong(p + 16, stat.getCtime());
+        region.putLong(p + 24, stat.getMtime());
+        region.putLong(p + 32, stat.getEphemeralOwner());
+        region.putLong(p + 40, stat.getPzxid());
+        region.putInt(p + 48, stat.getVersion());
+        region.putInt(p + 52, stat.getCversion());
+        region.putInt(p + 56, stat.getAversion());
+        region.putInt(p + 60, stat.getDataLength());
+        region.putInt(p + 64, stat.getNumChildren());
+    }
+
+    private static Stat readStat(ByteBuffer region, int p) {
+        return new Stat(region.getLong(p), region.getLong(p + 8), region.getLong(p + 16), region.getLong(p + 24),
+                region.getInt(p + 48), region.getInt(p + 52), region.getInt(p + 56), region.getLong(p + 32),
+                region.getInt(p + 60), region.getInt(p + 64), region.getLong(p + 40));
+    }
+}
@@ -0,0 +1,202 @@
+package com.wmx.zookeeperstudy.zk.cache;
+
+import com.wmx.zookeeperstudy.zk.NodeData;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.recipes.watch.PersistentWatcher;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.data.Stat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 节点数据本地缓存（读穿透 + 监听失效）
+ * 1、第一次读取某个节点时才去服务器获取数据和 Stat，之后直接从内存返回（懒加载）
+ * 2、在 rootPath 上注册一个永久递归监听（ZooKeeper 3.6 addWatch PERSISTENT_RECURSIVE），
+ * 子树下任何节点被修改、删除、创建时，直接把对应的缓存删掉，下次读取时重新加载，保证读到的是最新提交的版本
+ * 3、缓存有最大条数限制，超出时按 LRU（最近最少使用）淘汰
+ * 4、统计命中、未命中、淘汰次数
+ * 5、连接断开重连后，断开期间的事件可能已经丢失，监听重新注册时清空全部缓存
+ *
+ * @author wangMaoXiong
+ * @version 1.0
+ * @date 2020/8/15 10:20
+ */
+public class NodeDataCache implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(NodeDataCache.class);
+
+    private final CuratorFramework client;
+    private final String rootPath;
+    private final PersistentWatcher watcher;
+    private final Map<String, NodeData> cache;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    /**
+     * 正在从服务器加载的节点 -> 本次加载的占位对象，由 cache 的锁保护
+     * 加载期间该节点被失效（或者清空全部缓存）时占位被移除，这次加载的结果不放入缓存；其它节点的失效不影响它
+     */
+    private final Map<String, Object> loading = new HashMap<>();
+
+    /**
+     * @param client   ：已经 start() 的客户端
+     * @param rootPath ：被缓存的子树根路径，如 "/"，只有此路径下的节点才会被缓存
+     * @param maxSize  ：最大缓存条数
+     */
+    public NodeDataCache(CuratorFramework client, String rootPath, final int maxSize) {
+        this.client = client;
+        this.rootPath = rootPath;
+        this.watcher = new PersistentWatcher(client, rootPath, true);
+        //accessOrder=true 时按访问顺序排序，最久未访问的排在最前面
+        this.cache = new LinkedHashMap<String, NodeData>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, NodeData> eldest) {
+                if (size() > maxSize) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * 注册永久递归监听
+     */
+    public void start() {
+        watcher.getListenable().addListener(new Watcher() {
+            @Override
+            public void process(WatchedEvent event) {
+                if (event.getPath() != null) {
+                    invalidate(event.getPath());
+                }
+            }
+        });
+        watcher.getResetListenable().addListener(new Runnable() {
+            @Override
+            public void run() {
+                logger.info("监听【{}】重新注册，清空节点缓存", rootPath);
+                clear();
+            }
+        });
+        watcher.start();
+    }
+
+    /**
+     * 获取节点数据，缓存中没有时从服务器加载
+     *
+     * @param path ：节点路径，不在 rootPath 下的节点直接从服务器读取，不缓存
+     * @return
+     * @throws Exception ：节点不存在时抛出 KeeperException$NoNodeException
+     */
+    public NodeData get(String path) throws Exception {
+        NodeData node;
+        synchronized (cache) {
+            node = cache.get(path);
+        }
+        if (node != null) {
+            hits.increment();
+            return node;
+        }
+        misses.increment();
+        if (!isCacheable(path)) {
+            Stat stat = new Stat();
+            return new NodeData(path, client.getData().storingStatIn(stat).forPath(path), stat);
+        }
+        Object token = new Object();
+        synchronized (cache) {
+            loading.put(path, token);
+        }
+        try {
+            Stat stat = new Stat();
+            byte[] data = client.getData().storingStatIn(stat).forPath(path);
+            node = new NodeData(path, data, stat);
+        } catch (Exception e) {
+            synchronized (cache) {
+                loading.remove(path, token);
+            }
+            throw e;
+        }
+        synchronized (cache) {
+            if (loading.remove(path, token)) {
+                cache.put(path, node);
+            }
+        }
+        return node;
+    }
+
+    /**
+     * 只查看缓存，不访问服务器，供连接断开期间降级读取
+     *
+     * @param path ：节点路径
+     * @return ：没有缓存时返回 null
+     */
+    public NodeData peek(String path) {
+        NodeData node;
+        synchronized (cache) {
+            node = cache.get(path);
+        }
+        if (node != null) {
+            hits.increment();
+        }
+        return node;
+    }
+
+    /**
+     * 删除某个节点的缓存
+     *
+     * @param path
+     */
+    public void invalidate(String path) {
+        synchronized (cache) {
+            loading.remove(path);
+            cache.remove(path);
+        }
+    }
+
+    /**
+     * 清空全部缓存
+     */
+    public void clear() {
+        synchronized (cache) {
+            loading.clear();
+            cache.clear();
+        }
+    }
+
+    public int size() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    @Override
+    public void close() {
+        watcher.close();
+        clear();
+    }
+
+    private boolean isCacheable(String path) {
+        return "/".equals(rootPath) || path.equals(rootPath) || path.startsWith(rootPath + "/");
+    }
+}
@@ -0,0 +1,226 @@
+package com.wmx.zookeeperstudy.zk.cache;
+
+import com.wmx.zookeeperstudy.zk.NodeData;
+import com.wmx.zookeeperstudy.zk.sync.TreeChange;
+import com.wmx.zookeeperstudy.zk.sync.TreeMirror;
+import com.wmx.zookeeperstudy.zk.watch.WatchManager;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.utils.ThreadUtils;
+import org.apache.zookeeper.data.Stat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 持久化的子树缓存：节点数据保存在内存映射文件中（{@link MappedNodeStore}），应用重启后不必重新从服务器加载整棵子树
+ * 1、start() 打开映射文件后立即可以读取，读到的是上次关闭时的内容；随后在后台线程与服务器核对
+ * 2、核对使用 {@link TreeMirror}：用文件中保存的 Stat 预先填充镜像，首次全量核对对每个节点只发送 exists，
+ * 只有 mzxid 变化的节点才重新读取数据；之后靠永久监听增量同步，变更流写回映射文件
+ * 3、堆内只保留路径索引、Stat 和子节点名称，节点数据都在映射文件中（堆外），占用的堆内存与节点个数成正比，与数据大小无关
+ * 4、核对完成之前读到的可能是旧数据，需要最新数据的读取方可以 {@link #awaitReconciled(long)}
+ * 5、只有数据变化时才会写回 Stat，子节点列表变化（pzxid）不写回，重启后这些节点会多列一次子节点
+ * 6、变更写回映射文件失败时（磁盘满等），缓存标记为未核对，下次同步以文件中实际保存的 Stat 重建镜像并全量核对，
+ * 写失败的节点会被重新读取、写回
+ *
+ * @author wangMaoXiong
+ * @version 1.0
+ * @date 2020/9/16 21:30
+ */
+public class PersistentNodeCache implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(PersistentNodeCache.class);
+
+    private final CuratorFramework client;
+    private final WatchManager watchManager;
+    private final String rootPath;
+    private final Path file;
+    private final long syncIntervalMs;
+    /**
+     * 写回失败后换成新的 latch，重新核对完成前 awaitReconciled 继续等待
+     */
+    private volatile CountDownLatch reconciled = new CountDownLatch(1);
+    /**
+     * 有变更没有写入映射文件，下次同步时重建镜像
+     */
+    private final AtomicBoolean storeFailed = new AtomicBoolean();
+
+    private volatile MappedNodeStore store;
+    private volatile TreeMirror mirror;
+    private ScheduledExecutorService executor;
+
+    /**
+     * @param client         ：已经 start() 的客户端
+     * @param watchManager   ：永久监听管理器，为 null 时每次同步都按 Stat 全量核对
+     * @param rootPath       ：缓存的子树根路径
+     * @param file           ：映射文件路径
+     * @param syncIntervalMs ：后台同步的间隔（毫秒）
+     */
+    public PersistentNodeCache(CuratorFramework client, WatchManager watchManager, String rootPath, Path file, long syncIntervalMs) {
+        this.client = client;
+        this.watchManager = watchManager;
+        this.rootPath = rootPath;
+        this.file = file;
+        this.syncIntervalMs = syncIntervalMs;
+    }
+
+    /**
+     * 打开映射文件（返回后即可读取），然后在后台开始核对
+     *
+     * @throws IOException ：映射文件无法打开
+     */
+    public synchronized void start() throws IOException {
+        if (store != null) {
+            return;
+        }
+        store = new MappedNodeStore(file);
+        mirror = newMirror();
+        executor = Executors.newSingleThreadScheduledExecutor(ThreadUtils.newThreadFactory("PersistentNodeCache"));
+        executor.scheduleWithFixedDelay(this::syncQuietly, 0, syncIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 以映射文件中保存的 Stat 预先填充镜像
+     */
+    private TreeMirror newMirror() throws IOException {
+        Map<String, Stat> stats = new HashMap<>(store.size() * 2);
+        List<String> outside = new ArrayList<>();
+        store.forEachStat((path, stat) -> {
+            if (isUnderRoot(path)) {
+                stats.put(path, stat);
+            } else {
+                outside.add(path);
+            }
+        });
+        //根路径换过时，清除不属于当前子树的旧节点
+        for (String path : outside) {
+            store.remove(path);
+        }
+        TreeMirror treeMirror = new TreeMirror(client, watchManager, rootPath, 500, false);
+        treeMirror.seed(stats);
+        treeMirror.addListener(this::apply);
+        treeMirror.start();
+        return treeMirror;
+    }
+
+    private void syncQuietly() {
+        try {
+            if (storeFailed.compareAndSet(true, false)) {
+                //镜像中的 Stat 已经比文件新，按文件重建镜像，全量核对时重新读取没有写入的节点
+                logger.warn("持久化缓存【{}】有变更写回失败，按映射文件重建镜像后全量核对", rootPath);
+                TreeMirror old = mirror;
+                mirror = newMirror();
+                old.close();
+            }
+            long start = System.currentTimeMillis();
+            List<TreeChange> changes = mirror.sync();
+            if (storeFailed.get()) {
+                return;
+            }
+            if (reconciled.getCount() > 0) {
+                reconciled.countDown();
+                logger.info("持久化缓存【{}】核对完成：{} 个节点，{} 个变更，{} 个请求，耗时 {} 毫秒", rootPath, store.size(),
+                        changes.size(), mirror.getLastRequestCount(), System.currentTimeMillis() - start);
+            }
+        } catch (Exception e) {
+            logger.warn("持久化缓存【{}】同步失败，下次重试：{}", rootPath, e.toString());
+        }
+    }
+
+    private void apply(TreeChange change) {
+        try {
+            if (change.getType() == TreeChange.Type.REMOVED) {
+                store.remove(change.getPath());
+            } else {
+                store.put(change.getNode());
+            }
+        } catch (IOException e) {
+            logger.error("持久化缓存【{}】写回变更失败：{}", rootPath, change, e);
+            if (storeFailed.compareAndSet(false, true) && reconciled.getCount() == 0) {
+                reconciled = new CountDownLatch(1);
+            }
+        }
+    }
+
+    /**
+     * 从映射文件读取节点
+     *
+     * @return ：节点不存在或者还没有 start() 时返回 null
+     */
+    public NodeData get(String path) {
+        MappedNodeStore current = store;
+        return current == null ? null : current.get(path);
+    }
+
+    /**
+     * 子节点名称，按名称排序
+     *
+     * @return ：节点不存在或者还没有 start() 时返回空集合
+     */
+    public SortedSet<String> getChildren(String path) {
+        TreeMirror current = mirror;
+        return current == null ? Collections.emptySortedSet() : current.getChildren(path);
+    }
+
+    public int size() {
+        MappedNodeStore current = store;
+        return current == null ? 0 : current.size();
+    }
+
+    /**
+     * 等待启动后的首次核对完成
+     *
+     * @return ：超时返回 false
+     */
+    public boolean awaitReconciled(long timeoutMs) throws InterruptedException {
+        return reconciled.await(timeoutMs, TimeUnit.MILLISECONDS);
+    }
+
+    public boolean isReconciled() {
+        return reconciled.getCount() == 0;
+    }
+
+    /**
+     * 最近一次同步发送的请求数
+     */
+    public int getLastRequestCount() {
+        TreeMirror current = mirror;
+        return current == null ? 0 : current.getLastRequestCount();
+    }
+
+    private boolean isUnderRoot(String path) {
+        return "/".equals(rootPath) || path.equals(rootPath) || path.startsWith(rootPath + "/");
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (executor != null) {
+            executor.shutdownNow();
+            try {
+                executor.awaitTermination(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            executor = null;
+        }
+        if (mirror != null) {
+            mirror.close();
+        }
+        if (store != null) {
+            store.close();
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.wmx.zookeeperstudy.zk.codec;
+
+import java.io.IOException;
+
+/**
+ * 紧凑的二进制编解码器，子类按固定的字段顺序写入、读取，不写字段名，体积通常只有 JSON 的几分之一
+ * 比如：
+ * <pre>
+ * NodeCodec&lt;Address&gt; codec = new BinaryCodec&lt;Address&gt;() {
+ *     protected void write(Address value, BinaryOutput out) {
+ *         out.writeString(value.getHost()).writeInt(value.getPort());
+ *     }
+ *     protected Address read(BinaryInput in) throws IOException {
+ *         return new Address(in.readString(), in.readInt());
+ *     }
+ * };
+ * </pre>
+ * 编码使用线程内复用的缓冲区（{@link BufferPool}），只在最后复制一次长度刚好的数组；解码直接读取节点数据的数组
+ *
+ * @author wangMaoXiong
+ * @version 1.0
+ * @date 2020/9/8 21:10
+ */
+public abstract class BinaryCodec<T> implements NodeCodec<T> {
+
+    /**
+     * 写入 value 的所有字段，value 不为 null
+     */
+    protected abstract void write(T value, BinaryOutput out) throws IOException;
+
+    /**
+     * 按写入的顺序读取所有字段
+     */
+    protected abstract T read(BinaryInput in) throws IOException;
+
+    @Override
+    public byte[] encode(T value) throws IOException {
+        if (value == null) {
+            return null;
+        }
+        BinaryOutput out = BufferPool.borrow();
+        try {
+            write(value, out);
+            return out.toByteArray();
+        } finally {
+            BufferPool.release(out);
+        }
+    }
+
+    @Override
+    public T decode(byte[] data) throws IOException {
+        return data == null ? null : read(new BinaryInput(data));
+    }
+
+    @Override
+    public T decode(byte[] data, int offset, int length) throws IOException {
+        return read(new BinaryInput(data, offset, length));
+    }
+}
@@ -0,0 +1,111 @@
+package com.wmx.zookeeperstudy.zk.codec;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * 直接在节点数据的 byte[] 上按顺序读取字段，与 {@link BinaryOutput} 的写入一一对应，非线程安全
+ * 读取字符串时直接从数组中解码，不复制中间数组
+ *
+ * @author wangMaoXiong
+ * @version 1.0
+ * @date 2020/9/8 21:00
+ */
+public final class BinaryInput {
+
+    private final byte[] data;
+    private final int limit;
+    private int position;
+
+    BinaryInput(byte[] data) {
+        this(data, 0, data.length);
+    }
+
+    /**
+     * 只读取 data[offset, offset + length) 这一段
+     */
+    BinaryInput(byte[] data, int offset, int length) {
+        this.data = data;
+        this.position = offset;
+        this.limit = offset + length;
+    }
+
+    public int readByte() throws IOException {
+        require(1);
+        return data[position++];
+    }
+
+    public boolean readBoolean() throws IOException {
+        return readByte() != 0;
+    }
+
+    public int readFixedInt() throws IOException {
+        require(4);
+        int value = ((data[position] & 0xFF) << 24) | ((data[position + 1] & 0xFF) << 16)
+                | ((data[position + 2] & 0xFF) << 8) | (data[position + 3] & 0xFF);
+        position += 4;
+        return value;
+    }
+
+    public long readFixedLong() throws IOException {
+        return ((long) readFixedInt() << 32) | (readFixedInt() & 0xFFFFFFFFL);
+    }
+
+    public double readDouble() throws IOException {
+        return Double.longBitsToDouble(readFixedLong());
+    }
+
+    public int readInt() throws IOException {
+        return (int) readLong();
+    }
+
+    public long readLong() throws IOException {
+        long v = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            require(1);
+            byte b = data[position++];
+            v |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return (v >>> 1) ^ -(v & 1);
+            }
+        }
+        throw new IOException("varint 格式错误");
+    }
+
+    public byte[] readBytes() throws IOException {
+        int length = readInt();
+        if (length < 0) {
+            return null;
+        }
+        require(length);
+        byte[] value = Arrays.copyOfRange(data, position, position + length);
+        position += length;
+        return value;
+    }
+
+    public String readString() throws IOException {
+        int length = readInt();
+        if (length < 0) {
+            return null;
+        }
+        require(length);
+        String value = new String(data, position, length, StandardCharsets.UTF_8);
+        position += length;
+        return value;
+    }
+
+    /**
+     * 剩余未读的字节数
+     */
+    public int remaining() {
+        return limit - position;
+    }
+
+    private void require(int bytes) throws EOFException {
+        if (bytes < 0 || position + bytes > limit) {
+            throw new EOFException("数据长度不足：需要 " + bytes + " 字节，剩余 " + remaining() + " 字节");
+        }
+    }
+}
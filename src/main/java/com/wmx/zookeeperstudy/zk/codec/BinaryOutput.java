@@ -0,0 +1,184 @@
+package com.wmx.zookeeperstudy.zk.codec;
+
+import java.util.Arrays;
+
+/**
+ * 可自动扩容的字节输出缓冲区，供 {@link BinaryCodec} 写入字段，非线程安全
+ * 1、整数使用 zigzag + 变长编码（varint），小的数值只占 1 个字节
+ * 2、字符串写入 varint 长度 + UTF-8 字节，直接编码进缓冲区，不生成临时的 byte[]
+ * 3、由 {@link BufferPool} 在线程内复用，调用方不要持有它的引用
+ *
+ * @author wangMaoXiong
+ * @version 1.0
+ * @date 2020/9/8 20:40
+ */
+public final class BinaryOutput {
+
+    private byte[] buffer;
+    private int position;
+
+    BinaryOutput(int initialCapacity) {
+        this.buffer = new byte[initialCapacity];
+    }
+
+    public BinaryOutput writeByte(int value) {
+        ensure(1);
+        buffer[position++] = (byte) value;
+        return this;
+    }
+
+    public BinaryOutput writeBoolean(boolean value) {
+        return writeByte(value ? 1 : 0);
+    }
+
+    /**
+     * 固定 4 字节，大端
+     */
+    public BinaryOutput writeFixedInt(int value) {
+        ensure(4);
+        buffer[position++] = (byte) (value >>> 24);
+        buffer[position++] = (byte) (value >>> 16);
+        buffer[position++] = (byte) (value >>> 8);
+        buffer[position++] = (byte) value;
+        return this;
+    }
+
+    /**
+     * 固定 8 字节，大端
+     */
+    public BinaryOutput writeFixedLong(long value) {
+        writeFixedInt((int) (value >>> 32));
+        return writeFixedInt((int) value);
+    }
+
+    public BinaryOutput writeDouble(double value) {
+        return writeFixedLong(Double.doubleToLongBits(value));
+    }
+
+    public BinaryOutput writeInt(int value) {
+        return writeLong(value);
+    }
+
+    /**
+     * zigzag + varint，-64 ~ 63 占 1 个字节
+     */
+    public BinaryOutput writeLong(long value) {
+        long v = (value << 1) ^ (value >> 63);
+        ensure(10);
+        while ((v & ~0x7FL) != 0) {
+            buffer[position++] = (byte) ((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        buffer[position++] = (byte) v;
+        return this;
+    }
+
+    /**
+     * 字节数组，null 写为长度 -1
+     */
+    public BinaryOutput writeBytes(byte[] value) {
+        if (value == null) {
+            return writeInt(-1);
+        }
+        writeInt(value.length);
+        ensure(value.length);
+        System.arraycopy(value, 0, buffer, position, value.length);
+        position += value.length;
+        return this;
+    }
+
+    /**
+     * 字符串，null 写为长度 -1
+     */
+    public BinaryOutput writeString(String value) {
+        if (value == null) {
+            return writeInt(-1);
+        }
+        int length = utf8Length(value);
+        writeInt(length);
+        ensure(length);
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                buffer[position++] = (byte) c;
+            } else if (c < 0x800) {
+                buffer[position++] = (byte) (0xC0 | (c >> 6));
+                buffer[position++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                buffer[position++] = (byte) (0xF0 | (codePoint >> 18));
+                buffer[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                buffer[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                buffer[position++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                //不成对的代理字符，与 String.getBytes 一致替换为 ?
+                buffer[position++] = '?';
+            } else {
+                buffer[position++] = (byte) (0xE0 | (c >> 12));
+                buffer[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buffer[position++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        return this;
+    }
+
+    private static int utf8Length(String value) {
+        int length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                length += 1;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                length += 1;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    public int size() {
+        return position;
+    }
+
+    byte[] array() {
+        return buffer;
+    }
+
+    /**
+     * 复制出长度刚好的数组
+     */
+    byte[] toByteArray() {
+        return Arrays.copyOf(buffer, position);
+    }
+
+    /**
+     * 清空，容量超过 maxRetained 时缩小，避免一次大对象让线程长期占用大数组
+     */
+    void reset(int maxRetained) {
+        position = 0;
+        if (buffer.length > maxRetained) {
+            buffer = new byte[maxRetained];
+        }
+    }
+
+    void ensure(int bytes) {
+        if (position + bytes > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, position + bytes));
+        }
+    }
+
+    void skip(int bytes) {
+        ensure(bytes);
+        position += bytes;
+    }
+
+    void position(int position) {
+        this.position = position;
+    }
+}
@@ -0,0 +1,64 @@
+package com.wmx.zookeeperstudy.zk.codec;
+
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 线程内复用的编码缓冲区与压缩器
+ * 1、每个线程一个输出缓冲区，编码时借出、结束后归还；嵌套编码（编码过程中又编码另一个对象）时临时新建一个，不会互相覆盖
+ * 2、缓冲区超过 MAX_RETAINED_BYTES 时归还后缩小
+ * 3、Deflater、Inflater 创建时会分配本地内存，这里同样按线程复用，每次使用前 reset()
+ *
+ * @author wangMaoXiong
+ * @version 1.0
+ * @date 2020/9/8 20:50
+ */
+final class BufferPool {
+
+    static final int INITIAL_BYTES = 4 * 1024;
+    static final int MAX_RETAINED_BYTES = 1024 * 1024;
+
+    private static final ThreadLocal<Slot> SLOTS = ThreadLocal.withInitial(Slot::new);
+
+    private BufferPool() {
+    }
+
+    /**
+     * 借出当前线程的缓冲区
+     */
+    static BinaryOutput borrow() {
+        Slot slot = SLOTS.get();
+        if (slot.inUse) {
+            return new BinaryOutput(INITIAL_BYTES);
+        }
+        slot.inUse = true;
+        slot.output.reset(MAX_RETAINED_BYTES);
+        return slot.output;
+    }
+
+    static void release(BinaryOutput output) {
+        Slot slot = SLOTS.get();
+        if (slot.output == output) {
+            slot.inUse = false;
+        }
+    }
+
+    static Deflater deflater() {
+        Slot slot = SLOTS.get();
+        slot.deflater.reset();
+        return slot.deflater;
+    }
+
+    static Inflater inflater() {
+        Slot slot = SLOTS.get();
+        slot.inflater.reset();
+        return slot.inflater;
+    }
+
+    private static class Slot {
+        final BinaryOutput output = new BinaryOutput(INITIAL_BYTES);
+        final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        final Inflater inflater = new Inflater();
+        boolean inUse;
+    }
+}
@@ -0,0 +1,26 @@
+package com.wmx.zookeeperstudy.zk.codec;
+
+/**
+ * 原样传递 byte[] 的编解码器，用于给已经是字节的数据套上 {@link CompressedCodec} 等包装
+ *
+ * @author wangMaoXiong
+ * @version 1.0
+ * @date 2020/9/10 20:05
+ */
+public final class BytesCodec implements NodeCodec<byte[]> {
+
+    static final BytesCodec INSTANCE = new BytesCodec();
+
+    private BytesCodec() {
+    }
+
+    @Override
+    public byte[] encode(byte[] value) {
+        return value;
+    }
+
+    @Override
+    public byte[] decode(byte[] data) {
+        return data;
+    }
+}
@@ -0,0 +1,121 @@
+package com.wmx.zookeeperstudy.zk.codec;
+
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 压缩编解码器，包装另一个编解码器，编码结果达到阈值时使用 Deflate 压缩
+ * 格式：1 字节标志（0 未压缩，1 Deflate）+ [varint 原始长度] + 数据
+ * 1、小数据压缩收益很小，还要多花 CPU，所以低于阈值或者压缩后没有变小时原样保存
+ * 2、记录原始长度，解压时一次分配长度刚好的数组
+ * 3、Deflater/Inflater 与输出缓冲区都按线程复用，见 {@link BufferPool}
+ * 4、未压缩的数据直接跳过标志字节交给被包装的编解码器解码（{@link NodeCodec#decode(byte[], int, int)}），不再复制
+ *
+ * @author wangMaoXiong
+ * @version 1.0
+ * @date 2020/9/8 21:30
+ */
+public class CompressedCodec<T> implements NodeCodec<T> {
+
+    public static final int DEFAULT_THRESHOLD = 1024;
+
+    private static final int RAW = 0;
+    private static final int DEFLATE = 1;
+
+    private final NodeCodec<T> codec;
+    private final int threshold;
+
+    /**
+     * @param codec     ：被包装的编解码器
+     * @param threshold ：编码结果达到多少字节时压缩
+     */
+    public CompressedCodec(NodeCodec<T> codec, int threshold) {
+        this.codec = codec;
+        this.threshold = threshold;
+    }
+
+    @Override
+    public byte[] encode(T value) throws IOException {
+        byte[] raw = codec.encode(value);
+        if (raw == null) {
+            return null;
+        }
+        BinaryOutput out = BufferPool.borrow();
+        try {
+            if (raw.length >= threshold) {
+                out.writeByte(DEFLATE).writeInt(raw.length);
+                int header = out.size();
+                Deflater deflater = BufferPool.deflater();
+                deflater.setInput(raw);
+                deflater.finish();
+                while (!deflater.finished()) {
+                    out.ensure(Math.max(256, raw.length / 4));
+                    int written = deflater.deflate(out.array(), out.size(), out.array().length - out.size());
+                    out.position(out.size() + written);
+                    if (out.size() - header >= raw.length) {
+                        //压缩后没有变小
+                        break;
+                    }
+                }
+                if (deflater.finished() && out.size() - header < raw.length) {
+                    return out.toByteArray();
+                }
+                out.position(0);
+            }
+            out.writeByte(RAW);
+            out.ensure(raw.length);
+            System.arraycopy(raw, 0, out.array(), out.size(), raw.length);
+            out.position(out.size() + raw.length);
+            return out.toByteArray();
+        } finally {
+            BufferPool.release(out);
+        }
+    }
+
+    @Override
+    public T decode(byte[] data) throws IOException {
+        if (data == null || data.length == 0) {
+            return codec.decode(data);
+        }
+        return decode(data, 0, data.length);
+    }
+
+    @Override
+    public T decode(byte[] data, int offset, int length) throws IOException {
+        if (length == 0) {
+            return codec.decode(data, offset, 0);
+        }
+        int flag = data[offset];
+        if (flag == RAW) {
+            return codec.decode(data, offset + 1, length - 1);
+        }
+        if (flag != DEFLATE) {
+            throw new IOException("未知的压缩标志：" + flag);
+        }
+        BinaryInput in = new BinaryInput(data, offset, length);
+        in.readByte();
+        int rawLength = in.readInt();
+        int start = offset + length - in.remaining();
+        byte[] raw = new byte[rawLength];
+        Inflater inflater = BufferPool.inflater();
+        inflater.setInput(data, start, offset + length - start);
+        try {
+            int read = 0;
+            while (read < rawLength && !inflater.finished()) {
+                int n = inflater.inflate(raw, read, rawLength - read);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                read += n;
+            }
+            if (read != rawLength) {
+                throw new IOException("解压后长度不符：期望 " + rawLength + "，实际 " + read);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("解压失败", e);
+        }
+        return codec.decode(raw);
+    }
+}
@@ -0,0 +1,54 @@
+package com.wmx.zookeeperstudy.zk.codec;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+import java.io.IOException;
+
+/**
+ * Jackson JSON 编解码器，线程安全
+ * ObjectReader、ObjectWriter 在创建时按类型生成，之后每次编解码不再查找序列化器；
+ * writeValueAsBytes 内部使用 Jackson 线程内复用的 BufferRecycler，readValue(byte[]) 直接在数组上解析
+ *
+ * @author wangMaoXiong
+ * @version 1.0
+ * @date 2020/9/8 20:30
+ */
+public class JsonCodec<T> implements NodeCodec<T> {
+
+    private static final ObjectMapper DEFAULT_MAPPER = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    private final ObjectReader reader;
+    private final ObjectWriter writer;
+
+    public JsonCodec(Class<T> type) {
+        this(DEFAULT_MAPPER, type);
+    }
+
+    /**
+     * @param mapper ：自定义的 ObjectMapper，比如 Spring 容器中的 ObjectMapper
+     * @param type   ：对象类型
+     */
+    public JsonCodec(ObjectMapper mapper, Class<T> type) {
+        this.reader = mapper.readerFor(type);
+        this.writer = mapper.writerFor(type);
+    }
+
+    @Override
+    public byte[] encode(T value) throws IOException {
+        return value == null ? null : writer.writeValueAsBytes(value);
+    }
+
+    @Override
+    public T decode(byte[] data) throws IOException {
+        return data == null || data.length == 0 ? null : reader.readValue(data);
+    }
+
+    @Override
+    public T decode(byte[] data, int offset, int length) throws IOException {
+        return length == 0 ? null : reader.readValue(data, offset, length);
+    }
+}
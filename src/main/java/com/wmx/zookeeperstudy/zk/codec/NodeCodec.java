@@ -0,0 +1,76 @@
+package com.wmx.zookeeperstudy.zk.codec;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * 节点数据编解码器，在 Java 对象与 ZooKeeper 的 byte[] 之间转换
+ * 1、{@link #utf8()}：UTF-8 字符串，使用 StandardCharsets.UTF_8 常量，不再每次 Charset.forName("UTF-8") 查找字符集
+ * 2、{@link #json(Class)}：Jackson JSON，ObjectReader/ObjectWriter 按类型预先创建，Jackson 内部复用缓冲区
+ * 3、{@link BinaryCodec}：紧凑的二进制格式，由子类按字段顺序写入、读取，编码使用线程内复用的缓冲区
+ * 4、{@link #compressed(NodeCodec)}：包装任意编解码器，编码结果超过阈值时使用 Deflate 压缩
+ * <p>
+ * ZooKeeper 的 API 只接受、返回 byte[]，所以编码结果最终都要复制成一个长度刚好的数组；
+ * 解码时直接在返回的 byte[] 上读取，不再额外复制。
+ * </p>
+ *
+ * @author wangMaoXiong
+ * @version 1.0
+ * @date 2020/9/8 20:10
+ */
+public interface NodeCodec<T> {
+
+    /**
+     * 编码
+     *
+     * @param value ：可以为 null，null 编码为 null（即节点没有数据）
+     * @return
+     * @throws IOException
+     */
+    byte[] encode(T value) throws IOException;
+
+    /**
+     * 解码
+     *
+     * @param data ：节点数据，可以为 null
+     * @return
+     * @throws IOException
+     */
+    T decode(byte[] data) throws IOException;
+
+    /**
+     * 解码 data[offset, offset + length) 这一段，供 {@link CompressedCodec} 等包装类跳过头部时使用
+     * 默认复制出这一段再解码，能直接在数组上读取的编解码器应当覆盖此方法
+     *
+     * @param data   ：不为 null
+     * @param offset ：起始位置
+     * @param length ：长度
+     * @return
+     * @throws IOException
+     */
+    default T decode(byte[] data, int offset, int length) throws IOException {
+        if (offset == 0 && length == data.length) {
+            return decode(data);
+        }
+        return decode(Arrays.copyOfRange(data, offset, offset + length));
+    }
+
+    static NodeCodec<String> utf8() {
+        return StringCodec.INSTANCE;
+    }
+
+    static NodeCodec<byte[]> bytes() {
+        return BytesCodec.INSTANCE;
+    }
+
+    static <T> NodeCodec<T> json(Class<T> type) {
+        return new JsonCodec<>(type);
+    }
+
+    /**
+     * 编码结果达到 {@link CompressedCodec#DEFAULT_THRESHOLD} 字节时压缩
+     */
+    static <T> NodeCodec<T> compressed(NodeCodec<T> codec) {
+        return new CompressedCodec<>(codec, CompressedCodec.DEFAULT_THRESHOLD);
+    }
+}
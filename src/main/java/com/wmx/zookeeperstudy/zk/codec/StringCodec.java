@@ -0,0 +1,33 @@
+package com.wmx.zookeeperstudy.zk.codec;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * UTF-8 字符串编解码器，无状态，线程安全
+ *
+ * @author wangMaoXiong
+ * @version 1.0
+ * @date 2020/9/8 20:20
+ */
+public final class StringCodec implements NodeCodec<String> {
+
+    static final StringCodec INSTANCE = new StringCodec();
+
+    private StringCodec() {
+    }
+
+    @Override
+    public byte[] encode(String value) {
+        return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public String decode(byte[] data) {
+        return data == null ? null : new String(data, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public String decode(byte[] data, int offset, int length) {
+        return new String(data, offset, length, StandardCharsets.UTF_8);
+    }
+}
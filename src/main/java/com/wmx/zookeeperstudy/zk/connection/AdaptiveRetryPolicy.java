@@ -0,0 +1,90 @@
+package com.wmx.zookeeperstudy.zk.connection;
+
+import org.apache.curator.RetryPolicy;
+import org.apache.curator.RetrySleeper;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.state.ConnectionState;
+import org.apache.curator.framework.state.ConnectionStateListener;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 自适应重试策略：带随机抖动的指数退避 + 总耗时上限 + 断线期间快速失败
+ * 1、第 n 次重试的等待时间在 [baseSleepMs, min(maxSleepMs, baseSleepMs * 2^n)] 之间随机取值，
+ * 服务器重启后大量客户端不会在同一时刻一起重试（ExponentialBackoffRetry 的随机范围只有一倍，RetryForever 则完全没有抖动）
+ * 2、除了最大重试次数，还限制一次操作的总耗时 maxElapsedMs，最后一次等待不会超过剩余时间
+ * 3、注册为连接状态监听器后（自动配置会自动注册），SUSPENDED、LOST 期间不再重试：
+ * 断线期间每次重试都要先等待 connectionTimeoutMs，继续重试只会让调用线程卡更久，
+ * 不如直接失败，由调用方决定降级（比如读取本地缓存，见 {@link ConnectionStateManager}）
+ *
+ * @author wangMaoXiong
+ * @version 1.0
+ * @date 2020/9/12 10:20
+ */
+public class AdaptiveRetryPolicy implements RetryPolicy, ConnectionStateListener {
+
+    private static final int MAX_SHIFT = 30;
+
+    private final int baseSleepMs;
+    private final int maxSleepMs;
+    private final int maxRetries;
+    private final long maxElapsedMs;
+    private final boolean failFastWhileDisconnected;
+
+    private volatile boolean disconnected;
+
+    /**
+     * @param baseSleepMs               ：第一次重试的最短等待时间（毫秒）
+     * @param maxSleepMs                ：单次重试的最长等待时间（毫秒）
+     * @param maxRetries                ：最大重试次数
+     * @param maxElapsedMs              ：一次操作（包括所有重试）的最长总耗时（毫秒）
+     * @param failFastWhileDisconnected ：SUSPENDED、LOST 期间是否不再重试
+     */
+    public AdaptiveRetryPolicy(int baseSleepMs, int maxSleepMs, int maxRetries, long maxElapsedMs, boolean failFastWhileDisconnected) {
+        this.baseSleepMs = baseSleepMs;
+        this.maxSleepMs = Math.max(baseSleepMs, maxSleepMs);
+        this.maxRetries = maxRetries;
+        this.maxElapsedMs = maxElapsedMs;
+        this.failFastWhileDisconnected = failFastWhileDisconnected;
+    }
+
+    @Override
+    public boolean allowRetry(int retryCount, long elapsedTimeMs, RetrySleeper sleeper) {
+        if (retryCount >= maxRetries || elapsedTimeMs >= maxElapsedMs) {
+            return false;
+        }
+        if (failFastWhileDisconnected && disconnected) {
+            return false;
+        }
+        try {
+            sleeper.sleepFor(sleepTimeMs(retryCount, elapsedTimeMs), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 本次重试的等待时间
+     *
+     * @param retryCount    ：已经重试的次数，从 0 开始
+     * @param elapsedTimeMs ：操作已经耗费的时间
+     * @return
+     */
+    long sleepTimeMs(int retryCount, long elapsedTimeMs) {
+        long ceiling = Math.min((long) maxSleepMs, (long) baseSleepMs << Math.min(retryCount, MAX_SHIFT));
+        long sleep = ceiling <= baseSleepMs ? baseSleepMs : ThreadLocalRandom.current().nextLong(baseSleepMs, ceiling + 1);
+        return Math.max(0, Math.min(sleep, maxElapsedMs - elapsedTimeMs));
+    }
+
+    @Override
+    public void stateChanged(CuratorFramework client, ConnectionState newState) {
+        disconnected = newState == ConnectionState.SUSPENDED || newState == ConnectionState.LOST;
+    }
+
+    public boolean isDisconnected() {
+        return disconnected;
+    }
+}
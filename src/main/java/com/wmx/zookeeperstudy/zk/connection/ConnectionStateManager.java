@@ -0,0 +1,299 @@
+package com.wmx.zookeeperstudy.zk.connection;
+
+import com.wmx.zookeeperstudy.zk.NodeData;
+import com.wmx.zookeeperstudy.zk.cache.NodeDataCache;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.state.ConnectionState;
+import org.apache.curator.framework.state.ConnectionStateListener;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.data.Stat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 连接状态管理器：跟踪 CONNECTED、SUSPENDED、RECONNECTED、LOST、READ_ONLY，并决定断线期间的读写如何处理
+ * 1、Curator 在断线期间发起的操作会先阻塞 connectionTimeoutMs，再按重试策略反复重试，调用线程可能被卡住几十秒；
+ * 通过 {@link #getData(String)} 读取时先检查状态，断线期间按 {@link SuspendedMode} 立即处理，不进入 Curator 的重试
+ * 2、客户端开启 canBeReadOnly 后，集群失去多数派时仍可以连接到只读模式的服务器（服务器需要 -Dreadonlymode.enabled=true），
+ * 此时状态为 READ_ONLY，读取照常进行，写入通过 {@link #checkWritable()} 直接失败
+ * 3、统计断线次数、会话丢失次数、累计不可读时长、最近一次不可读时长
+ * 4、业务监听器通过 {@link #addListener(ConnectionStateListener)} 注册，异常不会影响其它监听器
+ *
+ * @author wangMaoXiong
+ * @version 1.0
+ * @date 2020/9/12 10:50
+ */
+public class ConnectionStateManager implements ConnectionStateListener, Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(ConnectionStateManager.class);
+
+    /**
+     * 断线（SUSPENDED、LOST）期间读取的处理方式
+     */
+    public enum SuspendedMode {
+        /**
+         * 立即抛出 KeeperException$ConnectionLossException
+         */
+        FAIL_FAST,
+        /**
+         * 从本地缓存返回最后一次读到的数据，缓存中没有时立即失败
+         */
+        SERVE_FROM_CACHE,
+        /**
+         * 最多等待 waitMs 毫秒恢复连接，超时后失败
+         */
+        WAIT
+    }
+
+    private final CuratorFramework client;
+    private final SuspendedMode mode;
+    private final NodeDataCache cache;
+    private final long waitMs;
+    private final List<ConnectionStateListener> listeners = new CopyOnWriteArrayList<>();
+    private final Object monitor = new Object();
+
+    private volatile ConnectionState state;
+    /**
+     * 本次断线开始的时间（System.nanoTime），未断线时为 0
+     */
+    private volatile long unavailableSince;
+
+    private final AtomicLong suspendedCount = new AtomicLong();
+    private final AtomicLong lostCount = new AtomicLong();
+    private final AtomicLong unavailableNanos = new AtomicLong();
+    private final AtomicLong lastUnavailableNanos = new AtomicLong();
+    private final AtomicLong cacheServedCount = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    /**
+     * @param client ：已经 start() 的客户端
+     * @param mode   ：断线期间读取的处理方式
+     * @param cache  ：SERVE_FROM_CACHE 使用的节点数据缓存，可以为 null（此时等同于 FAIL_FAST）
+     * @param waitMs ：WAIT 模式下最多等待的时间（毫秒）
+     */
+    public ConnectionStateManager(CuratorFramework client, SuspendedMode mode, NodeDataCache cache, long waitMs) {
+        this.client = client;
+        this.mode = mode;
+        this.cache = cache;
+        this.waitMs = waitMs;
+    }
+
+    /**
+     * 注册到客户端，并以客户端当前的连接情况作为初始状态
+     */
+    public void start() {
+        client.getConnectionStateListenable().addListener(this);
+        if (client.getZookeeperClient().isConnected()) {
+            state = isReadOnlySession() ? ConnectionState.READ_ONLY : ConnectionState.CONNECTED;
+        } else {
+            state = ConnectionState.SUSPENDED;
+            unavailableSince = System.nanoTime();
+        }
+    }
+
+    private boolean isReadOnlySession() {
+        try {
+            return client.getZookeeperClient().getZooKeeper().getState() == ZooKeeper.States.CONNECTEDREADONLY;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    @Override
+    public void stateChanged(CuratorFramework client, ConnectionState newState) {
+        synchronized (monitor) {
+            boolean wasReadable = isReadable();
+            state = newState;
+            if (newState == ConnectionState.SUSPENDED) {
+                suspendedCount.incrementAndGet();
+            } else if (newState == ConnectionState.LOST) {
+                lostCount.incrementAndGet();
+            }
+            if (wasReadable && !isReadable()) {
+                unavailableSince = System.nanoTime();
+            } else if (!wasReadable && isReadable() && unavailableSince != 0) {
+                long nanos = System.nanoTime() - unavailableSince;
+                unavailableSince = 0;
+                unavailableNanos.addAndGet(nanos);
+                lastUnavailableNanos.set(nanos);
+                logger.info("ZooKeeper 连接恢复为 {}，不可读 {} 毫秒", newState, TimeUnit.NANOSECONDS.toMillis(nanos));
+            }
+            monitor.notifyAll();
+        }
+        if (newState == ConnectionState.READ_ONLY) {
+            logger.warn("ZooKeeper 集群失去多数派，已连接到只读服务器，写入将被拒绝");
+        }
+        for (ConnectionStateListener listener : listeners) {
+            try {
+                listener.stateChanged(client, newState);
+            } catch (Exception e) {
+                logger.error("连接状态监听器处理【{}】失败", newState, e);
+            }
+        }
+    }
+
+    /**
+     * 读取节点数据，断线期间按 {@link SuspendedMode} 处理
+     *
+     * @param path ：节点路径
+     * @return
+     * @throws Exception ：节点不存在时抛出 KeeperException$NoNodeException，断线且无法降级时抛出 KeeperException$ConnectionLossException
+     */
+    public NodeData getData(String path) throws Exception {
+        if (!isReadable()) {
+            NodeData fallback = whileUnavailable(path);
+            if (fallback != null) {
+                return fallback;
+            }
+        }
+        try {
+            if (cache != null) {
+                return cache.get(path);
+            }
+            Stat stat = new Stat();
+            byte[] data = client.getData().storingStatIn(stat).forPath(path);
+            return new NodeData(path, data, stat);
+        } catch (KeeperException.ConnectionLossException e) {
+            //检查状态之后才断开的在途请求，同样可以从缓存降级
+            NodeData node = mode == SuspendedMode.SERVE_FROM_CACHE && cache != null ? cache.peek(path) : null;
+            if (node == null) {
+                throw e;
+            }
+            cacheServedCount.incrementAndGet();
+            return node;
+        }
+    }
+
+    /**
+     * @return ：缓存中的数据；返回 null 表示连接已经恢复，继续正常读取
+     */
+    private NodeData whileUnavailable(String path) throws Exception {
+        switch (mode) {
+            case SERVE_FROM_CACHE:
+                NodeData node = cache == null ? null : cache.peek(path);
+                if (node != null) {
+                    cacheServedCount.incrementAndGet();
+                    return node;
+                }
+                break;
+            case WAIT:
+                if (awaitReadable(waitMs, TimeUnit.MILLISECONDS)) {
+                    return null;
+                }
+                break;
+            default:
+                break;
+        }
+        rejectedCount.incrementAndGet();
+        throw KeeperException.create(KeeperException.Code.CONNECTIONLOSS, path);
+    }
+
+    /**
+     * 写入前检查：断线时抛出 ConnectionLossException，只读模式时抛出 NotReadOnlyException
+     *
+     * @throws KeeperException
+     */
+    public void checkWritable() throws KeeperException {
+        ConnectionState current = state;
+        if (current == ConnectionState.READ_ONLY) {
+            rejectedCount.incrementAndGet();
+            throw new KeeperException.NotReadOnlyException();
+        }
+        if (!isReadable()) {
+            rejectedCount.incrementAndGet();
+            throw new KeeperException.ConnectionLossException();
+        }
+    }
+
+    /**
+     * 等待恢复到可读状态（CONNECTED、RECONNECTED、READ_ONLY）
+     *
+     * @return ：超时返回 false
+     * @throws InterruptedException
+     */
+    public boolean awaitReadable(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (monitor) {
+            while (!isReadable()) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(monitor, remaining);
+            }
+            return true;
+        }
+    }
+
+    public void addListener(ConnectionStateListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(ConnectionStateListener listener) {
+        listeners.remove(listener);
+    }
+
+    public ConnectionState getState() {
+        return state;
+    }
+
+    /**
+     * 是否可以读取：CONNECTED、RECONNECTED、READ_ONLY
+     */
+    public boolean isReadable() {
+        ConnectionState current = state;
+        return current != null && current.isConnected();
+    }
+
+    /**
+     * 是否可以写入：CONNECTED、RECONNECTED
+     */
+    public boolean isWritable() {
+        return isReadable() && state != ConnectionState.READ_ONLY;
+    }
+
+    public long getSuspendedCount() {
+        return suspendedCount.get();
+    }
+
+    public long getLostCount() {
+        return lostCount.get();
+    }
+
+    /**
+     * 累计不可读时长（毫秒），包括当前正在进行的断线
+     */
+    public long getUnavailableMillis() {
+        long since = unavailableSince;
+        long current = since == 0 ? 0 : System.nanoTime() - since;
+        return TimeUnit.NANOSECONDS.toMillis(unavailableNanos.get() + current);
+    }
+
+    /**
+     * 最近一次已经恢复的断线持续了多久（毫秒）
+     */
+    public long getLastUnavailableMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(lastUnavailableNanos.get());
+    }
+
+    public long getCacheServedCount() {
+        return cacheServedCount.get();
+    }
+
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    @Override
+    public void close() {
+        client.getConnectionStateListenable().removeListener(this);
+        listeners.clear();
+    }
+}
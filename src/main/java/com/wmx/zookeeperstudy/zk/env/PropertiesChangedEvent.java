@@ -0,0 +1,32 @@
+package com.wmx.zookeeperstudy.zk.env;
+
+import org.springframework.context.ApplicationEvent;
+
+import java.util.Set;
+
+/**
+ * ZooKeeper 配置发生变化、@ConfigurationProperties bean 重新绑定之后发布的事件，
+ * 需要在配置变化时做额外处理（如重建连接池）的 bean 可以用 @EventListener 监听
+ *
+ * @author wangMaoXiong
+ * @version 1.0
+ * @date 2020/9/18 21:00
+ */
+public class PropertiesChangedEvent extends ApplicationEvent {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Set<String> keys;
+
+    public PropertiesChangedEvent(Object source, Set<String> keys) {
+        super(source);
+        this.keys = keys;
+    }
+
+    /**
+     * 发生变化（新增、修改、删除）的配置项
+     */
+    public Set<String> getKeys() {
+        return keys;
+    }
+}
@@ -0,0 +1,153 @@
+package com.wmx.zookeeperstudy.zk.env;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.aop.support.AopUtils;
+import org.springframework.beans.BeanUtils;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.context.ApplicationContext;
+import org.springframework.core.annotation.AnnotationUtils;
+import org.springframework.core.env.ConfigurableEnvironment;
+import org.springframework.util.ClassUtils;
+import org.springframework.util.StringUtils;
+
+import java.beans.PropertyDescriptor;
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 配置刷新：{@link ZookeeperPropertySource} 发生变化时，把新的值重新绑定到 @ConfigurationProperties bean 上，然后发布 {@link PropertiesChangedEvent}
+ * 1、项目没有引入 Spring Cloud，没有 @RefreshScope，这里按 @ConfigurationProperties 的 prefix 先绑定到一个新建的实例上，
+ * 绑定成功后再把属性逐个复制到原来的 bean 上，bean 实例不变；绑定失败（如类型转换错误）时原来的 bean 保持不变，不会只更新了一半
+ * 2、复制不是原子的：复制期间其它线程可能读到一部分新值、一部分旧值，需要一致快照的使用方应当监听 {@link PropertiesChangedEvent} 后再读取
+ * 3、只重新绑定 prefix 与变化的 key 相关的 bean，key 按 Spring Boot 的宽松规则匹配（如 demo.max-size 与 demo.maxSize）
+ * 4、容器启动前加入的只是配置快照，自动配置中的配置源启动时可能已经有了变化，所有单例创建完成后统一重新绑定一次
+ * 5、被删除的 key 回落到其它配置源（如 application.properties）中的值，都没有时恢复为字段的默认值
+ * 6、没有无参构造方法的 bean 无法新建实例，仍然原地绑定
+ *
+ * @author wangMaoXiong
+ * @version 1.0
+ * @date 2020/9/18 21:10
+ */
+public class PropertiesRefresher implements SmartInitializingSingleton {
+
+    private static final Logger logger = LoggerFactory.getLogger(PropertiesRefresher.class);
+
+    private final ZookeeperPropertySource propertySource;
+    private final ApplicationContext context;
+    private final ConfigurableEnvironment environment;
+
+    public PropertiesRefresher(ZookeeperPropertySource propertySource, ApplicationContext context, ConfigurableEnvironment environment) {
+        this.propertySource = propertySource;
+        this.context = context;
+        this.environment = environment;
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        rebind(propertySource.getProperties().keySet());
+        propertySource.addListener(this::refresh);
+    }
+
+    private void refresh(Set<String> keys) {
+        rebind(keys);
+        context.publishEvent(new PropertiesChangedEvent(this, keys));
+    }
+
+    /**
+     * 重新绑定与 keys 相关的 @ConfigurationProperties bean
+     *
+     * @return ：重新绑定的 bean 个数
+     */
+    public int rebind(Set<String> keys) {
+        if (keys.isEmpty()) {
+            return 0;
+        }
+        Binder binder = Binder.get(environment);
+        int count = 0;
+        for (Map.Entry<String, Object> entry : context.getBeansWithAnnotation(ConfigurationProperties.class).entrySet()) {
+            Object bean = entry.getValue();
+            ConfigurationProperties annotation = AnnotationUtils.findAnnotation(AopUtils.getTargetClass(bean), ConfigurationProperties.class);
+            if (annotation == null) {
+                continue;
+            }
+            String prefix = StringUtils.hasText(annotation.prefix()) ? annotation.prefix() : annotation.value();
+            if (!matches(prefix, keys)) {
+                continue;
+            }
+            try {
+                Class<?> type = AopUtils.getTargetClass(bean);
+                if (ClassUtils.hasConstructor(type)) {
+                    copyProperties(bindFresh(binder, prefix, type), bean);
+                } else {
+                    binder.bind(prefix, Bindable.ofInstance(bean));
+                }
+                count++;
+            } catch (Exception e) {
+                logger.error("重新绑定配置【{}】到 bean【{}】失败", prefix, entry.getKey(), e);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 绑定到一个新建的实例上，没有任何相关配置时返回默认值的实例
+     */
+    private static <T> T bindFresh(Binder binder, String prefix, Class<T> type) {
+        return binder.bind(prefix, Bindable.of(type)).orElseGet(() -> BeanUtils.instantiateClass(type));
+    }
+
+    /**
+     * 把 source 的可读写属性复制到 target；只有 getter 的嵌套对象（如 private final Pool pool = new Pool()）递归复制
+     */
+    private static void copyProperties(Object source, Object target) throws Exception {
+        for (PropertyDescriptor descriptor : BeanUtils.getPropertyDescriptors(source.getClass())) {
+            Method read = descriptor.getReadMethod();
+            if (read == null || "class".equals(descriptor.getName())) {
+                continue;
+            }
+            Object value = read.invoke(source);
+            Method write = descriptor.getWriteMethod();
+            if (write != null) {
+                write.invoke(target, value);
+            } else if (value != null && !BeanUtils.isSimpleProperty(value.getClass())) {
+                Object nested = read.invoke(target);
+                if (nested != null && nested != value) {
+                    copyProperties(value, nested);
+                }
+            }
+        }
+    }
+
+    private static boolean matches(String prefix, Set<String> keys) {
+        if (!StringUtils.hasText(prefix)) {
+            return true;
+        }
+        String root = normalize(prefix);
+        for (String key : keys) {
+            String name = normalize(key);
+            if (name.equals(root) || name.startsWith(root + ".")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 宽松规则：忽略大小写、'-'、'_'
+     */
+    private static String normalize(String name) {
+        StringBuilder builder = new StringBuilder(name.length());
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c != '-' && c != '_') {
+                builder.append(Character.toLowerCase(c));
+            }
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,304 @@
+package com.wmx.zookeeperstudy.zk.env;
+
+import com.wmx.zookeeperstudy.zk.NodeData;
+import com.wmx.zookeeperstudy.zk.async.AsyncZkClient;
+import com.wmx.zookeeperstudy.zk.watch.NodeEvent;
+import com.wmx.zookeeperstudy.zk.watch.WatchManager;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.utils.ThreadUtils;
+import org.apache.curator.utils.ZKPaths;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.env.EnumerablePropertySource;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * 以 ZooKeeper 子树为配置来源的 PropertySource：根路径下的每个子节点是一个配置项，节点名称为 key，节点数据（UTF-8）为 value
+ * 1、start() 时并行读取所有子节点（{@link AsyncZkClient#getDataForAll(String)}），之后通过永久递归监听感知变化，不轮询
+ * 2、配置保存在不可变快照中，变化时整体替换（volatile 引用），getProperty 只是一次无锁的 map 读取，在请求路径上几乎没有开销
+ * 3、变化做防抖：最后一个事件之后 debounceMs 内没有新事件才刷新（连续不断时最多等待 maxWaitMs），
+ * 一连串的 setData 只触发一次刷新；刷新只重新读取变化了的 key，监听重新注册（RESET）时才全量重新读取
+ * 4、刷新后把变化了的 key 通知监听器（见 {@link PropertiesRefresher}），读取失败时保留旧快照，稍后重试
+ * 5、自动配置中创建的实例替换 ZookeeperPropertySourceInitializer 在容器启动前加入的同名快照，
+ * 所以 @Value 在 bean 创建时能读到 ZooKeeper 中的值；之后的变化只重新绑定 @ConfigurationProperties bean，@Value 字段不会更新
+ *
+ * @author wangMaoXiong
+ * @version 1.0
+ * @date 2020/9/18 20:10
+ */
+public class ZookeeperPropertySource extends EnumerablePropertySource<CuratorFramework> implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(ZookeeperPropertySource.class);
+
+    public static final String NAME = "zookeeper";
+
+    private final AsyncZkClient async;
+    private final WatchManager watchManager;
+    private final String rootPath;
+    private final long debounceMs;
+    private final long maxWaitMs;
+
+    private volatile Snapshot snapshot = new Snapshot(Collections.emptyMap());
+    private final Set<String> dirty = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean fullReload = new AtomicBoolean();
+    private final List<Consumer<Set<String>>> listeners = new CopyOnWriteArrayList<>();
+    private final AtomicLong refreshCount = new AtomicLong();
+    private volatile long firstEventNanos;
+    private volatile long lastEventNanos;
+
+    private ScheduledExecutorService executor;
+    private ScheduledFuture<?> pending;
+    private Closeable subscription;
+
+    /**
+     * @param client       ：已经 start() 的客户端
+     * @param watchManager ：永久监听管理器
+     * @param rootPath     ：配置根路径，如 /config
+     * @param debounceMs   ：防抖时间（毫秒）
+     */
+    public ZookeeperPropertySource(CuratorFramework client, WatchManager watchManager, String rootPath, long debounceMs) {
+        super(NAME, client);
+        this.async = new AsyncZkClient(client);
+        this.watchManager = watchManager;
+        this.rootPath = rootPath;
+        this.debounceMs = debounceMs;
+        this.maxWaitMs = debounceMs * 10;
+    }
+
+    /**
+     * 先订阅再加载，加载期间的变化不会丢失；根路径不存在时为空配置，创建后自动加载
+     *
+     * @throws Exception ：首次加载失败
+     */
+    public synchronized void start() throws Exception {
+        if (executor != null) {
+            return;
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(ThreadUtils.newThreadFactory("ZookeeperPropertySource"));
+        subscription = watchManager.subscribe(rootPath, this::onEvent);
+        long start = System.currentTimeMillis();
+        snapshot = new Snapshot(loadAll());
+        logger.info("加载配置【{}】：{} 个配置项，耗时 {} 毫秒", rootPath, snapshot.values.size(), System.currentTimeMillis() - start);
+    }
+
+    public void addListener(Consumer<Set<String>> listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public Object getProperty(String name) {
+        return snapshot.values.get(name);
+    }
+
+    @Override
+    public boolean containsProperty(String name) {
+        return snapshot.values.containsKey(name);
+    }
+
+    @Override
+    public String[] getPropertyNames() {
+        return snapshot.names.clone();
+    }
+
+    /**
+     * 当前配置的只读快照
+     */
+    public Map<String, String> getProperties() {
+        return snapshot.values;
+    }
+
+    /**
+     * 配置发生变化、完成刷新的次数
+     */
+    public long getRefreshCount() {
+        return refreshCount.get();
+    }
+
+    private void onEvent(NodeEvent event) {
+        String path = event.getPath();
+        if (event.getType() == NodeEvent.Type.RESET || path.equals(rootPath)) {
+            fullReload.set(true);
+        } else if (ZKPaths.getPathAndNode(path).getPath().equals(rootPath)) {
+            dirty.add(ZKPaths.getNodeFromPath(path));
+        } else {
+            //更深层的节点不是配置项
+            return;
+        }
+        scheduleRefresh();
+    }
+
+    private void scheduleRefresh() {
+        long now = System.nanoTime();
+        lastEventNanos = now;
+        synchronized (this) {
+            if (pending == null && executor != null) {
+                firstEventNanos = now;
+                pending = executor.schedule(this::refreshIfQuiet, debounceMs, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * 距离最后一个事件不足 debounceMs 时继续等待，但从第一个事件算起最多等待 maxWaitMs
+     */
+    private void refreshIfQuiet() {
+        long now = System.nanoTime();
+        long quietMs = TimeUnit.NANOSECONDS.toMillis(now - lastEventNanos);
+        long waitedMs = TimeUnit.NANOSECONDS.toMillis(now - firstEventNanos);
+        synchronized (this) {
+            if (executor == null) {
+                return;
+            }
+            if (quietMs < debounceMs && waitedMs < maxWaitMs) {
+                pending = executor.schedule(this::refreshIfQuiet, debounceMs - quietMs, TimeUnit.MILLISECONDS);
+                return;
+            }
+            pending = null;
+        }
+        refresh();
+    }
+
+    private void refresh() {
+        List<String> keys = new ArrayList<>(dirty);
+        dirty.removeAll(keys);
+        boolean full = fullReload.getAndSet(false);
+        Map<String, String> current = snapshot.values;
+        Map<String, String> next;
+        try {
+            if (full) {
+                next = loadAll();
+            } else {
+                next = new HashMap<>(current);
+                List<String> paths = new ArrayList<>(keys.size());
+                for (String key : keys) {
+                    paths.add(ZKPaths.makePath(rootPath, key));
+                }
+                Map<String, NodeData> nodes = async.getDataForPaths(paths).toCompletableFuture().get();
+                for (int i = 0; i < keys.size(); i++) {
+                    NodeData node = nodes.get(paths.get(i));
+                    if (node == null) {
+                        next.remove(keys.get(i));
+                    } else {
+                        next.put(keys.get(i), decode(node));
+                    }
+                }
+            }
+        } catch (Exception e) {
+            logger.warn("刷新配置【{}】失败，稍后重试：{}", rootPath, e.toString());
+            dirty.addAll(keys);
+            if (full) {
+                fullReload.set(true);
+            }
+            scheduleRefresh();
+            return;
+        }
+        Set<String> changed = new HashSet<>();
+        for (Map.Entry<String, String> entry : next.entrySet()) {
+            if (!Objects.equals(entry.getValue(), current.get(entry.getKey()))) {
+                changed.add(entry.getKey());
+            }
+        }
+        for (String key : current.keySet()) {
+            if (!next.containsKey(key)) {
+                changed.add(key);
+            }
+        }
+        if (changed.isEmpty()) {
+            return;
+        }
+        snapshot = new Snapshot(next);
+        refreshCount.incrementAndGet();
+        logger.info("配置【{}】发生变化：{}", rootPath, changed);
+        Set<String> keysChanged = Collections.unmodifiableSet(changed);
+        for (Consumer<Set<String>> listener : listeners) {
+            try {
+                listener.accept(keysChanged);
+            } catch (Exception e) {
+                logger.error("配置变更监听器处理失败", e);
+            }
+        }
+    }
+
+    private Map<String, String> loadAll() throws Exception {
+        return load(async, rootPath);
+    }
+
+    /**
+     * 一次性读取配置，不订阅变化，供容器启动前加载配置快照（见 ZookeeperPropertySourceInitializer）
+     *
+     * @param client   ：已经 start() 的客户端
+     * @param rootPath ：配置根路径
+     * @return ：key -> value，根路径不存在时返回空配置
+     * @throws Exception
+     */
+    public static Map<String, String> load(CuratorFramework client, String rootPath) throws Exception {
+        return load(new AsyncZkClient(client), rootPath);
+    }
+
+    /**
+     * 并行读取根路径下的所有子节点，根路径不存在时返回空配置
+     */
+    private static Map<String, String> load(AsyncZkClient async, String rootPath) throws Exception {
+        if (async.exists(rootPath).toCompletableFuture().get() == null) {
+            return Collections.emptyMap();
+        }
+        Map<String, NodeData> nodes = async.getDataForAll(rootPath).toCompletableFuture().get();
+        Map<String, String> values = new HashMap<>(nodes.size() * 4 / 3 + 1);
+        for (Map.Entry<String, NodeData> entry : nodes.entrySet()) {
+            if (entry.getValue() != null) {
+                values.put(ZKPaths.getNodeFromPath(entry.getKey()), decode(entry.getValue()));
+            }
+        }
+        return values;
+    }
+
+    private static String decode(NodeData node) {
+        return node.getData() == null ? "" : new String(node.getData(), StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (subscription != null) {
+            subscription.close();
+            subscription = null;
+        }
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+            pending = null;
+        }
+    }
+
+    /**
+     * 不可变快照：配置 map + 名称数组
+     */
+    private static class Snapshot {
+        private final Map<String, String> values;
+        private final String[] names;
+
+        private Snapshot(Map<String, String> values) {
+            this.values = Collections.unmodifiableMap(values);
+            this.names = values.keySet().toArray(new String[0]);
+        }
+    }
+}
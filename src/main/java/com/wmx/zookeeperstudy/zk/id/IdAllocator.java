@@ -0,0 +1,240 @@
+package com.wmx.zookeeperstudy.zk.id;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.utils.ThreadUtils;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.data.Stat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.nio.charset.Charset;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 分段 ID 生成器 —— 从 ZK 计数器节点租用一段 ID，在内存中无锁地发放
+ * 1、用 PERSISTENT_SEQUENTIAL 节点（createNode2）生成 ID，每个 ID 都要一次写操作，而且留下大量无用节点
+ * 2、这里计数器节点的数据为下一个未分配的 ID（十进制字符串），每次通过 setData().withVersion() 比较并交换，
+ * 把计数器加上 blockSize，就租到了 [旧值, 旧值 + blockSize) 这一段 ID，一次写操作对应 blockSize 个 ID
+ * 3、按 CPU 核数分成多个条带（stripe），每个条带各自租用一段，线程按线程 id 选择条带，条带内用 AtomicLong 自增发放，不加锁
+ * 4、一段 ID 用掉一半时，在后台线程预取下一段，正常情况下调用线程不需要等待 ZooKeeper
+ * 5、关闭后还没有完成的预取以异常结束，等待它的线程不会一直阻塞；之后当前段用完时 nextId 抛出 IllegalStateException
+ * <p>
+ * 注意：生成的 ID 全局唯一，但不同条带、不同进程之间不保证递增；进程关闭时未用完的 ID 会被丢弃，ID 之间会有空洞。
+ * </p>
+ *
+ * @author wangMaoXiong
+ * @version 1.0
+ * @date 2020/9/1 20:30
+ */
+public class IdAllocator implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(IdAllocator.class);
+
+    public static final int DEFAULT_BLOCK_SIZE = 10000;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final CuratorFramework client;
+    private final String counterPath;
+    private final int blockSize;
+    private final Stripe[] stripes;
+    private final int mask;
+    private final ExecutorService prefetcher;
+    /**
+     * 还没有完成的预取，关闭时以异常结束（shutdownNow 丢弃的任务不会再执行，它们的 future 永远不会完成）
+     */
+    private final Set<CompletableFuture<Block>> prefetching = ConcurrentHashMap.newKeySet();
+    private volatile boolean closed;
+    private final LongAdder blocksLeased = new LongAdder();
+    private final LongAdder casRetries = new LongAdder();
+
+    /**
+     * @param client      ：已经 start() 的客户端
+     * @param counterPath ：计数器节点路径，如 /ids/order，不存在时自动创建
+     * @param blockSize   ：每个条带每次租用的 ID 个数
+     * @param stripes     ：条带数，会向上取整为 2 的幂
+     */
+    public IdAllocator(CuratorFramework client, String counterPath, int blockSize, int stripes) {
+        this.client = client;
+        this.counterPath = counterPath;
+        this.blockSize = blockSize;
+        int size = 1;
+        while (size < stripes) {
+            size <<= 1;
+        }
+        this.stripes = new Stripe[size];
+        for (int i = 0; i < size; i++) {
+            this.stripes[i] = new Stripe();
+        }
+        this.mask = size - 1;
+        this.prefetcher = ThreadUtils.newSingleThreadExecutor("IdAllocator");
+    }
+
+    public IdAllocator(CuratorFramework client, String counterPath) {
+        this(client, counterPath, DEFAULT_BLOCK_SIZE, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * 获取下一个 ID
+     *
+     * @return
+     * @throws Exception ：当前段已用完，且租用下一段失败时抛出
+     */
+    public long nextId() throws Exception {
+        Stripe stripe = stripes[(int) Thread.currentThread().getId() & mask];
+        while (true) {
+            Block block = stripe.current;
+            long id = block.cursor.getAndIncrement();
+            if (id < block.end) {
+                if (id == block.prefetchAt) {
+                    stripe.prefetch();
+                }
+                return id;
+            }
+            stripe.refill(block);
+        }
+    }
+
+    /**
+     * 从计数器节点租用一段 ID，版本冲突时重试
+     */
+    private Block lease() throws Exception {
+        while (true) {
+            Stat stat = new Stat();
+            byte[] data;
+            try {
+                data = client.getData().storingStatIn(stat).forPath(counterPath);
+            } catch (KeeperException.NoNodeException e) {
+                try {
+                    client.create().creatingParentsIfNeeded().forPath(counterPath, "0".getBytes(UTF_8));
+                } catch (KeeperException.NodeExistsException ex) {
+                    //其它进程已经创建
+                }
+                continue;
+            }
+            long start = data == null || data.length == 0 ? 0 : Long.parseLong(new String(data, UTF_8).trim());
+            long end = start + blockSize;
+            try {
+                client.setData().withVersion(stat.getVersion()).forPath(counterPath, String.valueOf(end).getBytes(UTF_8));
+            } catch (KeeperException.BadVersionException e) {
+                casRetries.increment();
+                continue;
+            }
+            blocksLeased.increment();
+            logger.debug("租用 ID 段【{}】[{}, {})", counterPath, start, end);
+            return new Block(start, end, start + blockSize / 2);
+        }
+    }
+
+    /**
+     * 租用的一段 ID：[cursor 初始值, end)，cursor 自增到 prefetchAt 时预取下一段
+     */
+    private static class Block {
+        static final Block EMPTY = new Block(0, 0, -1);
+
+        final AtomicLong cursor;
+        final long end;
+        final long prefetchAt;
+
+        Block(long start, long end, long prefetchAt) {
+            this.cursor = new AtomicLong(start);
+            this.end = end;
+            this.prefetchAt = prefetchAt;
+        }
+    }
+
+    private class Stripe {
+        volatile Block current = Block.EMPTY;
+        /**
+         * 预取中的下一段，由 synchronized 保护
+         */
+        private CompletableFuture<Block> next;
+
+        synchronized void prefetch() {
+            if (next != null || closed) {
+                return;
+            }
+            CompletableFuture<Block> future = new CompletableFuture<>();
+            prefetching.add(future);
+            future.whenComplete((block, error) -> prefetching.remove(future));
+            try {
+                prefetcher.execute(() -> {
+                    try {
+                        future.complete(lease());
+                    } catch (Exception e) {
+                        future.completeExceptionally(e);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                //并发关闭
+                future.completeExceptionally(e);
+            }
+            next = future;
+        }
+
+        /**
+         * exhausted 已用完时换上下一段，只有一个线程真正执行，其它线程等待后直接使用新的一段
+         */
+        synchronized void refill(Block exhausted) throws Exception {
+            if (current != exhausted) {
+                return;
+            }
+            CompletableFuture<Block> future = next;
+            next = null;
+            Block block = null;
+            if (future != null) {
+                try {
+                    block = future.get();
+                } catch (ExecutionException e) {
+                    logger.warn("预取 ID 段【{}】失败，重新租用：{}", counterPath, e.getCause().getMessage());
+                }
+            }
+            if (block == null && closed) {
+                throw new IllegalStateException("ID 生成器已关闭：" + counterPath);
+            }
+            current = block != null ? block : lease();
+        }
+    }
+
+    /**
+     * 已经租用的段数，即对计数器节点的写操作次数
+     */
+    public long getBlocksLeased() {
+        return blocksLeased.sum();
+    }
+
+    /**
+     * 与其它进程并发租用时，版本冲突重试的次数
+     */
+    public long getCasRetries() {
+        return casRetries.sum();
+    }
+
+    public String getCounterPath() {
+        return counterPath;
+    }
+
+    public CuratorFramework getClient() {
+        return client;
+    }
+
+    /**
+     * 停止预取线程，还没有完成的预取以异常结束；已经租用但没有发放的 ID 丢弃
+     */
+    @Override
+    public void close() {
+        closed = true;
+        prefetcher.shutdownNow();
+        for (CompletableFuture<Block> future : prefetching) {
+            future.completeExceptionally(new IllegalStateException("ID 生成器已关闭：" + counterPath));
+        }
+    }
+}
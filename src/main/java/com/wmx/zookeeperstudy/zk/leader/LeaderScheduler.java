@@ -0,0 +1,257 @@
+package com.wmx.zookeeperstudy.zk.leader;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.recipes.leader.LeaderLatch;
+import org.apache.curator.framework.recipes.leader.LeaderLatchListener;
+import org.apache.curator.framework.state.ConnectionState;
+import org.apache.curator.framework.state.ConnectionStateListener;
+import org.apache.curator.utils.ThreadUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * leader 选举 + 只在 leader 上执行的定时任务调度器
+ * 1、所有节点通过 {@link LeaderLatch} 参与选举，同一时刻只有一个节点持有领导权
+ * 2、注册的定时任务只在 leader 上执行：成为 leader 时启动所有任务，失去领导权时立即取消（并中断正在执行的任务）
+ * 3、连接挂起（SUSPENDED）时不等会话过期，立即取消任务 —— 此时其它节点可能很快接管，继续执行会出现两个 leader 同时执行；
+ * 重新连接（RECONNECTED）后如果仍然持有领导权，再恢复任务
+ * 4、每次任务执行前再检查一次领导权，避免取消与执行之间的竞争
+ * 5、领导权变化以 {@link LeadershipEvent} 通知监听器，并统计次数
+ *
+ * @author wangMaoXiong
+ * @version 1.0
+ * @date 2020/9/6 15:30
+ */
+public class LeaderScheduler implements LeaderLatchListener, ConnectionStateListener, Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(LeaderScheduler.class);
+
+    private final CuratorFramework client;
+    private final LeaderLatch latch;
+    private final String participantId;
+    private final ScheduledExecutorService executor;
+    private final Map<String, Job> jobs = new ConcurrentHashMap<>();
+    private final List<LeadershipListener> listeners = new CopyOnWriteArrayList<>();
+    private final AtomicLong grantedCount = new AtomicLong();
+    private final AtomicLong revokedCount = new AtomicLong();
+    /**
+     * 当前是否在执行任务，由 synchronized 方法修改
+     */
+    private volatile boolean active;
+    private volatile long leaderSince;
+
+    /**
+     * @param client        ：已经 start() 的客户端
+     * @param latchPath     ：选举路径，如 /leader/report-job
+     * @param participantId ：参与者 id，如 主机名:端口
+     * @param threads       ：执行任务的线程数
+     */
+    public LeaderScheduler(CuratorFramework client, String latchPath, String participantId, int threads) {
+        this.client = client;
+        this.participantId = participantId;
+        this.latch = new LeaderLatch(client, latchPath, participantId, LeaderLatch.CloseMode.NOTIFY_LEADER);
+        this.executor = ThreadUtils.newFixedThreadScheduledPool(threads, "LeaderScheduler");
+    }
+
+    /**
+     * 开始参与选举
+     *
+     * @throws Exception
+     */
+    public void start() throws Exception {
+        latch.addListener(this);
+        client.getConnectionStateListenable().addListener(this);
+        latch.start();
+    }
+
+    /**
+     * 注册只在 leader 上执行的定时任务，当前已是 leader 时立即开始调度
+     *
+     * @param name         ：任务名称，重复注册时替换原来的任务
+     * @param task         ：任务
+     * @param initialDelay ：成为 leader 后首次执行的延迟
+     * @param period       ：执行间隔
+     * @param unit
+     */
+    public synchronized void schedule(String name, Runnable task, long initialDelay, long period, TimeUnit unit) {
+        Job job = new Job(name, task, initialDelay, period, unit);
+        Job old = jobs.put(name, job);
+        if (old != null) {
+            old.cancel();
+        }
+        if (active) {
+            job.start();
+        }
+    }
+
+    /**
+     * 取消注册任务
+     *
+     * @param name
+     */
+    public synchronized void unschedule(String name) {
+        Job job = jobs.remove(name);
+        if (job != null) {
+            job.cancel();
+        }
+    }
+
+    public void addListener(LeadershipListener listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public void isLeader() {
+        activate();
+    }
+
+    @Override
+    public void notLeader() {
+        deactivate("失去领导权");
+    }
+
+    @Override
+    public void stateChanged(CuratorFramework client, ConnectionState newState) {
+        if (newState == ConnectionState.SUSPENDED || newState == ConnectionState.LOST) {
+            deactivate("连接状态 " + newState);
+        } else if (newState == ConnectionState.RECONNECTED && latch.hasLeadership()) {
+            activate();
+        }
+    }
+
+    private synchronized void activate() {
+        if (active || !latch.hasLeadership()) {
+            return;
+        }
+        active = true;
+        leaderSince = System.currentTimeMillis();
+        for (Job job : jobs.values()) {
+            job.start();
+        }
+        grantedCount.incrementAndGet();
+        logger.info("【{}】成为 leader，启动 {} 个任务", participantId, jobs.size());
+        fire(new LeadershipEvent(LeadershipEvent.Type.GRANTED, participantId, leaderSince));
+    }
+
+    private synchronized void deactivate(String reason) {
+        if (!active) {
+            return;
+        }
+        active = false;
+        for (Job job : jobs.values()) {
+            job.cancel();
+        }
+        revokedCount.incrementAndGet();
+        logger.info("【{}】{}，取消所有任务", participantId, reason);
+        fire(new LeadershipEvent(LeadershipEvent.Type.REVOKED, participantId, System.currentTimeMillis()));
+    }
+
+    private void fire(LeadershipEvent event) {
+        for (LeadershipListener listener : listeners) {
+            try {
+                listener.onLeadershipChange(event);
+            } catch (Exception e) {
+                logger.error("领导权监听器异常：" + event, e);
+            }
+        }
+    }
+
+    /**
+     * 当前是否为 leader 且正在执行任务
+     */
+    public boolean isActive() {
+        return active;
+    }
+
+    /**
+     * 成为 leader 的时间，不是 leader 时返回 0
+     */
+    public long getLeaderSince() {
+        return active ? leaderSince : 0;
+    }
+
+    public long getGrantedCount() {
+        return grantedCount.get();
+    }
+
+    public long getRevokedCount() {
+        return revokedCount.get();
+    }
+
+    public int getJobCount() {
+        return jobs.size();
+    }
+
+    public String getParticipantId() {
+        return participantId;
+    }
+
+    public LeaderLatch getLatch() {
+        return latch;
+    }
+
+    @Override
+    public void close() throws IOException {
+        client.getConnectionStateListenable().removeListener(this);
+        deactivate("关闭");
+        try {
+            //未启动或已关闭时 LeaderLatch.close() 会抛出 IllegalStateException
+            if (latch.getState() == LeaderLatch.State.STARTED) {
+                latch.close();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private class Job {
+        private final String name;
+        private final Runnable task;
+        private final long initialDelay;
+        private final long period;
+        private final TimeUnit unit;
+        private ScheduledFuture<?> future;
+
+        Job(String name, Runnable task, long initialDelay, long period, TimeUnit unit) {
+            this.name = name;
+            this.task = task;
+            this.initialDelay = initialDelay;
+            this.period = period;
+            this.unit = unit;
+        }
+
+        void start() {
+            future = executor.scheduleAtFixedRate(this::run, initialDelay, period, unit);
+        }
+
+        void cancel() {
+            if (future != null) {
+                future.cancel(true);
+                future = null;
+            }
+        }
+
+        private void run() {
+            if (!active) {
+                return;
+            }
+            try {
+                task.run();
+            } catch (Exception e) {
+                //异常不能抛出，否则 scheduleAtFixedRate 后续不再执行
+                logger.error("任务【" + name + "】执行异常", e);
+            }
+        }
+    }
+}
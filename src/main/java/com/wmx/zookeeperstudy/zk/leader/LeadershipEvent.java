@@ -0,0 +1,52 @@
+package com.wmx.zookeeperstudy.zk.leader;
+
+/**
+ * 领导权变化事件
+ *
+ * @author wangMaoXiong
+ * @version 1.0
+ * @date 2020/9/6 15:10
+ */
+public class LeadershipEvent {
+
+    public enum Type {
+        /**
+         * 成为 leader，开始执行任务
+         */
+        GRANTED,
+        /**
+         * 失去 leader（包括连接挂起、会话丢失、主动关闭），任务已取消
+         */
+        REVOKED
+    }
+
+    private final Type type;
+    private final String participantId;
+    private final long timestamp;
+
+    public LeadershipEvent(Type type, String participantId, long timestamp) {
+        this.type = type;
+        this.participantId = participantId;
+        this.timestamp = timestamp;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public String getParticipantId() {
+        return participantId;
+    }
+
+    /**
+     * 事件发生的时间，System.currentTimeMillis()
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    @Override
+    public String toString() {
+        return "LeadershipEvent{" + type + " " + participantId + "}";
+    }
+}
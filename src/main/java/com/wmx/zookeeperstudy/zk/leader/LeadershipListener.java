@@ -0,0 +1,14 @@
+package com.wmx.zookeeperstudy.zk.leader;
+
+/**
+ * 领导权变化监听器，在 Curator 的回调线程上同步调用，不要执行耗时操作
+ *
+ * @author wangMaoXiong
+ * @version 1.0
+ * @date 2020/9/6 15:12
+ */
+@FunctionalInterface
+public interface LeadershipListener {
+
+    void onLeadershipChange(LeadershipEvent event);
+}
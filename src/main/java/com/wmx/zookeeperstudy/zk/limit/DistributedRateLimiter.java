@@ -0,0 +1,76 @@
+package com.wmx.zookeeperstudy.zk.limit;
+
+import com.wmx.zookeeperstudy.zk.watch.WatchManager;
+import org.apache.curator.framework.CuratorFramework;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * 分布式限流：集群总速率按实例平分，每个实例用本地令牌桶执行自己的份额，请求路径上不访问 ZooKeeper
+ * 1、总速率保存在 {path} 节点上，实例加入、退出或者总速率变化时由 {@link ShareGroup} 重新分配，本实例速率 = 总速率 / 实例数
+ * 2、各实例流量大致均衡（如前面有负载均衡）时总体精度高；流量不均衡时空闲实例的份额不会借给繁忙实例，总体通过量低于总速率
+ * 3、重新分配期间、与 ZooKeeper 断开期间按原速率执行，可能短暂超过总速率（可用性优先）
+ *
+ * @author wangMaoXiong
+ * @version 1.0
+ * @date 2020/9/20 21:00
+ */
+public class DistributedRateLimiter implements Closeable {
+
+    private final ShareGroup group;
+    private final LocalTokenBucket bucket;
+
+    /**
+     * @param client           ：已经 start() 的客户端
+     * @param watchManager     ：永久监听管理器
+     * @param path             ：限流器路径，如 /limits/order-api
+     * @param permitsPerSecond ：{path} 节点不存在时的集群总速率
+     * @param burstSeconds     ：允许突发的时长（秒），本实例的突发许可数 = 本实例速率 * burstSeconds
+     */
+    public DistributedRateLimiter(CuratorFramework client, WatchManager watchManager, String path,
+                                  double permitsPerSecond, double burstSeconds) {
+        //加入前不放行，避免启动瞬间以总速率放行
+        this.bucket = new LocalTokenBucket(0, 1);
+        this.group = new ShareGroup(client, watchManager, path, permitsPerSecond, (total, index, count) -> {
+            double rate = total / count;
+            bucket.setRate(rate, rate * burstSeconds);
+            return rate;
+        });
+    }
+
+    public void start() throws Exception {
+        group.start();
+    }
+
+    public boolean tryAcquire() {
+        return bucket.tryAcquire(1);
+    }
+
+    public boolean tryAcquire(int permits) {
+        return bucket.tryAcquire(permits);
+    }
+
+    /**
+     * 本实例当前的速率
+     */
+    public double getLocalRate() {
+        return bucket.getRate();
+    }
+
+    public int getMemberCount() {
+        return group.getMemberCount();
+    }
+
+    /**
+     * 修改集群总速率，所有实例都会重新分配
+     */
+    public void setTotalRate(double permitsPerSecond) throws Exception {
+        group.setTotal(permitsPerSecond);
+    }
+
+    @Override
+    public void close() throws IOException {
+        group.close();
+    }
+}
@@ -0,0 +1,98 @@
+package com.wmx.zookeeperstudy.zk.limit;
+
+import com.wmx.zookeeperstudy.zk.watch.WatchManager;
+import org.apache.curator.framework.CuratorFramework;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 分布式信号量：集群总并发数按实例平分，每个实例在本地计数，获取和释放都不访问 ZooKeeper
+ * 1、与 Curator 的 InterProcessSemaphoreV2 相比，后者每次获取都要创建租约节点并等待子节点变化，适合许可很少、持有时间很长的场景；
+ * 这里适合每秒成千上万次获取的并发控制
+ * 2、本实例许可数 = 总数 / 实例数，余数分给排序靠前的实例，各实例份额之和正好等于总数
+ * 3、份额缩小时已经获取的许可不收回，释放到份额以内后才能再次获取
+ *
+ * @author wangMaoXiong
+ * @version 1.0
+ * @date 2020/9/20 21:20
+ */
+public class DistributedSemaphore implements Closeable {
+
+    private final ShareGroup group;
+    private final AtomicInteger inUse = new AtomicInteger();
+    private volatile int limit;
+
+    /**
+     * @param client       ：已经 start() 的客户端
+     * @param watchManager ：永久监听管理器
+     * @param path         ：信号量路径，如 /limits/report-export
+     * @param permits      ：{path} 节点不存在时的集群总许可数
+     */
+    public DistributedSemaphore(CuratorFramework client, WatchManager watchManager, String path, int permits) {
+        this.group = new ShareGroup(client, watchManager, path, permits, (total, index, count) -> {
+            int totalPermits = (int) total;
+            limit = totalPermits / count + (index < totalPermits % count ? 1 : 0);
+            return limit;
+        });
+    }
+
+    public void start() throws Exception {
+        group.start();
+    }
+
+    /**
+     * 尝试获取一个许可，不阻塞
+     *
+     * @return ：本实例的许可已经用完时返回 false
+     */
+    public boolean tryAcquire() {
+        while (true) {
+            int current = inUse.get();
+            if (current >= limit) {
+                return false;
+            }
+            if (inUse.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 释放一个通过 {@link #tryAcquire()} 获取的许可
+     *
+     * @throws IllegalStateException ：没有已获取的许可（释放次数多于获取次数）
+     */
+    public void release() {
+        while (true) {
+            int current = inUse.get();
+            if (current <= 0) {
+                throw new IllegalStateException("没有已获取的许可，释放次数多于获取次数");
+            }
+            if (inUse.compareAndSet(current, current - 1)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * 本实例当前的许可数
+     */
+    public int getLocalPermits() {
+        return limit;
+    }
+
+    public int getInUse() {
+        return inUse.get();
+    }
+
+    public int getMemberCount() {
+        return group.getMemberCount();
+    }
+
+    @Override
+    public void close() throws IOException {
+        group.close();
+    }
+}
@@ -0,0 +1,84 @@
+package com.wmx.zookeeperstudy.zk.limit;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 本地无锁令牌桶，按 GCRA（通用信元速率算法）实现：只保存一个"理论到达时间"（tat），一次 CAS 完成取令牌
+ * 1、每个许可占用 interval = 1 秒 / 速率 的时间，取 n 个许可时 tat = max(tat, now) + n * interval
+ * 2、tat 超前当前时间不超过 burst 个许可的时间时允许，否则拒绝，等价于容量为 burst 的令牌桶，但不需要定时补充令牌
+ * 3、没有锁，多线程竞争时只是 CAS 重试；速率可以随时调整（见 {@link #setRate(double, double)}），已经预支的时间保留
+ *
+ * @author wangMaoXiong
+ * @version 1.0
+ * @date 2020/9/20 20:10
+ */
+public class LocalTokenBucket {
+
+    private final AtomicLong tat = new AtomicLong(System.nanoTime());
+    private volatile Params params;
+
+    /**
+     * @param permitsPerSecond ：每秒许可数，0 表示拒绝所有请求
+     * @param burstPermits     ：允许的突发许可数（桶容量），至少为 1
+     */
+    public LocalTokenBucket(double permitsPerSecond, double burstPermits) {
+        setRate(permitsPerSecond, burstPermits);
+    }
+
+    public void setRate(double permitsPerSecond, double burstPermits) {
+        this.params = new Params(permitsPerSecond, burstPermits);
+    }
+
+    public double getRate() {
+        return params.permitsPerSecond;
+    }
+
+    public boolean tryAcquire() {
+        return tryAcquire(1);
+    }
+
+    /**
+     * 尝试获取许可，不阻塞
+     *
+     * @param permits ：许可数，必须大于 0
+     * @return ：许可不足时返回 false
+     */
+    public boolean tryAcquire(int permits) {
+        if (permits <= 0) {
+            throw new IllegalArgumentException("许可数必须大于 0：" + permits);
+        }
+        Params current = params;
+        if (current.intervalNanos == Long.MAX_VALUE) {
+            return false;
+        }
+        long increment = current.intervalNanos * permits;
+        while (true) {
+            long now = System.nanoTime();
+            long last = tat.get();
+            long next = Math.max(last, now) + increment;
+            if (next - now > current.burstNanos) {
+                return false;
+            }
+            if (tat.compareAndSet(last, next)) {
+                return true;
+            }
+        }
+    }
+
+    private static class Params {
+        private final double permitsPerSecond;
+        private final long intervalNanos;
+        private final long burstNanos;
+
+        private Params(double permitsPerSecond, double burstPermits) {
+            this.permitsPerSecond = permitsPerSecond;
+            if (permitsPerSecond <= 0) {
+                this.intervalNanos = Long.MAX_VALUE;
+                this.burstNanos = 0;
+            } else {
+                this.intervalNanos = Math.max(1, (long) (1_000_000_000L / permitsPerSecond));
+                this.burstNanos = (long) (intervalNanos * Math.max(1, burstPermits));
+            }
+        }
+    }
+}
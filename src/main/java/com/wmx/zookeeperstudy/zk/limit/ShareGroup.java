@@ -0,0 +1,224 @@
+package com.wmx.zookeeperstudy.zk.limit;
+
+import com.wmx.zookeeperstudy.zk.watch.NodeEvent;
+import com.wmx.zookeeperstudy.zk.watch.WatchManager;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.state.ConnectionState;
+import org.apache.curator.framework.state.ConnectionStateListener;
+import org.apache.curator.utils.ThreadUtils;
+import org.apache.curator.utils.ZKPaths;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 份额组：把一个集群总量（如每秒 5000 个请求、10 个并发）按成员平分，每个实例只在本地执行自己的份额
+ * 1、{path} 节点的数据为总量（十进制字符串），修改它即可在运行时调整总量；每个实例在 {path}/members 下创建一个临时顺序节点，
+ * 节点数据为该实例当前的份额，便于运维查看
+ * 2、成员加入、退出（会话失效后临时节点被删除）、总量变化时通过永久监听感知，在后台线程重新计算份额，
+ * 份额由 {@link ShareListener} 按 总量、本实例在有序成员列表中的位置、成员个数 计算
+ * 3、只有成员变化、总量变化时才访问 ZooKeeper，请求路径上不访问
+ * 4、重新分配期间各实例感知变化的时间不同，份额之和可能短暂超过总量；会话丢失期间继续按原份额执行（可用性优先），
+ * 重新连接后如果临时节点已经被删除，则重新加入
+ *
+ * @author wangMaoXiong
+ * @version 1.0
+ * @date 2020/9/20 20:30
+ */
+public class ShareGroup implements ConnectionStateListener, Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(ShareGroup.class);
+
+    /**
+     * 份额计算
+     */
+    @FunctionalInterface
+    public interface ShareListener {
+        /**
+         * 成员或者总量变化后回调，在份额组的后台线程上串行执行
+         *
+         * @param total ：集群总量
+         * @param index ：本实例在按名称排序的成员列表中的位置
+         * @param count ：成员个数
+         * @return ：本实例的份额，写入成员节点供查看
+         */
+        double onRebalance(double total, int index, int count);
+    }
+
+    private final CuratorFramework client;
+    private final WatchManager watchManager;
+    private final String path;
+    private final String membersPath;
+    private final double defaultTotal;
+    private final ShareListener listener;
+    private final ScheduledExecutorService executor;
+    private final AtomicBoolean rebalanceScheduled = new AtomicBoolean();
+
+    private volatile String memberPath;
+    private volatile double total;
+    private volatile int memberCount;
+    private volatile double share;
+    private Closeable subscription;
+
+    /**
+     * @param client       ：已经 start() 的客户端
+     * @param watchManager ：永久监听管理器
+     * @param path         ：份额组路径，如 /limits/order-api
+     * @param defaultTotal ：{path} 节点不存在时以此总量创建
+     * @param listener     ：份额计算
+     */
+    public ShareGroup(CuratorFramework client, WatchManager watchManager, String path, double defaultTotal, ShareListener listener) {
+        this.client = client;
+        this.watchManager = watchManager;
+        this.path = path;
+        this.membersPath = ZKPaths.makePath(path, "members");
+        this.defaultTotal = defaultTotal;
+        this.listener = listener;
+        this.executor = Executors.newSingleThreadScheduledExecutor(ThreadUtils.newThreadFactory("ShareGroup"));
+    }
+
+    /**
+     * 加入份额组并完成第一次分配，返回后份额已经生效
+     *
+     * @throws Exception
+     */
+    public void start() throws Exception {
+        try {
+            client.create().creatingParentContainersIfNeeded()
+                    .forPath(path, format(defaultTotal).getBytes(StandardCharsets.UTF_8));
+        } catch (KeeperException.NodeExistsException e) {
+            //其它实例已经创建，以节点中的总量为准
+        }
+        join();
+        subscription = watchManager.subscribe(path, this::onEvent);
+        client.getConnectionStateListenable().addListener(this);
+        executor.submit(this::rebalance).get();
+    }
+
+    private void join() throws Exception {
+        //与 createNode3 一样级联创建，父节点为容器节点
+        memberPath = client.create().creatingParentContainersIfNeeded()
+                .withMode(CreateMode.EPHEMERAL_SEQUENTIAL)
+                .forPath(ZKPaths.makePath(membersPath, "member-"), new byte[0]);
+        logger.info("加入份额组【{}】：{}", path, memberPath);
+    }
+
+    private void onEvent(NodeEvent event) {
+        //成员自己写入份额（成员节点 DATA_CHANGED）不影响分配
+        if (event.getType() == NodeEvent.Type.DATA_CHANGED && !event.getPath().equals(path)) {
+            return;
+        }
+        scheduleRebalance(0);
+    }
+
+    @Override
+    public void stateChanged(CuratorFramework client, ConnectionState newState) {
+        if (newState == ConnectionState.RECONNECTED) {
+            scheduleRebalance(0);
+        }
+    }
+
+    private void scheduleRebalance(long delayMs) {
+        if (rebalanceScheduled.compareAndSet(false, true)) {
+            try {
+                executor.schedule(() -> {
+                    rebalanceScheduled.set(false);
+                    rebalance();
+                }, delayMs, TimeUnit.MILLISECONDS);
+            } catch (Exception e) {
+                //已经关闭
+                rebalanceScheduled.set(false);
+            }
+        }
+    }
+
+    /**
+     * 读取总量和成员列表，重新计算本实例的份额；失败时 1 秒后重试
+     */
+    private void rebalance() {
+        try {
+            double newTotal = Double.parseDouble(new String(client.getData().forPath(path), StandardCharsets.UTF_8).trim());
+            List<String> members = new ArrayList<>(client.getChildren().forPath(membersPath));
+            String name = ZKPaths.getNodeFromPath(memberPath);
+            if (!members.contains(name)) {
+                //会话失效后临时节点已被删除，重新加入
+                join();
+                members.add(ZKPaths.getNodeFromPath(memberPath));
+            }
+            Collections.sort(members);
+            int index = members.indexOf(ZKPaths.getNodeFromPath(memberPath));
+            double newShare = listener.onRebalance(newTotal, index, members.size());
+            if (newShare != share || newTotal != total || members.size() != memberCount) {
+                logger.info("份额组【{}】重新分配：总量 {}，{} 个成员，本实例份额 {}", path, format(newTotal), members.size(), format(newShare));
+            }
+            total = newTotal;
+            memberCount = members.size();
+            if (newShare != share) {
+                share = newShare;
+                client.setData().forPath(memberPath, format(newShare).getBytes(StandardCharsets.UTF_8));
+            }
+        } catch (Exception e) {
+            logger.warn("份额组【{}】重新分配失败，稍后重试：{}", path, e.toString());
+            scheduleRebalance(1000);
+        }
+    }
+
+    /**
+     * 修改集群总量，所有成员都会重新分配
+     */
+    public void setTotal(double total) throws Exception {
+        client.setData().forPath(path, format(total).getBytes(StandardCharsets.UTF_8));
+    }
+
+    public double getTotal() {
+        return total;
+    }
+
+    public int getMemberCount() {
+        return memberCount;
+    }
+
+    public double getShare() {
+        return share;
+    }
+
+    private static String format(double value) {
+        return value == Math.rint(value) ? String.valueOf((long) value) : String.valueOf(value);
+    }
+
+    /**
+     * 退出份额组，其它成员随即分到更多份额
+     */
+    @Override
+    public void close() throws IOException {
+        client.getConnectionStateListenable().removeListener(this);
+        if (subscription != null) {
+            subscription.close();
+        }
+        executor.shutdownNow();
+        try {
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            client.delete().guaranteed().forPath(memberPath);
+        } catch (KeeperException.NoNodeException e) {
+            //已经被删除
+        } catch (Exception e) {
+            throw new IOException(e);
+        }
+    }
+}
@@ -0,0 +1,277 @@
+package com.wmx.zookeeperstudy.zk.lock;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.recipes.locks.InterProcessSemaphoreV2;
+import org.apache.curator.framework.recipes.locks.Lease;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 本地合并的分布式锁 —— 同一个 JVM 内的线程先在本地排队，每个进程对同一把锁在 ZK 上只有一个锁节点
+ * 1、InterProcessMutex 是每个竞争线程各创建一个 EPHEMERAL_SEQUENTIAL 节点（即 createNode3 演示的模式），
+ * 锁释放时所有节点的 watcher 都要处理，线程越多对集群的压力越大
+ * 2、这里线程先竞争本地的公平锁，只有本地队头的线程与 ZooKeeper 通信；持有 ZK 锁的线程释放时，
+ * 如果本地还有线程在排队，直接把 ZK 锁交接给下一个本地线程，不释放 ZK 锁节点
+ * 3、为了不让其它进程饿死，连续交接 maxHandoffs 次后强制释放 ZK 锁节点，重新排队
+ * 4、支持重入：同一个线程重复 acquire 只增加持有次数，release 相同次数后才真正释放
+ * 5、fencing token：高 32 位为 ZK 锁节点的顺序号，低 32 位为本地交接的次数，
+ * 在整个集群内单调递增，下游存储可以据此拒绝旧持有者（比如 GC 停顿后会话已过期的持有者）的写入
+ * 6、ZK 锁使用单租约的 {@link InterProcessSemaphoreV2}，租约不与线程绑定，所以才能在本地线程之间交接
+ *
+ * @author wangMaoXiong
+ * @version 1.0
+ * @date 2020/8/29 15:20
+ */
+public class CoalescingLock {
+
+    private static final Logger logger = LoggerFactory.getLogger(CoalescingLock.class);
+
+    private final String path;
+    private final InterProcessSemaphoreV2 semaphore;
+    private final int maxHandoffs;
+    private final ReentrantLock local = new ReentrantLock(true);
+    /**
+     * 正在本地排队的线程数
+     */
+    private final AtomicInteger waiters = new AtomicInteger();
+    /**
+     * 会话丢失后，当前持有的租约已经无效，下一个获取锁的线程需要重新获取 ZK 锁
+     */
+    private volatile boolean leaseLost;
+
+    //以下字段只由持有本地锁的线程读写
+    private Lease lease;
+    private long sequence;
+    private int handoffs;
+    private long fencingToken;
+    private long acquiredNanos;
+
+    private final LongAdder acquireCount = new LongAdder();
+    private final LongAdder zkAcquireCount = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+    private final LongAdder holdNanos = new LongAdder();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+
+    /**
+     * @param client      ：已经 start() 的客户端
+     * @param path        ：锁路径，如 /locks/order
+     * @param maxHandoffs ：持有 ZK 锁时最多连续在本地交接的次数
+     */
+    public CoalescingLock(CuratorFramework client, String path, int maxHandoffs) {
+        this.path = path;
+        this.semaphore = new InterProcessSemaphoreV2(client, path, 1);
+        this.maxHandoffs = maxHandoffs;
+    }
+
+    /**
+     * 获取锁，一直阻塞到获取成功
+     *
+     * @throws Exception
+     */
+    public void acquire() throws Exception {
+        acquire(-1, null);
+    }
+
+    /**
+     * 获取锁，最多等待 time 时长
+     *
+     * @param time ：最长等待时长，unit 为 null 时一直等待
+     * @param unit
+     * @return ：是否获取成功
+     * @throws Exception
+     */
+    public boolean acquire(long time, TimeUnit unit) throws Exception {
+        if (local.isHeldByCurrentThread()) {
+            local.lock();
+            return true;
+        }
+        long start = System.nanoTime();
+        waiters.incrementAndGet();
+        boolean locked = false;
+        try {
+            if (unit == null) {
+                local.lockInterruptibly();
+                locked = true;
+            } else {
+                locked = local.tryLock(time, unit);
+            }
+        } finally {
+            waiters.decrementAndGet();
+            if (!locked) {
+                releaseIdleLease();
+            }
+        }
+        if (!locked) {
+            return false;
+        }
+        try {
+            if (lease != null && (leaseLost || handoffs >= maxHandoffs)) {
+                returnLease();
+            }
+            if (lease == null) {
+                Lease newLease;
+                if (unit == null) {
+                    newLease = semaphore.acquire();
+                } else {
+                    long remaining = unit.toNanos(time) - (System.nanoTime() - start);
+                    newLease = semaphore.acquire(Math.max(remaining, 0), TimeUnit.NANOSECONDS);
+                }
+                if (newLease == null) {
+                    local.unlock();
+                    releaseIdleLease();
+                    return false;
+                }
+                lease = newLease;
+                leaseLost = false;
+                sequence = sequenceOf(newLease.getNodeName());
+                handoffs = 0;
+                zkAcquireCount.increment();
+            } else {
+                handoffs++;
+            }
+        } catch (Exception e) {
+            local.unlock();
+            releaseIdleLease();
+            throw e;
+        }
+        fencingToken = (sequence << 32) | handoffs;
+        acquiredNanos = System.nanoTime();
+        long waited = acquiredNanos - start;
+        acquireCount.increment();
+        waitNanos.add(waited);
+        maxWaitNanos.accumulateAndGet(waited, Math::max);
+        return true;
+    }
+
+    /**
+     * 释放锁。本地还有线程排队时，ZK 锁直接交接给下一个线程
+     *
+     * @throws Exception
+     */
+    public void release() throws Exception {
+        if (!local.isHeldByCurrentThread()) {
+            throw new IllegalMonitorStateException("当前线程未持有锁：" + path);
+        }
+        if (local.getHoldCount() > 1) {
+            local.unlock();
+            return;
+        }
+        holdNanos.add(System.nanoTime() - acquiredNanos);
+        try {
+            //本地没有排队的线程，或者已经连续交接了 maxHandoffs 次，释放 ZK 锁，让其它进程有机会获取
+            if (waiters.get() == 0 || leaseLost || handoffs + 1 >= maxHandoffs) {
+                returnLease();
+            }
+        } finally {
+            local.unlock();
+        }
+        releaseIdleLease();
+    }
+
+    /**
+     * 当前持有者的 fencing token，只有持有锁的线程可以调用
+     *
+     * @return
+     */
+    public long getFencingToken() {
+        if (!local.isHeldByCurrentThread()) {
+            throw new IllegalMonitorStateException("当前线程未持有锁：" + path);
+        }
+        return fencingToken;
+    }
+
+    public boolean isHeldByCurrentThread() {
+        return local.isHeldByCurrentThread();
+    }
+
+    /**
+     * 会话丢失，临时的租约节点已被服务器删除，当前持有者不再受 ZK 锁保护
+     */
+    void markLeaseLost() {
+        leaseLost = true;
+    }
+
+    /**
+     * 持有者决定保留 ZK 锁后，排队的线程可能超时放弃了，此时没有线程会再释放 ZK 锁。
+     * 持有者解锁后、放弃的线程退出队列后都检查一次，保证两者之间的竞争总有一方能释放它
+     */
+    private void releaseIdleLease() {
+        if (waiters.get() == 0 && local.tryLock()) {
+            try {
+                if (waiters.get() == 0 && lease != null) {
+                    returnLease();
+                }
+            } finally {
+                local.unlock();
+            }
+        }
+    }
+
+    private void returnLease() {
+        Lease current = lease;
+        lease = null;
+        if (current != null) {
+            try {
+                current.close();
+            } catch (Exception e) {
+                //连接断开时删除失败，临时节点会在会话过期后由服务器删除
+                logger.warn("释放锁【{}】失败：{}", path, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 顺序节点名称以 10 位顺序号结尾，如 _c_9b1f...-lease-0000000012
+     */
+    static long sequenceOf(String nodeName) {
+        int end = nodeName.length();
+        int start = end;
+        while (start > 0 && Character.isDigit(nodeName.charAt(start - 1))) {
+            start--;
+        }
+        return start == end ? 0 : Long.parseLong(nodeName.substring(start, end));
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * 正在本地排队的线程数
+     */
+    public int getQueueLength() {
+        return waiters.get();
+    }
+
+    /**
+     * 获取锁成功的次数（不含重入）
+     */
+    public long getAcquireCount() {
+        return acquireCount.sum();
+    }
+
+    /**
+     * 真正在 ZooKeeper 上获取锁的次数，与 getAcquireCount 的差值即为本地交接的次数
+     */
+    public long getZkAcquireCount() {
+        return zkAcquireCount.sum();
+    }
+
+    public long getTotalWaitNanos() {
+        return waitNanos.sum();
+    }
+
+    public long getMaxWaitNanos() {
+        return maxWaitNanos.get();
+    }
+
+    public long getTotalHoldNanos() {
+        return holdNanos.sum();
+    }
+}
@@ -0,0 +1,106 @@
+package com.wmx.zookeeperstudy.zk.lock;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.state.ConnectionState;
+import org.apache.curator.framework.state.ConnectionStateListener;
+import org.apache.curator.utils.ZKPaths;
+
+import java.io.Closeable;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * 分布式锁服务，按名称管理 {@link CoalescingLock}
+ * 1、同一个名称在一个 JVM 内只有一个锁实例，所有线程共享，这样才能在本地合并排队
+ * 2、会话丢失（LOST）时通知所有锁，当前的租约节点已被服务器删除，下一个获取锁的线程会重新获取 ZK 锁
+ *
+ * @author wangMaoXiong
+ * @version 1.0
+ * @date 2020/8/29 16:10
+ */
+public class DistributedLockService implements ConnectionStateListener, Closeable {
+
+    public static final int DEFAULT_MAX_HANDOFFS = 16;
+
+    private final CuratorFramework client;
+    private final String rootPath;
+    private final int maxHandoffs;
+    private final ConcurrentMap<String, CoalescingLock> locks = new ConcurrentHashMap<>();
+    private final List<Consumer<CoalescingLock>> lockListeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * @param client      ：已经 start() 的客户端
+     * @param rootPath    ：所有锁节点的父路径，如 /locks
+     * @param maxHandoffs ：持有 ZK 锁时最多连续在本地交接的次数
+     */
+    public DistributedLockService(CuratorFramework client, String rootPath, int maxHandoffs) {
+        this.client = client;
+        this.rootPath = rootPath;
+        this.maxHandoffs = maxHandoffs;
+        client.getConnectionStateListenable().addListener(this);
+    }
+
+    public DistributedLockService(CuratorFramework client) {
+        this(client, "/locks", DEFAULT_MAX_HANDOFFS);
+    }
+
+    /**
+     * 获取锁实例，不存在时创建
+     *
+     * @param name ：锁名称，如 order，对应的锁路径为 /locks/order
+     * @return
+     */
+    public CoalescingLock getLock(String name) {
+        String path = ZKPaths.makePath(rootPath, name);
+        CoalescingLock lock = locks.get(path);
+        if (lock != null) {
+            return lock;
+        }
+        CoalescingLock created = new CoalescingLock(client, path, maxHandoffs);
+        lock = locks.putIfAbsent(path, created);
+        if (lock != null) {
+            return lock;
+        }
+        for (Consumer<CoalescingLock> listener : lockListeners) {
+            listener.accept(created);
+        }
+        return created;
+    }
+
+    /**
+     * 已经创建的所有锁
+     *
+     * @return
+     */
+    public Collection<CoalescingLock> getLocks() {
+        return Collections.unmodifiableCollection(locks.values());
+    }
+
+    /**
+     * 新建锁实例时回调，用于给新的锁注册指标
+     *
+     * @param listener
+     */
+    public void addLockListener(Consumer<CoalescingLock> listener) {
+        lockListeners.add(listener);
+    }
+
+    @Override
+    public void stateChanged(CuratorFramework client, ConnectionState newState) {
+        if (newState == ConnectionState.LOST) {
+            for (CoalescingLock lock : locks.values()) {
+                lock.markLeaseLost();
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        client.getConnectionStateListenable().removeListener(this);
+    }
+}
@@ -0,0 +1,53 @@
+package com.wmx.zookeeperstudy.zk.metrics;
+
+import com.wmx.zookeeperstudy.zk.leader.LeaderScheduler;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+/**
+ * leader 选举的 Micrometer 指标
+ * 1、zookeeper.leader.active（Gauge）：当前是否为 leader，1 是，0 否
+ * 2、zookeeper.leader.changes（Counter）：领导权变化次数，标签 type（GRANTED/REVOKED）
+ * 3、zookeeper.leader.tenure（Gauge）：本次担任 leader 的时长，单位秒，不是 leader 时为 0
+ * 4、zookeeper.leader.jobs（Gauge）：注册的任务数
+ *
+ * @author wangMaoXiong
+ * @version 1.0
+ * @date 2020/9/6 16:20
+ */
+public class LeaderMetrics implements MeterBinder {
+
+    private final LeaderScheduler scheduler;
+
+    public LeaderMetrics(LeaderScheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("zookeeper.leader.active", scheduler, s -> s.isActive() ? 1 : 0)
+                .description("当前是否为 leader，1 是，0 否")
+                .register(registry);
+        FunctionCounter.builder("zookeeper.leader.changes", scheduler, LeaderScheduler::getGrantedCount)
+                .tag("type", "GRANTED")
+                .description("领导权变化次数")
+                .register(registry);
+        FunctionCounter.builder("zookeeper.leader.changes", scheduler, LeaderScheduler::getRevokedCount)
+                .tag("type", "REVOKED")
+                .description("领导权变化次数")
+                .register(registry);
+        Gauge.builder("zookeeper.leader.tenure", scheduler, LeaderMetrics::tenureSeconds)
+                .description("本次担任 leader 的时长，单位秒")
+                .register(registry);
+        Gauge.builder("zookeeper.leader.jobs", scheduler, LeaderScheduler::getJobCount)
+                .description("注册的任务数")
+                .register(registry);
+    }
+
+    private static double tenureSeconds(LeaderScheduler scheduler) {
+        long since = scheduler.getLeaderSince();
+        return since == 0 ? 0 : (System.currentTimeMillis() - since) / 1000.0;
+    }
+}
@@ -0,0 +1,65 @@
+package com.wmx.zookeeperstudy.zk.metrics;
+
+import com.wmx.zookeeperstudy.zk.lock.CoalescingLock;
+import com.wmx.zookeeperstudy.zk.lock.DistributedLockService;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 分布式锁的 Micrometer 指标，标签 lock 为锁路径
+ * 1、zookeeper.lock.wait（FunctionTimer）：获取锁的次数和总等待时长
+ * 2、zookeeper.lock.hold（FunctionTimer）：持有锁的总时长
+ * 3、zookeeper.lock.wait.max（Gauge）：最长等待时长，单位毫秒
+ * 4、zookeeper.lock.zk.acquires（Counter）：真正在 ZooKeeper 上获取锁的次数，与 zookeeper.lock.wait 次数的差值即为本地交接的次数
+ * 5、zookeeper.lock.queue（Gauge）：本地排队的线程数
+ *
+ * @author wangMaoXiong
+ * @version 1.0
+ * @date 2020/8/29 16:40
+ */
+public class LockMetrics implements MeterBinder {
+
+    private final DistributedLockService lockService;
+
+    public LockMetrics(DistributedLockService lockService) {
+        this.lockService = lockService;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        lockService.addLockListener(lock -> register(registry, lock));
+        for (CoalescingLock lock : lockService.getLocks()) {
+            register(registry, lock);
+        }
+    }
+
+    private void register(MeterRegistry registry, CoalescingLock lock) {
+        FunctionTimer.builder("zookeeper.lock.wait", lock, CoalescingLock::getAcquireCount,
+                CoalescingLock::getTotalWaitNanos, TimeUnit.NANOSECONDS)
+                .tag("lock", lock.getPath())
+                .description("获取锁的等待时长")
+                .register(registry);
+        FunctionTimer.builder("zookeeper.lock.hold", lock, CoalescingLock::getAcquireCount,
+                CoalescingLock::getTotalHoldNanos, TimeUnit.NANOSECONDS)
+                .tag("lock", lock.getPath())
+                .description("持有锁的时长")
+                .register(registry);
+        Gauge.builder("zookeeper.lock.wait.max", lock, l -> l.getMaxWaitNanos() / 1e6)
+                .tag("lock", lock.getPath())
+                .description("最长等待时长，单位毫秒")
+                .register(registry);
+        FunctionCounter.builder("zookeeper.lock.zk.acquires", lock, CoalescingLock::getZkAcquireCount)
+                .tag("lock", lock.getPath())
+                .description("在 ZooKeeper 上获取锁的次数")
+                .register(registry);
+        Gauge.builder("zookeeper.lock.queue", lock, CoalescingLock::getQueueLength)
+                .tag("lock", lock.getPath())
+                .description("本地排队的线程数")
+                .register(registry);
+    }
+}
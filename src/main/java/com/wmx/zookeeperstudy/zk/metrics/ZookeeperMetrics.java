@@ -0,0 +1,284 @@
+package com.wmx.zookeeperstudy.zk.metrics;
+
+import com.wmx.zookeeperstudy.zk.async.AsyncZkClient;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.apache.curator.drivers.AdvancedTracerDriver;
+import org.apache.curator.drivers.EventTrace;
+import org.apache.curator.drivers.OperationTrace;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.state.ConnectionState;
+import org.apache.curator.framework.state.ConnectionStateListener;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.ZooKeeper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ZooKeeper 客户端 Micrometer 指标，通过 Actuator 的 /actuator/metrics 和 /actuator/prometheus 暴露
+ * 1、zookeeper.operation（Timer）：每个操作的耗时和次数，标签：
+ * operation（create/delete/getData/getChildren/setData/exists/multi...）、mode（sync/async）、
+ * path（路径前缀，默认只取第一级，避免标签基数过大）、outcome（ok/NoNode/NodeExists/BadVersion/ConnectionLoss...）
+ * 2、zookeeper.connection.connected（Gauge）：当前是否已连接，1 已连接，0 未连接
+ * 3、zookeeper.connection.state.changes（Counter）：连接状态变化次数，标签 state
+ * 4、zookeeper.connection.reconnects（Counter）：重连次数
+ * 5、zookeeper.requests.outstanding（Gauge）：异步客户端在途请求数
+ * 6、zookeeper.watches（Gauge）：当前客户端上注册的监听个数，标签 type
+ * <p>
+ * 耗时数据有两个来源：
+ * 1）同步调用：Curator 对同步调用只在成功时提交 trace，且 OperationTrace 的耗时精度只有毫秒，看不到亚毫秒级的 p99，
+ * 所以 CuratorUtils 的同步操作通过 {@link #recordSync(String, String, SyncOperation)} 自己计时（纳秒），并按 KeeperException 记录 outcome；
+ * 2）异步调用及其它没有经过 recordSync 的同步调用：来自 Curator 的 {@link AdvancedTracerDriver}，
+ * 异步调用成功失败都会记录，recordSync 内部的同步调用不再重复记录
+ * </p>
+ *
+ * @author wangMaoXiong
+ * @version 1.0
+ * @date 2020/8/22 10:30
+ */
+public class ZookeeperMetrics extends AdvancedTracerDriver implements MeterBinder, ConnectionStateListener {
+
+    private static final Logger logger = LoggerFactory.getLogger(ZookeeperMetrics.class);
+
+    private static final String[] WATCH_TYPES = {"data", "exist", "child", "persistent", "persistentRecursive"};
+    private static final String[] WATCH_METHODS = {"getDataWatches", "getExistWatches", "getChildWatches",
+            "getPersistentWatches", "getPersistentRecursiveWatches"};
+
+    private final CuratorFramework client;
+    private final AsyncZkClient asyncClient;
+    private final int pathDepth;
+    private final String namespacePrefix;
+    private final AtomicLong reconnects = new AtomicLong();
+    private volatile MeterRegistry registry;
+    /**
+     * 当前线程是否在 recordSync 中，是则忽略 Curator 提交的同步 trace，避免重复记录
+     */
+    private final ThreadLocal<Boolean> recording = new ThreadLocal<>();
+
+    /**
+     * 被计时的同步操作
+     */
+    @FunctionalInterface
+    public interface SyncOperation<T> {
+        T call() throws Exception;
+    }
+
+    /**
+     * @param client      ：需要统计的客户端
+     * @param asyncClient ：异步客户端，用于统计在途请求数，可以为 null
+     * @param pathDepth   ：path 标签取路径的前几级，如 1 表示 /summary/service/port1 记为 /summary
+     */
+    public ZookeeperMetrics(CuratorFramework client, AsyncZkClient asyncClient, int pathDepth) {
+        this.client = client;
+        this.asyncClient = asyncClient;
+        this.pathDepth = pathDepth;
+        this.namespacePrefix = client.getNamespace() == null || client.getNamespace().isEmpty() ? null : "/" + client.getNamespace();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        this.registry = registry;
+        client.getZookeeperClient().setTracerDriver(this);
+        client.getConnectionStateListenable().addListener(this);
+
+        Gauge.builder("zookeeper.connection.connected", client, c -> c.getZookeeperClient().isConnected() ? 1 : 0)
+                .description("当前是否已连接，1 已连接，0 未连接")
+                .register(registry);
+        FunctionCounter.builder("zookeeper.connection.reconnects", reconnects, AtomicLong::get)
+                .description("重连次数")
+                .register(registry);
+        if (asyncClient != null) {
+            Gauge.builder("zookeeper.requests.outstanding", asyncClient, AsyncZkClient::getInFlight)
+                    .description("异步客户端在途请求数")
+                    .register(registry);
+        }
+        for (int i = 0; i < WATCH_TYPES.length; i++) {
+            final Method method = findWatchMethod(WATCH_METHODS[i]);
+            if (method != null) {
+                Gauge.builder("zookeeper.watches", client, c -> countWatches(c, method))
+                        .tag("type", WATCH_TYPES[i])
+                        .description("客户端上注册的监听个数")
+                        .register(registry);
+            }
+        }
+    }
+
+    /**
+     * 同步执行并记录一次操作：纳秒精度，成功记为 ok，KeeperException 按错误码记录（NoNode、BadVersion、ConnectionLoss...），
+     * 其它异常记为 error；异常原样抛出
+     *
+     * @param operation ：操作名，如 getData、create
+     * @param path      ：节点路径
+     * @param call      ：同步操作
+     */
+    public <T> T recordSync(String operation, String path, SyncOperation<T> call) throws Exception {
+        MeterRegistry registry = this.registry;
+        if (registry == null) {
+            return call.call();
+        }
+        String outcome = "ok";
+        long start = System.nanoTime();
+        recording.set(Boolean.TRUE);
+        try {
+            return call.call();
+        } catch (KeeperException e) {
+            outcome = outcome(e.code().intValue());
+            throw e;
+        } catch (Exception e) {
+            outcome = "error";
+            throw e;
+        } finally {
+            recording.remove();
+            record(registry, operation, "sync", pathPrefix(path), outcome, System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    @Override
+    public void addTrace(OperationTrace trace) {
+        MeterRegistry registry = this.registry;
+        if (registry == null) {
+            return;
+        }
+        String name = trace.getName();
+        boolean background = name.contains("-Background");
+        if (!background && recording.get() != null) {
+            return;
+        }
+        record(registry, operation(name), background ? "async" : "sync", pathPrefix(trace.getPath()),
+                outcome(trace.getReturnCode()), trace.getLatencyMs(), TimeUnit.MILLISECONDS);
+    }
+
+    private static void record(MeterRegistry registry, String operation, String mode, String path, String outcome,
+                               long amount, TimeUnit unit) {
+        Timer.builder("zookeeper.operation")
+                .description("ZooKeeper 操作耗时")
+                .tags(Tags.of("operation", operation, "mode", mode, "path", path, "outcome", outcome))
+                .register(registry)
+                .record(amount, unit);
+    }
+
+    @Override
+    public void addEvent(EventTrace trace) {
+    }
+
+    @Override
+    public void stateChanged(CuratorFramework client, ConnectionState newState) {
+        if (newState == ConnectionState.RECONNECTED) {
+            reconnects.incrementAndGet();
+        }
+        MeterRegistry registry = this.registry;
+        if (registry != null) {
+            Counter.builder("zookeeper.connection.state.changes")
+                    .description("连接状态变化次数")
+                    .tag("state", newState.name())
+                    .register(registry)
+                    .increment();
+        }
+    }
+
+    /**
+     * Curator 的 trace 名称形如 GetDataBuilderImpl-Foreground、CuratorMultiTransactionImpl-Background，
+     * 取出其中的操作名：getData、multi
+     */
+    static String operation(String traceName) {
+        int dash = traceName.indexOf('-');
+        String name = dash < 0 ? traceName : traceName.substring(0, dash);
+        if (name.startsWith("Curator")) {
+            name = name.substring("Curator".length());
+        }
+        if (name.endsWith("BuilderImpl")) {
+            name = name.substring(0, name.length() - "BuilderImpl".length());
+        } else if (name.endsWith("TransactionImpl")) {
+            name = name.substring(0, name.length() - "TransactionImpl".length());
+        } else if (name.endsWith("Impl")) {
+            name = name.substring(0, name.length() - "Impl".length());
+        }
+        return name.isEmpty() ? traceName : Character.toLowerCase(name.charAt(0)) + name.substring(1);
+    }
+
+    /**
+     * 结果码转换为 outcome 标签，如 NONODE 转为 NoNode
+     */
+    static String outcome(int returnCode) {
+        KeeperException.Code code = KeeperException.Code.get(returnCode);
+        if (code == null) {
+            return String.valueOf(returnCode);
+        }
+        switch (code) {
+            case OK:
+                return "ok";
+            case NONODE:
+                return "NoNode";
+            case NODEEXISTS:
+                return "NodeExists";
+            case BADVERSION:
+                return "BadVersion";
+            case CONNECTIONLOSS:
+                return "ConnectionLoss";
+            case SESSIONEXPIRED:
+                return "SessionExpired";
+            case NOTEMPTY:
+                return "NotEmpty";
+            default:
+                return code.name();
+        }
+    }
+
+    /**
+     * 去掉命名空间后，只保留前 pathDepth 级路径
+     */
+    String pathPrefix(String path) {
+        if (path == null || path.isEmpty()) {
+            return "none";
+        }
+        if (namespacePrefix != null && (path.equals(namespacePrefix) || path.startsWith(namespacePrefix + "/"))) {
+            path = path.substring(namespacePrefix.length());
+            if (path.isEmpty()) {
+                return "/";
+            }
+        }
+        int end = 0;
+        for (int i = 0; i < pathDepth; i++) {
+            int next = path.indexOf('/', end + 1);
+            if (next < 0) {
+                return path;
+            }
+            end = next;
+        }
+        return end == 0 ? "/" : path.substring(0, end);
+    }
+
+    private static Method findWatchMethod(String name) {
+        try {
+            //ZooKeeper 只以 protected 方法暴露当前注册的监听
+            Method method = ZooKeeper.class.getDeclaredMethod(name);
+            method.setAccessible(true);
+            return method;
+        } catch (Exception e) {
+            logger.debug("无法获取监听个数【{}】：{}", name, e.getMessage());
+            return null;
+        }
+    }
+
+    private static double countWatches(CuratorFramework client, Method method) {
+        try {
+            if (!client.getZookeeperClient().isConnected()) {
+                return Double.NaN;
+            }
+            ZooKeeper zooKeeper = client.getZookeeperClient().getZooKeeper();
+            return ((List<?>) method.invoke(zooKeeper)).size();
+        } catch (Exception e) {
+            return Double.NaN;
+        }
+    }
+}
@@ -0,0 +1,290 @@
+package com.wmx.zookeeperstudy.zk.queue;
+
+import com.wmx.zookeeperstudy.zk.NodeData;
+import com.wmx.zookeeperstudy.zk.async.AsyncZkClient;
+import com.wmx.zookeeperstudy.zk.batch.BatchCommitException;
+import com.wmx.zookeeperstudy.zk.batch.BatchResult;
+import com.wmx.zookeeperstudy.zk.batch.NodeBatch;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.utils.ZKPaths;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.data.Stat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 分片队列：元素是 PERSISTENT_SEQUENTIAL 节点（与 createNode2 创建的一样），分散在 {path}/shard-0000 ~ shard-{N-1} 这 N 个父节点下
+ * 1、经典的 ZK 队列所有元素都在一个父节点下，每取一个元素都要 getChildren、排序、delete，所有消费者都争抢同一个父节点的队首；
+ * 分片后生产者轮流写入各个分片，消费者从随机的分片开始取，争抢分散到 N 个父节点上
+ * 2、消费者缓存每个分片排好序的子节点列表，列表取完才重新 getChildren，而不是每取一个元素列一次
+ * 3、消费者一次认领一批元素：先异步批量读取数据，再用一个 multi 事务删除，删除成功即认领成功（每个元素只会被一个消费者取到）；
+ * 其中有元素已经被其它消费者取走时事务整体失败，再异步批量检查一次剩下的元素，去掉所有已经被取走的元素后重试，
+ * 而不是每次事务失败只去掉一个
+ * 4、生产者批量入队时通过 {@link NodeBatch} 一个事务创建多个元素
+ * 5、只保证单个分片内先进先出，分片之间没有顺序；元素取出（删除）后才处理，处理失败需要调用方重新入队（至多一次）
+ * 6、线程安全，同一个进程内的多个线程共用缓存，不会互相争抢同一个元素
+ *
+ * @author wangMaoXiong
+ * @version 1.0
+ * @date 2020/9/21 20:10
+ */
+public class ShardedQueue {
+
+    private static final Logger logger = LoggerFactory.getLogger(ShardedQueue.class);
+
+    private static final String SHARD_PREFIX = "shard-";
+    private static final String ITEM_PREFIX = "item-";
+
+    private final CuratorFramework client;
+    private final AsyncZkClient async;
+    private final String path;
+    private final Shard[] shards;
+    private final AtomicInteger producerCursor = new AtomicInteger();
+    private final AtomicInteger consumerCursor;
+    private final AtomicLong listCount = new AtomicLong();
+    private final AtomicLong conflictCount = new AtomicLong();
+
+    /**
+     * @param client ：已经 start() 的客户端
+     * @param path   ：队列路径，如 /queues/order
+     * @param shards ：分片个数，同一个队列的所有生产者、消费者必须一致
+     */
+    public ShardedQueue(CuratorFramework client, String path, int shards) {
+        if (shards <= 0) {
+            throw new IllegalArgumentException("分片个数必须大于 0：" + shards);
+        }
+        this.client = client;
+        this.async = new AsyncZkClient(client);
+        this.path = path;
+        this.shards = new Shard[shards];
+        for (int i = 0; i < shards; i++) {
+            this.shards[i] = new Shard(ZKPaths.makePath(path, String.format("%s%04d", SHARD_PREFIX, i)));
+        }
+        //各个消费者进程从不同的分片开始
+        this.consumerCursor = new AtomicInteger(ThreadLocalRandom.current().nextInt(shards));
+    }
+
+    /**
+     * 创建各个分片的父节点（已经存在时忽略）
+     *
+     * @throws Exception
+     */
+    public void start() throws Exception {
+        for (Shard shard : shards) {
+            try {
+                client.create().creatingParentsIfNeeded().forPath(shard.path, new byte[0]);
+            } catch (KeeperException.NodeExistsException e) {
+                //其它生产者、消费者已经创建
+            }
+        }
+    }
+
+    private Shard nextProducerShard() {
+        return shards[Math.floorMod(producerCursor.getAndIncrement(), shards.length)];
+    }
+
+    /**
+     * 入队一个元素
+     *
+     * @return ：元素节点的路径
+     * @throws Exception
+     */
+    public String offer(byte[] data) throws Exception {
+        return client.create().withMode(CreateMode.PERSISTENT_SEQUENTIAL)
+                .forPath(ZKPaths.makePath(nextProducerShard().path, ITEM_PREFIX), data);
+    }
+
+    /**
+     * 批量入队：元素轮流分到各个分片，每个事务最多 {@link NodeBatch#DEFAULT_MAX_BATCH_OPS} 个元素
+     * 数据过多时拆分成多个事务，某个事务失败后后面的元素不再入队
+     *
+     * @return ：已经入队的元素路径，与 items 的前若干个一一对应
+     * @throws BatchCommitException ：连接丢失等原因中断，{@link BatchCommitException#getResults()} 中 COMMITTED 的元素已经入队，
+     *                              UNKNOWN 的不确定，SKIPPED 的没有入队，调用方据此决定重新入队哪些元素
+     */
+    public List<String> offerAll(List<byte[]> items) throws BatchCommitException {
+        NodeBatch batch = new NodeBatch(client);
+        for (byte[] item : items) {
+            batch.create(ZKPaths.makePath(nextProducerShard().path, ITEM_PREFIX), item, CreateMode.PERSISTENT_SEQUENTIAL);
+        }
+        List<String> created = new ArrayList<>(items.size());
+        for (BatchResult result : batch.commit()) {
+            if (!result.isCommitted()) {
+                logger.warn("批量入队【{}】中断，{} 个元素已入队，{} 个未入队：{}", path, created.size(),
+                        items.size() - created.size(), result);
+                break;
+            }
+            created.add(result.getResultPath());
+        }
+        return created;
+    }
+
+    /**
+     * 取出最多 maxItems 个元素，不阻塞
+     * 从下一个分片开始，当前分片不够时继续取后面的分片，所有分片都没有元素时返回空列表
+     *
+     * @param maxItems ：本次最多取出的元素个数
+     * @return ：取出的元素，同一个分片的元素按入队顺序排列
+     * @throws Exception ：连接丢失等异常
+     */
+    public List<NodeData> poll(int maxItems) throws Exception {
+        List<NodeData> claimed = new ArrayList<>(Math.min(maxItems, 64));
+        int start = consumerCursor.getAndIncrement();
+        for (int i = 0; i < shards.length && claimed.size() < maxItems; i++) {
+            Shard shard = shards[Math.floorMod(start + i, shards.length)];
+            claim(shard, maxItems - claimed.size(), claimed);
+        }
+        return claimed;
+    }
+
+    /**
+     * 从一个分片认领最多 max 个元素，一个事务最多删除 {@link NodeBatch#DEFAULT_MAX_BATCH_OPS} 个节点，保证认领是原子的
+     * 缓存的元素全部已经被其它消费者取走时继续从缓存取，缓存取完后重新列出，直到认领到元素或者分片为空
+     */
+    private void claim(Shard shard, int max, List<NodeData> claimed) throws Exception {
+        while (true) {
+            List<String> names = shard.reserve(Math.min(max, NodeBatch.DEFAULT_MAX_BATCH_OPS));
+            if (names.isEmpty()) {
+                return;
+            }
+            if (claimBatch(shard, names, claimed)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * 认领一批元素
+     *
+     * @return ：是否认领到了元素
+     */
+    private boolean claimBatch(Shard shard, List<String> names, List<NodeData> claimed) throws Exception {
+        List<String> paths = new ArrayList<>(names.size());
+        for (String name : names) {
+            paths.add(ZKPaths.makePath(shard.path, name));
+        }
+        //1、异步批量读取数据，已经被其它消费者取走的值为 null
+        List<NodeData> candidates = present(paths);
+        //2、一个事务删除，有元素已经被取走时去掉所有已经被取走的元素后重试
+        while (!candidates.isEmpty()) {
+            NodeBatch batch = new NodeBatch(client);
+            for (NodeData node : candidates) {
+                batch.delete(node.getPath(), -1);
+            }
+            List<BatchResult> results = batch.commit();
+            int failed = -1;
+            for (int i = 0; i < results.size(); i++) {
+                if (results.get(i).getStatus() == BatchResult.Status.FAILED) {
+                    failed = i;
+                    break;
+                }
+            }
+            if (failed < 0) {
+                claimed.addAll(candidates);
+                return true;
+            }
+            BatchResult result = results.get(failed);
+            if (result.getCode() != KeeperException.Code.NONODE) {
+                throw KeeperException.create(result.getCode(), result.getPath());
+            }
+            conflictCount.incrementAndGet();
+            candidates.remove(failed);
+            if (candidates.isEmpty()) {
+                break;
+            }
+            //其它消费者往往一次取走了一批，剩下的元素重新检查一遍
+            List<String> remaining = new ArrayList<>(candidates.size());
+            for (NodeData node : candidates) {
+                remaining.add(node.getPath());
+            }
+            candidates = present(remaining);
+        }
+        return false;
+    }
+
+    /**
+     * 异步批量读取元素，返回仍然存在的元素，已经被其它消费者取走的计入冲突次数
+     */
+    private List<NodeData> present(List<String> paths) throws Exception {
+        Map<String, NodeData> data = async.getDataForPaths(paths).toCompletableFuture().get();
+        List<NodeData> nodes = new ArrayList<>(paths.size());
+        for (String itemPath : paths) {
+            NodeData node = data.get(itemPath);
+            if (node == null) {
+                conflictCount.incrementAndGet();
+            } else {
+                nodes.add(new NodeData(itemPath, node.getData(), node.getStat()));
+            }
+        }
+        return nodes;
+    }
+
+    /**
+     * 所有分片的元素总数，每个分片一次 exists 请求
+     *
+     * @throws Exception
+     */
+    public int size() throws Exception {
+        int size = 0;
+        for (Shard shard : shards) {
+            Stat stat = client.checkExists().forPath(shard.path);
+            size += stat == null ? 0 : stat.getNumChildren();
+        }
+        return size;
+    }
+
+    /**
+     * 消费时 getChildren 的次数
+     */
+    public long getListCount() {
+        return listCount.get();
+    }
+
+    /**
+     * 认领时发现元素已经被其它消费者取走的次数
+     */
+    public long getConflictCount() {
+        return conflictCount.get();
+    }
+
+    /**
+     * 一个分片，以及缓存的排好序的子节点列表
+     */
+    private class Shard {
+        private final String path;
+        private final Deque<String> cached = new ArrayDeque<>();
+
+        private Shard(String path) {
+            this.path = path;
+        }
+
+        /**
+         * 从缓存中取出最多 max 个子节点名称，缓存为空时重新列出；取出后从缓存移除，本进程的其它线程不会再取到
+         */
+        private synchronized List<String> reserve(int max) throws Exception {
+            if (cached.isEmpty()) {
+                List<String> children = client.getChildren().forPath(path);
+                listCount.incrementAndGet();
+                //序列号是 10 位补零的十进制数，前缀相同时按字符串排序即为入队顺序
+                Collections.sort(children);
+                cached.addAll(children);
+            }
+            List<String> names = new ArrayList<>(Math.min(max, cached.size()));
+            while (names.size() < max && !cached.isEmpty()) {
+                names.add(cached.pollFirst());
+            }
+            return names;
+        }
+    }
+}
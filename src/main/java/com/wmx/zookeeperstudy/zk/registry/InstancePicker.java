@@ -0,0 +1,66 @@
+package com.wmx.zookeeperstudy.zk.registry;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * 从服务实例列表中选择一个实例，实现必须是线程安全的
+ *
+ * @author wangMaoXiong
+ * @version 1.0
+ * @date 2020/9/3 20:45
+ */
+@FunctionalInterface
+public interface InstancePicker {
+
+    /**
+     * @param instances ：不可变、非空的实例列表
+     * @return
+     */
+    ServiceInstance pick(List<ServiceInstance> instances);
+
+    /**
+     * 轮询
+     */
+    static InstancePicker roundRobin() {
+        AtomicInteger counter = new AtomicInteger();
+        return instances -> instances.get((counter.getAndIncrement() & Integer.MAX_VALUE) % instances.size());
+    }
+
+    /**
+     * 随机
+     */
+    static InstancePicker random() {
+        return instances -> instances.get(ThreadLocalRandom.current().nextInt(instances.size()));
+    }
+
+    /**
+     * 最近最少使用：选择上次被选中时间最早的实例，从未被选中过的实例优先
+     */
+    static InstancePicker leastRecentlyUsed() {
+        AtomicLong clock = new AtomicLong();
+        ConcurrentMap<String, Long> lastUsed = new ConcurrentHashMap<>();
+        return instances -> {
+            ServiceInstance picked = null;
+            long oldest = Long.MAX_VALUE;
+            for (ServiceInstance instance : instances) {
+                long used = lastUsed.getOrDefault(instance.getId(), 0L);
+                if (used < oldest) {
+                    oldest = used;
+                    picked = instance;
+                }
+            }
+            lastUsed.put(picked.getId(), clock.incrementAndGet());
+            if (lastUsed.size() > instances.size() * 2) {
+                //清理已经下线的实例
+                lastUsed.keySet().retainAll(instances.stream().map(ServiceInstance::getId).collect(Collectors.toSet()));
+            }
+            return picked;
+        };
+    }
+}
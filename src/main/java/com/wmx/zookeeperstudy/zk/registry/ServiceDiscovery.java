@@ -0,0 +1,374 @@
+package com.wmx.zookeeperstudy.zk.registry;
+
+import com.wmx.zookeeperstudy.zk.NodeData;
+import com.wmx.zookeeperstudy.zk.async.AsyncZkClient;
+import com.wmx.zookeeperstudy.zk.watch.NodeEvent;
+import com.wmx.zookeeperstudy.zk.watch.WatchManager;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.utils.ZKPaths;
+import org.apache.zookeeper.KeeperException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * 服务发现（消费方）—— 在本地维护所有服务实例的索引，查询时不访问 ZooKeeper
+ * 1、启动时通过异步客户端并行加载 /services 下所有服务的所有实例
+ * 2、之后通过 {@link WatchManager} 的永久递归监听增量更新：实例节点创建、修改时异步读取一次数据（不阻塞监听的分发线程），
+ * 删除时直接移除；同一个实例有多个读取在途时只应用最后一次事件的结果；监听重置（重连、事件被丢弃）时全量重新加载
+ * 全量加载在锁外等待读取结果（读取结果在 ZooKeeper 的事件线程上完成，增量更新也在这个线程上加锁，锁内等待会互相阻塞），
+ * 加载期间应用的增量变化记录下来，替换索引后重新应用一遍
+ * 3、索引是不可变的 Map + {@link ServiceSnapshot}，每次变化整体替换（写时复制），读取只是一次 volatile 读，无锁
+ * 4、选择实例时配合 {@link InstancePicker}：轮询、随机、最近最少使用
+ *
+ * @author wangMaoXiong
+ * @version 1.0
+ * @date 2020/9/3 21:30
+ */
+public class ServiceDiscovery implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(ServiceDiscovery.class);
+
+    private final WatchManager watchManager;
+    private final String basePath;
+    private final AsyncZkClient async;
+    /**
+     * key：服务名称，value：服务的实例快照。只在 synchronized 方法中替换
+     */
+    private volatile Map<String, ServiceSnapshot> index = Collections.emptyMap();
+    private long version;
+    /**
+     * 实例路径 -> 最后一次读取的序号，只在 synchronized 方法中修改；读取完成时序号已经变化（又有新事件或者被删除）则丢弃结果
+     */
+    private final Map<String, Long> fetching = new HashMap<>();
+    private long fetchSequence;
+    /**
+     * 全量加载的序号：比已经替换过索引的加载更晚开始的加载才会替换索引；
+     * 有加载在途时应用的增量变化按顺序记录，每次加载从自己开始时的位置重新应用，没有加载在途时为 null
+     */
+    private long reloadSequence;
+    private long appliedReloadSequence;
+    private int reloadsInFlight;
+    private List<Runnable> changesDuringReload;
+    private Closeable subscription;
+
+    /**
+     * @param client       ：已经 start() 的客户端
+     * @param watchManager ：永久监听管理器
+     * @param basePath     ：服务根路径，如 /services
+     */
+    public ServiceDiscovery(CuratorFramework client, WatchManager watchManager, String basePath) {
+        this.watchManager = watchManager;
+        this.basePath = basePath;
+        this.async = new AsyncZkClient(client);
+    }
+
+    /**
+     * 先注册监听再全量加载，保证加载期间的变化不会丢失
+     * 加载失败（比如启动时还连不上服务器）不影响启动，连接成功后监听重置会再次全量加载
+     */
+    public void start() {
+        subscription = watchManager.subscribe(basePath, this::onEvent);
+        try {
+            reload();
+        } catch (Exception e) {
+            logger.warn("加载服务实例失败，等待连接恢复后重新加载：{}", e.getMessage());
+        }
+    }
+
+    /**
+     * 服务的所有实例，服务不存在时返回空列表
+     *
+     * @param name ：服务名称
+     * @return ：不可变列表
+     */
+    public List<ServiceInstance> getInstances(String name) {
+        ServiceSnapshot snapshot = index.get(name);
+        return snapshot == null ? Collections.emptyList() : snapshot.getInstances();
+    }
+
+    /**
+     * 服务的实例快照，服务不存在时返回 null
+     *
+     * @param name
+     * @return
+     */
+    public ServiceSnapshot getSnapshot(String name) {
+        return index.get(name);
+    }
+
+    /**
+     * 选择一个实例
+     *
+     * @param name   ：服务名称
+     * @param picker ：选择策略
+     * @return ：没有可用实例时返回 null
+     */
+    public ServiceInstance pick(String name, InstancePicker picker) {
+        List<ServiceInstance> instances = getInstances(name);
+        return instances.isEmpty() ? null : picker.pick(instances);
+    }
+
+    public Set<String> getServiceNames() {
+        return index.keySet();
+    }
+
+    private void onEvent(NodeEvent event) {
+        try {
+            if (event.getType() == NodeEvent.Type.RESET) {
+                reload();
+                return;
+            }
+            String path = event.getPath();
+            if (path.equals(basePath)) {
+                if (event.getType() == NodeEvent.Type.DELETED) {
+                    apply(() -> replace(Collections.emptyMap()));
+                }
+                return;
+            }
+            ZKPaths.PathAndNode pathAndNode = ZKPaths.getPathAndNode(path);
+            if (pathAndNode.getPath().equals(basePath)) {
+                //服务节点
+                if (event.getType() == NodeEvent.Type.DELETED) {
+                    apply(() -> removeService(pathAndNode.getNode()));
+                }
+                return;
+            }
+            ZKPaths.PathAndNode service = ZKPaths.getPathAndNode(pathAndNode.getPath());
+            if (!service.getPath().equals(basePath)) {
+                return;
+            }
+            if (event.getType() == NodeEvent.Type.DELETED) {
+                instanceDeleted(service.getNode(), pathAndNode.getNode(), path);
+                return;
+            }
+            long sequence = startFetch(path);
+            async.getData(path).toCompletableFuture().handle((node, error) -> {
+                try {
+                    ServiceInstance instance = decode(node, error);
+                    if (instance == null && node != null) {
+                        //数据格式错误，保留原来的实例
+                        finishFetch(path, sequence, null, null, null);
+                    } else {
+                        finishFetch(path, sequence, service.getNode(), pathAndNode.getNode(), instance);
+                    }
+                } catch (Exception e) {
+                    finishFetch(path, sequence, null, null, null);
+                    logger.error("读取服务实例失败：" + event, e);
+                }
+                return null;
+            });
+        } catch (Exception e) {
+            logger.error("处理服务变化事件失败：" + event, e);
+        }
+    }
+
+    private synchronized long startFetch(String path) {
+        long sequence = ++fetchSequence;
+        fetching.put(path, sequence);
+        return sequence;
+    }
+
+    /**
+     * 应用一次读取的结果：instance 为 null 表示节点已经不存在；service 为 null 表示只结束这次读取
+     */
+    private synchronized void finishFetch(String path, long sequence, String service, String id, ServiceInstance instance) {
+        if (!fetching.remove(path, sequence) || service == null) {
+            return;
+        }
+        if (instance == null) {
+            apply(() -> removeInstance(service, id));
+        } else {
+            apply(() -> putInstance(service, id, instance));
+        }
+    }
+
+    private synchronized void instanceDeleted(String service, String id, String path) {
+        fetching.remove(path);
+        apply(() -> removeInstance(service, id));
+    }
+
+    /**
+     * 应用一次增量变化，正在全量加载时记录下来，加载完成替换索引后重新应用（加载可能读到变化之前的数据）
+     */
+    private synchronized void apply(Runnable change) {
+        change.run();
+        if (changesDuringReload != null) {
+            changesDuringReload.add(change);
+        }
+    }
+
+    /**
+     * 全量加载：并行获取所有服务的子节点，再并行获取所有实例的数据
+     * 1、在锁外等待读取结果，加载期间增量更新照常应用
+     * 2、加载完成后在锁内替换索引，再重新应用加载期间的增量变化；之后的增量事件直接应用
+     * 3、同时有多次加载时，先完成的加载照常替换索引（启动时的加载不会因为监听注册后的 RESET 加载而作废），
+     * 比已经替换过索引的加载更早开始的加载完成时丢弃结果
+     */
+    public void reload() throws Exception {
+        long sequence;
+        int changesFrom;
+        synchronized (this) {
+            sequence = ++reloadSequence;
+            if (reloadsInFlight++ == 0) {
+                changesDuringReload = new ArrayList<>();
+            }
+            changesFrom = changesDuringReload.size();
+        }
+        Map<String, List<ServiceInstance>> loaded;
+        try {
+            loaded = load();
+        } catch (Exception e) {
+            synchronized (this) {
+                finishReload();
+            }
+            throw e;
+        }
+        synchronized (this) {
+            try {
+                if (sequence < appliedReloadSequence) {
+                    return;
+                }
+                appliedReloadSequence = sequence;
+                Map<String, ServiceSnapshot> next = new HashMap<>();
+                long newVersion = ++version;
+                for (Map.Entry<String, List<ServiceInstance>> entry : loaded.entrySet()) {
+                    next.put(entry.getKey(), new ServiceSnapshot(entry.getKey(), newVersion, entry.getValue()));
+                }
+                index = Collections.unmodifiableMap(next);
+                for (Runnable change : changesDuringReload.subList(changesFrom, changesDuringReload.size())) {
+                    change.run();
+                }
+                logger.info("加载服务实例：{}", index.values());
+            } finally {
+                finishReload();
+            }
+        }
+    }
+
+    /**
+     * 一次加载结束，没有其它加载在途时不再记录增量变化
+     */
+    private void finishReload() {
+        if (--reloadsInFlight == 0) {
+            changesDuringReload = null;
+        }
+    }
+
+    private Map<String, List<ServiceInstance>> load() throws Exception {
+        List<String> services = get(getChildren(basePath));
+        List<CompletableFuture<List<String>>> children = new ArrayList<>();
+        for (String service : services) {
+            children.add(getChildren(ZKPaths.makePath(basePath, service)));
+        }
+        Map<String, List<CompletableFuture<ServiceInstance>>> pending = new HashMap<>();
+        for (int i = 0; i < services.size(); i++) {
+            List<CompletableFuture<ServiceInstance>> instances = new ArrayList<>();
+            for (String id : get(children.get(i))) {
+                instances.add(async.getData(ZKPaths.makePath(basePath, services.get(i), id)).toCompletableFuture()
+                        .handle((node, error) -> decode(node, error)));
+            }
+            pending.put(services.get(i), instances);
+        }
+        Map<String, List<ServiceInstance>> loaded = new HashMap<>();
+        for (Map.Entry<String, List<CompletableFuture<ServiceInstance>>> entry : pending.entrySet()) {
+            List<ServiceInstance> instances = new ArrayList<>();
+            for (CompletableFuture<ServiceInstance> future : entry.getValue()) {
+                ServiceInstance instance = get(future);
+                if (instance != null) {
+                    instances.add(instance);
+                }
+            }
+            loaded.put(entry.getKey(), instances);
+        }
+        return loaded;
+    }
+
+    private CompletableFuture<List<String>> getChildren(String path) {
+        return async.getChildren(path).toCompletableFuture().handle((children, error) -> {
+            if (error == null) {
+                return children;
+            }
+            Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+            if (cause instanceof KeeperException.NoNodeException) {
+                return Collections.emptyList();
+            }
+            throw new CompletionException(cause);
+        });
+    }
+
+    private static ServiceInstance decode(NodeData node, Throwable error) {
+        if (error != null) {
+            Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+            if (cause instanceof KeeperException.NoNodeException) {
+                return null;
+            }
+            throw new CompletionException(cause);
+        }
+        try {
+            return ServiceInstance.fromBytes(node.getData());
+        } catch (IOException e) {
+            logger.warn("实例数据格式错误【{}】：{}", node.getPath(), e.getMessage());
+            return null;
+        }
+    }
+
+    private static <T> T get(CompletableFuture<T> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+    }
+
+    private synchronized void putInstance(String service, String id, ServiceInstance instance) {
+        List<ServiceInstance> instances = new ArrayList<>(getInstances(service));
+        instances.removeIf(i -> i.getId().equals(id));
+        instances.add(instance);
+        putService(service, instances);
+    }
+
+    private synchronized void removeInstance(String service, String id) {
+        List<ServiceInstance> instances = new ArrayList<>(getInstances(service));
+        if (instances.removeIf(i -> i.getId().equals(id))) {
+            putService(service, instances);
+        }
+    }
+
+    private synchronized void removeService(String service) {
+        if (index.containsKey(service)) {
+            Map<String, ServiceSnapshot> next = new HashMap<>(index);
+            next.remove(service);
+            replace(next);
+        }
+    }
+
+    private synchronized void putService(String service, List<ServiceInstance> instances) {
+        Map<String, ServiceSnapshot> next = new HashMap<>(index);
+        next.put(service, new ServiceSnapshot(service, ++version, instances));
+        index = Collections.unmodifiableMap(next);
+    }
+
+    private synchronized void replace(Map<String, ServiceSnapshot> next) {
+        version++;
+        index = Collections.unmodifiableMap(next);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (subscription != null) {
+            subscription.close();
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.wmx.zookeeperstudy.zk.registry;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * 服务实例，以 JSON 格式保存在临时节点 /services/{name}/{id} 中
+ * 1、metadata：字符串键值对形式的元数据，如版本号、机房、权重
+ * 2、payload：二进制元数据，JSON 中以 Base64 表示，由使用方自行解析
+ * 3、不可变，发现方的快照在多个线程之间共享；修改元数据使用 withMetadata、withPayload 得到新实例后再 update
+ *
+ * @author wangMaoXiong
+ * @version 1.0
+ * @date 2020/9/3 20:10
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public final class ServiceInstance {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final String name;
+    private final String id;
+    private final String address;
+    private final int port;
+    private final Map<String, String> metadata;
+    private final byte[] payload;
+    private final long registrationTime;
+
+    /**
+     * @param name    ：服务名称，如 order-service
+     * @param address ：IP 或主机名
+     * @param port    ：端口
+     */
+    public ServiceInstance(String name, String address, int port) {
+        this(name, UUID.randomUUID().toString(), address, port, null, null, System.currentTimeMillis());
+    }
+
+    @JsonCreator
+    private ServiceInstance(@JsonProperty("name") String name,
+                            @JsonProperty("id") String id,
+                            @JsonProperty("address") String address,
+                            @JsonProperty("port") int port,
+                            @JsonProperty("metadata") Map<String, String> metadata,
+                            @JsonProperty("payload") byte[] payload,
+                            @JsonProperty("registrationTime") long registrationTime) {
+        this.name = name;
+        this.id = id;
+        this.address = address;
+        this.port = port;
+        this.metadata = metadata == null || metadata.isEmpty()
+                ? Collections.emptyMap() : Collections.unmodifiableMap(new HashMap<>(metadata));
+        this.payload = payload == null ? null : payload.clone();
+        this.registrationTime = registrationTime;
+    }
+
+    public byte[] toBytes() throws IOException {
+        return MAPPER.writeValueAsBytes(this);
+    }
+
+    public static ServiceInstance fromBytes(byte[] data) throws IOException {
+        return MAPPER.readValue(data, ServiceInstance.class);
+    }
+
+    /**
+     * 返回增加（或覆盖）了一个元数据的新实例，id 不变，本实例不变
+     */
+    public ServiceInstance withMetadata(String key, String value) {
+        Map<String, String> next = new HashMap<>(metadata);
+        next.put(key, value);
+        return new ServiceInstance(name, id, address, port, next, payload, registrationTime);
+    }
+
+    /**
+     * 返回替换了二进制元数据的新实例，id 不变，本实例不变
+     */
+    public ServiceInstance withPayload(byte[] newPayload) {
+        return new ServiceInstance(name, id, address, port, metadata, newPayload, registrationTime);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getAddress() {
+        return address;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public Map<String, String> getMetadata() {
+        return metadata;
+    }
+
+    public byte[] getPayload() {
+        return payload == null ? null : payload.clone();
+    }
+
+    public long getRegistrationTime() {
+        return registrationTime;
+    }
+
+    @Override
+    public String toString() {
+        return "ServiceInstance{" + name + " " + id + " " + address + ":" + port + " " + metadata + "}";
+    }
+}
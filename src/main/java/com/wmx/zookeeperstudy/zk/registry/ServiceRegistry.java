@@ -0,0 +1,143 @@
+package com.wmx.zookeeperstudy.zk.registry;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.state.ConnectionState;
+import org.apache.curator.framework.state.ConnectionStateListener;
+import org.apache.curator.utils.ZKPaths;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.data.Stat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 服务注册（提供方）
+ * 1、每个实例注册为一个临时节点 /services/{name}/{id}，数据为实例的 JSON，会话失效后服务器自动删除，即自动下线
+ * 2、会话丢失后重新连接时（新的会话），原来的临时节点已被删除，这里自动重新注册本进程注册过的所有实例
+ * 3、关闭时注销所有实例，不必等到会话超时
+ *
+ * @author wangMaoXiong
+ * @version 1.0
+ * @date 2020/9/3 21:00
+ */
+public class ServiceRegistry implements ConnectionStateListener, Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(ServiceRegistry.class);
+
+    private final CuratorFramework client;
+    private final String basePath;
+    private final ConcurrentMap<String, ServiceInstance> registered = new ConcurrentHashMap<>();
+
+    /**
+     * @param client   ：已经 start() 的客户端
+     * @param basePath ：服务根路径，如 /services
+     */
+    public ServiceRegistry(CuratorFramework client, String basePath) {
+        this.client = client;
+        this.basePath = basePath;
+        client.getConnectionStateListenable().addListener(this);
+    }
+
+    /**
+     * 注册实例，同一个 id 重复注册时覆盖元数据
+     *
+     * @param instance
+     * @throws Exception
+     */
+    public void register(ServiceInstance instance) throws Exception {
+        registered.put(instance.getId(), instance);
+        writeNode(instance);
+        logger.info("注册服务实例：{}", instance);
+    }
+
+    /**
+     * 更新已注册实例的元数据
+     *
+     * @param instance
+     * @throws Exception
+     */
+    public void update(ServiceInstance instance) throws Exception {
+        registered.put(instance.getId(), instance);
+        client.setData().forPath(pathOf(instance), instance.toBytes());
+    }
+
+    /**
+     * 注销实例
+     *
+     * @param instance
+     * @throws Exception
+     */
+    public void unregister(ServiceInstance instance) throws Exception {
+        registered.remove(instance.getId());
+        try {
+            client.delete().guaranteed().forPath(pathOf(instance));
+            logger.info("注销服务实例：{}", instance);
+        } catch (KeeperException.NoNodeException e) {
+            //已经不存在
+        }
+    }
+
+    /**
+     * 写入实例节点。节点已存在且属于当前会话时直接更新数据；
+     * 属于旧会话时（重连后旧会话还未过期）先删除，否则旧会话过期时会把它一起删掉
+     */
+    private void writeNode(ServiceInstance instance) throws Exception {
+        String path = pathOf(instance);
+        byte[] data = instance.toBytes();
+        while (true) {
+            Stat stat = client.checkExists().forPath(path);
+            if (stat == null) {
+                try {
+                    client.create().creatingParentContainersIfNeeded().withMode(CreateMode.EPHEMERAL).forPath(path, data);
+                    return;
+                } catch (KeeperException.NodeExistsException e) {
+                    continue;
+                }
+            }
+            if (stat.getEphemeralOwner() == client.getZookeeperClient().getZooKeeper().getSessionId()) {
+                client.setData().forPath(path, data);
+                return;
+            }
+            try {
+                client.delete().withVersion(stat.getVersion()).forPath(path);
+            } catch (KeeperException.NoNodeException | KeeperException.BadVersionException e) {
+                //已被删除或修改，重新检查
+            }
+        }
+    }
+
+    private String pathOf(ServiceInstance instance) {
+        return ZKPaths.makePath(basePath, instance.getName(), instance.getId());
+    }
+
+    @Override
+    public void stateChanged(CuratorFramework client, ConnectionState newState) {
+        if (newState != ConnectionState.RECONNECTED) {
+            return;
+        }
+        for (Map.Entry<String, ServiceInstance> entry : registered.entrySet()) {
+            try {
+                writeNode(entry.getValue());
+            } catch (Exception e) {
+                logger.error("重新注册服务实例失败：" + entry.getValue(), e);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        client.getConnectionStateListenable().removeListener(this);
+        for (ServiceInstance instance : registered.values()) {
+            try {
+                unregister(instance);
+            } catch (Exception e) {
+                logger.warn("注销服务实例失败：{}，{}", instance, e.getMessage());
+            }
+        }
+    }
+}
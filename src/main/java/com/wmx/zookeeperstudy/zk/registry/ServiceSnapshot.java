@@ -0,0 +1,49 @@
+package com.wmx.zookeeperstudy.zk.registry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * 某个服务在某一时刻的全部实例，不可变，可以在任意线程无锁读取
+ * 实例按 id 排序，轮询选择时顺序稳定
+ *
+ * @author wangMaoXiong
+ * @version 1.0
+ * @date 2020/9/3 20:30
+ */
+public final class ServiceSnapshot {
+
+    private final String name;
+    private final long version;
+    private final List<ServiceInstance> instances;
+
+    ServiceSnapshot(String name, long version, List<ServiceInstance> instances) {
+        List<ServiceInstance> sorted = new ArrayList<>(instances);
+        sorted.sort(Comparator.comparing(ServiceInstance::getId));
+        this.name = name;
+        this.version = version;
+        this.instances = Collections.unmodifiableList(sorted);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * 索引版本号，每次有实例变化都会递增
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    public List<ServiceInstance> getInstances() {
+        return instances;
+    }
+
+    @Override
+    public String toString() {
+        return "ServiceSnapshot{" + name + " v" + version + " " + instances.size() + " instances}";
+    }
+}
@@ -0,0 +1,136 @@
+package com.wmx.zookeeperstudy.zk.snapshot;
+
+import org.apache.zookeeper.data.ACL;
+import org.apache.zookeeper.data.Id;
+import org.apache.zookeeper.data.Stat;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 快照文件格式，所有整数都是大端序
+ * <pre>
+ * 文件头：int 魔数 "ZKSN"、int 格式版本、string 导出时的根路径
+ * 节点记录（父节点总是在子节点前面）：int 记录长度（不含自身）、记录内容
+ *      string 路径、bytes 数据、Stat 的 11 个字段、int ACL 个数、每个 ACL（int 权限、string scheme、string id）
+ * 文件尾：int -1、long 节点总数
+ * string：int 长度 + UTF-8 字节；bytes：int 长度（-1 表示 null） + 字节
+ * </pre>
+ *
+ * @author wangMaoXiong
+ * @version 1.0
+ * @date 2020/8/25 19:30
+ */
+public final class SnapshotFormat {
+
+    public static final int MAGIC = 0x5A4B534E;
+    public static final int VERSION = 1;
+    public static final int END_OF_RECORDS = -1;
+    /**
+     * Stat：6 个 long（czxid、mzxid、ctime、mtime、ephemeralOwner、pzxid） + 5 个 int
+     */
+    private static final int STAT_BYTES = 6 * 8 + 5 * 4;
+
+    private SnapshotFormat() {
+    }
+
+    public static ByteBuffer encodeHeader(String rootPath) {
+        byte[] root = rootPath.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = ByteBuffer.allocate(12 + root.length);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(root.length).put(root);
+        buffer.flip();
+        return buffer;
+    }
+
+    public static ByteBuffer encodeFooter(long count) {
+        ByteBuffer buffer = ByteBuffer.allocate(12);
+        buffer.putInt(END_OF_RECORDS).putLong(count);
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * 编码一个节点记录，包含开头的记录长度
+     */
+    public static ByteBuffer encode(SnapshotRecord record) {
+        byte[] path = record.getPath().getBytes(StandardCharsets.UTF_8);
+        byte[] data = record.getData();
+        List<byte[]> aclStrings = new ArrayList<>();
+        int size = 4 + path.length + 4 + (data == null ? 0 : data.length) + STAT_BYTES + 4;
+        for (ACL acl : record.getAcl()) {
+            byte[] scheme = acl.getId().getScheme().getBytes(StandardCharsets.UTF_8);
+            byte[] id = acl.getId().getId().getBytes(StandardCharsets.UTF_8);
+            aclStrings.add(scheme);
+            aclStrings.add(id);
+            size += 4 + 4 + scheme.length + 4 + id.length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(4 + size);
+        buffer.putInt(size);
+        buffer.putInt(path.length).put(path);
+        if (data == null) {
+            buffer.putInt(-1);
+        } else {
+            buffer.putInt(data.length).put(data);
+        }
+        Stat stat = record.getStat();
+        buffer.putLong(stat.getCzxid()).putLong(stat.getMzxid()).putLong(stat.getCtime()).putLong(stat.getMtime())
+                .putInt(stat.getVersion()).putInt(stat.getCversion()).putInt(stat.getAversion())
+                .putLong(stat.getEphemeralOwner()).putInt(stat.getDataLength()).putInt(stat.getNumChildren())
+                .putLong(stat.getPzxid());
+        buffer.putInt(record.getAcl().size());
+        for (int i = 0; i < record.getAcl().size(); i++) {
+            byte[] scheme = aclStrings.get(i * 2);
+            byte[] id = aclStrings.get(i * 2 + 1);
+            buffer.putInt(record.getAcl().get(i).getPerms());
+            buffer.putInt(scheme.length).put(scheme);
+            buffer.putInt(id.length).put(id);
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * 解码一个节点记录，buffer 中只包含记录内容（不含记录长度）
+     */
+    public static SnapshotRecord decode(ByteBuffer buffer) {
+        String path = readString(buffer);
+        int dataLength = buffer.getInt();
+        byte[] data = null;
+        if (dataLength >= 0) {
+            data = new byte[dataLength];
+            buffer.get(data);
+        }
+        Stat stat = new Stat(buffer.getLong(), buffer.getLong(), buffer.getLong(), buffer.getLong(),
+                buffer.getInt(), buffer.getInt(), buffer.getInt(),
+                buffer.getLong(), buffer.getInt(), buffer.getInt(), buffer.getLong());
+        int aclCount = buffer.getInt();
+        List<ACL> acl = new ArrayList<>(aclCount);
+        for (int i = 0; i < aclCount; i++) {
+            int perms = buffer.getInt();
+            String scheme = readString(buffer);
+            String id = readString(buffer);
+            acl.add(new ACL(perms, new Id(scheme, id)));
+        }
+        return new SnapshotRecord(path, data, stat, acl);
+    }
+
+    public static String readHeader(ByteBuffer buffer) throws IOException {
+        if (buffer.getInt() != MAGIC) {
+            throw new IOException("不是快照文件");
+        }
+        int version = buffer.getInt();
+        if (version != VERSION) {
+            throw new IOException("不支持的快照格式版本：" + version);
+        }
+        return readString(buffer);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,51 @@
+package com.wmx.zookeeperstudy.zk.snapshot;
+
+import org.apache.zookeeper.data.ACL;
+import org.apache.zookeeper.data.Stat;
+
+import java.util.List;
+
+/**
+ * 快照文件中的一个节点：路径、数据、Stat、ACL
+ *
+ * @author wangMaoXiong
+ * @version 1.0
+ * @date 2020/8/25 19:20
+ */
+public class SnapshotRecord {
+
+    private final String path;
+    private final byte[] data;
+    private final Stat stat;
+    private final List<ACL> acl;
+
+    public SnapshotRecord(String path, byte[] data, Stat stat, List<ACL> acl) {
+        this.path = path;
+        this.data = data;
+        this.stat = stat;
+        this.acl = acl;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public byte[] getData() {
+        return data;
+    }
+
+    public Stat getStat() {
+        return stat;
+    }
+
+    public List<ACL> getAcl() {
+        return acl;
+    }
+
+    /**
+     * 临时节点属于某个会话，导入时不会重建
+     */
+    public boolean isEphemeral() {
+        return stat.getEphemeralOwner() != 0;
+    }
+}
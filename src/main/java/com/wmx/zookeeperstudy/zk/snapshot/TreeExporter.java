@@ -0,0 +1,196 @@
+package com.wmx.zookeeperstudy.zk.snapshot;
+
+import com.wmx.zookeeperstudy.zk.NodeData;
+import com.wmx.zookeeperstudy.zk.async.AsyncZkClient;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.utils.ThreadUtils;
+import org.apache.curator.utils.ZKPaths;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.ZooDefs;
+import org.apache.zookeeper.data.ACL;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 子树导出：并行遍历子树，把每个节点的路径、数据、Stat、ACL 写入快照文件（格式见 {@link SnapshotFormat}）
+ * 1、每个节点的 getData、getChildren、getACL 异步并行发送，在途请求数由 maxConcurrency 限制
+ * 2、一个节点的三个结果都返回后，先写入该节点，再遍历它的子节点，所以文件中父节点总是在子节点前面，导入时可以流式回放
+ * 3、遍历期间被删除的节点直接跳过
+ * 4、通过 NIO FileChannel 写文件，小记录先攒在直接内存缓冲区中，满了再一次写出
+ *
+ * @author wangMaoXiong
+ * @version 1.0
+ * @date 2020/8/25 20:10
+ */
+public class TreeExporter {
+
+    private static final Logger logger = LoggerFactory.getLogger(TreeExporter.class);
+
+    private static final int WRITE_BUFFER_BYTES = 1024 * 1024;
+
+    private final CuratorFramework client;
+    private final int maxConcurrency;
+    private final int threads;
+
+    /**
+     * @param client         ：已经 start() 的客户端
+     * @param maxConcurrency ：最大在途请求数
+     * @param threads        ：处理响应、写文件的线程数
+     */
+    public TreeExporter(CuratorFramework client, int maxConcurrency, int threads) {
+        this.client = client;
+        this.maxConcurrency = maxConcurrency;
+        this.threads = threads;
+    }
+
+    /**
+     * 导出子树
+     *
+     * @param rootPath ：子树根路径，如 "/" 表示整个命名空间
+     * @param file     ：快照文件，已存在时覆盖
+     * @return ：导出的节点个数
+     * @throws Exception
+     */
+    public long export(String rootPath, Path file) throws Exception {
+        ExecutorService executor = ThreadUtils.newFixedThreadPool(threads, "TreeExporter");
+        long start = System.currentTimeMillis();
+        try (SnapshotWriter writer = new SnapshotWriter(file, rootPath)) {
+            String namespace = client.getNamespace();
+            boolean skipSystem = namespace == null || namespace.isEmpty();
+            Walk walk = new Walk(new AsyncZkClient(client, maxConcurrency, executor), writer, skipSystem);
+            walk.visit(rootPath);
+            try {
+                walk.done.get();
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+            }
+            long count = writer.finish();
+            logger.info("导出【{}】完成，共 {} 个节点，耗时 {} 毫秒", rootPath, count, System.currentTimeMillis() - start);
+            return count;
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * 一次遍历。pending 为已经开始但还没有处理完的节点数，降为 0 时遍历结束
+     */
+    private static class Walk {
+        private final AsyncZkClient async;
+        private final SnapshotWriter writer;
+        private final AtomicInteger pending = new AtomicInteger();
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+        /**
+         * 没有命名空间时跳过 ZooKeeper 自己的 /zookeeper 节点
+         */
+        private final boolean skipSystem;
+
+        private Walk(AsyncZkClient async, SnapshotWriter writer, boolean skipSystem) {
+            this.async = async;
+            this.writer = writer;
+            this.skipSystem = skipSystem;
+        }
+
+        private void visit(final String path) {
+            if (done.isDone()) {
+                return;
+            }
+            pending.incrementAndGet();
+            final CompletableFuture<NodeData> data = async.getData(path).toCompletableFuture();
+            final CompletableFuture<List<String>> children = async.getChildren(path).toCompletableFuture();
+            final CompletableFuture<List<ACL>> acl = async.getACL(path).toCompletableFuture();
+            CompletableFuture.allOf(data, children, acl).whenComplete((v, error) -> {
+                try {
+                    if (error == null) {
+                        NodeData node = data.join();
+                        writer.write(new SnapshotRecord(path, node.getData(), node.getStat(), acl.join()));
+                        for (String child : children.join()) {
+                            String childPath = ZKPaths.makePath(path, child);
+                            if (!(skipSystem && ZooDefs.ZOOKEEPER_NODE_SUBTREE.equals(childPath + "/"))) {
+                                visit(childPath);
+                            }
+                        }
+                    } else if (!(unwrap(error) instanceof KeeperException.NoNodeException)) {
+                        done.completeExceptionally(unwrap(error));
+                    }
+                } catch (Exception e) {
+                    done.completeExceptionally(e);
+                }
+                if (pending.decrementAndGet() == 0) {
+                    done.complete(null);
+                }
+            });
+        }
+
+        private static Throwable unwrap(Throwable error) {
+            return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        }
+    }
+
+    /**
+     * 快照文件写入，多个线程同时写入时串行化
+     */
+    private static class SnapshotWriter implements Closeable {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_BYTES);
+        private final AtomicLong count = new AtomicLong();
+
+        private SnapshotWriter(Path file, String rootPath) throws IOException {
+            channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+            put(SnapshotFormat.encodeHeader(rootPath));
+        }
+
+        private synchronized void write(SnapshotRecord record) throws IOException {
+            put(SnapshotFormat.encode(record));
+            count.incrementAndGet();
+        }
+
+        private synchronized long finish() throws IOException {
+            put(SnapshotFormat.encodeFooter(count.get()));
+            flush();
+            channel.force(false);
+            return count.get();
+        }
+
+        private void put(ByteBuffer source) throws IOException {
+            if (source.remaining() > buffer.remaining()) {
+                flush();
+            }
+            if (source.remaining() > buffer.capacity()) {
+                //大记录直接写出，不经过缓冲区
+                while (source.hasRemaining()) {
+                    channel.write(source);
+                }
+            } else {
+                buffer.put(source);
+            }
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package com.wmx.zookeeperstudy.zk.snapshot;
+
+import com.wmx.zookeeperstudy.zk.batch.BatchResult;
+import com.wmx.zookeeperstudy.zk.batch.NodeBatch;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 子树导入：流式读取 {@link TreeExporter} 导出的快照文件，通过批量事务（{@link NodeBatch}）重建节点
+ * 1、文件中父节点总在子节点前面，按顺序回放即可，不需要把整个文件读入内存
+ * 2、每攒够 batchSize 个节点提交一次，一次提交就是一次（或几次）网络往返
+ * 3、目标节点已经存在时改为修改数据；事务失败时逐个回退为 创建或修改，保证能导入到已有数据的子树上
+ * 4、临时节点属于原来的会话，不导入；节点都以永久节点创建，数据和 ACL 与导出时一致，Stat 由服务器重新生成
+ *
+ * @author wangMaoXiong
+ * @version 1.0
+ * @date 2020/8/25 21:00
+ */
+public class TreeImporter {
+
+    private static final Logger logger = LoggerFactory.getLogger(TreeImporter.class);
+
+    private static final int READ_BUFFER_BYTES = 1024 * 1024;
+
+    private final CuratorFramework client;
+    private final int batchSize;
+
+    /**
+     * @param client    ：已经 start() 的客户端
+     * @param batchSize ：每次提交的节点个数
+     */
+    public TreeImporter(CuratorFramework client, int batchSize) {
+        this.client = client;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * 导入快照
+     *
+     * @param file       ：快照文件
+     * @param targetRoot ：导入到哪个路径下，导出时的根路径会被替换为此路径，比如 /basic-service 导入为 /basic-service-copy
+     * @return ：导入的节点个数
+     * @throws Exception
+     */
+    public long importTree(Path file, String targetRoot) throws Exception {
+        long start = System.currentTimeMillis();
+        long count = 0;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(READ_BUFFER_BYTES);
+            buffer.flip();
+            buffer = fill(channel, buffer, 12);
+            buffer.mark();
+            buffer.position(buffer.position() + 8);
+            int rootLength = buffer.getInt();
+            buffer.reset();
+            buffer = fill(channel, buffer, 12 + rootLength);
+            String sourceRoot = SnapshotFormat.readHeader(buffer);
+
+            List<SnapshotRecord> pending = new ArrayList<>(batchSize);
+            while (true) {
+                buffer = fill(channel, buffer, 4);
+                int length = buffer.getInt();
+                if (length == SnapshotFormat.END_OF_RECORDS) {
+                    break;
+                }
+                buffer = fill(channel, buffer, length);
+                ByteBuffer slice = buffer.slice();
+                slice.limit(length);
+                buffer.position(buffer.position() + length);
+                SnapshotRecord record = SnapshotFormat.decode(slice);
+                if (record.isEphemeral()) {
+                    continue;
+                }
+                pending.add(new SnapshotRecord(mapPath(record.getPath(), sourceRoot, targetRoot),
+                        record.getData(), record.getStat(), record.getAcl()));
+                if (pending.size() >= batchSize) {
+                    count += commit(pending);
+                }
+            }
+            count += commit(pending);
+        }
+        logger.info("导入【{}】完成，共 {} 个节点，耗时 {} 毫秒", targetRoot, count, System.currentTimeMillis() - start);
+        return count;
+    }
+
+    private int commit(List<SnapshotRecord> records) throws Exception {
+        if (records.isEmpty()) {
+            return 0;
+        }
+        NodeBatch batch = new NodeBatch(client);
+        int from = 0;
+        //第一个节点可能是已经存在的根节点（比如命名空间根节点），单独处理
+        if (client.checkExists().forPath(records.get(0).getPath()) != null) {
+            createOrUpdate(records.get(0));
+            from = 1;
+        }
+        for (int i = from; i < records.size(); i++) {
+            SnapshotRecord record = records.get(i);
+            batch.create(record.getPath(), data(record), CreateMode.PERSISTENT, record.getAcl());
+        }
+        List<BatchResult> results = batch.commit();
+        for (int i = 0; i < results.size(); i++) {
+            if (!results.get(i).isCommitted()) {
+                createOrUpdate(records.get(from + i));
+            }
+        }
+        int count = records.size();
+        records.clear();
+        return count;
+    }
+
+    private void createOrUpdate(SnapshotRecord record) throws Exception {
+        try {
+            client.create().withACL(record.getAcl()).forPath(record.getPath(), data(record));
+        } catch (KeeperException.NodeExistsException e) {
+            //数据相同时不修改，避免无谓的写入（也避免只读 ACL 的节点修改失败）
+            if (!Arrays.equals(client.getData().forPath(record.getPath()), data(record))) {
+                client.setData().forPath(record.getPath(), data(record));
+            }
+        }
+    }
+
+    /**
+     * 节点数据为 null 时导入为空数组，避免使用客户端的默认数据
+     */
+    private static byte[] data(SnapshotRecord record) {
+        return record.getData() == null ? new byte[0] : record.getData();
+    }
+
+    private static String mapPath(String path, String sourceRoot, String targetRoot) {
+        String relative = "/".equals(sourceRoot) ? path : path.substring(sourceRoot.length());
+        if (relative.isEmpty() || "/".equals(relative)) {
+            return targetRoot;
+        }
+        return "/".equals(targetRoot) ? relative : targetRoot + relative;
+    }
+
+    /**
+     * 保证 buffer 中至少还有 required 个字节可读，不够时从文件继续读取，单条记录超过缓冲区时扩容
+     */
+    private static ByteBuffer fill(FileChannel channel, ByteBuffer buffer, int required) throws IOException {
+        if (buffer.remaining() >= required) {
+            return buffer;
+        }
+        if (required > buffer.capacity()) {
+            ByteBuffer larger = ByteBuffer.allocateDirect(required);
+            larger.put(buffer);
+            buffer = larger;
+        } else {
+            buffer.compact();
+        }
+        while (buffer.position() < required) {
+            if (channel.read(buffer) < 0) {
+                throw new EOFException("快照文件不完整");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+}
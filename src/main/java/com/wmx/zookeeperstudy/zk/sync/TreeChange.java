@@ -0,0 +1,44 @@
+package com.wmx.zookeeperstudy.zk.sync;
+
+import com.wmx.zookeeperstudy.zk.NodeData;
+
+/**
+ * 子树镜像的一条变更，按顺序应用到本地即可得到与服务器一致的子树
+ * 1、ADDED 总是先父后子，REMOVED 总是先子后父
+ * 2、REMOVED 时 node 为删除前的最后一个版本
+ *
+ * @author wangMaoXiong
+ * @version 1.0
+ * @date 2020/9/14 20:10
+ */
+public class TreeChange {
+
+    public enum Type {
+        ADDED, UPDATED, REMOVED
+    }
+
+    private final Type type;
+    private final NodeData node;
+
+    public TreeChange(Type type, NodeData node) {
+        this.type = type;
+        this.node = node;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public String getPath() {
+        return node.getPath();
+    }
+
+    public NodeData getNode() {
+        return node;
+    }
+
+    @Override
+    public String toString() {
+        return "TreeChange{" + type + " " + node.getPath() + "}";
+    }
+}
@@ -0,0 +1,484 @@
+package com.wmx.zookeeperstudy.zk.sync;
+
+import com.wmx.zookeeperstudy.zk.NodeData;
+import com.wmx.zookeeperstudy.zk.async.AsyncZkClient;
+import com.wmx.zookeeperstudy.zk.watch.NodeEvent;
+import com.wmx.zookeeperstudy.zk.watch.WatchManager;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.utils.ZKPaths;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.data.Stat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * 子树镜像：把服务器上的一棵子树同步到本地，每次同步只重新获取发生了变化的节点，并输出 新增/修改/删除 变更流
+ * 1、本地为每个节点保存数据、Stat 以及子节点名称，Stat 中的 mzxid（数据最后修改的事务 id）、
+ * pzxid（子节点列表最后变化的事务 id）用来判断节点本身、子节点列表是否变化
+ * 2、ZooKeeper 的 Stat 不会向上汇总（子孙节点变化时祖先节点的 pzxid、mzxid 都不变），只靠 Stat 核对一棵子树必须每个节点都 exists 一次。
+ * 所以传入 {@link WatchManager} 时，在根路径上订阅永久递归监听，只记录发生变化的路径（脏路径），
+ * 增量同步时只读取脏路径：一次同步的请求数与变化的节点数成正比，与子树大小无关
+ * 3、全量核对：首次同步、监听重新注册（RESET，期间的事件可能丢失）、没有传入 WatchManager 时，
+ * 对已知节点只发送 exists 取回 Stat（不传输数据），mzxid 变化时才 getData，pzxid 变化时才 getChildren，
+ * 新增的子树整棵加载，消失的子树整棵删除
+ * 4、同一层的请求并行发送，往返次数等于子树深度；变更按先父后子（ADDED）、先子后父（REMOVED）的顺序输出
+ * 5、sync() 串行执行；读取镜像（get、getChildren）线程安全，可以与 sync() 并发
+ * 6、retainData=false 时本地只保存 Stat 和子节点名称，数据只出现在变更流中，由使用方另行保存（见 PersistentNodeCache）；
+ * {@link #seed(Map)} 可以用上次保存的 Stat 预先填充镜像，首次全量核对时只读取这之后变化的节点
+ *
+ * @author wangMaoXiong
+ * @version 1.0
+ * @date 2020/9/14 20:20
+ */
+public class TreeMirror implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(TreeMirror.class);
+
+    private final AsyncZkClient async;
+    private final WatchManager watchManager;
+    private final String rootPath;
+    private final boolean retainData;
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final Set<String> dirty = ConcurrentHashMap.newKeySet();
+    private final List<Consumer<TreeChange>> listeners = new CopyOnWriteArrayList<>();
+
+    private Closeable subscription;
+    private volatile boolean fullSyncRequired = true;
+    /**
+     * 最近一次同步发送的请求数
+     */
+    private volatile int lastRequestCount;
+
+    /**
+     * @param client       ：已经 start() 的客户端
+     * @param watchManager ：永久监听管理器，为 null 时每次同步都全量核对
+     * @param rootPath     ：镜像的子树根路径
+     * @param maxInFlight  ：最大在途请求数
+     */
+    public TreeMirror(CuratorFramework client, WatchManager watchManager, String rootPath, int maxInFlight) {
+        this(client, watchManager, rootPath, maxInFlight, true);
+    }
+
+    /**
+     * @param retainData ：是否在本地保存节点数据，为 false 时 get() 返回的数据、REMOVED 变更中的数据为 null
+     */
+    public TreeMirror(CuratorFramework client, WatchManager watchManager, String rootPath, int maxInFlight, boolean retainData) {
+        this.async = new AsyncZkClient(client, maxInFlight, null);
+        this.watchManager = watchManager;
+        this.rootPath = rootPath;
+        this.retainData = retainData;
+    }
+
+    /**
+     * 用已知的 Stat 预先填充镜像（不产生变更），必须在第一次 sync() 之前调用；
+     * 之后的全量核对按 Stat 比较，只有 mzxid、pzxid、czxid 变化的节点才会重新读取
+     *
+     * @param nodes ：路径 -> Stat，不在根路径下、父节点不在其中的路径被忽略
+     */
+    public synchronized void seed(Map<String, Stat> nodes) {
+        List<String> paths = new ArrayList<>(nodes.keySet());
+        paths.sort((a, b) -> Integer.compare(depth(a), depth(b)));
+        for (String path : paths) {
+            if (!isUnderRoot(path) || entries.containsKey(path)
+                    || (!path.equals(rootPath) && !entries.containsKey(ZKPaths.getPathAndNode(path).getPath()))) {
+                continue;
+            }
+            attachToParent(path);
+            entries.put(path, new Entry(new NodeData(path, null, nodes.get(path))));
+        }
+        fullSyncRequired = true;
+    }
+
+    /**
+     * 订阅根路径的变化，不做同步，第一次 sync() 时全量加载
+     */
+    public synchronized void start() {
+        if (watchManager != null && subscription == null) {
+            subscription = watchManager.subscribe(rootPath, this::onEvent);
+        }
+    }
+
+    private void onEvent(NodeEvent event) {
+        if (event.getType() == NodeEvent.Type.RESET) {
+            fullSyncRequired = true;
+        } else {
+            dirty.add(event.getPath());
+        }
+    }
+
+    /**
+     * 变更监听器，在调用 sync() 的线程上按顺序回调
+     */
+    public void addListener(Consumer<TreeChange> listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * 同步一次：有监听时只处理脏路径，否则全量核对
+     *
+     * @return ：本次同步产生的变更，按应用顺序排列
+     * @throws Exception ：连接丢失等错误，本次未处理完的路径下次同步时会重新处理
+     */
+    public synchronized List<TreeChange> sync() throws Exception {
+        if (fullSyncRequired || subscription == null) {
+            return fullSync();
+        }
+        List<String> paths = new ArrayList<>(dirty);
+        dirty.removeAll(paths);
+        List<Task> tasks = new ArrayList<>(paths.size());
+        for (String path : paths) {
+            if (isUnderRoot(path)) {
+                tasks.add(new Task(path, false, true));
+            }
+        }
+        //浅的路径先处理，保证父节点先于子节点加入镜像
+        tasks.sort((a, b) -> Integer.compare(depth(a.path), depth(b.path)));
+        try {
+            return run(tasks);
+        } catch (Exception e) {
+            dirty.addAll(paths);
+            throw e;
+        }
+    }
+
+    /**
+     * 全量核对：对每个已知节点比较 Stat，只读取发生了变化的部分
+     *
+     * @return ：本次同步产生的变更
+     * @throws Exception
+     */
+    public synchronized List<TreeChange> fullSync() throws Exception {
+        //先清除标记，核对期间再次 RESET 时下次继续全量核对
+        fullSyncRequired = false;
+        dirty.clear();
+        try {
+            return run(Collections.singletonList(new Task(rootPath, true, !entries.containsKey(rootPath))));
+        } catch (Exception e) {
+            fullSyncRequired = true;
+            throw e;
+        }
+    }
+
+    /**
+     * 按层处理：每一层的请求并行发送，处理结果时产生下一层的任务
+     */
+    private List<TreeChange> run(List<Task> tasks) throws Exception {
+        List<TreeChange> changes = new ArrayList<>();
+        int requests = 0;
+        long start = System.currentTimeMillis();
+        while (!tasks.isEmpty()) {
+            List<CompletableFuture<Object>> futures = new ArrayList<>(tasks.size());
+            for (Task task : tasks) {
+                futures.add(task.fetchData ? orNull(async.getData(task.path).toCompletableFuture())
+                        : orNull(async.exists(task.path).toCompletableFuture()));
+            }
+            requests += tasks.size();
+            await(futures);
+
+            List<Task> next = new ArrayList<>();
+            List<String> listPaths = new ArrayList<>();
+            List<Boolean> listDeep = new ArrayList<>();
+            for (int i = 0; i < tasks.size(); i++) {
+                Task task = tasks.get(i);
+                Object result = futures.get(i).join();
+                Entry known = entries.get(task.path);
+                if (result == null) {
+                    if (known != null) {
+                        remove(task.path, changes);
+                    }
+                    continue;
+                }
+                if (result instanceof Stat) {
+                    //只取回了 Stat：数据没有变化时沿用本地数据，变化时下一层重新 getData
+                    Stat stat = (Stat) result;
+                    if (known != null && stat.getCzxid() != known.stat.getCzxid()) {
+                        //czxid 不同：节点被删除后又重新创建，整棵子树作废
+                        remove(task.path, changes);
+                        known = null;
+                    }
+                    if (known == null || stat.getMzxid() != known.stat.getMzxid()) {
+                        next.add(new Task(task.path, task.deep, true));
+                        continue;
+                    }
+                    if (stat.getPzxid() != known.stat.getPzxid()) {
+                        listPaths.add(task.path);
+                        listDeep.add(task.deep);
+                    } else if (task.deep) {
+                        for (String child : known.children) {
+                            next.add(new Task(ZKPaths.makePath(task.path, child), true, false));
+                        }
+                    }
+                    known.stat = stat;
+                    continue;
+                }
+                NodeData node = (NodeData) result;
+                node = new NodeData(task.path, node.getData(), node.getStat());
+                if (known != null && node.getStat().getCzxid() != known.stat.getCzxid()) {
+                    remove(task.path, changes);
+                    known = null;
+                }
+                if (known == null) {
+                    if (!attachToParent(task.path)) {
+                        continue;
+                    }
+                    Entry entry = new Entry(retainData ? node : new NodeData(task.path, null, node.getStat()));
+                    entries.put(task.path, entry);
+                    emit(changes, TreeChange.Type.ADDED, node);
+                    if (node.getStat().getNumChildren() > 0) {
+                        listPaths.add(task.path);
+                        listDeep.add(task.deep);
+                    }
+                } else {
+                    long oldPzxid = known.stat.getPzxid();
+                    if (node.getStat().getMzxid() != known.stat.getMzxid()) {
+                        known.data = retainData ? node.getData() : null;
+                        emit(changes, TreeChange.Type.UPDATED, node);
+                    }
+                    known.stat = node.getStat();
+                    if (node.getStat().getPzxid() != oldPzxid) {
+                        listPaths.add(task.path);
+                        listDeep.add(task.deep);
+                    } else if (task.deep) {
+                        for (String child : known.children) {
+                            next.add(new Task(ZKPaths.makePath(task.path, child), true, false));
+                        }
+                    }
+                }
+            }
+
+            //子节点列表有变化的节点，重新获取子节点并与本地比较
+            if (!listPaths.isEmpty()) {
+                List<CompletableFuture<Object>> lists = new ArrayList<>(listPaths.size());
+                for (String path : listPaths) {
+                    lists.add(orNull(async.getChildren(path).toCompletableFuture()));
+                }
+                requests += listPaths.size();
+                await(lists);
+                for (int i = 0; i < listPaths.size(); i++) {
+                    @SuppressWarnings("unchecked")
+                    List<String> children = (List<String>) lists.get(i).join();
+                    Entry entry = entries.get(listPaths.get(i));
+                    if (children == null || entry == null) {
+                        //列出子节点之前已经被删除，下一次同步处理
+                        continue;
+                    }
+                    diffChildren(listPaths.get(i), entry, new TreeSet<>(children), listDeep.get(i), next, changes);
+                }
+            }
+            tasks = next;
+        }
+        lastRequestCount = requests;
+        logger.debug("同步【{}】完成：{} 个请求，{} 个变更，耗时 {} 毫秒", rootPath, requests, changes.size(), System.currentTimeMillis() - start);
+        return changes;
+    }
+
+    /**
+     * 比较服务器与本地的子节点列表：新增的整棵加载，消失的整棵删除，未变化的在全量核对时继续向下核对
+     */
+    private void diffChildren(String path, Entry entry, SortedSet<String> current, boolean deep, List<Task> next, List<TreeChange> changes) {
+        for (String child : entry.children) {
+            if (!current.contains(child)) {
+                remove(ZKPaths.makePath(path, child), changes);
+            }
+        }
+        for (String child : current) {
+            String childPath = ZKPaths.makePath(path, child);
+            if (!entries.containsKey(childPath)) {
+                next.add(new Task(childPath, deep, true));
+            } else if (deep) {
+                next.add(new Task(childPath, true, false));
+            }
+        }
+        //新增的子节点在加载成功后才加入列表，见 attachToParent
+        TreeSet<String> children = new TreeSet<>(entry.children);
+        children.retainAll(current);
+        entry.children = Collections.unmodifiableSortedSet(children);
+    }
+
+    /**
+     * 把新节点加入父节点的子节点列表
+     *
+     * @return ：父节点不在镜像中时返回 false（事件乱序或者丢失），下次全量核对
+     */
+    private boolean attachToParent(String path) {
+        if (path.equals(rootPath)) {
+            return true;
+        }
+        Entry parent = entries.get(ZKPaths.getPathAndNode(path).getPath());
+        if (parent == null) {
+            fullSyncRequired = true;
+            return false;
+        }
+        String name = ZKPaths.getNodeFromPath(path);
+        if (!parent.children.contains(name)) {
+            TreeSet<String> children = new TreeSet<>(parent.children);
+            children.add(name);
+            parent.children = Collections.unmodifiableSortedSet(children);
+        }
+        return true;
+    }
+
+    /**
+     * 删除本地的一棵子树，先子后父输出 REMOVED
+     */
+    private void remove(String path, List<TreeChange> changes) {
+        Entry entry = entries.get(path);
+        if (entry == null) {
+            return;
+        }
+        for (String child : entry.children) {
+            remove(ZKPaths.makePath(path, child), changes);
+        }
+        entries.remove(path);
+        if (!path.equals(rootPath)) {
+            Entry parent = entries.get(ZKPaths.getPathAndNode(path).getPath());
+            if (parent != null && parent.children.contains(ZKPaths.getNodeFromPath(path))) {
+                TreeSet<String> children = new TreeSet<>(parent.children);
+                children.remove(ZKPaths.getNodeFromPath(path));
+                parent.children = Collections.unmodifiableSortedSet(children);
+            }
+        }
+        emit(changes, TreeChange.Type.REMOVED, new NodeData(path, entry.data, entry.stat));
+    }
+
+    private void emit(List<TreeChange> changes, TreeChange.Type type, NodeData node) {
+        TreeChange change = new TreeChange(type, node);
+        changes.add(change);
+        for (Consumer<TreeChange> listener : listeners) {
+            try {
+                listener.accept(change);
+            } catch (Exception e) {
+                logger.error("子树变更监听器处理【{}】失败", change, e);
+            }
+        }
+    }
+
+    /**
+     * 节点不存在时以 null 完成
+     */
+    @SuppressWarnings("unchecked")
+    private static CompletableFuture<Object> orNull(CompletableFuture<?> future) {
+        return ((CompletableFuture<Object>) future).handle((value, error) -> {
+            if (error == null) {
+                return value;
+            }
+            Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+            if (cause instanceof KeeperException.NoNodeException) {
+                return null;
+            }
+            throw error instanceof CompletionException ? (CompletionException) error : new CompletionException(error);
+        });
+    }
+
+    private static void await(List<CompletableFuture<Object>> futures) throws Exception {
+        try {
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+    }
+
+    private boolean isUnderRoot(String path) {
+        return "/".equals(rootPath) || path.equals(rootPath) || path.startsWith(rootPath + "/");
+    }
+
+    private static int depth(String path) {
+        int depth = 0;
+        for (int i = 0; i < path.length(); i++) {
+            if (path.charAt(i) == '/') {
+                depth++;
+            }
+        }
+        return depth;
+    }
+
+    /**
+     * 镜像中的节点
+     *
+     * @return ：不存在时返回 null
+     */
+    public NodeData get(String path) {
+        Entry entry = entries.get(path);
+        return entry == null ? null : new NodeData(path, entry.data, entry.stat);
+    }
+
+    /**
+     * 镜像中某个节点的子节点名称，按名称排序
+     *
+     * @return ：节点不存在时返回空集合
+     */
+    public SortedSet<String> getChildren(String path) {
+        Entry entry = entries.get(path);
+        return entry == null ? Collections.emptySortedSet() : entry.children;
+    }
+
+    /**
+     * 镜像中的节点个数
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * 等待处理的脏路径个数
+     */
+    public int getDirtyCount() {
+        return dirty.size();
+    }
+
+    public int getLastRequestCount() {
+        return lastRequestCount;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (subscription != null) {
+            subscription.close();
+            subscription = null;
+        }
+    }
+
+    /**
+     * 一个待处理的路径
+     * deep：是否继续核对未变化的子节点（全量核对时为 true）
+     * fetchData：true 时 getData，false 时只 exists 取回 Stat
+     */
+    private static class Task {
+        private final String path;
+        private final boolean deep;
+        private final boolean fetchData;
+
+        private Task(String path, boolean deep, boolean fetchData) {
+            this.path = path;
+            this.deep = deep;
+            this.fetchData = fetchData;
+        }
+    }
+
+    private static class Entry {
+        private volatile byte[] data;
+        private volatile Stat stat;
+        private volatile SortedSet<String> children = Collections.emptySortedSet();
+
+        private Entry(NodeData node) {
+            this.data = node.getData();
+            this.stat = node.getStat();
+        }
+    }
+}
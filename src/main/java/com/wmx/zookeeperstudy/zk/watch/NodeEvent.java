@@ -0,0 +1,45 @@
+package com.wmx.zookeeperstudy.zk.watch;
+
+/**
+ * 子树监听事件
+ *
+ * @author wangMaoXiong
+ * @version 1.0
+ * @date 2020/8/23 15:10
+ */
+public class NodeEvent {
+
+    /**
+     * CREATED：节点被创建
+     * DATA_CHANGED：节点数据被修改
+     * DELETED：节点被删除
+     * RESET：监听重新注册（如断线重连）或者事件过多被丢弃，期间的事件可能已经丢失，监听者应该重新读取一遍关心的数据
+     */
+    public enum Type {
+        CREATED, DATA_CHANGED, DELETED, RESET
+    }
+
+    private final Type type;
+    private final String path;
+
+    public NodeEvent(Type type, String path) {
+        this.type = type;
+        this.path = path;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * 发生变化的节点路径，RESET 事件时为订阅的路径
+     */
+    public String getPath() {
+        return path;
+    }
+
+    @Override
+    public String toString() {
+        return "NodeEvent{" + type + " " + path + "}";
+    }
+}
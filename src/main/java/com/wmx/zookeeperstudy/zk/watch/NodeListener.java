@@ -0,0 +1,19 @@
+package com.wmx.zookeeperstudy.zk.watch;
+
+/**
+ * 子树监听器，在 {@link WatchManager} 的事件线程池上回调，不会阻塞 ZooKeeper 事件线程
+ *
+ * @author wangMaoXiong
+ * @version 1.0
+ * @date 2020/8/23 15:12
+ */
+@FunctionalInterface
+public interface NodeListener {
+
+    /**
+     * 订阅的子树下有节点发生变化
+     *
+     * @param event
+     */
+    void onEvent(NodeEvent event);
+}
@@ -0,0 +1,314 @@
+package com.wmx.zookeeperstudy.zk.watch;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.recipes.watch.PersistentWatcher;
+import org.apache.curator.utils.ThreadUtils;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 永久监听管理器
+ * 1、默认 watch 只生效一次，以前要在每次回调里再调用 getData、getChildren、exists 重新注册，
+ * 每次通知多出 3 次同步请求，而且通知与重新注册之间发生的变化会丢失
+ * 2、这里使用 ZooKeeper 3.6 的 addWatch(path, PERSISTENT_RECURSIVE) 永久递归监听，注册一次，整个子树的变化都会通知，不需要重新注册
+ * 3、多个调用方订阅同一棵子树（或者其下的子路径）时，只在服务器上注册一个监听；先订阅子路径、后订阅祖先路径时，
+ * 子路径的监听合并到祖先路径上。同一个监听器重复订阅只会回调一次，所有重复的订阅都关闭后才真正取消
+ * 4、事件在有界线程池上分发，事件风暴时不会阻塞 ZooKeeper 事件线程；队列满时事件被丢弃并计数，
+ * 随后定时给所有监听器补发 RESET 事件（队列仍然满时稍后重试），提示其重新读取数据
+ * 5、线程数为 1 时（默认），同一个监听器收到的事件顺序与服务器上发生的顺序一致
+ *
+ * @author wangMaoXiong
+ * @version 1.0
+ * @date 2020/8/23 15:30
+ */
+public class WatchManager implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(WatchManager.class);
+    /**
+     * 事件被丢弃后，延迟多久补发 RESET
+     */
+    private static final long RESET_DELAY_MS = 100;
+
+    private final CuratorFramework client;
+    private final ThreadPoolExecutor executor;
+    private final ScheduledExecutorService resetScheduler = ThreadUtils.newSingleThreadScheduledExecutor("WatchManager-reset");
+    /**
+     * key：服务器上实际注册永久递归监听的路径
+     */
+    private final Map<String, WatchEntry> entries = new HashMap<>();
+    /**
+     * 所有订阅，用于找到相同的订阅，key 与 value 是同一个对象
+     */
+    private final Map<Subscription, Subscription> subscriptions = new HashMap<>();
+    private final LongAdder droppedEvents = new LongAdder();
+    private final AtomicBoolean overflowed = new AtomicBoolean();
+
+    public WatchManager(CuratorFramework client) {
+        this(client, 1, 10000);
+    }
+
+    /**
+     * @param client        ：已经 start() 的客户端
+     * @param threads       ：分发事件的线程数
+     * @param queueCapacity ：待分发事件队列的最大长度
+     */
+    public WatchManager(CuratorFramework client, int threads, int queueCapacity) {
+        this.client = client;
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), ThreadUtils.newThreadFactory("WatchManager"),
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * 订阅 path 及其所有子孙节点的变化
+     * 1、如果已经有祖先路径（或相同路径）注册了监听，直接复用，只过滤出 path 子树下的事件
+     * 2、否则在 path 上注册监听，已有的子孙路径上的监听合并过来后移除，新监听注册成功时所有订阅都会收到 RESET
+     *
+     * @param path     ：订阅的路径
+     * @param listener ：监听器
+     * @return ：关闭后取消订阅（多次关闭只生效一次），所有订阅都取消后服务器上的监听也会被移除
+     */
+    public synchronized Closeable subscribe(final String path, final NodeListener listener) {
+        Subscription subscription = new Subscription(path, listener);
+        Subscription existing = subscriptions.get(subscription);
+        if (existing != null) {
+            logger.debug("监听器已经订阅过【{}】", path);
+            existing.refs++;
+            return handle(existing);
+        }
+        WatchEntry entry = null;
+        for (WatchEntry candidate : entries.values()) {
+            if (isInSubtree(path, candidate.root)) {
+                entry = candidate;
+                break;
+            }
+        }
+        if (entry == null) {
+            entry = new WatchEntry(path);
+            mergeDescendants(entry);
+            entries.put(path, entry);
+            entry.start();
+            logger.info("注册永久递归监听【{}】", path);
+        }
+        subscription.entry = entry;
+        entry.subscriptions.add(subscription);
+        subscriptions.put(subscription, subscription);
+        return handle(subscription);
+    }
+
+    /**
+     * 把 root 子树下已经注册的监听合并到 entry 上，并移除服务器上原来的监听
+     */
+    private void mergeDescendants(WatchEntry entry) {
+        Iterator<WatchEntry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            WatchEntry child = iterator.next();
+            if (isInSubtree(child.root, entry.root)) {
+                iterator.remove();
+                for (Subscription subscription : child.subscriptions) {
+                    subscription.entry = entry;
+                    entry.subscriptions.add(subscription);
+                }
+                child.watcher.close();
+                logger.info("永久递归监听【{}】合并到【{}】", child.root, entry.root);
+            }
+        }
+    }
+
+    private Closeable handle(final Subscription subscription) {
+        final AtomicBoolean closed = new AtomicBoolean();
+        return () -> {
+            if (closed.compareAndSet(false, true)) {
+                unsubscribe(subscription);
+            }
+        };
+    }
+
+    /**
+     * 服务器上实际注册的监听个数
+     */
+    public synchronized int getWatchCount() {
+        return entries.size();
+    }
+
+    /**
+     * 因为队列已满被丢弃的事件个数
+     */
+    public long getDroppedEvents() {
+        return droppedEvents.sum();
+    }
+
+    @Override
+    public synchronized void close() {
+        for (WatchEntry entry : entries.values()) {
+            entry.watcher.close();
+        }
+        entries.clear();
+        subscriptions.clear();
+        resetScheduler.shutdownNow();
+        executor.shutdown();
+    }
+
+    private synchronized void unsubscribe(Subscription subscription) {
+        if (--subscription.refs > 0 || subscriptions.remove(subscription) == null) {
+            return;
+        }
+        WatchEntry entry = subscription.entry;
+        entry.subscriptions.remove(subscription);
+        if (entry.subscriptions.isEmpty() && entries.remove(entry.root, entry)) {
+            entry.watcher.close();
+            logger.info("移除永久递归监听【{}】", entry.root);
+        }
+    }
+
+    /**
+     * 在 ZooKeeper 事件线程上调用，只负责放入队列
+     */
+    private void dispatch(WatchEntry entry, NodeEvent event) {
+        for (Subscription subscription : entry.subscriptions) {
+            if (event.getType() == NodeEvent.Type.RESET) {
+                offer(subscription, new NodeEvent(NodeEvent.Type.RESET, subscription.path));
+            } else if (isInSubtree(event.getPath(), subscription.path)) {
+                offer(subscription, event);
+            }
+        }
+    }
+
+    private boolean offer(final Subscription subscription, final NodeEvent event) {
+        try {
+            executor.execute(() -> {
+                try {
+                    subscription.listener.onEvent(event);
+                } catch (Exception e) {
+                    logger.error("监听器处理事件异常：" + event, e);
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            droppedEvents.increment();
+            if (overflowed.compareAndSet(false, true)) {
+                scheduleReset();
+            }
+            return false;
+        }
+    }
+
+    /**
+     * 有事件被丢弃后，不等下一个事件到来，稍后主动给所有监听器补发 RESET；队列仍然满时 offer 会再次调度
+     */
+    private void scheduleReset() {
+        try {
+            resetScheduler.schedule(() -> {
+                if (!overflowed.compareAndSet(true, false)) {
+                    return;
+                }
+                for (Subscription subscription : snapshot()) {
+                    if (!offer(subscription, new NodeEvent(NodeEvent.Type.RESET, subscription.path))) {
+                        return;
+                    }
+                }
+            }, RESET_DELAY_MS, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            //已经关闭
+        }
+    }
+
+    private synchronized List<Subscription> snapshot() {
+        return new ArrayList<>(subscriptions.keySet());
+    }
+
+    private static boolean isInSubtree(String path, String root) {
+        return "/".equals(root) || path.equals(root) || path.startsWith(root + "/");
+    }
+
+    private static NodeEvent.Type toType(Watcher.Event.EventType type) {
+        switch (type) {
+            case NodeCreated:
+                return NodeEvent.Type.CREATED;
+            case NodeDataChanged:
+                return NodeEvent.Type.DATA_CHANGED;
+            case NodeDeleted:
+                return NodeEvent.Type.DELETED;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * 服务器上的一个永久递归监听，以及挂在它上面的所有订阅
+     */
+    private class WatchEntry {
+        private final String root;
+        private final PersistentWatcher watcher;
+        private final Set<Subscription> subscriptions = new CopyOnWriteArraySet<>();
+
+        private WatchEntry(String root) {
+            this.root = root;
+            this.watcher = new PersistentWatcher(client, root, true);
+        }
+
+        private void start() {
+            watcher.getListenable().addListener(new Watcher() {
+                @Override
+                public void process(WatchedEvent event) {
+                    NodeEvent.Type type = toType(event.getType());
+                    if (type != null && event.getPath() != null) {
+                        dispatch(WatchEntry.this, new NodeEvent(type, event.getPath()));
+                    }
+                }
+            });
+            watcher.getResetListenable().addListener(() -> dispatch(this, new NodeEvent(NodeEvent.Type.RESET, root)));
+            watcher.start();
+        }
+    }
+
+    /**
+     * 一个订阅：订阅路径 + 监听器，路径和监听器都相同时视为同一个订阅
+     */
+    private static class Subscription {
+        private final String path;
+        private final NodeListener listener;
+        /**
+         * 重复订阅的次数、所在的监听，由 WatchManager 的锁保护
+         */
+        private int refs = 1;
+        private volatile WatchEntry entry;
+
+        private Subscription(String path, NodeListener listener) {
+            this.path = path;
+            this.listener = listener;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Subscription)) {
+                return false;
+            }
+            Subscription that = (Subscription) o;
+            return path.equals(that.path) && listener == that.listener;
+        }
+
+        @Override
+        public int hashCode() {
+            return path.hashCode() * 31 + System.identityHashCode(listener);
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.wmx.zookeeperstudy;
+
+import com.wmx.zookeeperstudy.zk.NodeData;
+import com.wmx.zookeeperstudy.zk.async.AsyncZkClient;
+import com.wmx.zookeeperstudy.zk.batch.NodeBatch;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 异步客户端测试
+ *
+ * @author wangMaoXiong
+ * @version 1.0
+ * @date 2020/8/18 20:45
+ */
+public class AsyncZkClientTest {
+
+    @Rule
+    public final ZookeeperServerRule zk = new ZookeeperServerRule();
+
+    private CuratorFramework client;
+
+    @Before
+    public void init() throws Exception {
+        client = zk.getClient();
+    }
+
+    @Test
+    public void crudTest() throws Exception {
+        AsyncZkClient async = new AsyncZkClient(client);
+        String path = async.create("/summary/ip1", "192.168.116.1".getBytes(Charset.forName("UTF-8")), CreateMode.PERSISTENT)
+                .toCompletableFuture().get();
+        Assert.assertEquals("/summary/ip1", path);
+
+        Assert.assertEquals(1, async.setData(path, "192.168.116.2".getBytes(Charset.forName("UTF-8")), 0)
+                .toCompletableFuture().get().getVersion());
+        NodeData node = async.getData(path).toCompletableFuture().get();
+        Assert.assertEquals("192.168.116.2", new String(node.getData(), Charset.forName("UTF-8")));
+        Assert.assertEquals(1, async.getChildren("/summary").toCompletableFuture().get().size());
+
+        async.delete(path, -1).toCompletableFuture().get();
+        Assert.assertNull(async.exists(path).toCompletableFuture().get());
+        try {
+            async.getData(path).toCompletableFuture().get();
+            Assert.fail();
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof KeeperException.NoNodeException);
+        }
+    }
+
+    /**
+     * 在一个会话上流水线发送大量读请求，在途请求数不超过窗口大小
+     */
+    @Test
+    public void pipelineTest() throws Exception {
+        client.create().forPath("/info1", "v1".getBytes(Charset.forName("UTF-8")));
+        int window = 50;
+        int count = 10000;
+        final AsyncZkClient async = new AsyncZkClient(client, window, null);
+        final AtomicInteger maxInFlight = new AtomicInteger();
+        List<CompletableFuture<NodeData>> futures = new ArrayList<>(count);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            futures.add(async.getData("/info1").toCompletableFuture());
+            maxInFlight.accumulateAndGet(async.getInFlight(), Math::max);
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).get();
+        double ops = count / ((System.nanoTime() - start) / 1e9);
+
+        Assert.assertTrue(maxInFlight.get() <= window);
+        Assert.assertEquals(0, async.getInFlight());
+        System.out.printf("流水线读取：%.1f ops/sec%n", ops);
+    }
+
+    /**
+     * 1000 个子节点的批量读取，与逐个同步读取对比耗时；在途窗口小于子节点个数时也不会卡住
+     */
+    @Test
+    public void getDataForAllTest() throws Exception {
+        int count = 1000;
+        NodeBatch batch = new NodeBatch(client);
+        batch.create("/config", null, CreateMode.PERSISTENT);
+        for (int i = 0; i < count; i++) {
+            batch.create(String.format("/config/key%04d", i), ("value" + i).getBytes(Charset.forName("UTF-8")), CreateMode.PERSISTENT);
+        }
+        batch.commit();
+
+        AsyncZkClient async = new AsyncZkClient(client, 50, null);
+        long start = System.nanoTime();
+        Map<String, NodeData> all = async.getDataForAll("/config").toCompletableFuture().get();
+        long parallelMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        Assert.assertEquals(count, all.size());
+        int i = 0;
+        for (Map.Entry<String, NodeData> entry : all.entrySet()) {
+            Assert.assertEquals(String.format("/config/key%04d", i), entry.getKey());
+            Assert.assertEquals("value" + i, new String(entry.getValue().getData(), Charset.forName("UTF-8")));
+            i++;
+        }
+
+        start = System.nanoTime();
+        for (String child : client.getChildren().forPath("/config")) {
+            client.getData().forPath("/config/" + child);
+        }
+        long sequentialMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        System.out.printf("读取 %d 个子节点：并行 %d 毫秒，逐个读取 %d 毫秒%n", count, parallelMs, sequentialMs);
+    }
+
+    /**
+     * 不存在的节点是正常结果，值为 null；结果顺序与传入顺序一致
+     */
+    @Test
+    public void getDataForPathsTest() throws Exception {
+        client.create().forPath("/b", "b".getBytes(Charset.forName("UTF-8")));
+        client.create().forPath("/a", "a".getBytes(Charset.forName("UTF-8")));
+        AsyncZkClient async = new AsyncZkClient(client);
+        Map<String, NodeData> result = async.getDataForPaths(Arrays.asList("/b", "/missing", "/a")).toCompletableFuture().get();
+        Assert.assertEquals(Arrays.asList("/b", "/missing", "/a"), new ArrayList<>(result.keySet()));
+        Assert.assertEquals("b", new String(result.get("/b").getData(), Charset.forName("UTF-8")));
+        Assert.assertNull(result.get("/missing"));
+        Assert.assertEquals(0, result.get("/a").getStat().getVersion());
+
+        try {
+            async.getDataForAll("/missing").toCompletableFuture().get();
+            Assert.fail("父节点不存在时应该异常完成");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof KeeperException.NoNodeException);
+        }
+    }
+}
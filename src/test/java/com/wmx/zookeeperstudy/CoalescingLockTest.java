@@ -0,0 +1,172 @@
+package com.wmx.zookeeperstudy;
+
+import com.wmx.zookeeperstudy.zk.lock.CoalescingLock;
+import com.wmx.zookeeperstudy.zk.lock.DistributedLockService;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.recipes.locks.InterProcessMutex;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 本地合并的分布式锁测试，以及与 InterProcessMutex 的竞争吞吐量对比
+ *
+ * @author wangMaoXiong
+ * @version 1.0
+ * @date 2020/8/29 17:30
+ */
+public class CoalescingLockTest {
+
+    @Rule
+    public final ZookeeperServerRule zk = new ZookeeperServerRule(2);
+
+    private CuratorFramework client1;
+    private CuratorFramework client2;
+
+    @Before
+    public void init() {
+        client1 = zk.getClient(0);
+        client2 = zk.getClient(1);
+    }
+
+    @Test
+    public void reentrantTest() throws Exception {
+        CoalescingLock lock = new DistributedLockService(client1).getLock("order");
+        lock.acquire();
+        long token = lock.getFencingToken();
+        lock.acquire();
+        Assert.assertEquals(token, lock.getFencingToken());
+        lock.release();
+        Assert.assertTrue(lock.isHeldByCurrentThread());
+        lock.release();
+        Assert.assertFalse(lock.isHeldByCurrentThread());
+        Assert.assertEquals(1, lock.getAcquireCount());
+        try {
+            lock.release();
+            Assert.fail();
+        } catch (IllegalMonitorStateException e) {
+            //未持有锁
+        }
+
+        lock.acquire();
+        Assert.assertTrue(lock.getFencingToken() > token);
+        lock.release();
+        Assert.assertTrue(client1.getChildren().forPath("/locks/order/leases").isEmpty());
+    }
+
+    /**
+     * 两个客户端（模拟两个进程）之间互斥，其中一个持有锁时另一个获取超时
+     */
+    @Test
+    public void mutualExclusionTest() throws Exception {
+        CoalescingLock lock1 = new DistributedLockService(client1).getLock("order");
+        CoalescingLock lock2 = new DistributedLockService(client2).getLock("order");
+        lock1.acquire();
+        Assert.assertFalse(lock2.acquire(200, TimeUnit.MILLISECONDS));
+        lock1.release();
+        Assert.assertTrue(lock2.acquire(5, TimeUnit.SECONDS));
+        lock2.release();
+    }
+
+    /**
+     * 两个进程各 8 个线程竞争，临界区内不会出现两个持有者，fencing token 严格递增
+     */
+    @Test
+    public void contentionTest() throws Exception {
+        List<CoalescingLock> locks = new ArrayList<>();
+        locks.add(new DistributedLockService(client1, "/locks", 4).getLock("order"));
+        locks.add(new DistributedLockService(client2, "/locks", 4).getLock("order"));
+        AtomicInteger holders = new AtomicInteger();
+        AtomicLong lastToken = new AtomicLong(-1);
+        AtomicInteger violations = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(16);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < 16; t++) {
+            CoalescingLock lock = locks.get(t % 2);
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < 50; i++) {
+                    lock.acquire();
+                    try {
+                        if (holders.incrementAndGet() != 1) {
+                            violations.incrementAndGet();
+                        }
+                        long token = lock.getFencingToken();
+                        if (token <= lastToken.get()) {
+                            violations.incrementAndGet();
+                        }
+                        lastToken.set(token);
+                        holders.decrementAndGet();
+                    } finally {
+                        lock.release();
+                    }
+                }
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+        Assert.assertEquals(0, violations.get());
+        for (CoalescingLock lock : locks) {
+            Assert.assertEquals(400, lock.getAcquireCount());
+            Assert.assertTrue(lock.getZkAcquireCount() < lock.getAcquireCount());
+        }
+    }
+
+    /**
+     * 16 个线程各获取、释放 N 次锁，对比 InterProcessMutex 与本地合并锁的 ops/sec
+     */
+    @Test
+    public void interProcessMutexVsCoalescingBenchmark() throws Exception {
+        int threads = 16;
+        int count = 50;
+        InterProcessMutex mutex = new InterProcessMutex(client1, "/locks/mutex");
+        double mutexOps = contend(threads, count, () -> mutex.acquire(), () -> mutex.release());
+
+        CoalescingLock lock = new DistributedLockService(client1).getLock("coalescing");
+        double coalescingOps = contend(threads, count, lock::acquire, lock::release);
+
+        System.out.printf("InterProcessMutex：%.1f ops/sec，本地合并锁：%.1f ops/sec，ZK 加锁 %d 次/共 %d 次%n",
+                mutexOps, coalescingOps, lock.getZkAcquireCount(), lock.getAcquireCount());
+        Assert.assertTrue(coalescingOps > mutexOps);
+    }
+
+    private interface LockAction {
+        void run() throws Exception;
+    }
+
+    private double contend(int threads, int count, LockAction acquire, LockAction release) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch startLatch = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            futures.add(executor.submit(() -> {
+                startLatch.await();
+                for (int i = 0; i < count; i++) {
+                    acquire.run();
+                    release.run();
+                }
+                return null;
+            }));
+        }
+        long start = System.nanoTime();
+        startLatch.countDown();
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+        return threads * count / ((System.nanoTime() - start) / 1e9);
+    }
+}
@@ -0,0 +1,195 @@
+package com.wmx.zookeeperstudy;
+
+import com.wmx.zookeeperstudy.zk.NodeData;
+import com.wmx.zookeeperstudy.zk.cache.NodeDataCache;
+import com.wmx.zookeeperstudy.zk.connection.AdaptiveRetryPolicy;
+import com.wmx.zookeeperstudy.zk.connection.ConnectionStateManager;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.framework.state.ConnectionState;
+import org.apache.curator.test.TestingCluster;
+import org.apache.curator.test.TestingZooKeeperServer;
+import org.apache.zookeeper.KeeperException;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+/**
+ * 连接状态管理测试：leader 挂掉期间读取不可用的时长、断线期间从缓存读取、集群失去多数派后的只读模式
+ *
+ * @author wangMaoXiong
+ * @version 1.0
+ * @date 2020/9/12 15:30
+ */
+public class ConnectionStateManagerTest {
+
+    private TestingCluster cluster;
+    private CuratorFramework client;
+    private NodeDataCache cache;
+    private ConnectionStateManager manager;
+
+    @Before
+    public void init() throws Exception {
+        //服务器失去多数派后以只读模式继续提供读取
+        System.setProperty("readonlymode.enabled", "true");
+        cluster = new TestingCluster(3);
+        cluster.start();
+        AdaptiveRetryPolicy retryPolicy = new AdaptiveRetryPolicy(100, 1000, 5, 5000, true);
+        client = CuratorFrameworkFactory.builder()
+                .connectString(cluster.getConnectString())
+                .sessionTimeoutMs(15000)
+                .connectionTimeoutMs(2000)
+                .retryPolicy(retryPolicy)
+                .canBeReadOnly(true)
+                .namespace("basic-service")
+                .build();
+        client.getConnectionStateListenable().addListener(retryPolicy);
+        client.start();
+        client.blockUntilConnected();
+        client.create().forPath("/conf", "v1".getBytes());
+    }
+
+    @After
+    public void destroy() throws Exception {
+        if (manager != null) {
+            manager.close();
+        }
+        if (cache != null) {
+            cache.close();
+        }
+        client.close();
+        cluster.close();
+        System.clearProperty("readonlymode.enabled");
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        ZookeeperServerRule.await(condition, 30000);
+    }
+
+    private void killLeader() throws Exception {
+        for (TestingZooKeeperServer server : cluster.getServers()) {
+            if ("leading".equals(server.getQuorumPeer().getServerState())) {
+                cluster.killServer(server.getInstanceSpec());
+                return;
+            }
+        }
+        Assert.fail("没有找到 leader");
+    }
+
+    /**
+     * 读取线程每 5 毫秒读一次，记录两次成功读取之间的最长间隔
+     */
+    private Thread startReader(AtomicBoolean running, AtomicLong maxGapMs, AtomicLong failures, AtomicLong lastSuccess) {
+        Thread reader = new Thread(() -> {
+            while (running.get()) {
+                try {
+                    NodeData node = manager.getData("/conf");
+                    Assert.assertEquals("v1", new String(node.getData()));
+                    long now = System.currentTimeMillis();
+                    maxGapMs.accumulateAndGet(now - lastSuccess.getAndSet(now), Math::max);
+                } catch (Exception e) {
+                    failures.incrementAndGet();
+                }
+                try {
+                    Thread.sleep(5);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        });
+        reader.start();
+        return reader;
+    }
+
+    /**
+     * FAIL_FAST：leader 挂掉后，断线期间的读取立即失败，不会卡在 Curator 的重试里；统计读取不可用的时长
+     */
+    @Test
+    public void testFailFastDuringLeaderLoss() throws Exception {
+        manager = new ConnectionStateManager(client, ConnectionStateManager.SuspendedMode.FAIL_FAST, null, 0);
+        manager.start();
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicLong maxGapMs = new AtomicLong();
+        AtomicLong failures = new AtomicLong();
+        AtomicLong lastSuccess = new AtomicLong(System.currentTimeMillis());
+        Thread reader = startReader(running, maxGapMs, failures, lastSuccess);
+
+        Thread.sleep(200);
+        killLeader();
+        await(() -> manager.getSuspendedCount() > 0);
+        long suspendedAt = System.currentTimeMillis();
+        await(() -> manager.isReadable() && System.currentTimeMillis() - lastSuccess.get() < 100);
+        running.set(false);
+        reader.join();
+
+        System.out.printf("leader 挂掉后读取不可用 %d 毫秒（状态管理器统计 %d 毫秒），快速失败 %d 次，恢复耗时 %d 毫秒%n",
+                maxGapMs.get(), manager.getLastUnavailableMillis(), failures.get(), System.currentTimeMillis() - suspendedAt);
+        Assert.assertTrue(manager.getRejectedCount() > 0);
+    }
+
+    /**
+     * SERVE_FROM_CACHE：读取过的节点在断线期间从本地缓存返回，读取方感知不到 leader 切换
+     */
+    @Test
+    public void testServeFromCacheDuringLeaderLoss() throws Exception {
+        cache = new NodeDataCache(client, "/", 100);
+        cache.start();
+        manager = new ConnectionStateManager(client, ConnectionStateManager.SuspendedMode.SERVE_FROM_CACHE, cache, 0);
+        manager.start();
+        manager.getData("/conf");
+
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicLong maxGapMs = new AtomicLong();
+        AtomicLong failures = new AtomicLong();
+        AtomicLong lastSuccess = new AtomicLong(System.currentTimeMillis());
+        Thread reader = startReader(running, maxGapMs, failures, lastSuccess);
+
+        Thread.sleep(200);
+        killLeader();
+        await(() -> manager.getSuspendedCount() > 0);
+        await(manager::isReadable);
+        running.set(false);
+        reader.join();
+
+        System.out.printf("从缓存读取：最长间隔 %d 毫秒，失败 %d 次，缓存降级 %d 次%n",
+                maxGapMs.get(), failures.get(), manager.getCacheServedCount());
+        Assert.assertEquals(0, failures.get());
+    }
+
+    /**
+     * 3 台服务器挂掉 2 台后集群失去多数派，剩下的服务器进入只读模式：读取照常，写入被拒绝
+     */
+    @Test
+    public void testReadOnlyMode() throws Exception {
+        manager = new ConnectionStateManager(client, ConnectionStateManager.SuspendedMode.FAIL_FAST, null, 0);
+        manager.start();
+        int killed = 0;
+        for (TestingZooKeeperServer server : cluster.getServers()) {
+            if (killed < 2) {
+                cluster.killServer(server.getInstanceSpec());
+                killed++;
+            }
+        }
+        await(() -> manager.getState() == ConnectionState.READ_ONLY);
+        Assert.assertTrue(manager.isReadable());
+        Assert.assertFalse(manager.isWritable());
+        Assert.assertEquals("v1", new String(manager.getData("/conf").getData()));
+        try {
+            manager.checkWritable();
+            Assert.fail("只读模式下不能写入");
+        } catch (KeeperException.NotReadOnlyException e) {
+            //期望的异常
+        }
+        try {
+            client.setData().forPath("/conf", "v2".getBytes());
+            Assert.fail("只读模式下不能写入");
+        } catch (KeeperException.NotReadOnlyException e) {
+            //期望的异常
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.wmx.zookeeperstudy;
+
+import com.wmx.zookeeperstudy.zk.CuratorClientRegistry;
+import org.apache.curator.framework.CuratorFramework;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 共享客户端注册表测试，以及 每次新建客户端 与 共享客户端 的吞吐量对比
+ *
+ * @author wangMaoXiong
+ * @version 1.0
+ * @date 2020/8/12 21:02
+ */
+public class CuratorClientRegistryTest {
+
+    @Rule
+    public final ZookeeperServerRule zk = new ZookeeperServerRule(0);
+
+    private CuratorClientRegistry registry = CuratorClientRegistry.getInstance();
+
+    @After
+    public void destroy() {
+        registry.closeAll();
+    }
+
+    private CuratorFramework newClient() {
+        return zk.buildClient();
+    }
+
+    @Test
+    public void getClientTest() throws Exception {
+        CuratorFramework client1 = registry.getClient(zk.getConnectString(), "basic-service", this::newClient);
+        CuratorFramework client2 = registry.getClient(zk.getConnectString(), "basic-service", this::newClient);
+        Assert.assertSame(client1, client2);
+        Assert.assertTrue(client1.blockUntilConnected(10, TimeUnit.SECONDS));
+        Assert.assertEquals(1, registry.size());
+        Assert.assertEquals(1, registry.openSessions());
+
+        registry.closeAll();
+        Assert.assertEquals(0, registry.size());
+        Assert.assertEquals(0, registry.openSessions());
+    }
+
+    /**
+     * 同样读取一个节点 N 次，对比每次新建客户端和共享客户端的 ops/sec
+     */
+    @Test
+    public void perCallVsSharedBenchmark() throws Exception {
+        int count = 200;
+        CuratorFramework shared = registry.getClient(zk.getConnectString(), "basic-service", this::newClient);
+        shared.blockUntilConnected();
+        shared.create().forPath("/info1", "192.168.116.1".getBytes(Charset.forName("UTF-8")));
+
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            try (CuratorFramework client = newClient()) {
+                client.start();
+                client.getData().forPath("/info1");
+            }
+        }
+        double perCall = count / ((System.nanoTime() - start) / 1e9);
+
+        start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            registry.getClient(zk.getConnectString(), "basic-service", this::newClient).getData().forPath("/info1");
+        }
+        double sharedOps = count / ((System.nanoTime() - start) / 1e9);
+
+        System.out.printf("每次新建客户端：%.1f ops/sec，共享客户端：%.1f ops/sec%n", perCall, sharedOps);
+        Assert.assertEquals(1, registry.openSessions());
+        Assert.assertTrue(sharedOps > perCall);
+    }
+}
@@ -0,0 +1,188 @@
+package com.wmx.zookeeperstudy;
+
+import com.wmx.zookeeperstudy.zk.limit.DistributedRateLimiter;
+import com.wmx.zookeeperstudy.zk.limit.DistributedSemaphore;
+import com.wmx.zookeeperstudy.zk.watch.WatchManager;
+import org.apache.curator.framework.CuratorFramework;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.wmx.zookeeperstudy.ZookeeperServerRule.await;
+
+/**
+ * 分布式限流、信号量测试：每个实例使用独立的客户端（相当于不同进程），验证总量精度、各实例公平、成员变化后重新分配
+ *
+ * @author wangMaoXiong
+ * @version 1.0
+ * @date 2020/9/20 21:40
+ */
+public class DistributedRateLimiterTest {
+
+    private static final int INSTANCES = 4;
+
+    @Rule
+    public final ZookeeperServerRule zk = new ZookeeperServerRule(INSTANCES);
+
+    private List<CuratorFramework> clients;
+    private final List<WatchManager> watchManagers = new ArrayList<>();
+
+    @Before
+    public void init() throws Exception {
+        clients = zk.getClients();
+        for (CuratorFramework client : clients) {
+            watchManagers.add(new WatchManager(client));
+        }
+    }
+
+    @After
+    public void destroy() throws Exception {
+        for (WatchManager watchManager : watchManagers) {
+            watchManager.close();
+        }
+    }
+
+    @Test
+    public void testRateLimiter() throws Exception {
+        double total = 2000;
+        double burstSeconds = 0.1;
+        List<DistributedRateLimiter> limiters = new ArrayList<>();
+        for (int i = 0; i < INSTANCES; i++) {
+            DistributedRateLimiter limiter = new DistributedRateLimiter(clients.get(i), watchManagers.get(i), "/limits/api", total, burstSeconds);
+            limiter.start();
+            limiters.add(limiter);
+        }
+        await(() -> limiters.stream().allMatch(l -> l.getMemberCount() == INSTANCES && l.getLocalRate() == total / INSTANCES));
+        Assert.assertEquals("2000", new String(clients.get(0).getData().forPath("/limits/api"), StandardCharsets.UTF_8));
+        Assert.assertEquals(INSTANCES, clients.get(0).getChildren().forPath("/limits/api/members").size());
+
+        //每个实例 8 个线程尽可能多地获取许可，窗口较长，线程调度造成的偶发停顿（短于突发时长）不影响结果
+        int threads = 8;
+        long durationMs = 5000;
+        AtomicLong[] granted = new AtomicLong[INSTANCES];
+        AtomicLong attempts = new AtomicLong();
+        //所有线程创建完成后同时开始，避免先启动的实例多拿许可
+        CountDownLatch ready = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(INSTANCES * threads);
+        AtomicLong deadline = new AtomicLong();
+        for (int i = 0; i < INSTANCES; i++) {
+            granted[i] = new AtomicLong();
+            DistributedRateLimiter limiter = limiters.get(i);
+            AtomicLong counter = granted[i];
+            for (int t = 0; t < threads; t++) {
+                new Thread(() -> {
+                    try {
+                        ready.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    long end = deadline.get();
+                    long local = 0;
+                    long tries = 0;
+                    while (System.nanoTime() < end) {
+                        tries++;
+                        if (limiter.tryAcquire()) {
+                            local++;
+                        }
+                    }
+                    counter.addAndGet(local);
+                    attempts.addAndGet(tries);
+                    done.countDown();
+                }).start();
+            }
+        }
+        long start = System.nanoTime();
+        deadline.set(start + durationMs * 1_000_000L);
+        ready.countDown();
+        done.await();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        long sum = 0;
+        for (AtomicLong counter : granted) {
+            sum += counter.get();
+        }
+        System.out.printf("限流：%.2f 秒内尝试 %d 次，通过 %d 次（%.0f 次/秒），各实例：%s%n",
+                seconds, attempts.get(), sum, sum / seconds, Arrays.toString(granted));
+        //1、上限是令牌桶的不变量，与线程调度无关：每个实例在 seconds 内最多放行 本实例速率 * seconds + 突发许可（取整多 1 个）
+        //2、下限：8 个线程在整个 durationMs 内一直在尝试，窗口足够长时每个实例至少拿到自己份额的 90%
+        double localRate = total / INSTANCES;
+        double localMax = localRate * seconds + localRate * burstSeconds + 1;
+        double localMin = localRate * durationMs / 1000 * 0.9;
+        for (AtomicLong counter : granted) {
+            Assert.assertTrue(counter + " > " + localMax, counter.get() <= localMax);
+            Assert.assertTrue(counter + " < " + localMin, counter.get() >= localMin);
+        }
+        Assert.assertTrue(sum <= total * seconds + total * burstSeconds + INSTANCES);
+
+        //一个实例退出，其余实例分到三分之一
+        limiters.remove(0).close();
+        await(() -> limiters.stream().allMatch(l -> l.getMemberCount() == INSTANCES - 1 && l.getLocalRate() == total / (INSTANCES - 1)));
+
+        try {
+            limiters.get(0).tryAcquire(0);
+            Assert.fail();
+        } catch (IllegalArgumentException e) {
+            //许可数必须大于 0
+        }
+
+        //运行时调整总速率
+        limiters.get(0).setTotalRate(3000);
+        await(() -> limiters.stream().allMatch(l -> l.getLocalRate() == 1000));
+        for (DistributedRateLimiter limiter : limiters) {
+            limiter.close();
+        }
+    }
+
+    @Test
+    public void testSemaphore() throws Exception {
+        List<DistributedSemaphore> semaphores = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            DistributedSemaphore semaphore = new DistributedSemaphore(clients.get(i), watchManagers.get(i), "/limits/export", 10);
+            semaphore.start();
+            semaphores.add(semaphore);
+        }
+        await(() -> semaphores.stream().allMatch(s -> s.getMemberCount() == 3));
+        //10 个许可分给 3 个实例：4、3、3，总数不变
+        await(() -> semaphores.stream().mapToInt(DistributedSemaphore::getLocalPermits).sum() == 10);
+        Assert.assertEquals(4, semaphores.stream().mapToInt(DistributedSemaphore::getLocalPermits).max().getAsInt());
+        Assert.assertEquals(3, semaphores.stream().mapToInt(DistributedSemaphore::getLocalPermits).min().getAsInt());
+
+        DistributedSemaphore semaphore = semaphores.get(1);
+        int permits = semaphore.getLocalPermits();
+        for (int i = 0; i < permits; i++) {
+            Assert.assertTrue(semaphore.tryAcquire());
+        }
+        Assert.assertFalse(semaphore.tryAcquire());
+        semaphore.release();
+        Assert.assertTrue(semaphore.tryAcquire());
+        Assert.assertEquals(permits, semaphore.getInUse());
+
+        //一个实例退出后，剩下两个各 5 个
+        semaphores.remove(0).close();
+        await(() -> semaphores.stream().allMatch(s -> s.getMemberCount() == 2 && s.getLocalPermits() == 5));
+        for (int i = permits; i < 5; i++) {
+            Assert.assertTrue(semaphore.tryAcquire());
+        }
+        Assert.assertFalse(semaphore.tryAcquire());
+        //释放次数多于获取次数
+        DistributedSemaphore idle = semaphores.get(1);
+        Assert.assertEquals(0, idle.getInUse());
+        try {
+            idle.release();
+            Assert.fail();
+        } catch (IllegalStateException e) {
+            Assert.assertEquals(0, idle.getInUse());
+        }
+        for (DistributedSemaphore s : semaphores) {
+            s.close();
+        }
+    }
+}
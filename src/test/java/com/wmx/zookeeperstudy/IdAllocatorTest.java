@@ -0,0 +1,132 @@
+package com.wmx.zookeeperstudy;
+
+import com.wmx.zookeeperstudy.zk.id.IdAllocator;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.zookeeper.CreateMode;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 分段 ID 生成器测试，以及与顺序节点生成 ID 的吞吐量对比
+ *
+ * @author wangMaoXiong
+ * @version 1.0
+ * @date 2020/9/1 21:40
+ */
+public class IdAllocatorTest {
+
+    @Rule
+    public final ZookeeperServerRule zk = new ZookeeperServerRule();
+
+    private CuratorFramework client;
+
+    @Before
+    public void init() throws Exception {
+        client = zk.getClient();
+    }
+
+    @Test
+    public void nextIdTest() throws Exception {
+        try (IdAllocator allocator = new IdAllocator(client, "/ids/order", 100, 1)) {
+            for (long i = 0; i < 250; i++) {
+                Assert.assertEquals(i, allocator.nextId());
+            }
+            Assert.assertEquals(3, allocator.getBlocksLeased());
+            Assert.assertEquals("300", new String(client.getData().forPath("/ids/order"), "UTF-8"));
+        }
+    }
+
+    /**
+     * 服务器不可用时当前段用完，调用线程等待预取的下一段；关闭生成器后调用线程立即结束，不会一直阻塞
+     */
+    @Test
+    public void closeWhileRefillingTest() throws Exception {
+        IdAllocator allocator = new IdAllocator(client, "/ids/order", 4, 1);
+        Assert.assertEquals(0, allocator.nextId());
+        Assert.assertEquals(1, allocator.nextId());
+        zk.getServer().stop();
+        //取到 2 时开始预取，服务器已停止，预取一直等待连接
+        Assert.assertEquals(2, allocator.nextId());
+        Assert.assertEquals(3, allocator.nextId());
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread waiting = new Thread(() -> {
+            try {
+                allocator.nextId();
+            } catch (Throwable e) {
+                failure.set(e);
+            }
+        });
+        waiting.start();
+        Thread.sleep(200);
+        allocator.close();
+        waiting.join(5000);
+        Assert.assertFalse("关闭后调用线程仍在等待预取", waiting.isAlive());
+        Assert.assertTrue(String.valueOf(failure.get()), failure.get() instanceof IllegalStateException);
+    }
+
+    /**
+     * 两个生成器（模拟两个进程）各 8 个线程并发生成，所有 ID 不重复
+     */
+    @Test
+    public void uniqueTest() throws Exception {
+        int threads = 16;
+        int count = 20000;
+        Set<Long> ids = ConcurrentHashMap.newKeySet();
+        try (IdAllocator allocator1 = new IdAllocator(client, "/ids/order", 1000, 4);
+             IdAllocator allocator2 = new IdAllocator(client, "/ids/order", 1000, 4)) {
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                IdAllocator allocator = t % 2 == 0 ? allocator1 : allocator2;
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < count; i++) {
+                        ids.add(allocator.nextId());
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            executor.shutdown();
+        }
+        Assert.assertEquals(threads * count, ids.size());
+    }
+
+    /**
+     * 对比每个 ID 创建一个 PERSISTENT_SEQUENTIAL 节点与分段生成器的 ids/sec
+     */
+    @Test
+    public void sequentialNodeVsAllocatorBenchmark() throws Exception {
+        int count = 1000;
+        client.create().forPath("/seq");
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            client.create().withMode(CreateMode.PERSISTENT_SEQUENTIAL).forPath("/seq/id");
+        }
+        double sequential = count / ((System.nanoTime() - start) / 1e9);
+
+        int ids = 5000000;
+        try (IdAllocator allocator = new IdAllocator(client, "/ids/order")) {
+            start = System.nanoTime();
+            for (int i = 0; i < ids; i++) {
+                allocator.nextId();
+            }
+            double allocated = ids / ((System.nanoTime() - start) / 1e9);
+            System.out.printf("顺序节点：%.1f ids/sec，分段生成器：%.1f ids/sec，写操作 %d 次%n",
+                    sequential, allocated, allocator.getBlocksLeased());
+            Assert.assertTrue(allocated > sequential * 100);
+        }
+    }
+}
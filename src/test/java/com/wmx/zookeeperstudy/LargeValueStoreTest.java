@@ -0,0 +1,171 @@
+package com.wmx.zookeeperstudy;
+
+import com.wmx.zookeeperstudy.zk.blob.LargeValueStore;
+import com.wmx.zookeeperstudy.zk.codec.NodeCodec;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.ZooDefs;
+import org.apache.zookeeper.data.ACL;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 大数据存储测试：内联、压缩、分片、旧分片清理，以及并发读写时不会读到写了一半的数据
+ *
+ * @author wangMaoXiong
+ * @version 1.0
+ * @date 2020/9/10 21:10
+ */
+public class LargeValueStoreTest {
+
+    @Rule
+    public final ZookeeperServerRule zk = new ZookeeperServerRule();
+
+    private CuratorFramework client;
+    private LargeValueStore store;
+
+    @Before
+    public void init() throws Exception {
+        client = zk.getClient();
+        store = new LargeValueStore(client);
+    }
+
+    private static byte[] random(int length, long seed) {
+        byte[] bytes = new byte[length];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+
+    @Test
+    public void testSmallValue() throws Exception {
+        Assert.assertNull(store.read("/blob/small"));
+        store.write("/blob/small", "hello", NodeCodec.utf8());
+        Assert.assertEquals("hello", store.read("/blob/small", NodeCodec.utf8()));
+        Assert.assertTrue(client.getChildren().forPath("/blob/small").isEmpty());
+    }
+
+    /**
+     * 4MB 的重复文本压缩后远小于 1MB，内联保存，不产生分片
+     */
+    @Test
+    public void testCompressibleValue() throws Exception {
+        char[] chars = new char[4 * 1024 * 1024];
+        Arrays.fill(chars, 'z');
+        String value = new String(chars);
+        store.write("/blob/text", value, NodeCodec.utf8());
+        Assert.assertEquals(value, store.read("/blob/text", NodeCodec.utf8()));
+        Assert.assertTrue(client.getChildren().forPath("/blob/text").isEmpty());
+        Assert.assertTrue(client.getData().forPath("/blob/text").length < 64 * 1024);
+    }
+
+    /**
+     * 3MB 随机数据无法压缩，拆分成多个分片；覆盖写入后旧分片被清理
+     */
+    @Test
+    public void testChunkedValue() throws Exception {
+        byte[] first = random(3 * 1024 * 1024, 1);
+        store.write("/blob/random", first);
+        Assert.assertArrayEquals(first, store.read("/blob/random"));
+        List<String> chunks = client.getChildren().forPath("/blob/random");
+        //压缩编解码器在前面加了 1 字节标志
+        int encoded = first.length + 1;
+        int expected = (encoded + LargeValueStore.DEFAULT_CHUNK_BYTES - 1) / LargeValueStore.DEFAULT_CHUNK_BYTES;
+        Assert.assertEquals(expected, chunks.size());
+
+        byte[] second = random(1024 * 1024 + 7, 2);
+        store.write("/blob/random", second);
+        Assert.assertArrayEquals(second, store.read("/blob/random"));
+        for (String chunk : client.getChildren().forPath("/blob/random")) {
+            Assert.assertFalse("旧分片没有清理：" + chunk, chunks.contains(chunk));
+        }
+
+        store.write("/blob/random", "small".getBytes());
+        Assert.assertEquals("small", new String(store.read("/blob/random")));
+        Assert.assertTrue(client.getChildren().forPath("/blob/random").isEmpty());
+
+        store.delete("/blob/random");
+        Assert.assertNull(client.checkExists().forPath("/blob/random"));
+    }
+
+    /**
+     * 非版本冲突的写入失败（这里是没有 CREATE 权限，无法创建分片）不能删除当前清单引用的分片，之前的值仍然可读
+     */
+    @Test
+    public void testFailedWriteKeepsPreviousValue() throws Exception {
+        byte[] first = random(1024 * 1024, 5);
+        store.write("/blob/acl", first);
+        List<String> chunks = client.getChildren().forPath("/blob/acl");
+        Assert.assertFalse(chunks.isEmpty());
+
+        client.setACL().withACL(Collections.singletonList(new ACL(ZooDefs.Perms.READ | ZooDefs.Perms.WRITE | ZooDefs.Perms.DELETE,
+                ZooDefs.Ids.ANYONE_ID_UNSAFE))).forPath("/blob/acl");
+        try {
+            store.write("/blob/acl", random(1024 * 1024, 6));
+            Assert.fail("没有 CREATE 权限");
+        } catch (KeeperException.NoAuthException e) {
+            //预期
+        }
+        Assert.assertEquals(chunks, client.getChildren().forPath("/blob/acl"));
+        Assert.assertArrayEquals(first, store.read("/blob/acl"));
+
+        try {
+            store.write("/blob/acl", (byte[]) null);
+            Assert.fail("数据不能为 null");
+        } catch (IllegalArgumentException e) {
+            //预期
+        }
+    }
+
+    /**
+     * 两个写入者交替写入不同的 1.5MB 数据，读取方读到的必须是完整的某一个版本
+     */
+    @Test
+    public void testNoTornReads() throws Exception {
+        byte[][] values = {random(1536 * 1024, 3), random(1536 * 1024, 4)};
+        store.write("/blob/hot", values[0]);
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        AtomicInteger reads = new AtomicInteger();
+        Thread[] writers = new Thread[2];
+        for (int w = 0; w < writers.length; w++) {
+            final byte[] value = values[w];
+            writers[w] = new Thread(() -> {
+                try {
+                    while (running.get()) {
+                        store.write("/blob/hot", value);
+                        Thread.sleep(5);
+                    }
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            });
+            writers[w].start();
+        }
+        long deadline = System.currentTimeMillis() + 5000;
+        try {
+            while (System.currentTimeMillis() < deadline && failure.get() == null) {
+                byte[] read = store.read("/blob/hot");
+                Assert.assertTrue(Arrays.equals(values[0], read) || Arrays.equals(values[1], read));
+                reads.incrementAndGet();
+            }
+        } finally {
+            running.set(false);
+            for (Thread writer : writers) {
+                writer.join();
+            }
+        }
+        Assert.assertNull(failure.get());
+        System.out.println("并发读取次数：" + reads.get());
+        Assert.assertTrue(reads.get() > 0);
+    }
+}
@@ -0,0 +1,144 @@
+package com.wmx.zookeeperstudy;
+
+import com.wmx.zookeeperstudy.zk.leader.LeaderScheduler;
+import com.wmx.zookeeperstudy.zk.leader.LeadershipEvent;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.retry.RetryOneTime;
+import org.apache.curator.test.TestingCluster;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.ZooKeeper;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+/**
+ * leader 选举与 leader 任务调度测试，以及 leader 会话被杀掉后的接管耗时
+ *
+ * @author wangMaoXiong
+ * @version 1.0
+ * @date 2020/9/6 17:10
+ */
+public class LeaderSchedulerTest {
+
+    private static final int SESSION_TIMEOUT_MS = 5000;
+
+    private TestingCluster cluster;
+    private final List<CuratorFramework> clients = new ArrayList<>();
+    private final List<LeaderScheduler> schedulers = new ArrayList<>();
+
+    @Before
+    public void init() throws Exception {
+        cluster = new TestingCluster(3);
+        cluster.start();
+        for (int i = 0; i < 2; i++) {
+            CuratorFramework client = CuratorFrameworkFactory.builder()
+                    .connectString(cluster.getConnectString())
+                    .sessionTimeoutMs(SESSION_TIMEOUT_MS)
+                    .connectionTimeoutMs(3000)
+                    .retryPolicy(new RetryOneTime(500))
+                    .namespace("basic-service")
+                    .build();
+            client.start();
+            client.blockUntilConnected();
+            clients.add(client);
+            schedulers.add(new LeaderScheduler(client, "/leader", "node-" + i, 1));
+        }
+    }
+
+    @After
+    public void destroy() throws Exception {
+        for (LeaderScheduler scheduler : schedulers) {
+            scheduler.close();
+        }
+        for (CuratorFramework client : clients) {
+            client.close();
+        }
+        cluster.close();
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        ZookeeperServerRule.await(condition, 20000);
+    }
+
+    /**
+     * 任务只在 leader 上执行，leader 关闭后由另一个节点接着执行
+     */
+    @Test
+    public void leaderOnlyJobTest() throws Exception {
+        AtomicInteger[] runs = {new AtomicInteger(), new AtomicInteger()};
+        for (int i = 0; i < 2; i++) {
+            AtomicInteger counter = runs[i];
+            schedulers.get(i).schedule("report", counter::incrementAndGet, 0, 20, TimeUnit.MILLISECONDS);
+            schedulers.get(i).start();
+        }
+        await(() -> schedulers.get(0).isActive() || schedulers.get(1).isActive());
+        int leader = schedulers.get(0).isActive() ? 0 : 1;
+        int follower = 1 - leader;
+        await(() -> runs[leader].get() >= 5);
+        Assert.assertEquals(0, runs[follower].get());
+        Assert.assertFalse(schedulers.get(follower).isActive());
+
+        schedulers.get(leader).close();
+        await(() -> runs[follower].get() >= 5);
+        int stopped = runs[leader].get();
+        Thread.sleep(100);
+        Assert.assertEquals(stopped, runs[leader].get());
+        Assert.assertEquals(1, schedulers.get(leader).getRevokedCount());
+    }
+
+    /**
+     * 用 leader 的 sessionId + 密码建立另一个连接并关闭，服务器上的会话立即失效，
+     * 统计从杀掉会话到另一个节点收到 GRANTED 事件的耗时
+     */
+    @Test
+    public void takeoverLatencyTest() throws Exception {
+        AtomicLong grantedAt = new AtomicLong();
+        AtomicLong revokedAt = new AtomicLong();
+        for (LeaderScheduler scheduler : schedulers) {
+            scheduler.start();
+        }
+        await(() -> schedulers.get(0).isActive() || schedulers.get(1).isActive());
+        int leader = schedulers.get(0).isActive() ? 0 : 1;
+        schedulers.get(1 - leader).addListener(event -> {
+            if (event.getType() == LeadershipEvent.Type.GRANTED) {
+                grantedAt.set(System.nanoTime());
+            }
+        });
+        schedulers.get(leader).addListener(event -> {
+            if (event.getType() == LeadershipEvent.Type.REVOKED) {
+                revokedAt.set(System.nanoTime());
+            }
+        });
+
+        long killedAt = System.nanoTime();
+        killSession(clients.get(leader).getZookeeperClient().getZooKeeper());
+        await(() -> grantedAt.get() != 0 && revokedAt.get() != 0);
+
+        double takeoverMs = (grantedAt.get() - killedAt) / 1e6;
+        double revokeMs = (revokedAt.get() - killedAt) / 1e6;
+        System.out.printf("杀掉 leader 会话后：原 leader %.1f 毫秒后取消任务，新 leader %.1f 毫秒后接管%n", revokeMs, takeoverMs);
+        Assert.assertTrue(schedulers.get(1 - leader).isActive());
+        Assert.assertTrue(takeoverMs < SESSION_TIMEOUT_MS);
+    }
+
+    private void killSession(ZooKeeper zooKeeper) throws Exception {
+        CountDownLatch connected = new CountDownLatch(1);
+        ZooKeeper killer = new ZooKeeper(cluster.getConnectString(), SESSION_TIMEOUT_MS, event -> {
+            if (event.getState() == Watcher.Event.KeeperState.SyncConnected) {
+                connected.countDown();
+            }
+        }, zooKeeper.getSessionId(), zooKeeper.getSessionPasswd());
+        Assert.assertTrue(connected.await(10, TimeUnit.SECONDS));
+        killer.close();
+    }
+}
@@ -0,0 +1,123 @@
+package com.wmx.zookeeperstudy;
+
+import com.wmx.zookeeperstudy.zk.batch.BatchCommitException;
+import com.wmx.zookeeperstudy.zk.batch.BatchResult;
+import com.wmx.zookeeperstudy.zk.batch.NodeBatch;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+import java.util.List;
+
+/**
+ * 批量操作测试，以及逐个创建与批量创建的吞吐量对比
+ *
+ * @author wangMaoXiong
+ * @version 1.0
+ * @date 2020/8/16 16:40
+ */
+public class NodeBatchTest {
+
+    @Rule
+    public final ZookeeperServerRule zk = new ZookeeperServerRule();
+
+    private CuratorFramework client;
+
+    @Before
+    public void init() throws Exception {
+        client = zk.getClient();
+        client.create().forPath("/summary");
+    }
+
+    @Test
+    public void commitTest() throws Exception {
+        client.create().forPath("/summary/ip1", "192.168.116.1".getBytes(Charset.forName("UTF-8")));
+        List<BatchResult> results = new NodeBatch(client)
+                .create("/summary/port1", "8080".getBytes(Charset.forName("UTF-8")), CreateMode.PERSISTENT_SEQUENTIAL)
+                .setData("/summary/ip1", "192.168.116.2".getBytes(Charset.forName("UTF-8")), 0)
+                .check("/summary", 0)
+                .commit();
+        Assert.assertEquals(3, results.size());
+        for (BatchResult result : results) {
+            Assert.assertTrue(result.isCommitted());
+        }
+        Assert.assertTrue(results.get(0).getResultPath().startsWith("/summary/port1"));
+        Assert.assertEquals(1, results.get(1).getStat().getVersion());
+    }
+
+    @Test
+    public void failureTest() throws Exception {
+        List<BatchResult> results = new NodeBatch(client, NodeBatch.DEFAULT_MAX_BATCH_BYTES, 2)
+                .create("/summary/a", null, CreateMode.PERSISTENT)
+                .setData("/summary/a", null, 5)
+                .create("/summary/b", null, CreateMode.PERSISTENT)
+                .commit();
+        Assert.assertEquals(BatchResult.Status.ROLLED_BACK, results.get(0).getStatus());
+        Assert.assertEquals(BatchResult.Status.FAILED, results.get(1).getStatus());
+        Assert.assertEquals(KeeperException.Code.BADVERSION, results.get(1).getCode());
+        Assert.assertEquals(BatchResult.Status.SKIPPED, results.get(2).getStatus());
+        Assert.assertNull(client.checkExists().forPath("/summary/a"));
+        Assert.assertNull(client.checkExists().forPath("/summary/b"));
+    }
+
+    /**
+     * 第二个事务超过服务器的 jute.maxbuffer，服务器断开连接：异常中带有第一个事务已经提交的结果，累积的操作被清空
+     */
+    @Test
+    public void interruptedTest() throws Exception {
+        NodeBatch batch = new NodeBatch(client, NodeBatch.DEFAULT_MAX_BATCH_BYTES, 1)
+                .create("/summary/a", null, CreateMode.PERSISTENT)
+                .create("/summary/b", new byte[2 * 1024 * 1024], CreateMode.PERSISTENT)
+                .create("/summary/c", null, CreateMode.PERSISTENT);
+        try {
+            batch.commit();
+            Assert.fail("连接被服务器断开");
+        } catch (BatchCommitException e) {
+            List<BatchResult> results = e.getResults();
+            Assert.assertEquals(3, results.size());
+            Assert.assertEquals(BatchResult.Status.COMMITTED, results.get(0).getStatus());
+            Assert.assertEquals(BatchResult.Status.UNKNOWN, results.get(1).getStatus());
+            Assert.assertEquals(BatchResult.Status.SKIPPED, results.get(2).getStatus());
+        }
+        Assert.assertEquals(0, batch.size());
+        client.blockUntilConnected();
+        Assert.assertNotNull(client.checkExists().forPath("/summary/a"));
+        Assert.assertNull(client.checkExists().forPath("/summary/c"));
+    }
+
+    /**
+     * 逐个创建 N 个节点 与 批量创建 N 个节点的吞吐量对比，批量创建时按字节数自动拆分事务
+     */
+    @Test
+    public void bulkLoadBenchmark() throws Exception {
+        int count = 10000;
+        byte[] data = "192.168.116.128:8080".getBytes(Charset.forName("UTF-8"));
+
+        client.create().forPath("/one");
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            client.create().forPath("/one/service" + i, data);
+        }
+        double single = count / ((System.nanoTime() - start) / 1e9);
+
+        client.create().forPath("/batch");
+        NodeBatch batch = new NodeBatch(client, 64 * 1024, NodeBatch.DEFAULT_MAX_BATCH_OPS);
+        for (int i = 0; i < count; i++) {
+            batch.create("/batch/service" + i, data, CreateMode.PERSISTENT);
+        }
+        start = System.nanoTime();
+        List<BatchResult> results = batch.commit();
+        double batched = count / ((System.nanoTime() - start) / 1e9);
+
+        for (BatchResult result : results) {
+            Assert.assertTrue(result.isCommitted());
+        }
+        Assert.assertEquals(count, client.getChildren().forPath("/batch").size());
+        System.out.printf("逐个创建：%.1f nodes/sec，批量创建：%.1f nodes/sec%n", single, batched);
+    }
+}
@@ -0,0 +1,167 @@
+package com.wmx.zookeeperstudy;
+
+import com.wmx.zookeeperstudy.zk.codec.BinaryCodec;
+import com.wmx.zookeeperstudy.zk.codec.BinaryInput;
+import com.wmx.zookeeperstudy.zk.codec.BinaryOutput;
+import com.wmx.zookeeperstudy.zk.codec.CompressedCodec;
+import com.wmx.zookeeperstudy.zk.codec.NodeCodec;
+import org.apache.curator.framework.CuratorFramework;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * 节点数据编解码器测试，以及 JSON 与二进制格式的体积、速度对比
+ *
+ * @author wangMaoXiong
+ * @version 1.0
+ * @date 2020/9/8 22:10
+ */
+public class NodeCodecTest {
+
+    public static class ServerInfo {
+        private String host;
+        private int port;
+        private long weight;
+        private boolean enabled;
+
+        public ServerInfo() {
+        }
+
+        public ServerInfo(String host, int port, long weight, boolean enabled) {
+            this.host = host;
+            this.port = port;
+            this.weight = weight;
+            this.enabled = enabled;
+        }
+
+        public String getHost() {
+            return host;
+        }
+
+        public void setHost(String host) {
+            this.host = host;
+        }
+
+        public int getPort() {
+            return port;
+        }
+
+        public void setPort(int port) {
+            this.port = port;
+        }
+
+        public long getWeight() {
+            return weight;
+        }
+
+        public void setWeight(long weight) {
+            this.weight = weight;
+        }
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof ServerInfo)) {
+                return false;
+            }
+            ServerInfo other = (ServerInfo) o;
+            return host.equals(other.host) && port == other.port && weight == other.weight && enabled == other.enabled;
+        }
+
+        @Override
+        public int hashCode() {
+            return host.hashCode() * 31 + port;
+        }
+    }
+
+    private static final NodeCodec<ServerInfo> BINARY = new BinaryCodec<ServerInfo>() {
+        @Override
+        protected void write(ServerInfo value, BinaryOutput out) {
+            out.writeString(value.getHost()).writeInt(value.getPort()).writeLong(value.getWeight()).writeBoolean(value.isEnabled());
+        }
+
+        @Override
+        protected ServerInfo read(BinaryInput in) throws IOException {
+            return new ServerInfo(in.readString(), in.readInt(), in.readLong(), in.readBoolean());
+        }
+    };
+
+    @Rule
+    public final ZookeeperServerRule zk = new ZookeeperServerRule();
+
+    private CuratorFramework client;
+
+    @Before
+    public void init() throws Exception {
+        client = zk.getClient();
+    }
+
+    @Test
+    public void roundTripTest() throws Exception {
+        ServerInfo info = new ServerInfo("天龙八部-192.168.116.1-😀", 8080, -3, true);
+        Assert.assertEquals("天龙八部", NodeCodec.utf8().decode(NodeCodec.utf8().encode("天龙八部")));
+        Assert.assertEquals(info, NodeCodec.json(ServerInfo.class).decode(NodeCodec.json(ServerInfo.class).encode(info)));
+        Assert.assertEquals(info, BINARY.decode(BINARY.encode(info)));
+        Assert.assertNull(BINARY.encode(null));
+        Assert.assertNull(NodeCodec.json(ServerInfo.class).decode(null));
+
+        //通过 ZooKeeper 往返
+        client.create().forPath("/server", BINARY.encode(info));
+        Assert.assertEquals(info, BINARY.decode(client.getData().forPath("/server")));
+    }
+
+    @Test
+    public void compressedTest() throws Exception {
+        NodeCodec<String> codec = NodeCodec.compressed(NodeCodec.utf8());
+        char[] chars = new char[100000];
+        Arrays.fill(chars, 'a');
+        String large = new String(chars);
+        byte[] encoded = codec.encode(large);
+        Assert.assertTrue(encoded.length < 1000);
+        Assert.assertEquals(large, codec.decode(encoded));
+
+        //低于阈值时不压缩，只多 1 个字节的标志
+        Assert.assertEquals(6, codec.encode("192.1").length);
+        Assert.assertEquals("192.1", codec.decode(codec.encode("192.1")));
+
+        //压缩包装二进制格式，两者都使用线程内的缓冲区
+        NodeCodec<ServerInfo> compressedBinary = new CompressedCodec<>(BINARY, 0);
+        ServerInfo info = new ServerInfo(large, 8080, 1, false);
+        Assert.assertEquals(info, compressedBinary.decode(compressedBinary.encode(info)));
+    }
+
+    /**
+     * 对比 JSON 与二进制格式的编码体积和编解码速度
+     */
+    @Test
+    public void jsonVsBinaryBenchmark() throws Exception {
+        int count = 200000;
+        ServerInfo info = new ServerInfo("192.168.116.128", 2181, 100, true);
+        NodeCodec<ServerInfo> json = NodeCodec.json(ServerInfo.class);
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            json.decode(json.encode(info));
+        }
+        double jsonOps = count / ((System.nanoTime() - start) / 1e9);
+        start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            BINARY.decode(BINARY.encode(info));
+        }
+        double binaryOps = count / ((System.nanoTime() - start) / 1e9);
+        System.out.printf("JSON：%d 字节，%.1f ops/sec；二进制：%d 字节，%.1f ops/sec%n",
+                json.encode(info).length, jsonOps, BINARY.encode(info).length, binaryOps);
+        Assert.assertTrue(BINARY.encode(info).length < json.encode(info).length);
+    }
+}
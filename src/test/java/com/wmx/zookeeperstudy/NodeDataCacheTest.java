@@ -0,0 +1,101 @@
+package com.wmx.zookeeperstudy;
+
+import com.wmx.zookeeperstudy.zk.NodeData;
+import com.wmx.zookeeperstudy.zk.cache.NodeDataCache;
+import org.apache.curator.framework.CuratorFramework;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+
+/**
+ * 节点数据本地缓存测试
+ *
+ * @author wangMaoXiong
+ * @version 1.0
+ * @date 2020/8/15 11:30
+ */
+public class NodeDataCacheTest {
+
+    @Rule
+    public final ZookeeperServerRule zk = new ZookeeperServerRule();
+
+    private CuratorFramework client;
+    private NodeDataCache cache;
+
+    @Before
+    public void init() throws Exception {
+        client = zk.getClient();
+        cache = new NodeDataCache(client, "/", 2);
+    }
+
+    /**
+     * 启动缓存并等待永久递归监听注册成功：监听在后台注册，注册成功时会清空缓存，
+     * 所以测试用的节点在启动前创建（避免它们的 NodeCreated 事件晚于第一次读取到达），并在读取前等待注册完成
+     */
+    private void startAndAwaitWatching() throws Exception {
+        cache.start();
+        client.create().forPath("/ready");
+        long deadline = System.currentTimeMillis() + 5000;
+        do {
+            cache.get("/ready");
+            client.setData().forPath("/ready", new byte[0]);
+            Thread.sleep(10);
+        } while (cache.peek("/ready") != null && System.currentTimeMillis() < deadline);
+        Assert.assertNull("监听没有注册成功", cache.peek("/ready"));
+        client.delete().forPath("/ready");
+    }
+
+    @After
+    public void destroy() throws Exception {
+        cache.close();
+    }
+
+    @Test
+    public void hitAndInvalidateTest() throws Exception {
+        client.create().forPath("/info1", "v1".getBytes(Charset.forName("UTF-8")));
+        startAndAwaitWatching();
+
+        long misses = cache.getMissCount();
+        long hits = cache.getHitCount();
+        NodeData node = cache.get("/info1");
+        Assert.assertEquals("v1", new String(node.getData(), Charset.forName("UTF-8")));
+        Assert.assertSame(node, cache.get("/info1"));
+        Assert.assertEquals(misses + 1, cache.getMissCount());
+        Assert.assertEquals(hits + 1, cache.getHitCount());
+
+        //修改节点后，监听事件会删除缓存，下次读取时重新加载
+        client.setData().forPath("/info1", "v2".getBytes(Charset.forName("UTF-8")));
+        long deadline = System.currentTimeMillis() + 5000;
+        while (cache.get("/info1").getStat().getVersion() != 1 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals("v2", new String(cache.get("/info1").getData(), Charset.forName("UTF-8")));
+    }
+
+    @Test
+    public void lruEvictionTest() throws Exception {
+        for (int i = 1; i <= 3; i++) {
+            client.create().forPath("/ip" + i, ("192.168.116." + i).getBytes(Charset.forName("UTF-8")));
+        }
+        startAndAwaitWatching();
+
+        long evictions = cache.getEvictionCount();
+        cache.get("/ip1");
+        cache.get("/ip2");
+        //访问 ip1，ip2 成为最久未使用的节点
+        cache.get("/ip1");
+        cache.get("/ip3");
+        Assert.assertEquals(2, cache.size());
+        Assert.assertEquals(evictions + 1, cache.getEvictionCount());
+
+        long misses = cache.getMissCount();
+        cache.get("/ip1");
+        Assert.assertEquals(misses, cache.getMissCount());
+        cache.get("/ip2");
+        Assert.assertEquals(misses + 1, cache.getMissCount());
+    }
+}
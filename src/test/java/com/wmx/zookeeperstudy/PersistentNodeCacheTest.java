@@ -0,0 +1,169 @@
+package com.wmx.zookeeperstudy;
+
+import com.wmx.zookeeperstudy.zk.NodeData;
+import com.wmx.zookeeperstudy.zk.batch.NodeBatch;
+import com.wmx.zookeeperstudy.zk.cache.MappedNodeStore;
+import com.wmx.zookeeperstudy.zk.cache.PersistentNodeCache;
+import com.wmx.zookeeperstudy.zk.watch.WatchManager;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.data.Stat;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * 持久化子树缓存测试：首次冷启动全量加载，停机期间服务器发生变化，重启后立即从映射文件读取，后台核对只读取变化的节点
+ *
+ * @author wangMaoXiong
+ * @version 1.0
+ * @date 2020/9/16 22:40
+ */
+public class PersistentNodeCacheTest {
+
+    private static final int WIDTH = 30;
+
+    @Rule
+    public final ZookeeperServerRule zk = new ZookeeperServerRule();
+
+    private CuratorFramework client;
+    private WatchManager watchManager;
+    private Path dir;
+
+    @Before
+    public void init() throws Exception {
+        client = zk.getClient();
+        watchManager = new WatchManager(client);
+        dir = Files.createTempDirectory("zk-node-cache");
+
+        NodeBatch batch = new NodeBatch(client);
+        batch.create("/config", "root".getBytes(StandardCharsets.UTF_8), CreateMode.PERSISTENT);
+        for (int i = 0; i < WIDTH; i++) {
+            batch.create("/config/app" + i, ("app" + i).getBytes(StandardCharsets.UTF_8), CreateMode.PERSISTENT);
+            for (int j = 0; j < WIDTH; j++) {
+                batch.create("/config/app" + i + "/key" + j, ("v" + j).getBytes(StandardCharsets.UTF_8), CreateMode.PERSISTENT);
+            }
+        }
+        batch.commit();
+    }
+
+    @After
+    public void destroy() throws Exception {
+        watchManager.close();
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    private String value(PersistentNodeCache cache, String path) {
+        NodeData node = cache.get(path);
+        return node == null ? null : new String(node.getData(), StandardCharsets.UTF_8);
+    }
+
+    private Map<String, String> serverTree(String path, Map<String, String> tree) throws Exception {
+        tree.put(path, new String(client.getData().forPath(path), StandardCharsets.UTF_8));
+        for (String child : client.getChildren().forPath(path)) {
+            serverTree(path + "/" + child, tree);
+        }
+        return tree;
+    }
+
+    private void assertSameAsServer(PersistentNodeCache cache) throws Exception {
+        Map<String, String> tree = serverTree("/config", new HashMap<>());
+        Assert.assertEquals(tree.size(), cache.size());
+        for (Map.Entry<String, String> entry : tree.entrySet()) {
+            Assert.assertEquals(entry.getKey(), entry.getValue(), value(cache, entry.getKey()));
+        }
+    }
+
+    @Test
+    public void testWarmRestart() throws Exception {
+        Path file = dir.resolve("cache.dat");
+        int total = 1 + WIDTH + WIDTH * WIDTH;
+
+        long start = System.currentTimeMillis();
+        PersistentNodeCache cold = new PersistentNodeCache(client, watchManager, "/config", file, 100);
+        //start() 之前读取不会抛出 NPE
+        Assert.assertNull(cold.get("/config"));
+        Assert.assertTrue(cold.getChildren("/config").isEmpty());
+        cold.start();
+        Assert.assertTrue(cold.awaitReconciled(30000));
+        int coldRequests = cold.getLastRequestCount();
+        System.out.printf("冷启动加载 %d 个节点：%d 个请求，耗时 %d 毫秒%n", total, coldRequests, System.currentTimeMillis() - start);
+        assertSameAsServer(cold);
+
+        //运行期间的变化通过监听写回映射文件
+        client.setData().forPath("/config/app0/key0", "live".getBytes(StandardCharsets.UTF_8));
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!"live".equals(value(cold, "/config/app0/key0")) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals("live", value(cold, "/config/app0/key0"));
+        cold.close();
+
+        //停机期间服务器发生变化
+        client.setData().forPath("/config/app1/key1", "changed".getBytes(StandardCharsets.UTF_8));
+        client.create().forPath("/config/app2/key2/sub", "new".getBytes(StandardCharsets.UTF_8));
+        client.delete().deletingChildrenIfNeeded().forPath("/config/app3");
+
+        start = System.currentTimeMillis();
+        PersistentNodeCache warm = new PersistentNodeCache(client, watchManager, "/config", file, 100);
+        warm.start();
+        //打开映射文件后立即可读，不等待服务器
+        long openMs = System.currentTimeMillis() - start;
+        Assert.assertEquals("live", value(warm, "/config/app0/key0"));
+        Assert.assertEquals("v5", value(warm, "/config/app9/key5"));
+        Assert.assertTrue(warm.awaitReconciled(30000));
+        int warmRequests = warm.getLastRequestCount();
+        System.out.printf("热启动：打开映射文件 %d 毫秒，核对 %d 个请求（冷启动 %d 个），总耗时 %d 毫秒%n",
+                openMs, warmRequests, coldRequests, System.currentTimeMillis() - start);
+        assertSameAsServer(warm);
+        Assert.assertEquals("changed", value(warm, "/config/app1/key1"));
+        Assert.assertNull(warm.get("/config/app3"));
+        Assert.assertTrue(warm.getChildren("/config/app2/key2").contains("sub"));
+        //热启动只用 exists 核对，只有变化的节点才读取数据、列出子节点，请求数接近节点个数而不是 getData + getChildren
+        Assert.assertTrue(warmRequests < coldRequests);
+        warm.close();
+    }
+
+    /**
+     * 映射文件：覆盖写入产生的作废记录超过存活记录时自动整理，重新打开后内容不变
+     */
+    @Test
+    public void testStoreCompactionAndReopen() throws Exception {
+        Path file = dir.resolve("store.dat");
+        byte[] value = new byte[100 * 1024];
+        Stat stat = new Stat();
+        try (MappedNodeStore store = new MappedNodeStore(file)) {
+            for (int round = 0; round < 20; round++) {
+                for (int i = 0; i < 20; i++) {
+                    value[0] = (byte) round;
+                    stat.setMzxid(round);
+                    store.put(new NodeData("/big/" + i, value, stat));
+                }
+            }
+            store.remove("/big/0");
+            Assert.assertEquals(19, store.size());
+            //20 轮覆盖写入约 40MB，期间多次整理，文件远小于写入总量
+            Assert.assertTrue(store.getFileBytes() < 20 * 20 * value.length / 2);
+        }
+        try (MappedNodeStore store = new MappedNodeStore(file)) {
+            Assert.assertEquals(19, store.size());
+            Assert.assertNull(store.get("/big/0"));
+            NodeData node = store.get("/big/7");
+            Assert.assertEquals(19, node.getData()[0]);
+            Assert.assertEquals(value.length, node.getData().length);
+            Assert.assertEquals(19, node.getStat().getMzxid());
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package com.wmx.zookeeperstudy;
+
+import com.wmx.zookeeperstudy.zk.batch.NodeBatch;
+import com.wmx.zookeeperstudy.zk.batch.RecursiveDeleteException;
+import com.wmx.zookeeperstudy.zk.batch.RecursiveDeleter;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.retry.RetryOneTime;
+import org.apache.zookeeper.CreateMode;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 并行级联删除测试，以及与 deletingChildrenIfNeeded 的吞吐量对比
+ *
+ * @author wangMaoXiong
+ * @version 1.0
+ * @date 2020/8/27 21:05
+ */
+public class RecursiveDeleterTest {
+
+    @Rule
+    public final ZookeeperServerRule zk = new ZookeeperServerRule();
+
+    private CuratorFramework client;
+
+    @Before
+    public void init() throws Exception {
+        client = zk.getClient();
+    }
+
+    /**
+     * 创建 /summary 下 width 个子节点，每个子节点下再创建 width 个子节点
+     *
+     * @return ：创建的节点总数，包含 /summary
+     */
+    private long createTree(int width) throws Exception {
+        NodeBatch batch = new NodeBatch(client);
+        batch.create("/summary", null, CreateMode.PERSISTENT);
+        for (int i = 0; i < width; i++) {
+            batch.create("/summary/service" + i, null, CreateMode.PERSISTENT);
+            for (int j = 0; j < width; j++) {
+                batch.create("/summary/service" + i + "/ip" + j, null, CreateMode.PERSISTENT);
+            }
+        }
+        batch.commit();
+        return 1 + width + (long) width * width;
+    }
+
+    @Test
+    public void deleteTest() throws Exception {
+        long total = createTree(20);
+        AtomicLong progress = new AtomicLong();
+        RecursiveDeleter.Result result = new RecursiveDeleter(client, 4, 100)
+                .delete("/summary", (deleted, discovered) -> {
+                    Assert.assertEquals(total, discovered);
+                    progress.set(deleted);
+                });
+        Assert.assertEquals(total, result.getDeleted());
+        Assert.assertEquals(total, progress.get());
+        Assert.assertNull(client.checkExists().forPath("/summary"));
+
+        //节点不存在时直接返回
+        Assert.assertEquals(0, new RecursiveDeleter(client, 4, 100).delete("/summary", null).getDeleted());
+    }
+
+    /**
+     * 删除期间不停地在子树下新建节点，最终整棵子树仍然被删除
+     */
+    @Test
+    public void concurrentCreateTest() throws Exception {
+        createTree(20);
+        AtomicBoolean running = new AtomicBoolean(true);
+        Thread writer = new Thread(() -> {
+            int i = 0;
+            while (running.get()) {
+                try {
+                    client.create().forPath("/summary/service" + (i % 20) + "/new" + i++);
+                } catch (Exception e) {
+                    //父节点已经被删除
+                }
+            }
+        });
+        writer.start();
+        try {
+            new RecursiveDeleter(client, 4, 50).delete("/summary", null);
+        } finally {
+            running.set(false);
+            writer.join();
+        }
+        Assert.assertNull(client.checkExists().forPath("/summary"));
+    }
+
+    /**
+     * 删除中途服务器停止，抛出的异常中带有已经删除的节点数；服务器恢复后再次删除即可删除剩下的节点
+     */
+    @Test
+    public void connectionLossTest() throws Exception {
+        long total = createTree(20);
+        CuratorFramework shortTimeout = CuratorFrameworkFactory.builder()
+                .connectString(zk.getConnectString())
+                .retryPolicy(new RetryOneTime(100))
+                .connectionTimeoutMs(1000)
+                .namespace("basic-service")
+                .build();
+        shortTimeout.start();
+        try {
+            Assert.assertTrue(shortTimeout.blockUntilConnected(10, TimeUnit.SECONDS));
+            RecursiveDeleter.Result partial = null;
+            try {
+                new RecursiveDeleter(shortTimeout, 1, 20).delete("/summary", (deleted, discovered) -> {
+                    try {
+                        zk.getServer().stop();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+                Assert.fail("服务器已停止，删除应当中途失败");
+            } catch (RecursiveDeleteException e) {
+                partial = e.getResult();
+            }
+            //第一个事务在停止服务器之前已经提交
+            Assert.assertTrue(partial.toString(), partial.getDeleted() >= 20 && partial.getDeleted() < total);
+
+            zk.getServer().restart();
+            Assert.assertTrue(client.blockUntilConnected(10, TimeUnit.SECONDS));
+            RecursiveDeleter.Result rest = new RecursiveDeleter(client, 4, 100).delete("/summary", null);
+            Assert.assertTrue(rest.toString(), partial.getDeleted() + rest.getDeleted() <= total);
+            Assert.assertNull(client.checkExists().forPath("/summary"));
+        } finally {
+            shortTimeout.close();
+        }
+    }
+
+    /**
+     * 同样删除一棵 1 + 50 + 50*50 个节点的子树，对比 deletingChildrenIfNeeded 与并行删除的 nodes/sec
+     */
+    @Test
+    public void deletingChildrenVsParallelBenchmark() throws Exception {
+        long total = createTree(50);
+        long start = System.nanoTime();
+        client.delete().guaranteed().deletingChildrenIfNeeded().forPath("/summary");
+        double serial = total / ((System.nanoTime() - start) / 1e9);
+
+        createTree(50);
+        start = System.nanoTime();
+        new RecursiveDeleter(client, 8, 200).delete("/summary", null);
+        double parallel = total / ((System.nanoTime() - start) / 1e9);
+
+        System.out.printf("deletingChildrenIfNeeded：%.1f nodes/sec，并行删除：%.1f nodes/sec%n", serial, parallel);
+        Assert.assertNull(client.checkExists().forPath("/summary"));
+        Assert.assertTrue(parallel > serial);
+    }
+}
@@ -0,0 +1,177 @@
+package com.wmx.zookeeperstudy;
+
+import com.wmx.zookeeperstudy.zk.registry.InstancePicker;
+import com.wmx.zookeeperstudy.zk.registry.ServiceDiscovery;
+import com.wmx.zookeeperstudy.zk.registry.ServiceInstance;
+import com.wmx.zookeeperstudy.zk.registry.ServiceRegistry;
+import com.wmx.zookeeperstudy.zk.watch.NodeEvent;
+import com.wmx.zookeeperstudy.zk.watch.NodeListener;
+import com.wmx.zookeeperstudy.zk.watch.WatchManager;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.zookeeper.Watcher;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.Closeable;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.wmx.zookeeperstudy.ZookeeperServerRule.await;
+
+/**
+ * 服务注册与发现测试
+ *
+ * @author wangMaoXiong
+ * @version 1.0
+ * @date 2020/9/3 22:20
+ */
+public class ServiceDiscoveryTest {
+
+    @Rule
+    public final ZookeeperServerRule zk = new ZookeeperServerRule(2);
+
+    private CuratorFramework provider;
+    private CuratorFramework consumer;
+    private ServiceRegistry registry;
+    private WatchManager watchManager;
+    private ServiceDiscovery discovery;
+
+    @Before
+    public void init() throws Exception {
+        provider = zk.getClient(0);
+        consumer = zk.getClient(1);
+        registry = new ServiceRegistry(provider, "/services");
+        watchManager = new WatchManager(consumer);
+        discovery = new ServiceDiscovery(consumer, watchManager, "/services");
+    }
+
+    @After
+    public void destroy() throws Exception {
+        discovery.close();
+        watchManager.close();
+        registry.close();
+    }
+
+    @Test
+    public void registerAndDiscoverTest() throws Exception {
+        ServiceInstance instance1 = new ServiceInstance("order-service", "192.168.116.1", 8080).withMetadata("zone", "a");
+        registry.register(instance1);
+        discovery.start();
+        Assert.assertEquals(1, discovery.getInstances("order-service").size());
+        Assert.assertEquals("a", discovery.getInstances("order-service").get(0).getMetadata().get("zone"));
+
+        //增量更新：新增、修改、注销
+        ServiceInstance instance2 = new ServiceInstance("order-service", "192.168.116.2", 8080).withPayload(new byte[]{1, 2, 3});
+        registry.register(instance2);
+        await(() -> discovery.getInstances("order-service").size() == 2);
+
+        ServiceInstance updated = instance1.withMetadata("zone", "b");
+        Assert.assertEquals("a", instance1.getMetadata().get("zone"));
+        registry.update(updated);
+        await(() -> discovery.getInstances("order-service").stream()
+                .anyMatch(i -> i.getId().equals(instance1.getId()) && "b".equals(i.getMetadata().get("zone"))));
+
+        registry.unregister(instance1);
+        await(() -> discovery.getInstances("order-service").size() == 1);
+        ServiceInstance left = discovery.getInstances("order-service").get(0);
+        Assert.assertEquals(instance2.getId(), left.getId());
+        Assert.assertArrayEquals(new byte[]{1, 2, 3}, left.getPayload());
+    }
+
+    /**
+     * 提供方会话关闭后临时节点被删除，消费方自动移除
+     */
+    @Test
+    public void sessionCloseTest() throws Exception {
+        discovery.start();
+        registry.register(new ServiceInstance("order-service", "192.168.116.1", 8080));
+        await(() -> discovery.getInstances("order-service").size() == 1);
+        provider.close();
+        await(() -> discovery.getInstances("order-service").isEmpty());
+    }
+
+    @Test
+    public void pickerTest() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            registry.register(new ServiceInstance("order-service", "192.168.116." + i, 8080));
+        }
+        discovery.start();
+        List<ServiceInstance> instances = discovery.getInstances("order-service");
+
+        InstancePicker roundRobin = InstancePicker.roundRobin();
+        for (int i = 0; i < 6; i++) {
+            Assert.assertSame(instances.get(i % 3), discovery.pick("order-service", roundRobin));
+        }
+        Set<String> picked = new HashSet<>();
+        InstancePicker leastRecentlyUsed = InstancePicker.leastRecentlyUsed();
+        for (int i = 0; i < 3; i++) {
+            picked.add(discovery.pick("order-service", leastRecentlyUsed).getId());
+        }
+        Assert.assertEquals(3, picked.size());
+        Assert.assertNotNull(discovery.pick("order-service", InstancePicker.random()));
+        Assert.assertNull(discovery.pick("user-service", InstancePicker.random()));
+    }
+
+    /**
+     * 增量读取的结果还没有回来时收到 RESET：全量加载在 ZooKeeper 事件线程上等待读取结果，
+     * 同一个线程上增量读取的回调要应用结果，两者不能互相阻塞
+     */
+    @Test
+    public void resetWhileFetchPendingTest() throws Exception {
+        //记录注册的监听器，由测试线程直接投递事件
+        AtomicReference<NodeListener> listener = new AtomicReference<>();
+        WatchManager capturing = new WatchManager(consumer) {
+            @Override
+            public synchronized Closeable subscribe(String path, NodeListener nodeListener) {
+                listener.set(nodeListener);
+                return super.subscribe(path, nodeListener);
+            }
+        };
+        ServiceDiscovery discovery = new ServiceDiscovery(consumer, capturing, "/services");
+        ServiceInstance instance = new ServiceInstance("order-service", "192.168.116.1", 8080);
+        registry.register(instance);
+        discovery.start();
+        Assert.assertEquals(1, discovery.getInstances("order-service").size());
+
+        //1、阻塞消费方的事件线程，之后的读取结果都排在它后面
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        consumer.checkExists().usingWatcher((Watcher) event -> {
+            blocked.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }).forPath("/block");
+        provider.create().forPath("/block");
+        Assert.assertTrue(blocked.await(10, TimeUnit.SECONDS));
+
+        //2、实例修改后发起增量读取，结果还在事件线程的队列里
+        registry.update(instance.withMetadata("zone", "b"));
+        String path = "/services/order-service/" + instance.getId();
+        listener.get().onEvent(new NodeEvent(NodeEvent.Type.DATA_CHANGED, path));
+        //3、另一个线程收到 RESET 开始全量加载，等待事件线程上的读取结果
+        Thread reset = new Thread(() -> listener.get().onEvent(new NodeEvent(NodeEvent.Type.RESET, "/services")));
+        reset.start();
+        Thread.sleep(200);
+        //4、放开事件线程：先应用增量读取的结果，再完成全量加载
+        release.countDown();
+        reset.join(10000);
+        Assert.assertFalse("全量加载与增量更新互相阻塞", reset.isAlive());
+        await(() -> "b".equals(discovery.getInstances("order-service").get(0).getMetadata().get("zone")));
+
+        //之后的事件仍然能正常应用
+        registry.register(new ServiceInstance("order-service", "192.168.116.2", 8080));
+        await(() -> discovery.getInstances("order-service").size() == 2);
+        discovery.close();
+        capturing.close();
+    }
+}
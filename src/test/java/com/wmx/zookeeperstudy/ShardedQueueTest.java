@@ -0,0 +1,142 @@
+package com.wmx.zookeeperstudy;
+
+import com.wmx.zookeeperstudy.zk.NodeData;
+import com.wmx.zookeeperstudy.zk.queue.ShardedQueue;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 分片队列测试：多个消费者（独立的客户端）批量认领，每个元素恰好被取出一次；输出入队、出队吞吐量
+ *
+ * @author wangMaoXiong
+ * @version 1.0
+ * @date 2020/9/21 21:00
+ */
+public class ShardedQueueTest {
+
+    private static final int CONSUMERS = 4;
+
+    /**
+     * 一个生产者客户端，CONSUMERS 个消费者客户端
+     */
+    @Rule
+    public final ZookeeperServerRule zk = new ZookeeperServerRule(CONSUMERS + 1);
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testFifoWithinShard() throws Exception {
+        ShardedQueue queue = new ShardedQueue(zk.getClient(0), "/queues/fifo", 1);
+        queue.start();
+        queue.offer(bytes("a"));
+        List<byte[]> items = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            items.add(bytes("b" + i));
+        }
+        Assert.assertEquals(5, queue.offerAll(items).size());
+        Assert.assertEquals(6, queue.size());
+
+        List<NodeData> first = queue.poll(3);
+        Assert.assertEquals(3, first.size());
+        Assert.assertEquals("a", new String(first.get(0).getData(), StandardCharsets.UTF_8));
+        Assert.assertEquals("b1", new String(first.get(2).getData(), StandardCharsets.UTF_8));
+        //剩下的从缓存的列表中取，不再 getChildren
+        List<NodeData> second = queue.poll(10);
+        Assert.assertEquals(3, second.size());
+        Assert.assertEquals("b4", new String(second.get(2).getData(), StandardCharsets.UTF_8));
+        Assert.assertEquals(1, queue.getListCount());
+        Assert.assertTrue(queue.poll(10).isEmpty());
+        Assert.assertEquals(0, queue.size());
+
+        //其它消费者取走了缓存中的元素：跳过它，认领其余的
+        ShardedQueue other = new ShardedQueue(zk.getClient(1), "/queues/fifo", 1);
+        for (int i = 0; i < 4; i++) {
+            queue.offer(bytes("c" + i));
+        }
+        Assert.assertEquals("c0", new String(queue.poll(1).get(0).getData(), StandardCharsets.UTF_8));
+        Assert.assertEquals("c1", new String(other.poll(1).get(0).getData(), StandardCharsets.UTF_8));
+        List<NodeData> rest = queue.poll(10);
+        Assert.assertEquals(2, rest.size());
+        Assert.assertEquals("c2", new String(rest.get(0).getData(), StandardCharsets.UTF_8));
+        Assert.assertTrue(queue.getConflictCount() >= 1);
+    }
+
+    @Test
+    public void testConcurrentConsumers() throws Exception {
+        int shards = 8;
+        int total = 20000;
+        int batchSize = 100;
+        ShardedQueue producer = new ShardedQueue(zk.getClient(0), "/queues/work", shards);
+        producer.start();
+
+        long start = System.nanoTime();
+        for (int from = 0; from < total; from += 1000) {
+            List<byte[]> items = new ArrayList<>(1000);
+            for (int i = from; i < from + 1000; i++) {
+                items.add(bytes(String.valueOf(i)));
+            }
+            Assert.assertEquals(1000, producer.offerAll(items).size());
+        }
+        double enqueueSeconds = (System.nanoTime() - start) / 1e9;
+        Assert.assertEquals(total, producer.size());
+
+        //4 个消费者进程，每个 2 个线程，各自批量认领直到队列为空
+        Set<String> seen = ConcurrentHashMap.newKeySet();
+        AtomicInteger duplicates = new AtomicInteger();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<ShardedQueue> consumers = new ArrayList<>();
+        CountDownLatch done = new CountDownLatch(CONSUMERS * 2);
+        start = System.nanoTime();
+        for (int c = 1; c <= CONSUMERS; c++) {
+            ShardedQueue consumer = new ShardedQueue(zk.getClient(c), "/queues/work", shards);
+            consumers.add(consumer);
+            for (int t = 0; t < 2; t++) {
+                new Thread(() -> {
+                    try {
+                        List<NodeData> items;
+                        while (!(items = consumer.poll(batchSize)).isEmpty()) {
+                            for (NodeData item : items) {
+                                if (!seen.add(new String(item.getData(), StandardCharsets.UTF_8))) {
+                                    duplicates.incrementAndGet();
+                                }
+                            }
+                        }
+                    } catch (Throwable e) {
+                        failure.set(e);
+                    } finally {
+                        done.countDown();
+                    }
+                }).start();
+            }
+        }
+        done.await();
+        double dequeueSeconds = (System.nanoTime() - start) / 1e9;
+        Assert.assertNull(failure.get());
+        Assert.assertEquals(0, duplicates.get());
+        Assert.assertEquals(total, seen.size());
+        Assert.assertEquals(0, producer.size());
+
+        long lists = 0;
+        long conflicts = 0;
+        for (ShardedQueue consumer : consumers) {
+            lists += consumer.getListCount();
+            conflicts += consumer.getConflictCount();
+        }
+        System.out.printf("分片队列：入队 %d 个 %.0f 个/秒，出队 %.0f 个/秒，getChildren %d 次，认领冲突 %d 次%n",
+                total, total / enqueueSeconds, total / dequeueSeconds, lists, conflicts);
+        //缓存子节点列表后，getChildren 次数远少于元素个数
+        Assert.assertTrue(lists < total / 20);
+    }
+}
@@ -0,0 +1,170 @@
+package com.wmx.zookeeperstudy;
+
+import com.wmx.zookeeperstudy.zk.batch.NodeBatch;
+import com.wmx.zookeeperstudy.zk.sync.TreeChange;
+import com.wmx.zookeeperstudy.zk.sync.TreeMirror;
+import com.wmx.zookeeperstudy.zk.watch.WatchManager;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.zookeeper.CreateMode;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 子树镜像测试：全量加载、基于监听的增量同步、基于 Stat 的全量核对，变更流可以还原出与服务器一致的子树
+ *
+ * @author wangMaoXiong
+ * @version 1.0
+ * @date 2020/9/14 22:10
+ */
+public class TreeMirrorTest {
+
+    private static final int WIDTH = 40;
+
+    @Rule
+    public final ZookeeperServerRule zk = new ZookeeperServerRule();
+
+    private CuratorFramework client;
+    private WatchManager watchManager;
+    private TreeMirror mirror;
+    /**
+     * 只通过应用变更流维护的副本：路径 -> 数据
+     */
+    private final Map<String, String> replica = new HashMap<>();
+
+    @Before
+    public void init() throws Exception {
+        client = zk.getClient();
+        watchManager = new WatchManager(client);
+
+        NodeBatch batch = new NodeBatch(client);
+        batch.create("/config", "root".getBytes(StandardCharsets.UTF_8), CreateMode.PERSISTENT);
+        for (int i = 0; i < WIDTH; i++) {
+            batch.create("/config/app" + i, ("app" + i).getBytes(StandardCharsets.UTF_8), CreateMode.PERSISTENT);
+            for (int j = 0; j < WIDTH; j++) {
+                batch.create("/config/app" + i + "/key" + j, ("v" + j).getBytes(StandardCharsets.UTF_8), CreateMode.PERSISTENT);
+            }
+        }
+        batch.commit();
+    }
+
+    @After
+    public void destroy() throws Exception {
+        if (mirror != null) {
+            mirror.close();
+        }
+        watchManager.close();
+    }
+
+    private void apply(List<TreeChange> changes) {
+        for (TreeChange change : changes) {
+            if (change.getType() == TreeChange.Type.REMOVED) {
+                Assert.assertNotNull("删除了不存在的节点：" + change.getPath(), replica.remove(change.getPath()));
+            } else {
+                if (change.getType() == TreeChange.Type.ADDED) {
+                    Assert.assertFalse("重复新增：" + change.getPath(), replica.containsKey(change.getPath()));
+                    String parent = change.getPath().substring(0, change.getPath().lastIndexOf('/'));
+                    Assert.assertTrue("父节点还没有新增：" + change.getPath(), parent.length() <= "/config".length() || replica.containsKey(parent));
+                }
+                replica.put(change.getPath(), new String(change.getNode().getData(), StandardCharsets.UTF_8));
+            }
+        }
+    }
+
+    /**
+     * 读取服务器上的整棵子树
+     */
+    private Map<String, String> serverTree(String path, Map<String, String> tree) throws Exception {
+        tree.put(path, new String(client.getData().forPath(path), StandardCharsets.UTF_8));
+        for (String child : client.getChildren().forPath(path)) {
+            serverTree(path + "/" + child, tree);
+        }
+        return tree;
+    }
+
+    private void modify() throws Exception {
+        client.setData().forPath("/config/app1/key1", "changed".getBytes(StandardCharsets.UTF_8));
+        client.create().forPath("/config/app2/key1/sub", "new".getBytes(StandardCharsets.UTF_8));
+        client.create().forPath("/config/app" + WIDTH, "added".getBytes(StandardCharsets.UTF_8));
+        client.delete().deletingChildrenIfNeeded().forPath("/config/app3");
+    }
+
+    @Test
+    public void testIncrementalSync() throws Exception {
+        mirror = new TreeMirror(client, watchManager, "/config", 200);
+        mirror.start();
+        //监听注册成功后会收到一次 RESET，等它到达后再全量加载，避免下一次同步又做一遍全量核对
+        Thread.sleep(500);
+        List<TreeChange> initial = mirror.sync();
+        int total = 1 + WIDTH + WIDTH * WIDTH;
+        Assert.assertEquals(total, initial.size());
+        Assert.assertEquals(total, mirror.size());
+        apply(initial);
+        System.out.printf("全量加载 %d 个节点：%d 个请求%n", total, mirror.getLastRequestCount());
+
+        modify();
+        //等待变更事件全部到达：1 次修改 + 2 次新增 + app3 及其 40 个子节点的删除
+        long deadline = System.currentTimeMillis() + 10000;
+        while (mirror.getDirtyCount() < 4 + WIDTH && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        List<TreeChange> changes = mirror.sync();
+        apply(changes);
+        System.out.printf("增量同步：%d 个变更，%d 个请求%n", changes.size(), mirror.getLastRequestCount());
+        Assert.assertEquals(serverTree("/config", new HashMap<>()), replica);
+        Assert.assertEquals(replica.size(), mirror.size());
+        //请求数只与变化的节点数有关，与子树大小无关
+        Assert.assertTrue(mirror.getLastRequestCount() < 4 + WIDTH + 10);
+        Assert.assertEquals("changed", new String(mirror.get("/config/app1/key1").getData(), StandardCharsets.UTF_8));
+        Assert.assertTrue(mirror.getChildren("/config/app2/key1").contains("sub"));
+        Assert.assertFalse(mirror.getChildren("/config").contains("app3"));
+
+        //没有变化时不发送请求
+        Assert.assertTrue(mirror.sync().isEmpty());
+        Assert.assertEquals(0, mirror.getLastRequestCount());
+    }
+
+    /**
+     * 没有监听时按 Stat 全量核对：每个节点一次 exists，只有变化的节点才会读取数据、列出子节点
+     */
+    @Test
+    public void testStatReconciliation() throws Exception {
+        mirror = new TreeMirror(client, null, "/config", 200);
+        apply(mirror.sync());
+        int total = mirror.size();
+
+        List<TreeChange> unchanged = mirror.sync();
+        Assert.assertTrue(unchanged.isEmpty());
+        Assert.assertEquals(total, mirror.getLastRequestCount());
+
+        modify();
+        List<TreeChange> changes = mirror.sync();
+        apply(changes);
+        System.out.printf("全量核对：%d 个变更，%d 个请求%n", changes.size(), mirror.getLastRequestCount());
+        Assert.assertEquals(serverTree("/config", new HashMap<>()), replica);
+        int updated = 0;
+        for (TreeChange change : changes) {
+            if (change.getType() == TreeChange.Type.UPDATED) {
+                updated++;
+            }
+        }
+        Assert.assertEquals(1, updated);
+
+        //删除后重新创建的节点：先整棵删除，再重新新增
+        client.delete().forPath("/config/app" + WIDTH);
+        client.create().forPath("/config/app" + WIDTH, "recreated".getBytes(StandardCharsets.UTF_8));
+        changes = mirror.sync();
+        apply(changes);
+        Assert.assertEquals(2, changes.size());
+        Assert.assertEquals(TreeChange.Type.REMOVED, changes.get(0).getType());
+        Assert.assertEquals(TreeChange.Type.ADDED, changes.get(1).getType());
+        Assert.assertEquals(serverTree("/config", new HashMap<>()), replica);
+    }
+}
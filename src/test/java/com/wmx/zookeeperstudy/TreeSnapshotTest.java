@@ -0,0 +1,84 @@
+package com.wmx.zookeeperstudy;
+
+import com.wmx.zookeeperstudy.zk.batch.NodeBatch;
+import com.wmx.zookeeperstudy.zk.snapshot.TreeExporter;
+import com.wmx.zookeeperstudy.zk.snapshot.TreeImporter;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.ZooDefs;
+import org.apache.zookeeper.data.ACL;
+import org.apache.zookeeper.data.Id;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 子树导出、导入测试
+ *
+ * @author wangMaoXiong
+ * @version 1.0
+ * @date 2020/8/25 22:10
+ */
+public class TreeSnapshotTest {
+
+    @Rule
+    public final ZookeeperServerRule zk = new ZookeeperServerRule();
+
+    private CuratorFramework client;
+    private Path file;
+
+    @Before
+    public void init() throws Exception {
+        //不使用命名空间，导出、导入的路径都是完整路径
+        client = zk.getClient().usingNamespace(null);
+        file = Files.createTempFile("zk-snapshot", ".bin");
+    }
+
+    @After
+    public void destroy() throws Exception {
+        Files.deleteIfExists(file);
+    }
+
+    @Test
+    public void exportImportTest() throws Exception {
+        int services = 100;
+        int ports = 50;
+        NodeBatch batch = new NodeBatch(client);
+        batch.create("/basic-service", "root".getBytes(Charset.forName("UTF-8")), CreateMode.PERSISTENT);
+        for (int i = 0; i < services; i++) {
+            batch.create("/basic-service/service" + i, null, CreateMode.PERSISTENT);
+            for (int j = 0; j < ports; j++) {
+                batch.create("/basic-service/service" + i + "/port" + j, ("80" + j).getBytes(Charset.forName("UTF-8")), CreateMode.PERSISTENT);
+            }
+        }
+        List<ACL> readOnly = Collections.singletonList(new ACL(ZooDefs.Perms.READ, new Id("world", "anyone")));
+        batch.create("/basic-service/readonly", new byte[0], CreateMode.PERSISTENT, readOnly);
+        batch.commit();
+        client.create().withMode(CreateMode.EPHEMERAL).forPath("/basic-service/ephemeral");
+
+        long exported = new TreeExporter(client, 500, 4).export("/basic-service", file);
+        Assert.assertEquals(1 + services + services * ports + 2, exported);
+
+        long imported = new TreeImporter(client, 1000).importTree(file, "/basic-service-copy");
+        //临时节点不导入
+        Assert.assertEquals(exported - 1, imported);
+        Assert.assertEquals("root", new String(client.getData().forPath("/basic-service-copy"), Charset.forName("UTF-8")));
+        Assert.assertEquals(ports, client.getChildren().forPath("/basic-service-copy/service7").size());
+        Assert.assertEquals("8049", new String(client.getData().forPath("/basic-service-copy/service99/port49"), Charset.forName("UTF-8")));
+        Assert.assertEquals(readOnly, client.getACL().forPath("/basic-service-copy/readonly"));
+        Assert.assertNull(client.checkExists().forPath("/basic-service-copy/ephemeral"));
+
+        //再次导入到已有数据的子树上，已存在的节点改为修改数据
+        client.setData().forPath("/basic-service-copy/service1/port1", "changed".getBytes(Charset.forName("UTF-8")));
+        new TreeImporter(client, 1000).importTree(file, "/basic-service-copy");
+        Assert.assertEquals("801", new String(client.getData().forPath("/basic-service-copy/service1/port1"), Charset.forName("UTF-8")));
+    }
+}
@@ -0,0 +1,179 @@
+package com.wmx.zookeeperstudy;
+
+import com.wmx.zookeeperstudy.zk.watch.NodeEvent;
+import com.wmx.zookeeperstudy.zk.watch.NodeListener;
+import com.wmx.zookeeperstudy.zk.watch.WatchManager;
+import org.apache.curator.framework.CuratorFramework;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.Closeable;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 永久监听管理器测试
+ *
+ * @author wangMaoXiong
+ * @version 1.0
+ * @date 2020/8/23 17:05
+ */
+public class WatchManagerTest {
+
+    @Rule
+    public final ZookeeperServerRule zk = new ZookeeperServerRule();
+
+    private CuratorFramework client;
+    private WatchManager watchManager;
+
+    @Before
+    public void init() throws Exception {
+        client = zk.getClient();
+        watchManager = new WatchManager(client);
+    }
+
+    @After
+    public void destroy() throws Exception {
+        watchManager.close();
+    }
+
+    /**
+     * 注册一次，子树下多次变化都能收到，不需要重新注册
+     */
+    @Test
+    public void persistentTest() throws Exception {
+        BlockingQueue<NodeEvent> events = new LinkedBlockingQueue<>();
+        Closeable subscription = watchManager.subscribe("/summary", event -> {
+            if (event.getType() != NodeEvent.Type.RESET) {
+                events.add(event);
+            }
+        });
+        Thread.sleep(500);
+
+        client.create().creatingParentsIfNeeded().forPath("/summary/service/port1");
+        client.setData().forPath("/summary/service/port1", "8080".getBytes());
+        client.setData().forPath("/summary/service/port1", "8081".getBytes());
+        client.delete().forPath("/summary/service/port1");
+        client.create().forPath("/other");
+
+        Assert.assertEquals(NodeEvent.Type.CREATED, events.poll(5, TimeUnit.SECONDS).getType());
+        NodeEvent event = events.poll(5, TimeUnit.SECONDS);
+        while (event.getType() == NodeEvent.Type.CREATED) {
+            event = events.poll(5, TimeUnit.SECONDS);
+        }
+        Assert.assertEquals(NodeEvent.Type.DATA_CHANGED, event.getType());
+        Assert.assertEquals("/summary/service/port1", event.getPath());
+        Assert.assertEquals(NodeEvent.Type.DATA_CHANGED, events.poll(5, TimeUnit.SECONDS).getType());
+        Assert.assertEquals(NodeEvent.Type.DELETED, events.poll(5, TimeUnit.SECONDS).getType());
+        //订阅子树以外的节点不会通知
+        Assert.assertNull(events.poll(500, TimeUnit.MILLISECONDS));
+
+        subscription.close();
+        Assert.assertEquals(0, watchManager.getWatchCount());
+    }
+
+    /**
+     * 子路径的订阅复用祖先路径上的监听，同一个监听器重复订阅只回调一次
+     */
+    @Test
+    public void dedupeTest() throws Exception {
+        BlockingQueue<NodeEvent> events = new LinkedBlockingQueue<>();
+        NodeListener listener = event -> {
+            if (event.getType() != NodeEvent.Type.RESET) {
+                events.add(event);
+            }
+        };
+        watchManager.subscribe("/summary", listener);
+        watchManager.subscribe("/summary", listener);
+        watchManager.subscribe("/summary/service", event -> {
+        });
+        Assert.assertEquals(1, watchManager.getWatchCount());
+        Thread.sleep(500);
+
+        client.create().creatingParentsIfNeeded().forPath("/summary");
+        Assert.assertEquals("/summary", events.poll(5, TimeUnit.SECONDS).getPath());
+        Assert.assertNull(events.poll(500, TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * 先订阅子路径、后订阅祖先路径：合并为一个监听；两个相同的订阅关闭一个后监听仍然有效
+     */
+    @Test
+    public void mergeTest() throws Exception {
+        BlockingQueue<NodeEvent> childEvents = new LinkedBlockingQueue<>();
+        BlockingQueue<NodeEvent> parentEvents = new LinkedBlockingQueue<>();
+        NodeListener childListener = event -> {
+            if (event.getType() != NodeEvent.Type.RESET) {
+                childEvents.add(event);
+            }
+        };
+        Closeable first = watchManager.subscribe("/summary/service", childListener);
+        Closeable second = watchManager.subscribe("/summary/service", childListener);
+        Closeable parent = watchManager.subscribe("/summary", event -> {
+            if (event.getType() != NodeEvent.Type.RESET) {
+                parentEvents.add(event);
+            }
+        });
+        Assert.assertEquals(1, watchManager.getWatchCount());
+        Thread.sleep(500);
+
+        //关闭两次也只取消一个订阅
+        first.close();
+        first.close();
+        client.create().creatingParentsIfNeeded().forPath("/summary/service/port1");
+        Assert.assertEquals("/summary/service", childEvents.poll(5, TimeUnit.SECONDS).getPath());
+        Assert.assertEquals("/summary/service/port1", childEvents.poll(5, TimeUnit.SECONDS).getPath());
+        Assert.assertEquals("/summary", parentEvents.poll(5, TimeUnit.SECONDS).getPath());
+
+        second.close();
+        Assert.assertEquals(1, watchManager.getWatchCount());
+        client.setData().forPath("/summary/service/port1", "8080".getBytes());
+        Assert.assertNotNull(parentEvents.poll(5, TimeUnit.SECONDS));
+        Assert.assertNull(childEvents.poll(500, TimeUnit.MILLISECONDS));
+        parent.close();
+        Assert.assertEquals(0, watchManager.getWatchCount());
+    }
+
+    /**
+     * 队列满丢弃事件后，不需要等下一个事件，也会补发 RESET
+     */
+    @Test
+    public void overflowResetTest() throws Exception {
+        WatchManager small = new WatchManager(client, 1, 1);
+        CountDownLatch blocked = new CountDownLatch(1);
+        BlockingQueue<NodeEvent> resets = new LinkedBlockingQueue<>();
+        small.subscribe("/summary", event -> {
+            if (event.getType() == NodeEvent.Type.RESET) {
+                resets.add(event);
+            } else {
+                try {
+                    blocked.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        Thread.sleep(500);
+        resets.clear();
+
+        client.create().forPath("/summary");
+        for (int i = 0; i < 5; i++) {
+            client.setData().forPath("/summary", String.valueOf(i).getBytes());
+        }
+        long deadline = System.currentTimeMillis() + 5000;
+        while (small.getDroppedEvents() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertTrue(small.getDroppedEvents() > 0);
+        blocked.countDown();
+        NodeEvent reset = resets.poll(5, TimeUnit.SECONDS);
+        Assert.assertNotNull(reset);
+        Assert.assertEquals("/summary", reset.getPath());
+        small.close();
+    }
+}
@@ -0,0 +1,121 @@
+package com.wmx.zookeeperstudy;
+
+import com.wmx.zookeeperstudy.zk.async.WriteCoalescer;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.data.Stat;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * 合并写测试：高频覆盖写只发送少量 setData，最终值为最后一次写入；CAS 写入的版本校验与逐个写入一致
+ *
+ * @author wangMaoXiong
+ * @version 1.0
+ * @date 2020/9/19 21:30
+ */
+public class WriteCoalescerTest {
+
+    @Rule
+    public final ZookeeperServerRule zk = new ZookeeperServerRule();
+
+    private CuratorFramework client;
+    private WriteCoalescer coalescer;
+
+    @Before
+    public void init() throws Exception {
+        client = zk.getClient();
+        coalescer = new WriteCoalescer(client, 50);
+    }
+
+    @After
+    public void destroy() throws Exception {
+        coalescer.close();
+    }
+
+    private String read(String path) throws Exception {
+        return new String(client.getData().forPath(path), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testCoalescing() throws Exception {
+        client.create().forPath("/heartbeat", "0".getBytes(StandardCharsets.UTF_8));
+        int writes = 2000;
+        List<CompletableFuture<Stat>> futures = new ArrayList<>(writes);
+        long start = System.currentTimeMillis();
+        for (int i = 1; i <= writes; i++) {
+            futures.add(coalescer.setData("/heartbeat", String.valueOf(i).getBytes(StandardCharsets.UTF_8)));
+            if (i % 100 == 0) {
+                //模拟每秒几百次的写入频率
+                Thread.sleep(10);
+            }
+        }
+        Stat last = null;
+        for (CompletableFuture<Stat> future : futures) {
+            Stat stat = future.get();
+            //每个 future 都在自己或者之后的值写入后完成，版本号单调不减
+            Assert.assertTrue(last == null || stat.getVersion() >= last.getVersion());
+            last = stat;
+        }
+        Assert.assertEquals(String.valueOf(writes), read("/heartbeat"));
+        Stat stat = client.checkExists().forPath("/heartbeat");
+        System.out.printf("合并写：%d 次写入，实际 setData %d 次，耗时 %d 毫秒%n",
+                writes, coalescer.getCommittedCount(), System.currentTimeMillis() - start);
+        Assert.assertEquals(coalescer.getCommittedCount(), stat.getVersion());
+        Assert.assertTrue(coalescer.getCommittedCount() < writes / 10);
+    }
+
+    @Test
+    public void testCompareAndSet() throws Exception {
+        client.create().forPath("/status", "init".getBytes(StandardCharsets.UTF_8));
+        //两个 CAS 写入期望同一个版本：与逐个写入一样，第一个成功，第二个版本不匹配
+        CompletableFuture<Stat> first = coalescer.setData("/status", "a".getBytes(StandardCharsets.UTF_8), 0);
+        CompletableFuture<Stat> second = coalescer.setData("/status", "b".getBytes(StandardCharsets.UTF_8), 0);
+        Assert.assertEquals(1, first.get().getVersion());
+        try {
+            second.get();
+            Assert.fail("版本不匹配");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof KeeperException.BadVersionException);
+        }
+        Assert.assertEquals("a", read("/status"));
+
+        //之后不校验版本的写入不与还没发送的 CAS 写入合并：CAS 照常校验版本失败，覆盖写成功
+        CompletableFuture<Stat> cas = coalescer.setData("/status", "c".getBytes(StandardCharsets.UTF_8), 100);
+        CompletableFuture<Stat> overwrite = coalescer.setData("/status", "d".getBytes(StandardCharsets.UTF_8));
+        CompletableFuture<Stat> merged = coalescer.setData("/status", "e".getBytes(StandardCharsets.UTF_8));
+        Assert.assertEquals(2, overwrite.get().getVersion());
+        Assert.assertEquals(2, merged.get().getVersion());
+        try {
+            cas.get();
+            Assert.fail("版本不匹配");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof KeeperException.BadVersionException);
+        }
+        Assert.assertEquals("e", read("/status"));
+
+        //关闭时等待窗口期内的写入完成
+        CompletableFuture<Stat> last = coalescer.setData("/status", "f".getBytes(StandardCharsets.UTF_8));
+        coalescer.close();
+        Assert.assertTrue(last.isDone());
+        Assert.assertEquals("f", read("/status"));
+        coalescer = new WriteCoalescer(client, 50);
+
+        //节点不存在
+        try {
+            coalescer.setData("/missing", new byte[0]).get();
+            Assert.fail("节点不存在");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof KeeperException.NoNodeException);
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.wmx.zookeeperstudy;
+
+import com.wmx.zookeeperstudy.config.ZookeeperAutoConfiguration;
+import com.wmx.zookeeperstudy.config.ZookeeperProperties;
+import com.wmx.zookeeperstudy.zk.CuratorClientRegistry;
+import com.wmx.zookeeperstudy.zk.CuratorUtils;
+import com.wmx.zookeeperstudy.zk.async.WriteCoalescer;
+import com.wmx.zookeeperstudy.zk.lock.DistributedLockService;
+import com.wmx.zookeeperstudy.zk.registry.ServiceDiscovery;
+import com.wmx.zookeeperstudy.zk.registry.ServiceRegistry;
+import org.apache.curator.RetryPolicy;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.retry.RetryForever;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.springframework.boot.autoconfigure.AutoConfigurations;
+import org.springframework.boot.test.context.runner.ApplicationContextRunner;
+
+/**
+ * 自动配置测试：配置项生效、启动时阻塞等待连接、等待超时后默认照样启动、容器关闭时关闭客户端
+ *
+ * @author wangMaoXiong
+ * @version 1.0
+ * @date 2020/8/13 21:15
+ */
+public class ZookeeperAutoConfigurationTest {
+
+    @Rule
+    public final ZookeeperServerRule zk = new ZookeeperServerRule(0);
+
+    @After
+    public void destroy() {
+        CuratorUtils.setClient(null);
+        CuratorClientRegistry.getInstance().closeAll();
+    }
+
+    @Test
+    public void curatorFrameworkTest() {
+        new ApplicationContextRunner()
+                .withConfiguration(AutoConfigurations.of(ZookeeperAutoConfiguration.class))
+                .withPropertyValues("zookeeper.connect-string=" + zk.getConnectString(),
+                        "zookeeper.namespace=test-service",
+                        "zookeeper.retry.type=FOREVER",
+                        "zookeeper.startup-timeout-ms=15000",
+                        "zookeeper.fail-fast=true")
+                .run(context -> {
+                    CuratorFramework client = context.getBean(CuratorFramework.class);
+                    //启动完成时已经连接成功
+                    Assert.assertTrue(client.getZookeeperClient().isConnected());
+                    Assert.assertEquals("test-service", client.getNamespace());
+                    Assert.assertTrue(context.getBean(RetryPolicy.class) instanceof RetryForever);
+                    Assert.assertSame(client, CuratorUtils.getClient());
+                });
+    }
+
+    /**
+     * 默认启动时阻塞等待连接；服务器不可用时等待超时，fail-fast 默认关闭，只打印警告、容器照样启动
+     */
+    @Test
+    public void defaultsTest() throws Exception {
+        Assert.assertTrue(new ZookeeperProperties().getStartupTimeoutMs() > 0);
+        Assert.assertFalse(new ZookeeperProperties().isFailFast());
+        String connectString = zk.getConnectString();
+        zk.getServer().stop();
+        long start = System.currentTimeMillis();
+        new ApplicationContextRunner()
+                .withConfiguration(AutoConfigurations.of(ZookeeperAutoConfiguration.class))
+                .withPropertyValues("zookeeper.connect-string=" + connectString,
+                        "zookeeper.startup-timeout-ms=1000")
+                .run(context -> {
+                    Assert.assertNull(context.getStartupFailure());
+                    Assert.assertEquals(1, context.getBeansOfType(CuratorFramework.class).size());
+                    Assert.assertFalse(context.getBean(CuratorFramework.class).getZookeeperClient().isConnected());
+                    Assert.assertTrue(context.getBeansOfType(ServiceDiscovery.class).isEmpty());
+                    Assert.assertTrue(context.getBeansOfType(ServiceRegistry.class).isEmpty());
+                    Assert.assertTrue(context.getBeansOfType(DistributedLockService.class).isEmpty());
+                    Assert.assertTrue(context.getBeansOfType(WriteCoalescer.class).isEmpty());
+                });
+        Assert.assertTrue(System.currentTimeMillis() - start >= 1000);
+    }
+
+    @Test
+    public void failFastTest() throws Exception {
+        String connectString = zk.getConnectString();
+        zk.getServer().stop();
+        new ApplicationContextRunner()
+                .withConfiguration(AutoConfigurations.of(ZookeeperAutoConfiguration.class))
+                .withPropertyValues("zookeeper.connect-string=" + connectString,
+                        "zookeeper.startup-timeout-ms=2000",
+                        "zookeeper.fail-fast=true")
+                .run(context -> Assert.assertNotNull(context.getStartupFailure()));
+    }
+}
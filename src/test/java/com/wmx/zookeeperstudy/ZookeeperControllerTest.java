@@ -0,0 +1,164 @@
+package com.wmx.zookeeperstudy;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.wmx.zookeeperstudy.controller.ZookeeperController;
+import com.wmx.zookeeperstudy.zk.CuratorUtils;
+import com.wmx.zookeeperstudy.zk.async.SingleFlight;
+import com.wmx.zookeeperstudy.zk.batch.NodeBatch;
+import com.wmx.zookeeperstudy.zk.batch.RecursiveDeleter;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * REST 网关测试：直接调用控制器方法，验证增删改查、错误码映射、子节点与子树的流式输出，以及请求合并
+ *
+ * @author wangMaoXiong
+ * @version 1.0
+ * @date 2020/9/17 22:30
+ */
+public class ZookeeperControllerTest {
+
+    private static final int WIDTH = 20;
+
+    @Rule
+    public final ZookeeperServerRule zk = new ZookeeperServerRule();
+
+    private CuratorFramework client;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private ZookeeperController controller;
+
+    @Before
+    public void init() throws Exception {
+        client = zk.getClient();
+        CuratorUtils.setClient(client);
+        controller = new ZookeeperController(objectMapper, new RecursiveDeleter(client, 4, 200));
+    }
+
+    @After
+    public void destroy() throws Exception {
+        controller.close();
+        CuratorUtils.setClient(null);
+    }
+
+    private static String write(ResponseEntity<Object> response) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ((StreamingResponseBody) response.getBody()).writeTo(out);
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void crudTest() throws Exception {
+        ResponseEntity<Object> created = controller.createNode("/gateway/a", CreateMode.PERSISTENT, true,
+                "天龙八部".getBytes(StandardCharsets.UTF_8));
+        Assert.assertEquals(HttpStatus.CREATED, created.getStatusCode());
+
+        ResponseEntity<Object> node = controller.getNode("/gateway/a", false).get();
+        Assert.assertEquals(HttpStatus.OK, node.getStatusCode());
+        JsonNode json = objectMapper.valueToTree(node.getBody());
+        Assert.assertEquals("/gateway/a", json.get("path").asText());
+        Assert.assertEquals("天龙八部", json.get("data").asText());
+        Assert.assertEquals(0, json.get("stat").get("version").asInt());
+
+        Assert.assertEquals(1, controller.setNode("/gateway/a", 0, "v2".getBytes(StandardCharsets.UTF_8)).getVersion());
+        //版本不匹配：409
+        try {
+            controller.setNode("/gateway/a", 0, "v3".getBytes(StandardCharsets.UTF_8));
+            Assert.fail("版本不匹配");
+        } catch (KeeperException.BadVersionException e) {
+            Assert.assertEquals(HttpStatus.CONFLICT, controller.handleKeeperException(e).getStatusCode());
+        }
+        //有子节点时不能直接删除：409，级联删除：204
+        try {
+            controller.deleteNode("/gateway", -1, false);
+            Assert.fail("有子节点");
+        } catch (KeeperException.NotEmptyException e) {
+            Assert.assertEquals(HttpStatus.CONFLICT, controller.handleKeeperException(e).getStatusCode());
+        }
+        Assert.assertEquals(HttpStatus.NO_CONTENT, controller.deleteNode("/gateway", -1, true).getStatusCode());
+        //不存在：404
+        Assert.assertEquals(HttpStatus.NOT_FOUND, controller.getNode("/gateway/a", false).get().getStatusCode());
+        Assert.assertEquals(HttpStatus.NOT_FOUND, controller.getChildren("/gateway").get().getStatusCode());
+        Assert.assertEquals(HttpStatus.NOT_FOUND, controller.getTree("/gateway", false).get().getStatusCode());
+    }
+
+    @Test
+    public void streamTest() throws Exception {
+        NodeBatch batch = new NodeBatch(client);
+        batch.create("/tree", "root".getBytes(StandardCharsets.UTF_8), CreateMode.PERSISTENT);
+        for (int i = 0; i < WIDTH; i++) {
+            batch.create("/tree/n" + i, ("n" + i).getBytes(StandardCharsets.UTF_8), CreateMode.PERSISTENT);
+            for (int j = 0; j < WIDTH; j++) {
+                batch.create("/tree/n" + i + "/m" + j, ("m" + j).getBytes(StandardCharsets.UTF_8), CreateMode.PERSISTENT);
+            }
+        }
+        batch.commit();
+
+        List<String> children = objectMapper.readValue(write(controller.getChildren("/tree").get()),
+                objectMapper.getTypeFactory().constructCollectionType(List.class, String.class));
+        Assert.assertEquals(WIDTH, children.size());
+        List<String> sorted = new ArrayList<>(children);
+        sorted.sort(null);
+        Assert.assertEquals(sorted, children);
+
+        ResponseEntity<Object> tree = controller.getTree("/tree", true).get();
+        Assert.assertEquals(ZookeeperController.APPLICATION_NDJSON, tree.getHeaders().getContentType());
+        String[] lines = write(tree).split("\n");
+        Assert.assertEquals(1 + WIDTH + WIDTH * WIDTH, lines.length);
+        JsonNode root = objectMapper.readTree(lines[0]);
+        Assert.assertEquals("/tree", root.get("path").asText());
+        Assert.assertEquals("root", new String(root.get("data").binaryValue(), StandardCharsets.UTF_8));
+        //按层输出：第一层的子节点都在第二层之前
+        for (int i = 1; i <= WIDTH; i++) {
+            Assert.assertEquals(2, objectMapper.readTree(lines[i]).get("path").asText().split("/").length - 1);
+        }
+    }
+
+    /**
+     * 请求合并：在途期间相同 key 的调用共享同一个请求，完成后再次调用会重新发送
+     */
+    @Test
+    public void singleFlightTest() throws Exception {
+        SingleFlight<String, String> flight = new SingleFlight<>();
+        CompletableFuture<String> pending = new CompletableFuture<>();
+        List<CompletableFuture<String>> results = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            results.add(flight.execute("/hot", () -> pending));
+        }
+        Assert.assertEquals(1, flight.getExecutedCount());
+        Assert.assertEquals(99, flight.getSharedCount());
+        pending.complete("v1");
+        for (CompletableFuture<String> result : results) {
+            Assert.assertEquals("v1", result.get());
+        }
+        Assert.assertEquals("v2", flight.execute("/hot", () -> CompletableFuture.completedFuture("v2")).get());
+        Assert.assertEquals(2, flight.getExecutedCount());
+
+        //并发读取同一个热点节点：合并后的请求都拿到同一份数据
+        client.create().forPath("/hot", "x".getBytes(StandardCharsets.UTF_8));
+        List<CompletableFuture<ResponseEntity<Object>>> responses = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            responses.add(controller.getNode("/hot", false));
+        }
+        for (CompletableFuture<ResponseEntity<Object>> response : responses) {
+            Map<?, ?> body = (Map<?, ?>) response.get().getBody();
+            Assert.assertEquals("x", body.get("data"));
+        }
+    }
+}
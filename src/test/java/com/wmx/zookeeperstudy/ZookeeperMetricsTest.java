@@ -0,0 +1,102 @@
+package com.wmx.zookeeperstudy;
+
+import com.wmx.zookeeperstudy.zk.async.AsyncZkClient;
+import com.wmx.zookeeperstudy.zk.metrics.ZookeeperMetrics;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.Watcher;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.concurrent.ExecutionException;
+
+/**
+ * ZooKeeper 指标测试
+ *
+ * @author wangMaoXiong
+ * @version 1.0
+ * @date 2020/8/22 11:40
+ */
+public class ZookeeperMetricsTest {
+
+    @Rule
+    public final ZookeeperServerRule zk = new ZookeeperServerRule();
+
+    private CuratorFramework client;
+    private SimpleMeterRegistry registry;
+    private AsyncZkClient async;
+    private ZookeeperMetrics metrics;
+
+    @Before
+    public void init() throws Exception {
+        client = zk.getClient();
+        async = new AsyncZkClient(client);
+        registry = new SimpleMeterRegistry();
+        metrics = new ZookeeperMetrics(client, async, 1);
+        metrics.bindTo(registry);
+    }
+
+    @Test
+    public void operationTimerTest() throws Exception {
+        client.create().creatingParentsIfNeeded().forPath("/summary/service/port1");
+        client.getData().forPath("/summary/service/port1");
+        //同步调用失败：Curator 不提交 trace，由 recordSync 记录
+        try {
+            metrics.recordSync("getData", "/summary/none", () -> client.getData().forPath("/summary/none"));
+            Assert.fail();
+        } catch (KeeperException.NoNodeException e) {
+            //节点不存在
+        }
+        //recordSync 内的同步调用只记录一次
+        metrics.recordSync("getData", "/summary/service/port1", () -> client.getData().forPath("/summary/service/port1"));
+        try {
+            async.getData("/summary/none").toCompletableFuture().get();
+            Assert.fail();
+        } catch (ExecutionException e) {
+            //节点不存在
+        }
+
+        Timer getData = registry.find("zookeeper.operation")
+                .tags("operation", "getData", "mode", "sync", "path", "/summary", "outcome", "ok").timer();
+        Assert.assertNotNull(getData);
+        Assert.assertEquals(2, getData.count());
+
+        Timer syncNoNode = registry.find("zookeeper.operation")
+                .tags("operation", "getData", "mode", "sync", "outcome", "NoNode").timer();
+        Assert.assertNotNull(syncNoNode);
+        Assert.assertEquals(1, syncNoNode.count());
+
+        Timer noNode = registry.find("zookeeper.operation")
+                .tags("operation", "getData", "mode", "async", "outcome", "NoNode").timer();
+        Assert.assertNotNull(noNode);
+        Assert.assertEquals(1, noNode.count());
+        Assert.assertNotNull(registry.find("zookeeper.operation").tags("operation", "create").timer());
+    }
+
+    @Test
+    public void gaugeTest() throws Exception {
+        Assert.assertEquals(1.0, registry.get("zookeeper.connection.connected").gauge().value(), 0);
+        Assert.assertEquals(0.0, registry.get("zookeeper.requests.outstanding").gauge().value(), 0);
+
+        //Curator 的 EnsembleTracker 连接成功后在后台注册 /zookeeper/config 上的数据监听，等它注册完成后只断言增量
+        ZookeeperServerRule.await(() -> registry.get("zookeeper.watches").tag("type", "data").gauge().value() >= 1);
+        double dataWatches = registry.get("zookeeper.watches").tag("type", "data").gauge().value();
+        client.create().forPath("/info1");
+        client.getData().usingWatcher((Watcher) event -> {
+        }).forPath("/info1");
+        Assert.assertEquals(dataWatches + 1, registry.get("zookeeper.watches").tag("type", "data").gauge().value(), 0);
+
+        zk.getServer().restart();
+        client.blockUntilConnected();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (registry.get("zookeeper.connection.reconnects").functionCounter().count() < 1
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(1.0, registry.get("zookeeper.connection.reconnects").functionCounter().count(), 0);
+    }
+}
@@ -0,0 +1,180 @@
+package com.wmx.zookeeperstudy;
+
+import com.wmx.zookeeperstudy.config.ZookeeperAutoConfiguration;
+import com.wmx.zookeeperstudy.config.ZookeeperPropertySourceInitializer;
+import com.wmx.zookeeperstudy.zk.CuratorClientRegistry;
+import com.wmx.zookeeperstudy.zk.CuratorUtils;
+import com.wmx.zookeeperstudy.zk.batch.NodeBatch;
+import com.wmx.zookeeperstudy.zk.env.PropertiesChangedEvent;
+import com.wmx.zookeeperstudy.zk.env.PropertiesRefresher;
+import com.wmx.zookeeperstudy.zk.env.ZookeeperPropertySource;
+import com.wmx.zookeeperstudy.zk.watch.WatchManager;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.zookeeper.CreateMode;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.AutoConfigurations;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.test.context.runner.ApplicationContextRunner;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static com.wmx.zookeeperstudy.ZookeeperServerRule.await;
+
+/**
+ * ZooKeeper 配置源测试：启动时并行加载、连续修改只触发一次刷新、刷新后重新绑定 @ConfigurationProperties bean、
+ * 容器启动前加载的快照对 @Value 可见
+ *
+ * @author wangMaoXiong
+ * @version 1.0
+ * @date 2020/9/18 22:20
+ */
+public class ZookeeperPropertySourceTest {
+
+    private static final int KEYS = 50;
+
+    @Rule
+    public final ZookeeperServerRule zk = new ZookeeperServerRule();
+
+    private CuratorFramework client;
+    private WatchManager watchManager;
+    private ZookeeperPropertySource propertySource;
+    private AnnotationConfigApplicationContext context;
+
+    @ConfigurationProperties(prefix = "demo")
+    public static class DemoProperties {
+        private String title;
+        private int maxSize;
+
+        public String getTitle() {
+            return title;
+        }
+
+        public void setTitle(String title) {
+            this.title = title;
+        }
+
+        public int getMaxSize() {
+            return maxSize;
+        }
+
+        public void setMaxSize(int maxSize) {
+            this.maxSize = maxSize;
+        }
+    }
+
+    /**
+     * 用户配置先于自动配置创建，只能通过启动前加载的快照读到 ZooKeeper 中的值
+     */
+    public static class ValueBean {
+        @Value("${key7}")
+        private String key7;
+        @Value("${demo.title:none}")
+        private String title;
+    }
+
+    @Before
+    public void init() throws Exception {
+        client = zk.getClient();
+        watchManager = new WatchManager(client);
+
+        NodeBatch batch = new NodeBatch(client);
+        batch.create("/config", new byte[0], CreateMode.PERSISTENT);
+        for (int i = 0; i < KEYS; i++) {
+            batch.create("/config/key" + i, ("value" + i).getBytes(StandardCharsets.UTF_8), CreateMode.PERSISTENT);
+        }
+        batch.create("/config/demo.title", "hello".getBytes(StandardCharsets.UTF_8), CreateMode.PERSISTENT);
+        batch.create("/config/demo.max-size", "10".getBytes(StandardCharsets.UTF_8), CreateMode.PERSISTENT);
+        batch.commit();
+    }
+
+    @After
+    public void destroy() throws Exception {
+        if (context != null) {
+            context.close();
+        }
+        if (propertySource != null) {
+            propertySource.close();
+        }
+        watchManager.close();
+    }
+
+    @Test
+    public void testLoadAndDebouncedRefresh() throws Exception {
+        propertySource = new ZookeeperPropertySource(client, watchManager, "/config", 100);
+        propertySource.start();
+        Assert.assertEquals(KEYS + 2, propertySource.getPropertyNames().length);
+        Assert.assertEquals("value7", propertySource.getProperty("key7"));
+        //监听注册后的 RESET 会全量重新读取一次，内容没有变化时不算刷新
+        Thread.sleep(500);
+        Assert.assertEquals(0, propertySource.getRefreshCount());
+
+        context = new AnnotationConfigApplicationContext();
+        context.getEnvironment().getPropertySources().addFirst(propertySource);
+        context.registerBean(DemoProperties.class);
+        context.registerBean(PropertiesRefresher.class, () -> new PropertiesRefresher(propertySource, context, context.getEnvironment()));
+        List<PropertiesChangedEvent> events = new CopyOnWriteArrayList<>();
+        context.addApplicationListener((ApplicationListener<PropertiesChangedEvent>) events::add);
+        context.refresh();
+        DemoProperties demo = context.getBean(DemoProperties.class);
+        Assert.assertEquals("hello", demo.getTitle());
+        Assert.assertEquals(10, demo.getMaxSize());
+        Assert.assertEquals("value3", context.getEnvironment().getProperty("key3"));
+
+        //连续修改 50 次，只刷新一次，拿到最后的值
+        for (int i = 0; i < 50; i++) {
+            client.setData().forPath("/config/demo.title", ("title" + i).getBytes(StandardCharsets.UTF_8));
+        }
+        await(() -> "title49".equals(demo.getTitle()));
+        Thread.sleep(500);
+        Assert.assertEquals(1, propertySource.getRefreshCount());
+        Assert.assertEquals(1, events.size());
+        Assert.assertTrue(events.get(0).getKeys().contains("demo.title"));
+
+        //新增、删除配置项
+        client.create().forPath("/config/key" + KEYS, "added".getBytes(StandardCharsets.UTF_8));
+        client.delete().forPath("/config/key0");
+        client.setData().forPath("/config/demo.max-size", "20".getBytes(StandardCharsets.UTF_8));
+        await(() -> demo.getMaxSize() == 20 && propertySource.getProperty("key0") == null);
+        Assert.assertEquals("added", context.getEnvironment().getProperty("key" + KEYS));
+        Assert.assertEquals(KEYS + 2, propertySource.getPropertyNames().length);
+        //更深层的节点不是配置项
+        client.create().forPath("/config/key1/child", "x".getBytes(StandardCharsets.UTF_8));
+        Thread.sleep(500);
+        Assert.assertNull(propertySource.getProperty("child"));
+    }
+
+    @Test
+    public void testValueBeforeAutoConfiguration() {
+        try {
+            new ApplicationContextRunner()
+                    .withInitializer(new ZookeeperPropertySourceInitializer())
+                    .withConfiguration(AutoConfigurations.of(ZookeeperAutoConfiguration.class))
+                    .withUserConfiguration(ValueBean.class)
+                    .withPropertyValues("zookeeper.connect-string=" + zk.getConnectString(),
+                            "zookeeper.namespace=" + client.getNamespace(),
+                            "zookeeper.config.enabled=true",
+                            "zookeeper.config.root-path=/config")
+                    .run(context -> {
+                        Assert.assertNull(context.getStartupFailure());
+                        ValueBean bean = context.getBean(ValueBean.class);
+                        Assert.assertEquals("value7", bean.key7);
+                        Assert.assertEquals("hello", bean.title);
+                        //快照已经被实时更新的配置源替换
+                        Assert.assertSame(context.getBean(ZookeeperPropertySource.class),
+                                context.getEnvironment().getPropertySources().get(ZookeeperPropertySource.NAME));
+                    });
+        } finally {
+            CuratorUtils.setClient(null);
+            CuratorClientRegistry.getInstance().closeAll();
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.wmx.zookeeperstudy;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.retry.RetryOneTime;
+import org.apache.curator.test.TestingServer;
+import org.apache.curator.utils.CloseableUtils;
+import org.junit.Assert;
+import org.junit.rules.ExternalResource;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+/**
+ * 测试用的 ZooKeeper 服务器与客户端：每个测试方法前启动 TestingServer 和 clientCount 个已连接的客户端，测试方法后全部关闭
+ * 1、用法：@Rule public final ZookeeperServerRule zk = new ZookeeperServerRule();
+ * 2、客户端的命名空间为 basic-service，重试策略为 RetryOneTime(1000)；{@link #newClient()} 创建的客户端同样在测试结束后关闭
+ * 3、规则包在 @Before/@After 外面，测试类的 @After 中关闭监听、缓存等组件时客户端和服务器仍然可用
+ *
+ * @author wangMaoXiong
+ * @version 1.0
+ * @date 2020/8/12 20:40
+ */
+public class ZookeeperServerRule extends ExternalResource {
+
+    private static final long AWAIT_TIMEOUT_MS = 10000;
+
+    private final int clientCount;
+    private final List<CuratorFramework> clients = new ArrayList<>();
+    private TestingServer server;
+
+    public ZookeeperServerRule() {
+        this(1);
+    }
+
+    /**
+     * @param clientCount ：测试开始前创建的客户端个数，为 0 时只启动服务器
+     */
+    public ZookeeperServerRule(int clientCount) {
+        this.clientCount = clientCount;
+    }
+
+    @Override
+    protected void before() throws Throwable {
+        server = new TestingServer(true);
+        for (int i = 0; i < clientCount; i++) {
+            newClient();
+        }
+    }
+
+    @Override
+    protected void after() {
+        for (int i = clients.size() - 1; i >= 0; i--) {
+            CloseableUtils.closeQuietly(clients.get(i));
+        }
+        clients.clear();
+        CloseableUtils.closeQuietly(server);
+    }
+
+    public TestingServer getServer() {
+        return server;
+    }
+
+    public String getConnectString() {
+        return server.getConnectString();
+    }
+
+    /**
+     * 第一个客户端
+     */
+    public CuratorFramework getClient() {
+        return getClient(0);
+    }
+
+    public CuratorFramework getClient(int index) {
+        return clients.get(index);
+    }
+
+    /**
+     * 测试开始前创建的客户端，以及之后通过 {@link #newClient()} 创建的客户端
+     */
+    public List<CuratorFramework> getClients() {
+        return clients;
+    }
+
+    /**
+     * 按测试的默认配置构建客户端，不启动，也不在测试结束后关闭，由调用方管理
+     */
+    public CuratorFramework buildClient() {
+        return CuratorFrameworkFactory.builder()
+                .connectString(server.getConnectString())
+                .retryPolicy(new RetryOneTime(1000))
+                .namespace("basic-service")
+                .build();
+    }
+
+    /**
+     * 创建一个新的客户端（相当于另一个进程），启动并等待连接成功，测试结束后自动关闭
+     */
+    public CuratorFramework newClient() throws InterruptedException {
+        CuratorFramework client = buildClient();
+        clients.add(client);
+        client.start();
+        client.blockUntilConnected();
+        return client;
+    }
+
+    /**
+     * 轮询等待条件成立，超过 10 秒判定失败
+     */
+    public static void await(BooleanSupplier condition) throws InterruptedException {
+        await(condition, AWAIT_TIMEOUT_MS);
+    }
+
+    public static void await(BooleanSupplier condition, long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (!condition.getAsBoolean()) {
+            Assert.assertTrue("等待超时", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+}